@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Contributors:
+ *     Aion foundation.
+ ******************************************************************************/
+package org.aion.zero.db;
+
+import org.aion.base.db.IContractDetails;
+import org.aion.base.db.IRepository;
+import org.aion.base.type.Address;
+import org.aion.mcf.core.AccountState;
+import org.aion.mcf.vm.types.DataWord;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Repository cache that records every account read or written through it,
+ * including the accesses made by caches started from it. Used as the
+ * overlay of a speculatively executed transaction, whose read set is later
+ * checked against the writes of the transactions ordered before it.
+ *
+ * @implNote Meant to be used by a single thread at a time.
+ */
+public class AccessTrackingRepositoryCache extends AionRepositoryCache {
+
+    private final Set<Address> accessed = new HashSet<>();
+    private final Map<Address, BigInteger> initialBalances = new HashMap<>();
+    private boolean opaque = false;
+
+    public AccessTrackingRepositoryCache(final IRepository trackedRepository) {
+        super(trackedRepository);
+    }
+
+    @Override
+    public AccountState createAccount(Address address) {
+        accessed.add(address);
+        return super.createAccount(address);
+    }
+
+    @Override
+    public AccountState getAccountState(Address address) {
+        accessed.add(address);
+
+        boolean cached;
+        lockAccounts.readLock().lock();
+        try {
+            cached = cachedAccounts.containsKey(address);
+        } finally {
+            lockAccounts.readLock().unlock();
+        }
+
+        AccountState accountState = super.getAccountState(address);
+
+        // remember the balance as loaded from the tracked repository
+        if (!cached && accountState != null) {
+            initialBalances.putIfAbsent(address, accountState.getBalance());
+        }
+        return accountState;
+    }
+
+    @Override
+    public boolean hasAccountState(Address address) {
+        accessed.add(address);
+        return super.hasAccountState(address);
+    }
+
+    @Override
+    public IContractDetails<DataWord> getContractDetails(Address address) {
+        accessed.add(address);
+        return super.getContractDetails(address);
+    }
+
+    @Override
+    public boolean hasContractDetails(Address address) {
+        accessed.add(address);
+        return super.hasContractDetails(address);
+    }
+
+    /**
+     * @implNote The account is loaded into this cache first, so that the
+     *         state seen by nested caches always passes through this object.
+     */
+    @Override
+    public void loadAccountState(Address address, Map<Address, AccountState> accounts,
+            Map<Address, IContractDetails<DataWord>> details) {
+        getAccountState(address);
+        super.loadAccountState(address, accounts, details);
+    }
+
+    /**
+     * @implNote Reads through a snapshot cannot be tracked, so the cache is
+     *         marked as opaque.
+     */
+    @Override
+    public IRepository getSnapshotTo(byte[] root) {
+        opaque = true;
+        return super.getSnapshotTo(root);
+    }
+
+    /**
+     * @return the accounts read or written through this cache
+     */
+    public Set<Address> getAccessedAccounts() {
+        return new HashSet<>(accessed);
+    }
+
+    /**
+     * @return {@code true} if state was read in a way that is not tracked
+     */
+    public boolean isOpaque() {
+        return opaque;
+    }
+
+    /**
+     * @return the balance of the account when it was first loaded into this
+     *         cache, or {@code null} if it was not loaded from the tracked
+     *         repository
+     */
+    public BigInteger getInitialBalance(Address address) {
+        return initialBalances.get(address);
+    }
+
+    /**
+     * @return the account state held by this cache without loading it
+     */
+    public AccountState getCachedAccountState(Address address) {
+        fullyReadLock();
+        try {
+            return cachedAccounts.get(address);
+        } finally {
+            fullyReadUnlock();
+        }
+    }
+
+    /**
+     * Drops the cached state of the account so that it is not flushed.
+     */
+    public void discard(Address address) {
+        fullyWriteLock();
+        try {
+            cachedAccounts.remove(address);
+            cachedDetails.remove(address);
+        } finally {
+            fullyWriteUnlock();
+        }
+    }
+}
@@ -32,6 +32,7 @@ import org.aion.base.util.ByteArrayWrapper;
 import org.aion.mcf.db.AbstractContractDetails;
 import org.aion.mcf.ds.XorDataSource;
 import org.aion.mcf.trie.SecureTrie;
+import org.aion.mcf.trie.TrieNode;
 import org.aion.mcf.vm.types.DataWord;
 import org.aion.rlp.RLP;
 import org.aion.rlp.RLPElement;
@@ -39,6 +40,7 @@ import org.aion.rlp.RLPItem;
 import org.aion.rlp.RLPList;
 
 import java.util.*;
+import java.util.function.BiConsumer;
 
 import static org.aion.base.util.ByteArrayWrapper.wrap;
 import static org.aion.base.util.ByteUtil.EMPTY_BYTE_ARRAY;
@@ -47,10 +49,17 @@ import static org.aion.crypto.HashUtil.h256;
 
 public class AionContractDetailsImpl extends AbstractContractDetails<DataWord> {
 
+    /**
+     * number of items in the legacy encoding, which inlines the codes
+     */
+    private static final int LEGACY_RLP_SIZE = 5;
+
     private IByteArrayKeyValueStore dataSource;
 
     private byte[] rlpEncoded;
 
+    private boolean legacyEncoded;
+
     private Address address = Address.EMPTY_ADDRESS();
 
     private SecureTrie storageTrie = new SecureTrie(null);
@@ -58,6 +67,9 @@ public class AionContractDetailsImpl extends AbstractContractDetails<DataWord> {
     public boolean externalStorage;
     private IByteArrayKeyValueStore externalStorageDataSource;
 
+    // read snapshots load the storage nodes outside the trie cache lock
+    private boolean prefetchReads;
+
     public AionContractDetailsImpl() {
     }
 
@@ -91,10 +103,23 @@ public class AionContractDetailsImpl extends AbstractContractDetails<DataWord> {
         this.rlpEncoded = null;
     }
 
+    /**
+     * Loads the storage trie nodes for the given keys into the trie cache so
+     * that later reads of these keys do not go to the database.
+     */
+    public void prefetch(Collection<DataWord> keys) {
+        for (DataWord key : keys) {
+            storageTrie.prefetch(key.getData());
+        }
+    }
+
     @Override
     public DataWord get(DataWord key) {
         DataWord result = DataWord.ZERO;
 
+        if (prefetchReads) {
+            storageTrie.prefetch(key.getData());
+        }
         byte[] data = storageTrie.get(key.getData());
         if (data.length > 0) {
             byte[] dataDecoded = RLP.decode2(data).get(0).getRLPData();
@@ -104,16 +129,99 @@ public class AionContractDetailsImpl extends AbstractContractDetails<DataWord> {
         return result;
     }
 
+    /**
+     * Builds the proof of a storage key under a storage root of this contract,
+     * see {@link org.aion.mcf.trie.Trie#getProof(byte[], byte[])}.
+     */
+    public List<byte[]> getStorageProof(byte[] storageRoot, DataWord key) {
+        return storageTrie.getProof(storageRoot, key.getData());
+    }
+
+    /**
+     * Passes the hashed keys and the encoded values of the storage under the
+     * given storage root of this contract to the action, see
+     * {@link org.aion.mcf.trie.TrieImpl#scanLeaves(byte[], BiConsumer)}.
+     */
+    public void scanStorage(byte[] storageRoot, BiConsumer<byte[], byte[]> action) {
+        storageTrie.scanLeaves(storageRoot, action);
+    }
+
+    /**
+     * @return the number of storage trie nodes held in memory
+     */
+    public int getStorageCacheSize() {
+        return storageTrie.getCache().getSize();
+    }
+
     @Override
     public byte[] getStorageHash() {
         return storageTrie.getRootHash();
     }
 
+    /**
+     * Decodes both the compact record written with a code store, which is
+     * {@code [address, storageRoot, [codeHash...], storage]} with the storage
+     * trie inlined only while it is small, and the legacy record
+     * {@code [address, isExternalStorage, storageRoot, storage, [code...]]}
+     * that inlines the codes and small storage tries. Legacy records are
+     * rewritten in the compact form on their next update.
+     */
     @Override
     public void decode(byte[] rlpCode) {
         RLPList data = RLP.decode2(rlpCode);
         RLPList rlpList = (RLPList) data.get(0);
 
+        legacyEncoded = rlpList.size() == LEGACY_RLP_SIZE;
+        if (legacyEncoded) {
+            decodeLegacy(rlpList);
+        } else {
+            decodeCompact(rlpList);
+        }
+        if (externalStorage) {
+            storageTrie.getCache().shareNodes(getSharedStorageNodes());
+        }
+
+        this.rlpEncoded = rlpCode;
+    }
+
+    /**
+     * Only the storage root and the code hashes are read; external storage
+     * nodes and codes are loaded on first access.
+     */
+    private void decodeCompact(RLPList rlpList) {
+        RLPItem address = (RLPItem) rlpList.get(0);
+        RLPItem storageRoot = (RLPItem) rlpList.get(1);
+        RLPList codeHashes = (RLPList) rlpList.get(2);
+        byte[] storage = rlpList.size() > 3 ? rlpList.get(3).getRLPData() : null;
+
+        if (address.getRLPData() == null) {
+            this.address = Address.EMPTY_ADDRESS();
+        } else {
+            this.address = Address.wrap(address.getRLPData());
+        }
+
+        List<byte[]> hashes = new ArrayList<>();
+        for (RLPElement e : codeHashes) {
+            hashes.add(e.getRLPData());
+        }
+        setCodeHashes(hashes);
+
+        if (storage != null && storage.length > 0) {
+            this.externalStorage = false;
+            storageTrie.deserialize(storage);
+            storageTrie.withPruningEnabled(prune > 0);
+            return;
+        }
+
+        this.externalStorage = true;
+        byte[] root = storageRoot.getRLPData();
+        storageTrie = Arrays.equals(root, EMPTY_TRIE_HASH)
+                ? new SecureTrie(getExternalStorageDataSource())
+                : new SecureTrie(getExternalStorageDataSource(), root);
+        storageTrie.withPruningEnabled(prune > 0);
+    }
+
+    private void decodeLegacy(RLPList rlpList) {
         RLPItem address = (RLPItem) rlpList.get(0);
         RLPItem isExternalStorage = (RLPItem) rlpList.get(1);
         RLPItem storageRoot = (RLPItem) rlpList.get(2);
@@ -148,14 +256,40 @@ public class AionContractDetailsImpl extends AbstractContractDetails<DataWord> {
             externalStorage = true;
             storageTrie.getCache().setDB(getExternalStorageDataSource());
         }
-
-        this.rlpEncoded = rlpCode;
     }
 
+    /**
+     * When a code store is set the compact record is produced, which keeps
+     * the storage trie inlined while it is within the in-memory limit and
+     * moves it to external storage otherwise. The codes themselves are
+     * written by {@link #syncCodes()}.
+     */
     @Override
     public byte[] getEncoded() {
         if (rlpEncoded == null) {
 
+            if (getCodeSource() != null) {
+                byte[] storage = EMPTY_BYTE_ARRAY;
+                if (!externalStorage) {
+                    storage = storageTrie.serialize();
+                    if (storage.length > detailsInMemoryStorageLimit) {
+                        storage = EMPTY_BYTE_ARRAY;
+                        externalStorage = true;
+                        storageTrie.getCache().setDB(getExternalStorageDataSource());
+                        storageTrie.getCache().shareNodes(getSharedStorageNodes());
+                    }
+                }
+
+                List<byte[]> codeHashes = new ArrayList<>(getLazyCodes().size());
+                for (ByteArrayWrapper hash : getLazyCodes().keySet()) {
+                    codeHashes.add(hash.getData());
+                }
+                this.rlpEncoded = RLP.encodeList(RLP.encodeElement(address.toBytes()),
+                        RLP.encodeElement(storageTrie.getRootHash()), encodeHashes(codeHashes),
+                        RLP.encodeElement(storage));
+                return rlpEncoded;
+            }
+
             byte[] rlpAddress = RLP.encodeElement(address.toBytes());
             byte[] rlpIsExternalStorage = RLP.encodeByte((byte) (externalStorage ? 1 : 0));
             byte[] rlpStorageRoot = RLP.encodeElement(externalStorage ? storageTrie.getRootHash() : EMPTY_BYTE_ARRAY);
@@ -173,6 +307,32 @@ public class AionContractDetailsImpl extends AbstractContractDetails<DataWord> {
         return rlpEncoded;
     }
 
+    /**
+     * Encodes the compact record of a contract whose codes are kept in a code
+     * store and whose storage is kept in external storage.
+     */
+    public static byte[] encodeCompact(Address address, byte[] storageRoot, Collection<byte[]> codeHashes) {
+        return RLP.encodeList(RLP.encodeElement(address.toBytes()), RLP.encodeElement(storageRoot),
+                encodeHashes(codeHashes), RLP.encodeElement(EMPTY_BYTE_ARRAY));
+    }
+
+    private static byte[] encodeHashes(Collection<byte[]> hashes) {
+        byte[][] rlpHashes = new byte[hashes.size()][];
+        int i = 0;
+        for (byte[] hash : hashes) {
+            rlpHashes[i++] = RLP.encodeElement(hash);
+        }
+        return RLP.encodeList(rlpHashes);
+    }
+
+    /**
+     * @return true if the last {@link #decode(byte[])} read a legacy record
+     *         that inlines the codes
+     */
+    public boolean isLegacyEncoded() {
+        return legacyEncoded;
+    }
+
     @Override
     public Map<DataWord, DataWord> getStorage(Collection<DataWord> keys) {
         Map<DataWord, DataWord> storage = new HashMap<>();
@@ -231,20 +391,87 @@ public class AionContractDetailsImpl extends AbstractContractDetails<DataWord> {
 
     private IByteArrayKeyValueStore getExternalStorageDataSource() {
         if (externalStorageDataSource == null) {
-            externalStorageDataSource = new XorDataSource(dataSource,
-                    h256(("details-storage/" + address.toString()).getBytes()));
+            externalStorageDataSource = storageSource(dataSource, address);
         }
         return externalStorageDataSource;
     }
 
+    /**
+     * @return the view of the storage database holding the external storage
+     *         trie of the given contract
+     */
+    public static IByteArrayKeyValueStore storageSource(IByteArrayKeyValueStore dataSource, Address address) {
+        return new XorDataSource(dataSource, h256(("details-storage/" + address.toString()).getBytes()));
+    }
+
+    /**
+     * @return the encoded node of the storage trie with the given hash, which
+     *         is read from the record while the storage is inlined, or
+     *         {@code null} if the trie does not hold it
+     */
+    public byte[] getStorageNode(byte[] hash) {
+        TrieNode node = storageTrie.getCache().get(hash);
+        return node == null ? null : node.getEncoded();
+    }
+
     public void setExternalStorageDataSource(IByteArrayKeyValueStore dataSource) {
         this.externalStorageDataSource = dataSource;
         this.externalStorage = true;
         this.storageTrie = new SecureTrie(getExternalStorageDataSource());
+        this.storageTrie.getCache().shareNodes(getSharedStorageNodes());
+    }
+
+    @Override
+    public void setSharedStorageNodes(Map<ByteArrayWrapper, TrieNode> sharedStorageNodes) {
+        super.setSharedStorageNodes(sharedStorageNodes);
+        if (externalStorage) {
+            storageTrie.getCache().shareNodes(sharedStorageNodes);
+        }
+    }
+
+    /**
+     * The copy shares the decoded storage nodes and the codes, an inlined
+     * storage trie is not deserialized again.
+     */
+    @Override
+    public AionContractDetailsImpl copy() {
+        AionContractDetailsImpl details = new AionContractDetailsImpl(address, storageTrie.copy(), getLazyCodes());
+        details.prune = prune;
+        details.detailsInMemoryStorageLimit = detailsInMemoryStorageLimit;
+        details.setCodeSource(getCodeSource());
+        details.setSharedStorageNodes(getSharedStorageNodes());
+        details.externalStorage = externalStorage;
+        details.externalStorageDataSource = externalStorageDataSource;
+        details.dataSource = dataSource;
+        details.legacyEncoded = legacyEncoded;
+        details.rlpEncoded = rlpEncoded;
+        details.setDirty(isDirty());
+        details.setDeleted(isDeleted());
+        return details;
     }
 
     @Override
     public IContractDetails<DataWord> getSnapshotTo(byte[] hash) {
+        return snapshotTo(hash, true);
+    }
+
+    /**
+     * Read-only snapshot that keeps the storage nodes it reads in a cache of
+     * its own rather than in the cache shared with this contract, so that its
+     * readers do not contend with block import. Only storage roots already
+     * synced to the external storage can be read, which holds for the state of
+     * stored blocks; storage kept in memory is still read through the shared
+     * cache. The codes are loaded up front so that the snapshot can be read by
+     * several threads.
+     */
+    public AionContractDetailsImpl getReadSnapshotTo(byte[] hash) {
+        AionContractDetailsImpl details = snapshotTo(hash, !externalStorage);
+        details.prefetchReads = true;
+        details.getCodes();
+        return details;
+    }
+
+    private AionContractDetailsImpl snapshotTo(byte[] hash, boolean shareCache) {
 
         IByteArrayKeyValueStore keyValueDataSource = this.storageTrie.getCache().getDb();
 
@@ -253,9 +480,15 @@ public class AionContractDetailsImpl extends AbstractContractDetails<DataWord> {
                 : new SecureTrie(keyValueDataSource, hash);
         snapStorage.withPruningEnabled(storageTrie.isPruningEnabled());
 
-        snapStorage.setCache(this.storageTrie.getCache());
+        if (shareCache) {
+            snapStorage.setCache(this.storageTrie.getCache());
+        } else {
+            snapStorage.getCache().shareNodes(getSharedStorageNodes());
+        }
 
-        AionContractDetailsImpl details = new AionContractDetailsImpl(this.address, snapStorage, getCodes());
+        AionContractDetailsImpl details = new AionContractDetailsImpl(this.address, snapStorage, getLazyCodes());
+        details.setCodeSource(getCodeSource());
+        details.setSharedStorageNodes(getSharedStorageNodes());
         details.externalStorage = this.externalStorage;
         details.externalStorageDataSource = this.externalStorageDataSource;
         details.dataSource = dataSource;
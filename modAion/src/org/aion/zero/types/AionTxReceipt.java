@@ -109,6 +109,56 @@ public class AionTxReceipt extends AbstractTxReceipt<AionTransaction> implements
         return rlpEncoded;
     }
 
+    /**
+     * Used by the receipt store, encodes
+     * {@code [postTxState, logInfoList, executionResult, energyUsed, error, bloomFilter]}
+     * with an empty bloom filter when it is the one of the logs, which is the
+     * case for the receipts produced by execution.
+     */
+    public byte[] getStoreEncoded() {
+        byte[][] logInfoListE = new byte[logInfoList == null ? 0 : logInfoList.size()][];
+        Bloom logsBloom = new Bloom();
+        for (int i = 0; i < logInfoListE.length; i++) {
+            Log logInfo = logInfoList.get(i);
+            logInfoListE[i] = logInfo.getEncoded();
+            logsBloom.or(logInfo.getBloom());
+        }
+
+        byte[] bloom = logsBloom.equals(bloomFilter) ? EMPTY_BYTE_ARRAY : bloomFilter.data;
+
+        return RLP.encodeList(RLP.encodeElement(postTxState), RLP.encodeList(logInfoListE),
+                RLP.encodeElement(executionResult), RLP.encodeLong(energyUsed),
+                RLP.encodeElement(error.getBytes(StandardCharsets.UTF_8)), RLP.encodeElement(bloom));
+    }
+
+    /**
+     * Decodes a receipt encoded by {@link #getStoreEncoded()}.
+     */
+    public static AionTxReceipt fromStoreEncoded(RLPList receipt) {
+        AionTxReceipt decoded = new AionTxReceipt();
+
+        decoded.postTxState = nullToEmpty(receipt.get(0).getRLPData());
+        for (RLPElement log : (RLPList) receipt.get(1)) {
+            Log logInfo = new Log(log.getRLPData());
+            decoded.logInfoList.add(logInfo);
+        }
+        byte[] result = receipt.get(2).getRLPData();
+        decoded.executionResult = result == null ? EMPTY_BYTE_ARRAY : result;
+        decoded.energyUsed = ByteUtil.byteArrayToLong(receipt.get(3).getRLPData());
+        byte[] errBytes = receipt.get(4).getRLPData();
+        decoded.error = errBytes != null ? new String(errBytes, StandardCharsets.UTF_8) : "";
+
+        byte[] bloom = receipt.get(5).getRLPData();
+        if (bloom != null && bloom.length > 0) {
+            decoded.bloomFilter = new Bloom(bloom);
+        } else {
+            for (Log logInfo : decoded.logInfoList) {
+                decoded.bloomFilter.or(logInfo.getBloom());
+            }
+        }
+        return decoded;
+    }
+
     public void setNrgUsed(long l) {
         this.energyUsed = l;
     }
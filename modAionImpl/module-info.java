@@ -7,6 +7,7 @@ module aion.zero.impl {
     requires aion.p2p;
     requires aion.p2p.impl;
     requires aion.rlp;
+    requires guava;
     requires aion.evtmgr;
     requires aion.evtmgr.impl;
     requires aion.txpool;
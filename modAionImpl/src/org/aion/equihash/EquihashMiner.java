@@ -80,6 +80,9 @@ public class EquihashMiner extends AbstractMineRunner<AionBlock> {
 
     private EventExecuteService ees;
 
+    // notified when the first block template arrives
+    private final Object templateLock = new Object();
+
     /**
      * Miner threads
      */
@@ -210,8 +213,13 @@ public class EquihashMiner extends AbstractMineRunner<AionBlock> {
         byte[] nonce;
         while (!Thread.currentThread().isInterrupted()) {
             if ((block = miningBlock) == null) {
+                // wait for the first template instead of polling for it
                 try {
-                    Thread.sleep(10000);
+                    synchronized (templateLock) {
+                        while (miningBlock == null) {
+                            templateLock.wait();
+                        }
+                    }
                 } catch (InterruptedException e) {
                     break;
                 }
@@ -243,7 +251,10 @@ public class EquihashMiner extends AbstractMineRunner<AionBlock> {
 
         // Do not change reference if the event passes a null reference
         if (isMining() && block != null) {
-            miningBlock = block;
+            synchronized (templateLock) {
+                miningBlock = block;
+                templateLock.notifyAll();
+            }
         }
     }
 
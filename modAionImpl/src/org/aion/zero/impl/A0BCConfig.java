@@ -63,4 +63,16 @@ public interface A0BCConfig {
      * Retrieves the selected energy strategy algorithm
      */
     AbstractEnergyStrategyLimit getEnergyLimitStrategy();
+
+    /**
+     * Retrieves whether the index from addresses to the transactions
+     * touching them is maintained
+     */
+    boolean isAddressIndexEnabled();
+
+    /**
+     * Retrieves the number of threads executing the transactions of a block
+     * speculatively, fewer than two execute them sequentially
+     */
+    int getTxExecutorThreads();
 }
@@ -57,9 +57,11 @@ import org.aion.zero.impl.config.CfgAion;
 import org.aion.zero.impl.core.energy.AbstractEnergyStrategyLimit;
 import org.aion.zero.impl.core.energy.EnergyStrategies;
 import org.aion.zero.impl.core.IAionBlockchain;
+import org.aion.zero.impl.db.AddressIndex;
 import org.aion.zero.impl.db.AionBlockStore;
 import org.aion.zero.impl.db.AionRepositoryImpl;
 import org.aion.zero.impl.db.RecoveryUtils;
+import org.aion.zero.impl.db.StatePrefetcher;
 import org.aion.zero.impl.sync.SyncMgr;
 import org.aion.zero.impl.types.AionBlock;
 import org.aion.zero.impl.types.AionBlockSummary;
@@ -67,6 +69,7 @@ import org.aion.zero.impl.types.AionTxInfo;
 import org.aion.zero.impl.types.RetValidPreBlock;
 import org.aion.zero.impl.valid.TXValidator;
 import org.aion.zero.types.*;
+import org.apache.commons.collections4.map.LRUMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -111,6 +114,12 @@ public class AionBlockchainImpl implements IAionBlockchain {
     private IRepository repository;
     private IRepositoryCache track;
     private TransactionStore<AionTransaction, AionTxReceipt, org.aion.zero.impl.types.AionTxInfo> transactionStore;
+
+    /**
+     * Index from addresses to the transactions touching them, {@code null}
+     * when it is disabled.
+     */
+    private AddressIndex addressIndex;
     private AionBlock bestBlock;
 
     /**
@@ -144,6 +153,35 @@ public class AionBlockchainImpl implements IAionBlockchain {
 
     private AbstractEnergyStrategyLimit energyLimitStrategy;
 
+    /**
+     * Loads the state touched by a block while it is being executed.
+     */
+    private final StatePrefetcher prefetcher;
+
+    /**
+     * Executes the transactions of imported blocks in parallel.
+     */
+    private final SpeculativeTxExecutor txExecutor;
+
+    /**
+     * Execution results of recent block templates, keyed by mine hash, so a
+     * sealed template can be connected without running its transactions again.
+     */
+    private static final int SEALED_TEMPLATE_CACHE_SIZE = 8;
+    private final Map<ByteArrayWrapper, SealedTemplate> sealedTemplates = new LRUMap<>(SEALED_TEMPLATE_CACHE_SIZE);
+
+    // blocks connected from a sealed template and blocks whose transactions were executed
+    private final AtomicLong appliedTemplates = new AtomicLong();
+    private final AtomicLong executedBlocks = new AtomicLong();
+
+    /**
+     * Receipt tries of the recently added or proven blocks, keyed by block
+     * hash, so receipt proofs for recent blocks are built from memory.
+     */
+    private static final int RECEIPT_TRIE_CACHE_SIZE = 64;
+    private final Map<ByteArrayWrapper, TrieImpl> receiptTries = Collections
+            .synchronizedMap(new LRUMap<>(RECEIPT_TRIE_CACHE_SIZE));
+
     /**
      * Chain configuration class, because chain configuration may change
      * dependant on the block being executed. This is simple for now but in the
@@ -197,6 +235,16 @@ public class AionBlockchainImpl implements IAionBlockchain {
                         cfgAion.getConsensus().getEnergyStrategy(),
                         config);
             }
+
+            @Override
+            public boolean isAddressIndexEnabled() {
+                return cfgAion.getDb().isAddressIndexEnabled();
+            }
+
+            @Override
+            public int getTxExecutorThreads() {
+                return cfgAion.getTx().getExecThreads();
+            }
         };
     }
 
@@ -222,6 +270,9 @@ public class AionBlockchainImpl implements IAionBlockchain {
         this.blockHeaderValidator = this.chainConfiguration.createBlockHeaderValidator();
 
         this.transactionStore = ((AionRepositoryImpl) this.repository).getTransactionStore();
+        if (config.isAddressIndexEnabled()) {
+            this.addressIndex = ((AionRepositoryImpl) this.repository).getAddressIndex();
+        }
 
         this.minerCoinbase = this.config.getMinerCoinbase();
 
@@ -241,6 +292,8 @@ public class AionBlockchainImpl implements IAionBlockchain {
                     this.chainConfiguration.getConstants().getMaximumExtraDataSize());
         }
         this.energyLimitStrategy = config.getEnergyLimitStrategy();
+        this.prefetcher = new StatePrefetcher(Math.min(Runtime.getRuntime().availableProcessors(), 4));
+        this.txExecutor = new SpeculativeTxExecutor(config.getTxExecutorThreads());
     }
 
     /**
@@ -317,32 +370,18 @@ public class AionBlockchainImpl implements IAionBlockchain {
     @SuppressWarnings("Duplicates")
     public AionTxInfo getTransactionInfo(byte[] hash) {
 
-        List<AionTxInfo> infos = transactionStore.get(hash);
-
-        if (infos == null || infos.isEmpty()) {
-            return null;
-        }
-
-        AionTxInfo txInfo = null;
-        if (infos.size() == 1) {
-            txInfo = infos.get(0);
-        } else {
-            // pick up the receipt from the block on the main chain
-            for (AionTxInfo info : infos) {
-                AionBlock block = getBlockStore().getBlockByHash(info.getBlockHash());
-                if (block == null) continue;
-
-                AionBlock mainBlock = getBlockStore().getChainBlockByNumber(block.getNumber());
-                if (mainBlock == null) continue;
-
-                if (FastByteComparisons.equal(info.getBlockHash(), mainBlock.getHash())) {
-                    txInfo = info;
-                    break;
-                }
+        // when several blocks store the transaction pick the one on the main chain
+        AionTxInfo txInfo = transactionStore.get(hash, blockHash -> {
+            AionBlock block = getBlockStore().getBlockByHash(blockHash);
+            if (block == null) {
+                return false;
             }
-        }
+            AionBlock mainBlock = getBlockStore().getChainBlockByNumber(block.getNumber());
+            return mainBlock != null && FastByteComparisons.equal(blockHash, mainBlock.getHash());
+        });
+
         if (txInfo == null) {
-            LOG.warn("Can't find block from main chain for transaction " + toHexString(hash));
+            LOG.debug("Can't find block from main chain for transaction " + toHexString(hash));
             return null;
         }
 
@@ -358,6 +397,32 @@ public class AionBlockchainImpl implements IAionBlockchain {
         return transactionStore.get(txHash, blockHash);
     }
 
+    /**
+     * @return the receipts of the block, without their transactions, or
+     *         {@code null} if the block or its receipts are not stored
+     */
+    public List<AionTxReceipt> getReceipts(byte[] blockHash) {
+        List<AionTxReceipt> receipts = transactionStore.getReceipts(blockHash);
+        if (receipts != null) {
+            return receipts;
+        }
+
+        // blocks stored before the receipt records only have transaction infos
+        AionBlock block = getBlockByHash(blockHash);
+        if (block == null) {
+            return null;
+        }
+        receipts = new ArrayList<>();
+        for (AionTransaction tx : block.getTransactionsList()) {
+            AionTxInfo info = transactionStore.get(tx.getHash(), blockHash);
+            if (info == null) {
+                return null;
+            }
+            receipts.add(info.getReceipt());
+        }
+        return receipts;
+    }
+
     @Override
     public AionBlock getBlockByHash(byte[] hash) {
         return getBlockStore().getBlockByHash(hash);
@@ -468,6 +533,9 @@ public class AionBlockchainImpl implements IAionBlockchain {
             // cause we proved that total difficulty
             // is greater
             getBlockStore().reBranch(block);
+            if (addressIndex != null) {
+                reBranchAddressIndex(savedState.savedBest, block);
+            }
 
             // The main repository rebranch
             this.repository = savedState.savedRepo;
@@ -485,6 +553,36 @@ public class AionBlockchainImpl implements IAionBlockchain {
         return summary;
     }
 
+    /**
+     * Moves the address index from the old main chain to the branch ending
+     * with the given block, reverting the old blocks newest first and then
+     * applying the new blocks oldest first.
+     */
+    private void reBranchAddressIndex(AionBlock oldBest, AionBlock newBest) {
+        IAionBlock oldLine = oldBest;
+        IAionBlock newLine = newBest;
+        Deque<IAionBlock> applied = new ArrayDeque<>();
+
+        while (newLine.getNumber() > oldLine.getNumber()) {
+            applied.push(newLine);
+            newLine = getBlockByHash(newLine.getParentHash());
+        }
+        while (oldLine.getNumber() > newLine.getNumber()) {
+            addressIndex.revertBlock(oldLine);
+            oldLine = getBlockByHash(oldLine.getParentHash());
+        }
+        while (!Arrays.equals(oldLine.getHash(), newLine.getHash())) {
+            addressIndex.revertBlock(oldLine);
+            applied.push(newLine);
+            oldLine = getBlockByHash(oldLine.getParentHash());
+            newLine = getBlockByHash(newLine.getParentHash());
+        }
+
+        for (IAionBlock block : applied) {
+            addressIndex.applyBlock(block);
+        }
+    }
+
     private AtomicLong bestBlockNumber = new AtomicLong(0L);
 
     /**
@@ -638,6 +736,7 @@ public class AionBlockchainImpl implements IAionBlockchain {
         }
 
         byte[] stateRoot = getRepository().getRoot();
+        IRepository executedState = getRepository();
         popState();
 
         /*
@@ -651,6 +750,11 @@ public class AionBlockchainImpl implements IAionBlockchain {
         block.seal(preBlock.txs, calcTxTrie(preBlock.txs), stateRoot, logBloom.getData(),
                 calcReceiptsTrie(preBlock.receipts), totalEnergyUsed);
 
+        if (executedState instanceof AionRepositoryImpl) {
+            sealedTemplates.put(ByteArrayWrapper.wrap(block.getHeader().getMineHash()),
+                    new SealedTemplate((AionRepositoryImpl) executedState, preBlock));
+        }
+
         return block;
     }
 
@@ -666,6 +770,9 @@ public class AionBlockchainImpl implements IAionBlockchain {
             summary.setTotalDifficulty(getTotalDifficulty());
 
             storeBlock(block, receipts);
+            if (addressIndex != null) {
+                addressIndex.putBlock(block, summary.getSummaries(), !fork);
+            }
 
             flush();
         }
@@ -680,7 +787,9 @@ public class AionBlockchainImpl implements IAionBlockchain {
             return null;
         }
 
-        if (!isValid(block)) {
+        SealedTemplate template = rebuild ? null : takeSealedTemplate(block);
+
+        if (template == null && !isValid(block)) {
             LOG.error("Attempting to add INVALID block.");
             return null;
         }
@@ -694,12 +803,13 @@ public class AionBlockchainImpl implements IAionBlockchain {
             return null;
         }
 
-        AionBlockSummary summary = processBlock(block);
+        AionBlockSummary summary = template == null ? processBlock(block) : applyTemplate(block, template);
         List<AionTxReceipt> receipts = summary.getReceipts();
 
         // Sanity checks
         byte[] receiptHash = block.getReceiptsRoot();
-        byte[] receiptListHash = calcReceiptsTrie(receipts);
+        TrieImpl receiptsTrie = buildReceiptsTrie(receipts);
+        byte[] receiptListHash = receiptsTrie.getRootHash();
 
         if (!Arrays.equals(receiptHash, receiptListHash)) {
             if (LOG.isWarnEnabled()) {
@@ -741,10 +851,7 @@ public class AionBlockchainImpl implements IAionBlockchain {
         track.flush();
 
         if (rebuild) {
-            for (int i = 0; i < receipts.size(); i++) {
-                transactionStore.putToBatch(new AionTxInfo(receipts.get(i), block.getHash(), i));
-            }
-            transactionStore.flushBatch();
+            transactionStore.putBlock(block.getHash(), receipts, true);
 
             ((AionRepositoryImpl) repository).commitBlock(block.getHeader());
 
@@ -754,6 +861,7 @@ public class AionBlockchainImpl implements IAionBlockchain {
 
         }
 
+        receiptTries.put(ByteArrayWrapper.wrap(block.getHash()), receiptsTrie);
         return summary;
     }
 
@@ -775,16 +883,44 @@ public class AionBlockchainImpl implements IAionBlockchain {
     }
 
     protected static byte[] calcReceiptsTrie(List<AionTxReceipt> receipts) {
-        Trie receiptsTrie = new TrieImpl(null);
-
         if (receipts == null || receipts.isEmpty()) {
             return HashUtil.EMPTY_TRIE_HASH;
         }
+        return buildReceiptsTrie(receipts).getRootHash();
+    }
 
+    private static TrieImpl buildReceiptsTrie(List<AionTxReceipt> receipts) {
+        TrieImpl receiptsTrie = new TrieImpl(null);
         for (int i = 0; i < receipts.size(); i++) {
             receiptsTrie.update(RLP.encodeInt(i), receipts.get(i).getReceiptTrieEncoded());
         }
-        return receiptsTrie.getRootHash();
+        return receiptsTrie;
+    }
+
+    /**
+     * Builds the proof of a receipt under the receipts root of its block. The
+     * key of a receipt in the trie is the RLP encoding of its index.
+     *
+     * @return the encoded trie nodes, or {@code null} if the block or its
+     *         receipts are not stored
+     */
+    public List<byte[]> getReceiptProof(byte[] blockHash, int index) {
+        ByteArrayWrapper key = ByteArrayWrapper.wrap(blockHash);
+        TrieImpl receiptsTrie = receiptTries.get(key);
+        if (receiptsTrie == null) {
+            AionBlock block = getBlockByHash(blockHash);
+            List<AionTxReceipt> receipts = getReceipts(blockHash);
+            if (block == null || receipts == null) {
+                return null;
+            }
+            receiptsTrie = buildReceiptsTrie(receipts);
+            if (!Arrays.equals(receiptsTrie.getRootHash(), block.getReceiptsRoot())) {
+                LOG.error("Stored receipts do not match block: {}", block.getNumber());
+                return null;
+            }
+            receiptTries.put(key, receiptsTrie);
+        }
+        return receiptsTrie.getProof(RLP.encodeInt(index));
     }
 
     protected byte[] calcLogBloom(List<AionTxReceipt> receipts) {
@@ -917,9 +1053,60 @@ public class AionBlockchainImpl implements IAionBlockchain {
         return ret;
     }
 
+    /**
+     * Returns the cached execution of the template the block was sealed from,
+     * if the block differs from it only in nonce and solution and its header,
+     * including the proof of work, is valid. Transaction checks and execution
+     * can then be skipped; any other block takes the regular path.
+     */
+    private SealedTemplate takeSealedTemplate(AionBlock block) {
+        if (sealedTemplates.isEmpty() || block.isGenesis()) {
+            return null;
+        }
+
+        // the mine hash covers every header field except nonce and solution
+        SealedTemplate template = sealedTemplates.get(ByteArrayWrapper.wrap(block.getHeader().getMineHash()));
+        if (template == null) {
+            return null;
+        }
+
+        // the transaction list must be the one the template committed to
+        if (!Arrays.equals(block.getTxTrieRoot(), calcTxTrie(block.getTransactionsList()))) {
+            return null;
+        }
+
+        if (!blockHeaderValidator.validate(block.getHeader(), LOG) || !isValid(block.getHeader())) {
+            return null;
+        }
+
+        sealedTemplates.remove(ByteArrayWrapper.wrap(block.getHeader().getMineHash()));
+        return template;
+    }
+
+    /**
+     * Moves the repository to the post state of a sealed template instead of
+     * executing the block.
+     */
+    private AionBlockSummary applyTemplate(AionBlock block, SealedTemplate template) {
+        // write the state computed for the template along with its flat state
+        // layer, then point the repository at it
+        template.state.commitBlock(block.getHeader());
+        repository.syncToRoot(block.getStateRoot());
+        appliedTemplates.incrementAndGet();
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Connected sealed template without re-execution: number: {}, hash: {}, txs: {}",
+                    block.getNumber(), block.getShortHash(), template.preBlock.txs.size());
+        }
+
+        return new AionBlockSummary(block, template.preBlock.rewards, template.preBlock.receipts,
+                template.preBlock.summaries);
+    }
+
     private AionBlockSummary processBlock(AionBlock block) {
 
         if (!block.isGenesis()) {
+            executedBlocks.incrementAndGet();
             return applyBlock(block);
         } else {
             return new AionBlockSummary(block, new HashMap<Address, BigInteger>(), new ArrayList<AionTxReceipt>(),
@@ -947,6 +1134,7 @@ public class AionBlockchainImpl implements IAionBlockchain {
             AionTxExecSummary summary = executor.execute();
 
             if (!summary.isRejected()) {
+                prefetcher.record(tx.getHash(), track);
                 track.flush();
 
                 AionTxReceipt receipt = summary.getReceipt();
@@ -978,16 +1166,27 @@ public class AionBlockchainImpl implements IAionBlockchain {
         List<AionTxReceipt> receipts = new ArrayList<>();
         List<AionTxExecSummary> summaries = new ArrayList<>();
 
-        for (AionTransaction tx : block.getTransactionsList()) {
-            TransactionExecutor executor = new TransactionExecutor(tx, block, track);
-            AionTxExecSummary summary = executor.execute();
-
-            track.flush();
-            AionTxReceipt receipt = summary.getReceipt();
-            receipt.setPostTxState(repository.getRoot());
-            receipts.add(receipt);
+        StatePrefetcher.Prefetch prefetch = null;
+        if (repository instanceof AionRepositoryImpl && !block.getTransactionsList().isEmpty()) {
+            prefetch = prefetcher.prefetch((AionRepositoryImpl) repository, block);
+        }
 
-            summaries.add(summary);
+        try {
+            summaries.addAll(txExecutor.execute(block.getTransactionsList(), block.getCoinbase(), track,
+                    (tx, repo) -> new TransactionExecutor(tx, block, repo).execute(),
+                    (tx, summary) -> {
+                        // the track only holds this transaction's changes until flushed
+                        prefetcher.record(tx.getHash(), track);
+
+                        track.flush();
+                        AionTxReceipt receipt = summary.getReceipt();
+                        receipt.setPostTxState(repository.getRoot());
+                        receipts.add(receipt);
+                    }));
+        } finally {
+            if (prefetch != null) {
+                prefetch.cancel();
+            }
         }
         Map<Address, BigInteger> rewards = addReward(block, summaries);
 
@@ -1023,6 +1222,30 @@ public class AionBlockchainImpl implements IAionBlockchain {
         return rewards;
     }
 
+    public StatePrefetcher getStatePrefetcher() {
+        return prefetcher;
+    }
+
+    public SpeculativeTxExecutor getTxExecutor() {
+        return txExecutor;
+    }
+
+    /**
+     * @return the number of blocks connected from the execution of their
+     *         sealed template
+     */
+    public long getAppliedTemplateCount() {
+        return appliedTemplates.get();
+    }
+
+    /**
+     * @return the number of blocks whose transactions were executed when
+     *         they were connected
+     */
+    public long getExecutedBlockCount() {
+        return executedBlocks.get();
+    }
+
     public ChainConfiguration getChainConfiguration() {
         return chainConfiguration;
     }
@@ -1036,10 +1259,7 @@ public class AionBlockchainImpl implements IAionBlockchain {
             getBlockStore().saveBlock(block, totalDifficulty, true);
         }
 
-        for (int i = 0; i < receipts.size(); i++) {
-            transactionStore.putToBatch(new AionTxInfo(receipts.get(i), block.getHash(), i));
-        }
-        transactionStore.flushBatch();
+        transactionStore.putBlock(block.getHash(), receipts, !fork);
 
         ((AionRepositoryImpl) repository).commitBlock(block.getHeader());
 
@@ -1054,10 +1274,96 @@ public class AionBlockchainImpl implements IAionBlockchain {
         setBestBlock(block);
     }
 
+    /**
+     * Appends a block below the state sync pivot to the main chain without
+     * executing it. The block is checked against its parent and the given
+     * receipts against the receipts root, log bloom and energy use of its
+     * header, but its state is not known and no block events are fired. Once
+     * the state at the state root of a stored block is present, which is the
+     * case for the pivot block after the state download, the world state is
+     * moved to it and the following blocks are imported normally.
+     */
+    public synchronized ImportResult tryToStore(final AionBlock block, final List<AionTxReceipt> receipts) {
+        if (getBlockStore().getMaxNumber() >= block.getNumber() && getBlockStore().isBlockExist(block.getHash())) {
+            return EXIST;
+        }
+        if (!bestBlock.isParentOf(block)) {
+            return NO_PARENT;
+        }
+
+        List<AionTransaction> txs = block.getTransactionsList();
+        if (!isValid(block.getHeader()) || !Arrays.equals(block.getTxTrieRoot(), calcTxTrie(txs))) {
+            LOG.warn("Invalid block header or transactions, block: {}", block.getNumber());
+            return INVALID_BLOCK;
+        }
+
+        long energyUsed = 0;
+        for (AionTxReceipt receipt : receipts) {
+            energyUsed += receipt.getEnergyUsed();
+        }
+        if (receipts.size() != txs.size() || energyUsed != block.getNrgConsumed()
+                || !Arrays.equals(block.getReceiptsRoot(), calcReceiptsTrie(receipts))
+                || !Arrays.equals(block.getLogBloom(), calcLogBloom(receipts))) {
+            LOG.warn("Receipts do not match block: {}", block.getNumber());
+            return INVALID_BLOCK;
+        }
+
+        updateTotalDifficulty(block);
+        getBlockStore().saveBlock(block, totalDifficulty, true);
+
+        for (int i = 0; i < receipts.size(); i++) {
+            receipts.get(i).setTransaction(txs.get(i));
+        }
+        transactionStore.putBlock(block.getHash(), receipts, true);
+        if (addressIndex != null) {
+            addressIndex.putBlock(block, null, true);
+        }
+
+        setBestBlock(block);
+        pubBestBlock = bestBlock;
+
+        if (repository.isValidRoot(block.getStateRoot())) {
+            repository.syncToRoot(block.getStateRoot());
+            LOG.info("World state moved to the state of block: {}", block.getNumber());
+        }
+
+        try {
+            getBlockStore().flush();
+        } catch (Exception e) {
+            LOG.error("Unable to flush the block store.", e);
+        }
+        transactionStore.flush();
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Block stored without execution: number: {}, hash: {}, TD: {}", block.getNumber(),
+                    block.getShortHash(), totalDifficulty);
+        }
+
+        return IMPORTED_BEST;
+    }
+
     public boolean hasParentOnTheChain(AionBlock block) {
         return getParent(block.getHeader()) != null;
     }
 
+    /**
+     * @return the index from addresses to the transactions touching them, or
+     *         {@code null} if it is disabled
+     */
+    public AddressIndex getAddressIndex() {
+        return addressIndex;
+    }
+
+    /**
+     * Starts indexing the blocks stored before the address index was
+     * enabled, in the background.
+     */
+    public void startAddressIndexBackfill() {
+        if (addressIndex != null) {
+            addressIndex.startBackfill(bestBlock, getBlockStore()::getBlockByHash);
+        }
+    }
+
     public TransactionStore<AionTransaction, AionTxReceipt, AionTxInfo> getTransactionStore() {
         return transactionStore;
     }
@@ -1076,6 +1382,8 @@ public class AionBlockchainImpl implements IAionBlockchain {
 
     @Override
     public synchronized void close() {
+        prefetcher.shutdown();
+        txExecutor.shutdown();
         getBlockStore().close();
     }
 
@@ -1282,6 +1590,20 @@ public class AionBlockchainImpl implements IAionBlockchain {
         return bodies;
     }
 
+    /**
+     * The execution result of a block template: the snapshot repository
+     * holding its post state and the receipts it produced.
+     */
+    private static final class SealedTemplate {
+        private final AionRepositoryImpl state;
+        private final RetValidPreBlock preBlock;
+
+        private SealedTemplate(AionRepositoryImpl state, RetValidPreBlock preBlock) {
+            this.state = state;
+            this.preBlock = preBlock;
+        }
+    }
+
     private class State {
 
         IRepository savedRepo = repository;
@@ -51,6 +51,8 @@ import org.aion.zero.impl.config.CfgAion;
 import org.aion.zero.impl.core.IAionBlockchain;
 import org.aion.zero.impl.db.AionRepositoryImpl;
 import org.aion.zero.impl.pow.AionPoW;
+import org.aion.zero.impl.sync.EncodedBlockCache;
+import org.aion.zero.impl.sync.ServingScheduler;
 import org.aion.zero.impl.sync.SyncMgr;
 import org.aion.zero.impl.sync.handler.*;
 import org.aion.zero.impl.tx.AionTransactionExecThread;
@@ -81,6 +83,8 @@ public class AionHub {
 
 	private BlockPropagationHandler propHandler;
 
+	private TxPropagationHandler txPropHandler;
+
 	private IPendingStateInternal<AionBlock, AionTransaction> mempool;
 
 	private IAionBlockchain blockchain;
@@ -134,6 +138,10 @@ public class AionHub {
 
 		loadBlockchain();
 
+		blockchain.startAddressIndexBackfill();
+
+		this.repository.startFreezer(cfg.getDb().getAncientDepth());
+
         this.startingBlock = this.blockchain.getBestBlock();
         if (!cfg.getConsensus().isSeed()) {
             this.mempool.updateBest();
@@ -160,15 +168,19 @@ public class AionHub {
 		this.p2pMgr = new P2pMgr(this.cfg.getNet().getId(), Version.KERNEL_VERSION, this.cfg.getId(), cfgNetP2p.getIp(),
 				cfgNetP2p.getPort(), this.cfg.getNet().getNodes(), cfgNetP2p.getDiscover(), cfgNetP2p.getMaxTempNodes(),
 				cfgNetP2p.getMaxActiveNodes(), cfgNetP2p.getShowStatus(), cfgNetP2p.getShowLog(),
-				cfgNetP2p.getBootlistSyncOnly(), false, "", cfgNetP2p.getErrorTolerance());
+				cfgNetP2p.getBootlistSyncOnly(), false, "", cfgNetP2p.getErrorTolerance(),
+				new File(new File(cfg.getBasePath(), cfg.getDb().getPath()), "peers.xml").getAbsolutePath());
 
 		this.syncMgr = SyncMgr.inst();
 		this.syncMgr.init(this.p2pMgr, this.eventMgr, this.cfg.getSync().getBlocksQueueMax(),
-				this.cfg.getSync().getShowStatus(), this.cfg.getReports().isEnabled(), reportsFolder);
+				this.cfg.getSync().getShowStatus(), this.cfg.getReports().isEnabled(), reportsFolder,
+				this.cfg.getSync().getStateSync());
 
 		ChainConfiguration chainConfig = new ChainConfiguration();
 		this.propHandler = new BlockPropagationHandler(1024, this.blockchain, this.p2pMgr,
 				chainConfig.createBlockHeaderValidator(), this.cfg.getNet().getP2p().isSyncOnlyNode());
+		this.txPropHandler = new TxPropagationHandler(this.p2pMgr, this.mempool,
+				this.cfg.getNet().getP2p().isSyncOnlyNode());
 
 		registerCallback();
 		this.p2pMgr.run();
@@ -184,13 +196,23 @@ public class AionHub {
 
     private void registerCallback() {
         List<Handler> cbs = new ArrayList<>();
-        cbs.add(new ReqStatusHandler(syncLog, this.blockchain, this.p2pMgr, cfg.getGenesis().getHash()));
+        EncodedBlockCache servingCache = new EncodedBlockCache(this.repository.getBlockStore(),
+                EncodedBlockCache.DEFAULT_MAX_BYTES);
+        ServingScheduler servingScheduler = this.syncMgr.getServingScheduler();
+        cbs.add(new ReqStatusHandler(syncLog, this.blockchain, this.p2pMgr, servingScheduler, cfg.getGenesis().getHash()));
         cbs.add(new ResStatusHandler(syncLog, this.p2pMgr, this.syncMgr));
-        cbs.add(new ReqBlocksHeadersHandler(syncLog, this.blockchain, this.p2pMgr, this.cfg.getNet().getP2p().isSyncOnlyNode()));
+        cbs.add(new ReqBlocksHeadersHandler(syncLog, servingCache, servingScheduler, this.p2pMgr, this.cfg.getNet().getP2p().isSyncOnlyNode()));
         cbs.add(new ResBlocksHeadersHandler(syncLog, this.syncMgr, this.p2pMgr));
-        cbs.add(new ReqBlocksBodiesHandler(syncLog, this.blockchain, this.p2pMgr, this.cfg.getNet().getP2p().isSyncOnlyNode()));
+        cbs.add(new ReqBlocksBodiesHandler(syncLog, servingCache, servingScheduler, this.p2pMgr, this.cfg.getNet().getP2p().isSyncOnlyNode()));
         cbs.add(new ResBlocksBodiesHandler(syncLog, this.syncMgr, this.p2pMgr));
-        cbs.add(new BroadcastTxHandler(syncLog, this.mempool, this.p2pMgr, this.cfg.getNet().getP2p().isSyncOnlyNode()));
+        cbs.add(new ReqTrieDataHandler(syncLog, this.repository, servingScheduler, this.p2pMgr, this.cfg.getNet().getP2p().isSyncOnlyNode()));
+        cbs.add(new ResTrieDataHandler(syncLog, this.syncMgr, this.p2pMgr));
+        cbs.add(new ReqReceiptsHandler(syncLog, AionBlockchainImpl.inst(), servingScheduler, this.p2pMgr, this.cfg.getNet().getP2p().isSyncOnlyNode()));
+        cbs.add(new ResReceiptsHandler(syncLog, this.syncMgr, this.p2pMgr));
+        cbs.add(new BroadcastTxHandler(syncLog, this.mempool, this.p2pMgr, this.txPropHandler,
+                this.cfg.getNet().getP2p().isSyncOnlyNode()));
+        cbs.add(new AnnounceTxHandler(syncLog, this.txPropHandler));
+        cbs.add(new ReqTxHandler(syncLog, this.txPropHandler));
         cbs.add(new BroadcastNewBlockHandler(syncLog, this.propHandler, this.p2pMgr));
         this.p2pMgr.register(cbs);
     }
@@ -250,6 +272,10 @@ public class AionHub {
         return propHandler;
     }
 
+    public TxPropagationHandler getTxPropHandler() {
+        return txPropHandler;
+    }
+
     private void loadBlockchain() {
 
         this.repository.getBlockStore().load();
@@ -260,8 +286,16 @@ public class AionHub {
         boolean bestBlockShifted = true;
         int countRecoveryAttempts = 0;
 
+        // the blocks below the pivot of a state sync are stored without state
+        A0BlockHeader stateSyncPivot = getStateSyncPivot(bestBlock);
+        if (stateSyncPivot != null) {
+            LOG.info("Resuming the state sync below pivot block {}, skipping the world state recovery.",
+                    stateSyncPivot.getNumber());
+        }
+
         // fix the trie if necessary
-        while (bestBlockShifted && // the best block was updated after recovery attempt
+        while (stateSyncPivot == null && // the state sync resumes instead
+                bestBlockShifted && // the best block was updated after recovery attempt
                 (countRecoveryAttempts < 5) && // allow 5 recovery attempts
                 bestBlock != null && // recover only for non-null blocks
                 !this.repository.isValidRoot(bestBlock.getStateRoot())) {
@@ -349,13 +383,32 @@ public class AionHub {
                     LogUtil.toHexF8(blockchain.getBestBlock().getStateRoot()));
         }
 
-        if (!Arrays.equals(blockchain.getBestBlock().getStateRoot(), EMPTY_TRIE_HASH)) {
+        if (stateSyncPivot != null) {
+            this.repository.syncToRoot(stateSyncPivot.getStateRoot());
+        } else if (!Arrays.equals(blockchain.getBestBlock().getStateRoot(), EMPTY_TRIE_HASH)) {
             this.repository.syncToRoot(blockchain.getBestBlock().getStateRoot());
         }
 
         this.repository.getBlockStore().load();
     }
 
+    /**
+     * @return the pivot of an interrupted state sync whose state is complete,
+     *         if the best block is one of the blocks stored below it, or
+     *         {@code null}
+     */
+    private A0BlockHeader getStateSyncPivot(AionBlock bestBlock) {
+        if (bestBlock == null) {
+            return null;
+        }
+        A0BlockHeader pivot = this.repository.getBlockStore().getStateSyncPivot();
+        if (pivot == null || bestBlock.getNumber() > pivot.getNumber()
+                || !this.repository.isValidRoot(pivot.getStateRoot())) {
+            return null;
+        }
+        return pivot;
+    }
+
     public void close() {
         LOG.info("<KERNEL SHUTDOWN SEQUENCE>");
 
@@ -391,6 +444,14 @@ public class AionHub {
         pow.shutdown();
         LOG.info("shutdown consensus... Done!");
 
+        if (blockchain instanceof AionBlockchainImpl) {
+            // the prefetching threads read from the databases
+            ((AionBlockchainImpl) blockchain).getStatePrefetcher().shutdown();
+            LOG.info("<shutdown-state-prefetcher>");
+            ((AionBlockchainImpl) blockchain).getTxExecutor().shutdown();
+            LOG.info("<shutdown-tx-executor>");
+        }
+
         if (repository != null) {
             LOG.info("shutting down DB...");
             repository.close();
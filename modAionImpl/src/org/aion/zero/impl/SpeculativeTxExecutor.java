@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *     
+ ******************************************************************************/
+
+package org.aion.zero.impl;
+
+import org.aion.base.db.IRepositoryCache;
+import org.aion.base.type.Address;
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.aion.mcf.core.AccountState;
+import org.aion.mcf.db.AbstractRepositoryCache;
+import org.aion.zero.db.AccessTrackingRepositoryCache;
+import org.aion.zero.types.AionTransaction;
+import org.aion.zero.types.AionTxExecSummary;
+import org.slf4j.Logger;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.aion.crypto.HashUtil.EMPTY_DATA_HASH;
+
+/**
+ * Executes the transactions of a block optimistically in parallel while
+ * producing exactly the result of sequential execution.
+ * <p>
+ * Every transaction is first executed on its own
+ * {@link AccessTrackingRepositoryCache} over the state at the start of the
+ * block. The results are then committed in block order. A result is kept
+ * only if none of the accounts the transaction accessed was written by a
+ * transaction ordered before it; otherwise the transaction is executed again
+ * on the block track, where it sees all the preceding changes.
+ * <p>
+ * Fee payments to the coinbase would make every transaction conflict with
+ * the previous one. For plain value transfers, which cannot observe the
+ * coinbase balance, the fee is applied to the block track as a delta
+ * instead of being checked as a read, and the coinbase is not counted as
+ * written. Only the transactions that access the coinbase otherwise, whose
+ * results hold a coinbase balance without the credited fees, are executed
+ * again.
+ */
+public class SpeculativeTxExecutor {
+
+    private static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.CONS.name());
+
+    /**
+     * Executes a transaction on the given repository.
+     */
+    public interface TxRunner {
+
+        AionTxExecSummary execute(AionTransaction tx, IRepositoryCache repository);
+    }
+
+    /**
+     * Notified in block order once the changes of a transaction are in the
+     * block track. The listener is expected to flush the track.
+     */
+    public interface CommitListener {
+
+        void committed(AionTransaction tx, AionTxExecSummary summary);
+    }
+
+    private final ExecutorService workers;
+
+    private final AtomicLong speculated = new AtomicLong();
+    private final AtomicLong reexecuted = new AtomicLong();
+
+    /**
+     * @param threads
+     *         the number of speculative execution threads; with fewer than
+     *         two threads transactions are executed sequentially
+     */
+    public SpeculativeTxExecutor(int threads) {
+        if (threads < 2) {
+            this.workers = null;
+        } else {
+            this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private AtomicInteger cnt = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "tx-speculate-" + cnt.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    /**
+     * Executes the transactions on the given track.
+     *
+     * @param txs
+     *         the transactions in block order
+     * @param coinbase
+     *         the beneficiary of the transaction fees
+     * @param track
+     *         the block track, which must not hold uncommitted changes
+     * @return the execution summaries in block order
+     */
+    public List<AionTxExecSummary> execute(List<AionTransaction> txs, Address coinbase, IRepositoryCache track,
+            TxRunner runner, CommitListener listener) {
+
+        List<AionTxExecSummary> summaries = new ArrayList<>(txs.size());
+
+        if (workers == null || txs.size() < 2 || !(track instanceof AbstractRepositoryCache)) {
+            for (AionTransaction tx : txs) {
+                AionTxExecSummary summary = runner.execute(tx, track);
+                listener.committed(tx, summary);
+                summaries.add(summary);
+            }
+            return summaries;
+        }
+
+        // all speculative runs read the state at the start of the block
+        List<Future<Speculation>> futures = new ArrayList<>(txs.size());
+        for (AionTransaction tx : txs) {
+            try {
+                futures.add(workers.submit(() -> {
+                    AccessTrackingRepositoryCache overlay = new AccessTrackingRepositoryCache(track);
+                    return new Speculation(overlay, runner.execute(tx, overlay));
+                }));
+            } catch (RejectedExecutionException e) {
+                // shut down, the transaction is executed on the block track
+                futures.add(null);
+            }
+        }
+
+        List<Speculation> results = new ArrayList<>(txs.size());
+        for (Future<Speculation> future : futures) {
+            results.add(await(future));
+        }
+
+        // commit in block order, the track is only written from here on
+        Set<Address> written = new HashSet<>();
+        // accounts credited with the fees of fee-only transfers
+        Set<Address> credited = new HashSet<>();
+        int conflicts = 0;
+
+        for (int i = 0; i < txs.size(); i++) {
+            AionTransaction tx = txs.get(i);
+            Speculation speculation = results.get(i);
+
+            AionTxExecSummary summary = speculation == null ? null
+                    : speculation.commit(tx, coinbase, track, written, credited);
+
+            if (summary == null) {
+                summary = runner.execute(tx, track);
+                written.addAll(((AbstractRepositoryCache<?>) track).getModifiedAccounts());
+                conflicts++;
+            }
+
+            listener.committed(tx, summary);
+            summaries.add(summary);
+        }
+
+        speculated.addAndGet(txs.size() - conflicts);
+        reexecuted.addAndGet(conflicts);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("speculative execution: {} txs, {} re-executed", txs.size(), conflicts);
+        }
+        return summaries;
+    }
+
+    private static Speculation await(Future<Speculation> future) {
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // the transaction is executed again on the block track
+            LOG.debug("speculative execution failed: {}", e.getCause().toString());
+            return null;
+        }
+    }
+
+    /**
+     * Stops the execution threads once the speculative runs already submitted
+     * are done, waiting briefly so they do not read from closed databases.
+     * Later blocks are executed sequentially.
+     */
+    public void shutdown() {
+        if (workers == null) {
+            return;
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOG.warn("speculative execution threads did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of transactions whose speculative result was kept
+     */
+    public long getSpeculatedCount() {
+        return speculated.get();
+    }
+
+    /**
+     * @return the number of transactions executed again due to conflicts
+     */
+    public long getReexecutedCount() {
+        return reexecuted.get();
+    }
+
+    private static final class Speculation {
+
+        private final AccessTrackingRepositoryCache overlay;
+        private final AionTxExecSummary summary;
+
+        private Speculation(AccessTrackingRepositoryCache overlay, AionTxExecSummary summary) {
+            this.overlay = overlay;
+            this.summary = summary;
+        }
+
+        /**
+         * Moves the speculative changes into the track unless they conflict
+         * with the accounts written by the preceding transactions.
+         *
+         * @return the summary, or {@code null} if the transaction must be
+         *         executed again
+         */
+        private AionTxExecSummary commit(AionTransaction tx, Address coinbase, IRepositoryCache track,
+                Set<Address> written, Set<Address> credited) {
+
+            if (summary == null || overlay.isOpaque()) {
+                return null;
+            }
+
+            Set<Address> reads = overlay.getAccessedAccounts();
+            boolean feeOnly = isFeeOnlyAccess(tx, coinbase, reads);
+            if (feeOnly) {
+                reads.remove(coinbase);
+            }
+
+            for (Address address : reads) {
+                if (written.contains(address) || credited.contains(address)) {
+                    return null;
+                }
+            }
+
+            BigInteger fee = null;
+            if (feeOnly) {
+                AccountState state = overlay.getCachedAccountState(coinbase);
+                if (state != null && state.isDirty()) {
+                    fee = state.getBalance().subtract(overlay.getInitialBalance(coinbase));
+                    if (fee.signum() <= 0) {
+                        return null;
+                    }
+                }
+                overlay.discard(coinbase);
+            }
+
+            // taken after the discard, the fee is not a write to the coinbase
+            Set<Address> writes = overlay.getModifiedAccounts();
+            overlay.flush();
+            if (fee != null) {
+                track.addBalance(coinbase, fee);
+                credited.add(coinbase);
+            }
+
+            written.addAll(writes);
+            return summary;
+        }
+
+        /**
+         * A value transfer between two accounts without code only touches
+         * the coinbase to pay the fee, so the coinbase balance does not
+         * influence its outcome.
+         */
+        private boolean isFeeOnlyAccess(AionTransaction tx, Address coinbase, Set<Address> reads) {
+            Address from = tx.getFrom();
+            Address to = tx.getTo();
+
+            if (tx.isContractCreation() || to == null || !reads.contains(coinbase)
+                    || coinbase.equals(from) || coinbase.equals(to)
+                    || overlay.getInitialBalance(coinbase) == null) {
+                return false;
+            }
+
+            for (Address address : reads) {
+                if (!address.equals(from) && !address.equals(to) && !address.equals(coinbase)) {
+                    return false;
+                }
+            }
+
+            AccountState recipient = overlay.getCachedAccountState(to);
+            return recipient != null && Arrays.equals(recipient.getCodeHash(), EMPTY_DATA_HASH);
+        }
+    }
+}
@@ -132,6 +132,10 @@ public class StandaloneBlockchain extends AionBlockchainImpl {
 
         private IRepositoryConfig repoConfig;
 
+        private boolean addressIndex = false;
+
+        private int txExecutorThreads = 1;
+
         public static final int INITIAL_ACC_LEN = 10;
         public static final BigInteger DEFAULT_BALANCE = new BigInteger("1000000000000000000000000");
 
@@ -172,6 +176,16 @@ public class StandaloneBlockchain extends AionBlockchainImpl {
             return this;
         }
 
+        public Builder withAddressIndex() {
+            this.addressIndex = true;
+            return this;
+        }
+
+        public Builder withTxExecutorThreads(int threads) {
+            this.txExecutorThreads = threads;
+            return this;
+        }
+
         public Builder withA0Config(A0BCConfig config) {
             this.a0Config = config;
             return this;
@@ -253,6 +267,16 @@ public class StandaloneBlockchain extends AionBlockchainImpl {
                             10_000_000L);
                 }
 
+                @Override
+                public boolean isAddressIndexEnabled() {
+                    return addressIndex;
+                }
+
+                @Override
+                public int getTxExecutorThreads() {
+                    return txExecutorThreads;
+                }
+
             } : this.a0Config;
 
             if (this.configuration == null) {
@@ -41,6 +41,7 @@ import org.aion.mcf.mine.IMineRunner;
 import org.aion.vm.TransactionExecutor;
 import org.aion.zero.impl.AionHub;
 import org.aion.zero.impl.config.CfgAion;
+import org.aion.zero.impl.db.AionRepositoryImpl;
 import org.aion.zero.impl.tx.TxCollector;
 import org.aion.zero.impl.types.AionBlock;
 import org.aion.zero.types.A0BlockHeader;
@@ -80,7 +81,7 @@ public class AionImpl implements IAionChain {
         LOG_GEN.info("<node-started endpoint=p2p://" + cfg.getId() + "@" + cfg.getNet().getP2p().getIp() + ":"
                 + cfg.getNet().getP2p().getPort() + ">");
 
-        collector = new TxCollector(this.aionHub.getP2pMgr(), LOG_TX);
+        collector = new TxCollector(this.aionHub.getP2pMgr(), this.aionHub.getTxPropHandler(), LOG_TX);
     }
 
 
@@ -147,7 +148,7 @@ public class AionImpl implements IAionChain {
             tx.sign(ECKeyFac.inst().fromPrivate(new byte[64]));
         }
 
-        IRepositoryCache repository = aionHub.getRepository().getSnapshotTo(block.getStateRoot()).startTracking();
+        IRepositoryCache repository = getStateSnapshot(block.getStateRoot()).startTracking();
 
         try {
             TransactionExecutor executor = new TransactionExecutor(tx, block, repository, true);
@@ -166,7 +167,7 @@ public class AionImpl implements IAionChain {
             tx.sign(ECKeyFac.inst().fromPrivate(new byte[64]));
         }
 
-        IRepositoryCache repository = aionHub.getRepository().getSnapshotTo(block.getStateRoot()).startTracking();
+        IRepositoryCache repository = getStateSnapshot(block.getStateRoot()).startTracking();
 
         try {
             TransactionExecutor executor = new TransactionExecutor(tx, block, repository, true);
@@ -194,6 +195,17 @@ public class AionImpl implements IAionChain {
         return snapshot;
     }
 
+    /**
+     * Read-only state at the given root, shared by the concurrent calls on it
+     * and read without contending with block import.
+     */
+    private IRepository getStateSnapshot(byte[] root) {
+        IRepository repository = aionHub.getRepository();
+        return repository instanceof AionRepositoryImpl
+                ? ((AionRepositoryImpl) repository).getStateSnapshot(root)
+                : repository.getSnapshotTo(root);
+    }
+
     @Override
     public List<AionTransaction> getWireTransactions() {
         return aionHub.getPendingState().getPendingTransactions();
@@ -279,7 +291,7 @@ public class AionImpl implements IAionChain {
     public Optional<AccountState> getAccountState(Address address, long blockNumber) {
         try {
             byte[] stateRoot = this.aionHub.getBlockStore().getChainBlockByNumber(blockNumber).getStateRoot();
-            AccountState account = (AccountState) this.aionHub.getRepository().getSnapshotTo(stateRoot)
+            AccountState account = (AccountState) getStateSnapshot(stateRoot)
                     .getAccountState(address);
 
             if (account == null)
@@ -297,7 +309,7 @@ public class AionImpl implements IAionChain {
     public Optional<AccountState> getAccountState(Address address, byte[] blockHash) {
         try {
             byte[] stateRoot = this.aionHub.getBlockchain().getBlockByHash(blockHash).getStateRoot();
-            AccountState account = (AccountState) this.aionHub.getRepository().getSnapshotTo(stateRoot)
+            AccountState account = (AccountState) getStateSnapshot(stateRoot)
                     .getAccountState(address);
 
             if (account == null)
@@ -314,7 +326,7 @@ public class AionImpl implements IAionChain {
     public Optional<AccountState> getAccountState(Address address) {
         try {
             byte[] stateRoot = this.aionHub.getBlockchain().getBestBlock().getStateRoot();
-            AccountState account = (AccountState) this.aionHub.getRepository().getSnapshotTo(stateRoot)
+            AccountState account = (AccountState) getStateSnapshot(stateRoot)
                     .getAccountState(address);
 
             if (account == null)
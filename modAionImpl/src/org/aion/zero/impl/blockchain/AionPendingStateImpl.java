@@ -28,6 +28,7 @@ import org.aion.base.Constant;
 import org.aion.base.db.IRepository;
 import org.aion.base.db.IRepositoryCache;
 import org.aion.base.type.Address;
+import org.aion.base.util.ByteArrayWrapper;
 import org.aion.base.util.ByteUtil;
 import org.aion.base.util.FastByteComparisons;
 import org.aion.base.util.Hex;
@@ -41,15 +42,19 @@ import org.aion.evtmgr.impl.evt.EventTx;
 import org.aion.log.AionLoggerFactory;
 import org.aion.log.LogEnum;
 import org.aion.mcf.blockchain.IPendingStateInternal;
+import org.aion.mcf.core.AccountState;
 import org.aion.mcf.db.TransactionStore;
 import org.aion.mcf.evt.IListenerBase.PendingTransactionState;
 import org.aion.txpool.ITxPool;
 import org.aion.txpool.TxPoolModule;
 import org.aion.vm.TransactionExecutor;
+import org.aion.zero.db.AccessTrackingRepositoryCache;
 import org.aion.zero.impl.AionBlockchainImpl;
 import org.aion.zero.impl.config.CfgAion;
 import org.aion.zero.impl.core.IAionBlockchain;
 import org.aion.zero.impl.db.AionRepositoryImpl;
+import org.aion.zero.impl.db.PendingTxJournal;
+import org.aion.zero.impl.db.StatePrefetcher;
 import org.aion.zero.impl.types.AionBlock;
 import org.aion.zero.impl.types.AionTxInfo;
 import org.aion.zero.impl.valid.TXValidator;
@@ -59,15 +64,20 @@ import org.aion.zero.types.AionTxReceipt;
 import org.aion.zero.types.IAionBlock;
 import org.slf4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static org.aion.crypto.HashUtil.EMPTY_DATA_HASH;
+
 public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, AionTransaction> {
 
     protected static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.TX.name());
@@ -103,6 +113,18 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
 
     private IRepositoryCache pendingState;
 
+    private StatePrefetcher prefetcher;
+
+    /**
+     * Results of the pending transactions executed on the current pending
+     * state that can be applied again without execution.
+     */
+    private Map<ByteArrayWrapper, PendingTxResult> pendingResults = new HashMap<>();
+
+    private final AtomicLong revalidatedTxs = new AtomicLong();
+
+    private final AtomicLong skippedTxs = new AtomicLong();
+
     private AtomicReference<AionBlock> best;
 
     static private AionPendingStateImpl inst;
@@ -123,12 +145,128 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
 
     private boolean poolBackUp;
 
+    private PendingTxJournal txJournal;
+
     private Map<byte[], byte[]> backupPendingPoolAdd;
     private Map<byte[], byte[]> backupPendingCacheAdd;
     private Set<byte[]> backupPendingPoolRemove;
 
     private ScheduledExecutorService ex;
 
+    /**
+     * The state change of a pending value transfer between accounts without
+     * code. The outcome of such a transfer only depends on the nonce and
+     * balance of its sender and recipient, so when those are unchanged on a
+     * new best block the recorded change is applied instead of executing the
+     * transaction again. The fee is paid to the coinbase of the new block.
+     */
+    private static final class PendingTxResult {
+
+        private final AionTxExecSummary summary;
+        private final Address[] accounts;
+        private final BigInteger[] nonceIn;
+        private final BigInteger[] balanceIn;
+        private final BigInteger[] nonceOut;
+        private final BigInteger[] balanceOut;
+        private final BigInteger fee;
+
+        private PendingTxResult(AionTxExecSummary summary, Address[] accounts, BigInteger[] nonceIn,
+                BigInteger[] balanceIn, BigInteger[] nonceOut, BigInteger[] balanceOut, BigInteger fee) {
+            this.summary = summary;
+            this.accounts = accounts;
+            this.nonceIn = nonceIn;
+            this.balanceIn = balanceIn;
+            this.nonceOut = nonceOut;
+            this.balanceOut = balanceOut;
+            this.fee = fee;
+        }
+
+        /**
+         * @return the recorded change, or {@code null} if the transaction
+         *         touched more than its sender, recipient and coinbase
+         */
+        private static PendingTxResult of(AionTransaction tx, AionTxExecSummary summary, Address coinbase,
+                AccessTrackingRepositoryCache txTrack, IRepositoryCache pendingState) {
+
+            Address from = tx.getFrom();
+            Address to = tx.getTo();
+            if (tx.isContractCreation() || to == null || txTrack.isOpaque() || coinbase.equals(from)
+                    || coinbase.equals(to)) {
+                return null;
+            }
+
+            Set<Address> accessed = txTrack.getAccessedAccounts();
+            BigInteger fee = BigInteger.ZERO;
+            if (accessed.remove(coinbase)) {
+                AccountState state = txTrack.getCachedAccountState(coinbase);
+                BigInteger initial = txTrack.getInitialBalance(coinbase);
+                if (state == null || initial == null) {
+                    return null;
+                }
+                fee = state.getBalance().subtract(initial);
+            }
+
+            Address[] accounts = from.equals(to) ? new Address[] { from } : new Address[] { from, to };
+            if (!accessed.equals(new HashSet<>(Arrays.asList(accounts)))) {
+                return null;
+            }
+
+            BigInteger[] nonceIn = new BigInteger[accounts.length];
+            BigInteger[] balanceIn = new BigInteger[accounts.length];
+            BigInteger[] nonceOut = new BigInteger[accounts.length];
+            BigInteger[] balanceOut = new BigInteger[accounts.length];
+            for (int i = 0; i < accounts.length; i++) {
+                AccountState state = txTrack.getCachedAccountState(accounts[i]);
+                if (state == null || !Arrays.equals(state.getCodeHash(), EMPTY_DATA_HASH)) {
+                    return null;
+                }
+                // the pending state does not hold the changes of the transaction yet
+                nonceIn[i] = pendingState.getNonce(accounts[i]);
+                balanceIn[i] = pendingState.getBalance(accounts[i]);
+                nonceOut[i] = state.getNonce();
+                balanceOut[i] = state.getBalance();
+            }
+
+            return new PendingTxResult(summary, accounts, nonceIn, balanceIn, nonceOut, balanceOut, fee);
+        }
+
+        /**
+         * Applies the recorded change to the pending state if the accounts
+         * of the transaction are in the state it was executed on.
+         *
+         * @return {@code false} if the transaction must be executed again
+         */
+        private boolean apply(AionTransaction tx, IAionBlock block, IRepositoryCache pendingState) {
+            Address coinbase = block.getCoinbase();
+            if (tx.getNrg() > block.getNrgLimit()) {
+                return false;
+            }
+
+            for (int i = 0; i < accounts.length; i++) {
+                if (accounts[i].equals(coinbase)
+                        || !pendingState.getNonce(accounts[i]).equals(nonceIn[i])
+                        || !pendingState.getBalance(accounts[i]).equals(balanceIn[i])
+                        || pendingState.getCode(accounts[i]).length > 0) {
+                    return false;
+                }
+            }
+
+            for (int i = 0; i < accounts.length; i++) {
+                if (!nonceOut[i].equals(nonceIn[i])) {
+                    pendingState.setNonce(accounts[i], nonceOut[i]);
+                }
+                BigInteger delta = balanceOut[i].subtract(balanceIn[i]);
+                if (delta.signum() != 0) {
+                    pendingState.addBalance(accounts[i], delta);
+                }
+            }
+            if (fee.signum() != 0) {
+                pendingState.addBalance(coinbase, fee);
+            }
+            return true;
+        }
+    }
+
     class TxBuffTask implements Runnable {
         @Override public void run() {
             processTxBuffer();
@@ -218,22 +356,66 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
         }
     }
 
-    private synchronized void backupPendingTx() {
-
-        if (!backupPendingPoolAdd.isEmpty()) {
-            repository.addTxBatch(backupPendingPoolAdd, true);
+    /**
+     * Opens the pending transaction journal in the database folder. The
+     * transactions backed up in the database by earlier versions are moved
+     * into a newly created journal.
+     *
+     * @return {@code false} if the journal cannot be used
+     */
+    private boolean openTxJournal() {
+        CfgAion cfg = CfgAion.inst();
+        File journalFile = new File(new File(cfg.getBasePath(), cfg.getDb().getPath()), "pendingtx.journal");
+
+        try {
+            journalFile.getParentFile().mkdirs();
+            txJournal = new PendingTxJournal(journalFile);
+
+            if (txJournal.isCreated()) {
+                txJournal.add(hashed(repository.getPoolTx()), true);
+                txJournal.add(hashed(repository.getCacheTx()), false);
+                txJournal.flush();
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.error("Unable to open the pending transaction journal, pool backup disabled.", e);
+            txJournal = null;
+            return false;
         }
+    }
 
-        if (!backupPendingCacheAdd.isEmpty()) {
-            repository.addTxBatch(backupPendingCacheAdd, false);
+    private static Map<byte[], byte[]> hashed(List<byte[]> encodedTxs) {
+        Map<byte[], byte[]> rtn = new HashMap<>();
+        for (byte[] b : encodedTxs) {
+            try {
+                rtn.put(new AionTransaction(b).getHash(), b);
+            } catch (Exception e) {
+                LOG.error("Unable to decode backed up tx {}", e.toString());
+            }
         }
+        return rtn;
+    }
 
-        if (!backupPendingPoolRemove.isEmpty()) {
-            repository.removeTxBatch(backupPendingPoolRemove, true);
-        }
+    private synchronized void backupPendingTx() {
+
+        try {
+            if (!backupPendingPoolAdd.isEmpty()) {
+                txJournal.add(backupPendingPoolAdd, true);
+            }
+
+            if (!backupPendingCacheAdd.isEmpty()) {
+                txJournal.add(backupPendingCacheAdd, false);
+            }
+
+            if (!backupPendingPoolRemove.isEmpty()) {
+                txJournal.remove(backupPendingPoolRemove, true);
+            }
 
-        repository.removeTxBatch(pendingTxCache.getClearTxHash(), false);
-        repository.flush();
+            txJournal.remove(pendingTxCache.getClearTxHash(), false);
+            txJournal.flush();
+        } catch (IOException e) {
+            LOG.error("Pending tx backup failed {}", e.toString());
+        }
 
         backupPendingPoolAdd.clear();
         backupPendingCacheAdd.clear();
@@ -291,9 +473,10 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
             this.blockchain = blockchain;
             this.best = new AtomicReference<>();
             this.transactionStore = blockchain.getTransactionStore();
+            this.prefetcher = blockchain.getStatePrefetcher();
 
             this.evtMgr = blockchain.getEventMgr();
-            this.poolBackUp = CfgAion.inst().getTx().getPoolBackup();
+            this.poolBackUp = CfgAion.inst().getTx().getPoolBackup() && openTxJournal();
             this.pendingTxCache = new PendingTxCache(CfgAion.inst().getTx().getCacheMax(), poolBackUp);
             this.pendingState = repository.startTracking();
 
@@ -378,6 +561,10 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
 
     }
 
+    @Override public AionTransaction getPendingTransaction(byte[] txHash) {
+        return isSeed ? null : this.txPool.getPoolTx(ByteArrayWrapper.wrap(txHash));
+    }
+
     public synchronized AionBlock getBestBlock() {
         best.set(blockchain.getBestBlock());
         return best.get();
@@ -853,18 +1040,36 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
 
         pendingState = repository.startTracking();
 
+        // results recorded on the previous pending state
+        Map<ByteArrayWrapper, PendingTxResult> previous = pendingResults;
+        pendingResults = new HashMap<>();
+
         processTxBuffer();
         List<AionTransaction> pendingTxl = this.txPool.snapshotAll();
         List<AionTransaction> rtn = new ArrayList<>();
         if (LOG.isInfoEnabled()) {
             LOG.info("updateState - snapshotAll tx[{}]", pendingTxl.size());
         }
+
+        int revalidated = 0;
+        int skipped = 0;
         for (AionTransaction tx : pendingTxl) {
             if (LOG.isTraceEnabled()) {
                 LOG.trace("updateState - loop: " + tx.toString());
             }
 
-            AionTxExecSummary txSum = executeTx(tx, false);
+            ByteArrayWrapper hash = ByteArrayWrapper.wrap(tx.getHash());
+            PendingTxResult result = previous.get(hash);
+
+            AionTxExecSummary txSum;
+            if (result != null && result.apply(tx, block, pendingState)) {
+                txSum = result.summary;
+                pendingResults.put(hash, result);
+                skipped++;
+            } else {
+                txSum = executeTx(tx, false);
+                revalidated++;
+            }
             AionTxReceipt receipt = txSum.getReceipt();
             receipt.setTransaction(tx);
 
@@ -884,6 +1089,13 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
             }
         }
 
+        revalidatedTxs.set(revalidated);
+        skippedTxs.set(skipped);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("updateState - block[{}] revalidated tx[{}] skipped tx[{}]", block.getNumber(), revalidated,
+                    skipped);
+        }
+
         return rtn;
     }
 
@@ -905,13 +1117,46 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
             LOG.trace("executeTx: {}", Hex.toHexString(tx.getHash()));
         }
 
-        TransactionExecutor executor = new TransactionExecutor(tx, bestBlk, pendingState);
+        // execute on a nested track so the state touched by this transaction can be recorded
+        AccessTrackingRepositoryCache txTrack = new AccessTrackingRepositoryCache(pendingState);
+        TransactionExecutor executor = new TransactionExecutor(tx, bestBlk, txTrack);
 
         if (inPool) {
             executor.setBypassNonce(true);
         }
 
-        return executor.execute();
+        AionTxExecSummary summary = executor.execute();
+
+        if (prefetcher != null && !summary.isRejected()) {
+            prefetcher.record(tx.getHash(), txTrack);
+        }
+
+        // nonce checks are bypassed for replacements, their result is not kept
+        if (!inPool && !summary.isRejected()) {
+            PendingTxResult result = PendingTxResult.of(tx, summary, bestBlk.getCoinbase(), txTrack, pendingState);
+            if (result != null) {
+                pendingResults.put(ByteArrayWrapper.wrap(tx.getHash()), result);
+            }
+        }
+        txTrack.flush();
+
+        return summary;
+    }
+
+    /**
+     * @return the number of pending transactions executed again on the last
+     *         update of the pending state
+     */
+    public long getRevalidatedTxCount() {
+        return revalidatedTxs.get();
+    }
+
+    /**
+     * @return the number of pending transactions whose result was kept on
+     *         the last update of the pending state
+     */
+    public long getSkippedTxCount() {
+        return skippedTxs.get();
     }
 
     @Override public synchronized BigInteger bestPendingStateNonce(Address addr) {
@@ -938,6 +1183,12 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
         if (ees != null) {
             ees.shutdown();
         }
+
+        if (txJournal != null) {
+            synchronized (this) {
+                txJournal.close();
+            }
+        }
     }
 
     @Override public synchronized void DumpPool() {
@@ -1001,9 +1252,9 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
 
     private void recoverCache() {
 
-        LOG.info("pendingCacheTx loading from DB");
+        LOG.info("pendingCacheTx loading from journal");
         long t1 = System.currentTimeMillis();
-        List<byte[]> pendingCacheTxBytes = repository.getCacheTx();
+        List<byte[]> pendingCacheTxBytes = txJournal == null ? Collections.emptyList() : txJournal.getCacheTx();
 
         List<AionTransaction> pendingTx = new ArrayList<>();
         for (byte[] b : pendingCacheTxBytes) {
@@ -1035,14 +1286,14 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
         }
 
         long t2 = System.currentTimeMillis() - t1;
-        LOG.info("{} pendingCacheTx loaded from DB into the pendingCache, {} ms", cnt, t2);
+        LOG.info("{} pendingCacheTx loaded from journal into the pendingCache, {} ms", cnt, t2);
     }
 
     private void recoverPool() {
 
-        LOG.info("pendingPoolTx loading from DB");
+        LOG.info("pendingPoolTx loading from journal");
         long t1 = System.currentTimeMillis();
-        List<byte[]> pendingPoolTxBytes = repository.getPoolTx();
+        List<byte[]> pendingPoolTxBytes = txJournal == null ? Collections.emptyList() : txJournal.getPoolTx();
 
         List<AionTransaction> pendingTx = new ArrayList<>();
         for (byte[] b : pendingPoolTxBytes) {
@@ -1073,7 +1324,7 @@ public class AionPendingStateImpl implements IPendingStateInternal<AionBlock, Ai
 
         addPendingTransactions(pendingPoolTx);
         long t2 = System.currentTimeMillis() - t1;
-        LOG.info("{} pendingPoolTx loaded from DB loaded into the txpool, {} ms", pendingPoolTx.size(), t2);
+        LOG.info("{} pendingPoolTx loaded from journal into the txpool, {} ms", pendingPoolTx.size(), t2);
     }
 
     @Override public String getVersion() {
@@ -132,6 +132,11 @@ public class Cli {
                 case "--db-compact":
                     RecoveryUtils.dbCompact();
                     break;
+                case "--db-migrate-details":
+                    System.out.println("Starting contract details migration.");
+                    RecoveryUtils.migrateContractDetails();
+                    System.out.println("Finished contract details migration.");
+                    break;
                 case "--dump-blocks":
                     long count = 100L;
 
@@ -190,6 +195,8 @@ public class Cli {
         System.out.println("  -r                           remove blocks on side chains and correct block info");
         System.out.println("  -r [block_number]            revert db up to specific block number");
         System.out.println();
+        System.out.println("  --db-migrate-details         move contract code out of the details db into the code store");
+        System.out.println();
         System.out.println("  -v                           show version");
     }
 
@@ -0,0 +1,483 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.db.IByteArrayKeyValueDatabase;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteArrayWrapper;
+import org.aion.base.util.ByteUtil;
+import org.aion.base.util.FastByteComparisons;
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.aion.rlp.RLP;
+import org.aion.rlp.RLPElement;
+import org.aion.rlp.RLPList;
+import org.aion.zero.types.AionInternalTx;
+import org.aion.zero.types.AionTransaction;
+import org.aion.zero.types.AionTxExecSummary;
+import org.aion.zero.types.IAionBlock;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Index from an address to the main chain transactions that touched it, as
+ * sender, recipient, created contract or party of one of their internal
+ * transactions.
+ * <p>
+ * The entries of an address are numbered in chain order: entries of new main
+ * chain blocks are appended above the current range of the address, and the
+ * backfill of the blocks stored before the index was enabled prepends them
+ * below it, walking down the parents of the newest of these blocks. The range
+ * of each address is kept in its own record, so pages are read newest first
+ * without scanning.
+ * <p>
+ * Every block added to the chain, on the main chain or not, and every
+ * backfilled block also stores the list of addresses it touched. A block
+ * leaving the main chain through a reorganization removes its entries from
+ * the top of the ranges of these addresses, and a block joining it appends
+ * its entries, without executing the block. The list is kept when the block
+ * is reverted, so the block keeps the entries of its internal transactions
+ * if it is imported again. A reorganization below the next block of the
+ * backfill moves the backfill down to the common ancestor, as the blocks of
+ * the new branch above it are appended instead.
+ *
+ * @implNote The backfill only knows the transactions of the stored blocks,
+ *         so for these blocks the addresses reached by internal transactions
+ *         are not indexed. Blocks imported while the index is disabled are
+ *         not indexed either once it is enabled again; the index database
+ *         has to be deleted to rebuild it.
+ */
+public class AddressIndex implements Closeable {
+
+    private static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.DB.name());
+
+    private static final byte[] BACKFILL_KEY = new byte[] { 0x00 };
+    private static final byte BLOCK_PREFIX = 0x01;
+    private static final byte RANGE_PREFIX = 0x02;
+    private static final byte ENTRY_PREFIX = 0x03;
+
+    private static final int BACKFILL_LOG_INTERVAL = 100_000;
+
+    /**
+     * A transaction touching an address.
+     */
+    public static final class Entry {
+        private final long blockNumber;
+        private final byte[] blockHash;
+        private final int txIndex;
+
+        private Entry(long blockNumber, byte[] blockHash, int txIndex) {
+            this.blockNumber = blockNumber;
+            this.blockHash = blockHash;
+            this.txIndex = txIndex;
+        }
+
+        public long getBlockNumber() {
+            return blockNumber;
+        }
+
+        public byte[] getBlockHash() {
+            return blockHash;
+        }
+
+        public int getTxIndex() {
+            return txIndex;
+        }
+    }
+
+    private final IByteArrayKeyValueDatabase source;
+
+    private Thread backfill;
+    private volatile boolean closed = false;
+
+    public AddressIndex(IByteArrayKeyValueDatabase src) {
+        this.source = src;
+    }
+
+    /**
+     * @return the addresses touched by the transaction, with those of its
+     *         internal transactions when the execution summary is given;
+     *         like failed transactions, rejected internal transactions are
+     *         listed too
+     */
+    public static Set<Address> touchedAddresses(AionTransaction tx, AionTxExecSummary summary) {
+        Set<Address> addresses = new LinkedHashSet<>();
+        addTransaction(addresses, tx);
+
+        if (summary != null && summary.getInternalTransactions() != null) {
+            for (AionInternalTx internal : summary.getInternalTransactions()) {
+                addTransaction(addresses, internal);
+            }
+        }
+        return addresses;
+    }
+
+    private static void addTransaction(Set<Address> addresses, AionTransaction tx) {
+        if (tx.getFrom() != null) {
+            addresses.add(tx.getFrom());
+        }
+        if (tx.isContractCreation()) {
+            addresses.add(tx.getContractAddress());
+        } else if (tx.getTo() != null) {
+            addresses.add(tx.getTo());
+        }
+    }
+
+    /**
+     * Stores the addresses touched by an executed block and, when the block
+     * is on the main chain, adds its entries. The addresses of a block stored
+     * before, which is the case for a block imported again after a revert,
+     * are kept.
+     *
+     * @param summaries the execution summaries of the transactions, or
+     *         {@code null} if the block was not executed, in which case
+     *         internal transactions are not indexed
+     */
+    public synchronized void putBlock(IAionBlock block, List<AionTxExecSummary> summaries, boolean onMainChain) {
+        if (closed) {
+            return;
+        }
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        byte[] record = readOrCreateRecord(batch, block, summaries);
+
+        if (onMainChain) {
+            if (!readBackfill().isPresent()) {
+                batch.put(BACKFILL_KEY, encodeBackfill(block.getNumber() - 1, block.getParentHash()));
+            }
+            append(batch, block.getHash(), record);
+        }
+        source.putBatch(batch);
+    }
+
+    /**
+     * Adds the entries of a stored block that joined the main chain. The
+     * address list of a block stored before the index was enabled is created
+     * from its transactions.
+     */
+    public synchronized void applyBlock(IAionBlock block) {
+        if (closed) {
+            return;
+        }
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        byte[] record = readOrCreateRecord(batch, block, null);
+        append(batch, block.getHash(), record);
+        source.putBatch(batch);
+    }
+
+    /**
+     * Removes the entries of a stored block that left the main chain. They
+     * are the newest entries of their addresses, as the blocks above it on
+     * the old main chain were reverted first. A block the backfill has not
+     * reached yet has no entries, the backfill then continues below it.
+     */
+    public synchronized void revertBlock(IAionBlock block) {
+        if (closed) {
+            return;
+        }
+        if (block.getNumber() <= getBackfillBlock()) {
+            source.put(BACKFILL_KEY, encodeBackfill(block.getNumber() - 1, block.getParentHash()));
+            return;
+        }
+
+        byte[] blockHash = block.getHash();
+        Optional<byte[]> record = source.get(key(BLOCK_PREFIX, blockHash));
+        if (!record.isPresent()) {
+            return;
+        }
+
+        RLPList touches = (RLPList) ((RLPList) RLP.decode2(record.get()).get(0)).get(1);
+        Map<ByteArrayWrapper, long[]> ranges = new HashMap<>();
+        List<byte[]> deleted = new ArrayList<>();
+
+        for (int i = touches.size() - 1; i >= 0; i--) {
+            byte[] address = ((RLPList) touches.get(i)).get(0).getRLPData();
+            long[] range = ranges.computeIfAbsent(ByteArrayWrapper.wrap(address), a -> readRange(address));
+            if (range[1] == range[0]) {
+                continue;
+            }
+
+            byte[] entryKey = entryKey(address, range[1] - 1);
+            Optional<Entry> top = source.get(entryKey).map(AddressIndex::decodeEntry);
+            if (top.isPresent() && FastByteComparisons.equal(top.get().blockHash, blockHash)) {
+                deleted.add(entryKey);
+                range[1]--;
+            }
+        }
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        putRanges(batch, ranges);
+        source.putBatch(batch);
+        source.deleteBatch(deleted);
+    }
+
+    /**
+     * @return the number of transactions that touched the address
+     */
+    public synchronized long getCount(Address address) {
+        long[] range = readRange(address.toBytes());
+        return range[1] - range[0];
+    }
+
+    /**
+     * Lists the transactions that touched the address, newest first.
+     *
+     * @param skip the number of newest transactions to skip
+     * @param limit the maximum number of transactions returned
+     */
+    public synchronized List<Entry> getEntries(Address address, long skip, int limit) {
+        byte[] bytes = address.toBytes();
+        long[] range = readRange(bytes);
+
+        List<Entry> entries = new ArrayList<>();
+        for (long seq = range[1] - 1 - Math.max(skip, 0); seq >= range[0] && entries.size() < limit; seq--) {
+            source.get(entryKey(bytes, seq)).map(AddressIndex::decodeEntry).ifPresent(entries::add);
+        }
+        return entries;
+    }
+
+    /**
+     * @return the number of the next block the backfill indexes, or
+     *         {@code -1} if there is none
+     */
+    public synchronized long getBackfillBlock() {
+        return readBackfill().map(AddressIndex::backfillNumber).orElse(-1L);
+    }
+
+    /**
+     * @return the hash of the next block the backfill indexes, or
+     *         {@code null} if there is none
+     */
+    private synchronized byte[] getBackfillHash() {
+        Optional<byte[]> backfill = readBackfill();
+        return backfill.isPresent() && backfillNumber(backfill.get()) >= 0 ? backfillHash(backfill.get()) : null;
+    }
+
+    /**
+     * Starts indexing the main chain blocks stored before the index was
+     * enabled on a background thread. When the index is new, these are the
+     * given best block and its ancestors.
+     *
+     * @param blocks gets the stored block with a given hash
+     */
+    public void startBackfill(IAionBlock best, Function<byte[], ? extends IAionBlock> blocks) {
+        synchronized (this) {
+            if (closed || backfill != null) {
+                return;
+            }
+            if (!readBackfill().isPresent()) {
+                source.put(BACKFILL_KEY, encodeBackfill(best.getNumber(), best.getHash()));
+            }
+            if (getBackfillBlock() < 0) {
+                return;
+            }
+
+            backfill = new Thread(() -> runBackfill(blocks), "addr-index");
+            backfill.setDaemon(true);
+        }
+
+        LOG.info("Address index backfill started from block: {}", getBackfillBlock());
+        backfill.start();
+    }
+
+    private void runBackfill(Function<byte[], ? extends IAionBlock> blocks) {
+        byte[] hash;
+        while (!closed && (hash = getBackfillHash()) != null) {
+            IAionBlock block = blocks.apply(hash);
+            if (block == null) {
+                LOG.warn("Address index backfill stopped, block {} is missing.", ByteUtil.toHexString(hash));
+                return;
+            }
+            long number = block.getNumber();
+            backfillBlock(block);
+
+            if (number % BACKFILL_LOG_INTERVAL == 0) {
+                LOG.info("Address index backfill reached block: {}", number);
+            }
+        }
+        if (!closed) {
+            LOG.info("Address index backfill completed.");
+        }
+    }
+
+    private synchronized void backfillBlock(IAionBlock block) {
+        // a reorganization may have moved the backfill since the block was read
+        if (closed || !Arrays.equals(block.getHash(), getBackfillHash())) {
+            return;
+        }
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        Map<ByteArrayWrapper, long[]> ranges = new HashMap<>();
+        readOrCreateRecord(batch, block, null);
+
+        // prepended in reverse so the entries stay in chain order
+        List<AionTransaction> txs = block.getTransactionsList();
+        for (int i = txs.size() - 1; i >= 0; i--) {
+            byte[] entry = encodeEntry(block.getNumber(), block.getHash(), i);
+            for (Address address : touchedAddresses(txs.get(i), null)) {
+                byte[] bytes = address.toBytes();
+                long[] range = ranges.computeIfAbsent(ByteArrayWrapper.wrap(bytes), a -> readRange(bytes));
+                range[0]--;
+                batch.put(entryKey(bytes, range[0]), entry);
+            }
+        }
+
+        putRanges(batch, ranges);
+        batch.put(BACKFILL_KEY, encodeBackfill(block.getNumber() - 1, block.getParentHash()));
+        source.putBatch(batch);
+    }
+
+    @Override
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = backfill;
+        }
+
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the stored list of the addresses touched by the block, or a new
+     *         one added to the batch
+     */
+    private byte[] readOrCreateRecord(Map<byte[], byte[]> batch, IAionBlock block,
+            List<AionTxExecSummary> summaries) {
+        byte[] record = source.get(key(BLOCK_PREFIX, block.getHash())).orElse(null);
+        if (record == null) {
+            List<AionTransaction> txs = block.getTransactionsList();
+            List<byte[]> touches = new ArrayList<>();
+            for (int i = 0; i < txs.size(); i++) {
+                AionTxExecSummary summary = summaries == null || i >= summaries.size() ? null : summaries.get(i);
+                for (Address address : touchedAddresses(txs.get(i), summary)) {
+                    touches.add(RLP.encodeList(RLP.encodeElement(address.toBytes()), RLP.encodeInt(i)));
+                }
+            }
+            record = RLP.encodeList(RLP.encodeLong(block.getNumber()),
+                    RLP.encodeList(touches.toArray(new byte[0][])));
+            batch.put(key(BLOCK_PREFIX, block.getHash()), record);
+        }
+        return record;
+    }
+
+    /**
+     * Appends the entries of a block record to the batch.
+     */
+    private void append(Map<byte[], byte[]> batch, byte[] blockHash, byte[] record) {
+        RLPList decoded = (RLPList) RLP.decode2(record).get(0);
+        long number = ByteUtil.byteArrayToLong(decoded.get(0).getRLPData());
+
+        Map<ByteArrayWrapper, long[]> ranges = new HashMap<>();
+        for (RLPElement element : (RLPList) decoded.get(1)) {
+            RLPList touch = (RLPList) element;
+            byte[] address = touch.get(0).getRLPData();
+            int index = ByteUtil.byteArrayToInt(touch.get(1).getRLPData());
+
+            long[] range = ranges.computeIfAbsent(ByteArrayWrapper.wrap(address), a -> readRange(address));
+            batch.put(entryKey(address, range[1]), encodeEntry(number, blockHash, index));
+            range[1]++;
+        }
+        putRanges(batch, ranges);
+    }
+
+    private Optional<byte[]> readBackfill() {
+        return source.get(BACKFILL_KEY);
+    }
+
+    /**
+     * Encodes the number and the hash of the next block the backfill indexes.
+     */
+    private static byte[] encodeBackfill(long number, byte[] hash) {
+        return ByteBuffer.allocate(8 + hash.length).putLong(number).put(hash).array();
+    }
+
+    private static long backfillNumber(byte[] backfill) {
+        return ByteBuffer.wrap(backfill).getLong();
+    }
+
+    private static byte[] backfillHash(byte[] backfill) {
+        return Arrays.copyOfRange(backfill, 8, backfill.length);
+    }
+
+    /**
+     * @return the first entry number of the address and the number after its
+     *         last entry
+     */
+    private long[] readRange(byte[] address) {
+        Optional<byte[]> record = source.get(key(RANGE_PREFIX, address));
+        if (!record.isPresent()) {
+            return new long[] { 0, 0 };
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(record.get());
+        return new long[] { buffer.getLong(), buffer.getLong() };
+    }
+
+    private static void putRanges(Map<byte[], byte[]> batch, Map<ByteArrayWrapper, long[]> ranges) {
+        for (Map.Entry<ByteArrayWrapper, long[]> range : ranges.entrySet()) {
+            batch.put(key(RANGE_PREFIX, range.getKey().getData()),
+                    ByteBuffer.allocate(16).putLong(range.getValue()[0]).putLong(range.getValue()[1]).array());
+        }
+    }
+
+    private static byte[] key(byte prefix, byte[] hash) {
+        byte[] key = new byte[hash.length + 1];
+        key[0] = prefix;
+        System.arraycopy(hash, 0, key, 1, hash.length);
+        return key;
+    }
+
+    private static byte[] entryKey(byte[] address, long seq) {
+        return ByteBuffer.allocate(address.length + 9).put(ENTRY_PREFIX).put(address).putLong(seq).array();
+    }
+
+    private static byte[] encodeEntry(long number, byte[] blockHash, int index) {
+        return RLP.encodeList(RLP.encodeLong(number), RLP.encodeElement(blockHash), RLP.encodeInt(index));
+    }
+
+    private static Entry decodeEntry(byte[] encoded) {
+        RLPList entry = (RLPList) RLP.decode2(encoded).get(0);
+        return new Entry(ByteUtil.byteArrayToLong(entry.get(0).getRLPData()), entry.get(1).getRLPData(),
+                ByteUtil.byteArrayToInt(entry.get(2).getRLPData()));
+    }
+}
@@ -29,6 +29,7 @@ import org.aion.base.util.Hex;
 import org.aion.log.AionLoggerFactory;
 import org.aion.log.LogEnum;
 import org.aion.mcf.db.AbstractPowBlockstore;
+import org.aion.mcf.db.AncientStore;
 import org.aion.mcf.ds.DataSourceArray;
 import org.aion.mcf.ds.ObjectDataSource;
 import org.aion.mcf.ds.Serializer;
@@ -44,31 +45,80 @@ import java.io.*;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 import static java.math.BigInteger.ZERO;
 import static org.aion.crypto.HashUtil.shortHash;
 
+/**
+ * Stores the blocks with an index of the blocks at each level.
+ * <p>
+ * Next to the level records, the index database holds two fixed-width
+ * indexes derived from them: the main chain block hash by number, and the
+ * number and total difficulty by block hash. They are rewritten with the
+ * level records, so lookups by number or hash on the main chain read a
+ * single small record instead of decoding the blocks of a level. Stores
+ * written before these indexes are migrated when opened.
+ * <p>
+ * When an {@link AncientStore} is given, the main chain blocks of the oldest
+ * levels can be moved to it by {@link #freeze(long, Function)}. A frozen level
+ * holds only its main chain block: the level is read from the ancient store,
+ * and the blocks of the level, its level record and its main chain hash are
+ * removed from the databases, while the number and total difficulty of the
+ * block stay indexed by its hash. Frozen levels are never changed again.
+ */
 public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHeader> {
 
     private static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.DB.name());
 
+    /** The tables of the ancient store, in the order of the appended items. */
+    public static final String[] ANCIENT_TABLES = { "hashes", "blocks", "tds", "receipts" };
+
+    private static final int ANCIENT_HASHES = 0;
+    private static final int ANCIENT_BLOCKS = 1;
+    private static final int ANCIENT_TDS = 2;
+    private static final int ANCIENT_RECEIPTS = 3;
+
+    // number -> main chain hash
+    private static final byte CANONICAL_PREFIX = 'c';
+    // hash -> number and total difficulty
+    private static final byte HASH_PREFIX = 'h';
+    private static final int TD_LENGTH = 32;
+    private static final byte[] INDEX_VERSION_KEY = { 'v' };
+    private static final byte[] INDEX_VERSION = { 1 };
+    // header of the pivot of the state sync storing the blocks below it
+    private static final byte[] STATE_SYNC_PIVOT_KEY = { 'p' };
+    private static final int MIGRATION_BATCH = 10_000;
+
     protected ReadWriteLock lock = new ReentrantReadWriteLock();
 
     private IByteArrayKeyValueDatabase indexDS;
     private DataSourceArray<List<BlockInfo>> index;
     private IByteArrayKeyValueDatabase blocksDS;
     private ObjectDataSource<AionBlock> blocks;
+    private AncientStore ancient;
 
     public AionBlockStore(IByteArrayKeyValueDatabase index, IByteArrayKeyValueDatabase blocks) {
-        init(index, blocks);
+        init(index, blocks, null);
     }
 
-    private void init(IByteArrayKeyValueDatabase index, IByteArrayKeyValueDatabase blocks) {
+    /**
+     * @param ancient the store holding the frozen levels, opened with
+     *         {@link #ANCIENT_TABLES}, or {@code null}
+     */
+    public AionBlockStore(IByteArrayKeyValueDatabase index, IByteArrayKeyValueDatabase blocks, AncientStore ancient) {
+        init(index, blocks, ancient);
+    }
 
+    private void init(IByteArrayKeyValueDatabase index, IByteArrayKeyValueDatabase blocks, AncientStore ancient) {
+
+        this.ancient = ancient;
         this.indexDS = index;
         this.index = new DataSourceArray<>(new ObjectDataSource<>(index, BLOCK_INFO_SERIALIZER));
         this.blocksDS = blocks;
@@ -85,6 +135,9 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
             }
         });
 
+        if (!indexDS.get(INDEX_VERSION_KEY).isPresent()) {
+            migrateIndexes();
+        }
     }
 
     public AionBlock getBestBlock() {
@@ -119,16 +172,11 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
             if (blockNumber < 0L || blockNumber >= index.size()) {
                 return null;
             }
-
-            List<BlockInfo> blockInfos = index.get(blockNumber);
-
-            for (BlockInfo blockInfo : blockInfos) {
-                if (blockInfo.isMainChain()) {
-                    return blockInfo.getHash();
-                }
+            if (blockNumber < getFrozenSize()) {
+                return ancient.get(ANCIENT_HASHES, blockNumber);
             }
 
-            return null;
+            return getCanonicalHash(blockNumber);
         } finally {
             lock.readLock().unlock();
         }
@@ -174,6 +222,10 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
      */
     private void addInternalBlock(AionBlock block, BigInteger cummDifficulty, boolean mainChain) {
         long blockNumber = block.getNumber();
+        if (blockNumber < getFrozenSize()) {
+            LOG.error("Cannot store block #" + blockNumber + " at a frozen level.");
+            return;
+        }
         List<BlockInfo> blockInfos = blockNumber >= index.size() ? new ArrayList<>() : index.get(blockNumber);
 
         // if the blocks are added out of order, the size will be updated without changing the index value
@@ -191,7 +243,7 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
         blockInfos.add(blockInfo);
 
         blocks.put(block.getHash(), block);
-        index.set(block.getNumber(), blockInfos);
+        setBlockInfoForLevel(block.getNumber(), blockInfos);
     }
 
     public List<Map.Entry<AionBlock, Map.Entry<BigInteger, Boolean>>> getBlocksByNumber(long number) {
@@ -204,12 +256,12 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
                 return result;
             }
 
-            List<BlockInfo> blockInfos = index.get(number);
+            List<BlockInfo> blockInfos = getBlockInfoForLevel(number);
 
             for (BlockInfo blockInfo : blockInfos) {
 
                 byte[] hash = blockInfo.getHash();
-                AionBlock block = blocks.get(hash);
+                AionBlock block = getBlock(hash);
 
                 result.add(Map.entry(block, Map.entry(blockInfo.getCummDifficulty(), blockInfo.mainChain)));
             }
@@ -229,17 +281,12 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
             if (number < 0L || number >= size) {
                 return null;
             }
-
-            List<BlockInfo> blockInfos = index.get(number);
-
-            for (BlockInfo blockInfo : blockInfos) {
-                if (blockInfo.isMainChain()) {
-                    byte[] hash = blockInfo.getHash();
-                    return blocks.get(hash);
-                }
+            if (number < getFrozenSize()) {
+                return getFrozenBlock(number);
             }
 
-            return null;
+            byte[] hash = getCanonicalHash(number);
+            return hash == null ? null : blocks.get(hash);
         } finally {
             lock.readLock().unlock();
         }
@@ -254,17 +301,18 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
             if (number < 0L || number >= size) {
                 return null;
             }
-
-            List<BlockInfo> blockInfos = index.get(number);
-
-            for (BlockInfo blockInfo : blockInfos) {
-                if (blockInfo.isMainChain()) {
-                    byte[] hash = blockInfo.getHash();
-                    return Map.entry(blocks.get(hash), blockInfo.getCummDifficulty());
-                }
+            AionBlock block;
+            byte[] hash;
+            if (number < getFrozenSize()) {
+                block = getFrozenBlock(number);
+                hash = ancient.get(ANCIENT_HASHES, number);
+            } else {
+                hash = getCanonicalHash(number);
+                block = hash == null ? null : blocks.get(hash);
             }
 
-            return null;
+            byte[] entry = block == null ? null : getHashEntry(hash);
+            return entry == null ? null : Map.entry(block, getTotalDifficulty(entry));
         } finally {
             lock.readLock().unlock();
         }
@@ -274,7 +322,26 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
     public AionBlock getBlockByHash(byte[] hash) {
         lock.readLock().lock();
         try {
-            return blocks.get(hash);
+            return getBlock(hash);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the block RLP as it is stored, without decoding it.
+     *
+     * @return the encoded block or {@code null} if the hash is unknown
+     */
+    public byte[] getEncodedBlockByHash(byte[] hash) {
+        lock.readLock().lock();
+        try {
+            Optional<byte[]> encoded = blocksDS.get(hash);
+            if (encoded.isPresent()) {
+                return encoded.get();
+            }
+            long number = getFrozenNumber(hash);
+            return number < 0 ? null : ancient.get(ANCIENT_BLOCKS, number);
         } finally {
             lock.readLock().unlock();
         }
@@ -282,7 +349,12 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
 
     @Override
     public boolean isBlockExist(byte[] hash) {
-        return getBlockByHash(hash) != null;
+        lock.readLock().lock();
+        try {
+            return getHashEntry(hash) != null;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     @Override
@@ -290,20 +362,8 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
         lock.readLock().lock();
 
         try {
-            IAionBlock block = this.getBlockByHash(hash);
-            if (block == null) {
-                return ZERO;
-            }
-
-            Long level = block.getNumber();
-            List<BlockInfo> blockInfos = index.get(level.intValue());
-            for (BlockInfo blockInfo : blockInfos) {
-                if (Arrays.equals(blockInfo.getHash(), hash)) {
-                    return blockInfo.getCummDifficulty();
-                }
-            }
-
-            return ZERO;
+            byte[] entry = getHashEntry(hash);
+            return entry == null ? ZERO : getTotalDifficulty(entry);
         } finally {
             lock.readLock().unlock();
         }
@@ -316,23 +376,17 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
         try {
             long maxNumber = getMaxNumber();
 
-            List<BlockInfo> blockInfos = index.get(maxNumber);
-            for (BlockInfo blockInfo : blockInfos) {
-                if (blockInfo.isMainChain()) {
-                    return blockInfo.getCummDifficulty();
+            while (maxNumber >= 0) {
+                byte[] hash = maxNumber < getFrozenSize() ? ancient.get(ANCIENT_HASHES, maxNumber)
+                        : getCanonicalHash(maxNumber);
+                byte[] entry = getHashEntry(hash);
+                if (entry != null) {
+                    return getTotalDifficulty(entry);
                 }
-            }
-
-            while (true) {
                 --maxNumber;
-                List<BlockInfo> infos = getBlockInfoForLevel(maxNumber);
-
-                for (BlockInfo blockInfo : infos) {
-                    if (blockInfo.isMainChain()) {
-                        return blockInfo.getCummDifficulty();
-                    }
-                }
             }
+
+            return ZERO;
         } finally {
             lock.readLock().unlock();
         }
@@ -400,7 +454,7 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
      */
     private List<AionBlock> getListBlocksEndWithInner(byte[] hash, long qty) {
         // locks acquired by calling method
-        AionBlock block = this.blocks.get(hash);
+        AionBlock block = getBlock(hash);
 
         if (block == null) {
             return new ArrayList<>();
@@ -410,7 +464,7 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
 
         for (int i = 0; i < qty; ++i) {
             blocks.add(block);
-            block = this.blocks.get(block.getParentHash());
+            block = getBlock(block.getParentHash());
             if (block == null) {
                 break;
             }
@@ -525,6 +579,13 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
                 return;
             }
 
+            // frozen levels cannot be removed
+            if (previousLevel < getFrozenSize() - 1) {
+                LOG.error("Cannot revert to block #" + previousLevel + " below the frozen blocks ending at #"
+                        + (getFrozenSize() - 1) + ".");
+                return;
+            }
+
             // walk back removing blocks greater than the given level value
             IAionBlock bestLine = bestBlock;
             while (currentLevel > previousLevel) {
@@ -533,15 +594,18 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
                 List<BlockInfo> currentLevelBlocks = getBlockInfoForLevel(currentLevel);
                 if (currentLevelBlocks == null || currentLevelBlocks.size() == 0) {
                     blocks.delete(bestLine.getHash());
+                    indexDS.delete(hashKey(bestLine.getHash()));
                     LOG.error("Null block information found at " + currentLevel + " when information should exist.");
                 } else {
                     for (BlockInfo bk_info : currentLevelBlocks) {
                         blocks.delete(bk_info.getHash());
+                        indexDS.delete(hashKey(bk_info.getHash()));
                     }
                 }
 
                 // remove the level
                 index.remove(currentLevel);
+                indexDS.delete(canonicalKey(currentLevel));
                 if (bestLine != null) {
                     bestLine = getBlockByHash(bestLine.getParentHash());
                 } else {
@@ -604,8 +668,14 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
             long initialLevel = block.getNumber();
             long level = initialLevel;
 
+            // frozen levels have no side chains and are not changed
+            long frozen = getFrozenSize();
+            if (initialLevel < frozen) {
+                return;
+            }
+
             // top down pruning of nodes on side chains
-            while (level > 0) {
+            while (level > frozen) {
                 pruneSideChains(block);
                 block = getBlockByHash(block.getParentHash());
                 if (block == null) {
@@ -616,12 +686,18 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
                 level = block.getNumber();
             }
 
-            // prune genesis
+            // prune genesis or the oldest level that is not frozen
             pruneSideChains(block);
 
             // bottom up repair of information
-            BigInteger parentTotalDifficulty = block.getCumulativeDifficulty();
-            level = 1;
+            BigInteger parentTotalDifficulty;
+            if (frozen > 0) {
+                parentTotalDifficulty = getFrozenTotalDifficulty(frozen - 1);
+                level = frozen;
+            } else {
+                parentTotalDifficulty = block.getCumulativeDifficulty();
+                level = 1;
+            }
             while (level <= initialLevel) {
                 parentTotalDifficulty = correctTotalDifficulty(level, parentTotalDifficulty);
                 LOG.info("Updated total difficulty on level " + level + " to " + parentTotalDifficulty + ".");
@@ -655,6 +731,7 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
         // deleting incorrect parallel blocks
         for (BlockInfo wrongBlock : levelBlocks) {
             blocks.delete(wrongBlock.getHash());
+            indexDS.delete(hashKey(wrongBlock.getHash()));
         }
 
         // set new block info without total difficulty
@@ -707,6 +784,13 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
                 writer.append("Blocks at level " + firstBlock + ":");
                 writer.newLine();
 
+                if (levelBlocks == null) {
+                    writer.append("Block information is null.");
+                    writer.newLine();
+                    firstBlock--;
+                    continue;
+                }
+
                 for (BlockInfo bi : levelBlocks) {
                     writer.append("Block hash from index database: " + Hex.toHexString(bi.getHash()) + "\nTotal Difficulty: " + bi
                             .getCummDifficulty());
@@ -737,23 +821,16 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
         try {
             List<byte[]> result = new ArrayList<>();
 
-            int i;
-            for (i = 0; i < maxBlocks; ++i) {
-                List<BlockInfo> blockInfos = index.get(number);
-                if (blockInfos == null) {
-                    break;
-                }
-
-                for (BlockInfo blockInfo : blockInfos) {
-                    if (blockInfo.isMainChain()) {
-                        result.add(blockInfo.getHash());
-                        break;
-                    }
+            long size = index.size();
+            for (int i = 0; i < maxBlocks && number < size; ++i) {
+                byte[] hash = number < getFrozenSize() ? ancient.get(ANCIENT_HASHES, number)
+                        : getCanonicalHash(number);
+                if (hash != null) {
+                    result.add(hash);
                 }
 
                 ++number;
             }
-            maxBlocks -= i;
 
             return result;
         } finally {
@@ -892,7 +969,7 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
             Long number = getMaxNumber();
 
             for (int i = 0; i < number; ++i) {
-                List<BlockInfo> levelInfos = index.get(i);
+                List<BlockInfo> levelInfos = getBlockInfoForLevel(i);
 
                 if (levelInfos != null) {
                     System.out.print(i);
@@ -916,6 +993,16 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
      */
     private List<BlockInfo> getBlockInfoForLevel(long level) {
         // locks acquired by calling method
+        if (level >= 0 && level < getFrozenSize()) {
+            BlockInfo blockInfo = new BlockInfo();
+            blockInfo.setHash(ancient.get(ANCIENT_HASHES, level));
+            blockInfo.setCummDifficulty(getFrozenTotalDifficulty(level));
+            blockInfo.setMainChain(true);
+
+            List<BlockInfo> infos = new ArrayList<>();
+            infos.add(blockInfo);
+            return infos;
+        }
         return index.get(level);
     }
 
@@ -924,7 +1011,336 @@ public class AionBlockStore extends AbstractPowBlockstore<AionBlock, A0BlockHead
      */
     private void setBlockInfoForLevel(long level, List<BlockInfo> infos) {
         // locks acquired by calling method
-        index.set(level, infos);
+        if (level < getFrozenSize()) {
+            LOG.error("Cannot change the frozen block information at level " + level + ".");
+            return;
+        }
+        // write the level with the indexes derived from it in one batch
+        Map<byte[], byte[]> batch = new HashMap<>();
+        index.set(level, infos, batch);
+        byte[] mainHash = null;
+        for (BlockInfo info : infos) {
+            batch.put(hashKey(info.getHash()), hashEntry(level, info.getCummDifficulty()));
+            if (mainHash == null && info.isMainChain()) {
+                mainHash = info.getHash();
+            }
+        }
+        // a null value deletes the canonical entry of a level without main chain block
+        batch.put(canonicalKey(level), mainHash);
+        indexDS.putBatch(batch);
+    }
+
+    private static byte[] canonicalKey(long number) {
+        byte[] key = new byte[9];
+        key[0] = CANONICAL_PREFIX;
+        System.arraycopy(ByteUtil.longToBytes(number), 0, key, 1, 8);
+        return key;
+    }
+
+    private static byte[] hashKey(byte[] hash) {
+        byte[] key = new byte[hash.length + 1];
+        key[0] = HASH_PREFIX;
+        System.arraycopy(hash, 0, key, 1, hash.length);
+        return key;
+    }
+
+    /* [number (8 bytes), total difficulty (32 bytes)] */
+    private static byte[] hashEntry(long number, BigInteger totalDifficulty) {
+        byte[] entry = new byte[8 + TD_LENGTH];
+        System.arraycopy(ByteUtil.longToBytes(number), 0, entry, 0, 8);
+        System.arraycopy(ByteUtil.bigIntegerToBytes(totalDifficulty, TD_LENGTH), 0, entry, 8, TD_LENGTH);
+        return entry;
+    }
+
+    private static long getNumber(byte[] entry) {
+        return ByteUtil.byteArrayToLong(Arrays.copyOfRange(entry, 0, 8));
+    }
+
+    private static BigInteger getTotalDifficulty(byte[] entry) {
+        return new BigInteger(1, Arrays.copyOfRange(entry, 8, entry.length));
+    }
+
+    /**
+     * @implNote The method calling this method must handle the locking.
+     */
+    private byte[] getCanonicalHash(long number) {
+        return indexDS.get(canonicalKey(number)).orElse(null);
+    }
+
+    /**
+     * @implNote The method calling this method must handle the locking.
+     */
+    private byte[] getHashEntry(byte[] hash) {
+        if (hash == null) {
+            return null;
+        }
+        return indexDS.get(hashKey(hash)).orElse(null);
+    }
+
+    /**
+     * Builds the main chain and hash indexes from the level records, and from
+     * the ancient store for the frozen levels, whose records keyed by the bare
+     * block hash are replaced.
+     *
+     * @implNote Called once, from the constructor.
+     */
+    private void migrateIndexes() {
+        long size = index.size();
+        long frozen = getFrozenSize();
+        if (size > 0) {
+            LOG.info("Building the block number and hash indexes for " + size + " levels.");
+        }
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        List<byte[]> legacyKeys = new ArrayList<>();
+        for (long level = 0; level < size; level++) {
+            if (level < frozen) {
+                byte[] hash = ancient.get(ANCIENT_HASHES, level);
+                batch.put(hashKey(hash), hashEntry(level, getFrozenTotalDifficulty(level)));
+                legacyKeys.add(hash);
+            } else {
+                List<BlockInfo> infos = index.get(level);
+                if (infos == null) {
+                    LOG.error("Null block information found at " + level + " when data should exist.");
+                    continue;
+                }
+
+                byte[] mainHash = null;
+                for (BlockInfo info : infos) {
+                    batch.put(hashKey(info.getHash()), hashEntry(level, info.getCummDifficulty()));
+                    if (mainHash == null && info.isMainChain()) {
+                        mainHash = info.getHash();
+                    }
+                }
+                if (mainHash != null) {
+                    batch.put(canonicalKey(level), mainHash);
+                }
+            }
+
+            if (batch.size() >= MIGRATION_BATCH) {
+                flushMigration(batch, legacyKeys);
+            }
+            if ((level + 1) % 100_000 == 0) {
+                LOG.info("Indexed " + (level + 1) + " of " + size + " levels.");
+            }
+        }
+        flushMigration(batch, legacyKeys);
+
+        indexDS.put(INDEX_VERSION_KEY, INDEX_VERSION);
+        if (!indexDS.isAutoCommitEnabled()) {
+            indexDS.commit();
+        }
+    }
+
+    private void flushMigration(Map<byte[], byte[]> batch, List<byte[]> legacyKeys) {
+        if (!batch.isEmpty()) {
+            indexDS.putBatch(batch);
+            batch.clear();
+        }
+        if (!legacyKeys.isEmpty()) {
+            indexDS.deleteBatch(legacyKeys);
+            legacyKeys.clear();
+        }
+    }
+
+    /**
+     * Sets the store holding the frozen levels, opened with
+     * {@link #ANCIENT_TABLES}.
+     */
+    public void setAncientStore(AncientStore ancient) {
+        lock.writeLock().lock();
+        try {
+            this.ancient = ancient;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the receipts record stored with a frozen block, or {@code null}
+     *         if the block is not frozen or was frozen without receipts
+     */
+    public byte[] getAncientReceipts(byte[] hash) {
+        lock.readLock().lock();
+        try {
+            long number = getFrozenNumber(hash);
+            byte[] receipts = number < 0 ? null : ancient.get(ANCIENT_RECEIPTS, number);
+            return receipts == null || receipts.length == 0 ? null : receipts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records the pivot of a state sync whose state is complete while the
+     * blocks below it are stored without their state, so that the sync
+     * resumes after a restart, or clears it if {@code null}.
+     */
+    public void setStateSyncPivot(A0BlockHeader pivot) {
+        lock.writeLock().lock();
+        try {
+            if (pivot == null) {
+                indexDS.delete(STATE_SYNC_PIVOT_KEY);
+            } else {
+                indexDS.put(STATE_SYNC_PIVOT_KEY, pivot.getEncoded());
+            }
+            if (!indexDS.isAutoCommitEnabled()) {
+                indexDS.commit();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the pivot of an unfinished state sync, or {@code null} if there
+     *         is none
+     */
+    public A0BlockHeader getStateSyncPivot() {
+        lock.readLock().lock();
+        try {
+            return indexDS.get(STATE_SYNC_PIVOT_KEY).map(A0BlockHeader::new).orElse(null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of levels moved to the ancient store
+     */
+    public long getFrozenSize() {
+        return ancient == null ? 0L : ancient.size();
+    }
+
+    /**
+     * @implNote The method calling this method must handle the locking.
+     */
+    private AionBlock getBlock(byte[] hash) {
+        // locks acquired by calling method
+        AionBlock block = blocks.get(hash);
+        if (block == null) {
+            long number = getFrozenNumber(hash);
+            if (number >= 0) {
+                return getFrozenBlock(number);
+            }
+        }
+        return block;
+    }
+
+    /**
+     * @return the number of the frozen block with the given hash, or -1 if
+     *         the block is not frozen
+     */
+    private long getFrozenNumber(byte[] hash) {
+        if (getFrozenSize() == 0) {
+            return -1L;
+        }
+        byte[] entry = getHashEntry(hash);
+        long number = entry == null ? -1L : getNumber(entry);
+        return number < getFrozenSize() ? number : -1L;
+    }
+
+    private AionBlock getFrozenBlock(long number) {
+        byte[] encoded = ancient.get(ANCIENT_BLOCKS, number);
+        return encoded == null ? null : new AionBlock(encoded);
+    }
+
+    private BigInteger getFrozenTotalDifficulty(long number) {
+        byte[] td = ancient.get(ANCIENT_TDS, number);
+        return td == null ? ZERO : new BigInteger(1, td);
+    }
+
+    /**
+     * Moves the main chain blocks below the given level to the ancient store
+     * and removes the blocks of these levels, including the side chain blocks,
+     * from the databases. The ancient store is synced before the databases are
+     * changed, and levels left in the databases by an interrupted call are
+     * removed by the next one.
+     *
+     * @param limit the first level to keep in the databases
+     * @param receiptsOf gives the receipts record of a block, or {@code null}
+     * @return the hashes of the blocks removed from the databases
+     */
+    public List<byte[]> freeze(long limit, Function<byte[], byte[]> receiptsOf) throws IOException {
+        lock.writeLock().lock();
+
+        try {
+            if (ancient == null) {
+                return new ArrayList<>();
+            }
+            long first = ancient.size();
+
+            // levels frozen by an interrupted call
+            long start = first;
+            while (start > 0 && indexDS.get(levelKey(start - 1)).isPresent()) {
+                start--;
+            }
+
+            limit = Math.min(limit, index.size() - 1);
+            for (long level = first; level < limit; level++) {
+                List<BlockInfo> infos = index.get(level);
+                BlockInfo mainInfo = null;
+                if (infos != null) {
+                    for (BlockInfo info : infos) {
+                        if (info.isMainChain()) {
+                            mainInfo = info;
+                            break;
+                        }
+                    }
+                }
+                Optional<byte[]> encoded = mainInfo == null ? Optional.empty() : blocksDS.get(mainInfo.getHash());
+                if (!encoded.isPresent()) {
+                    LOG.error("Main chain block missing at level " + level + ". Cannot freeze further levels.");
+                    break;
+                }
+
+                byte[] receipts = receiptsOf.apply(mainInfo.getHash());
+                ancient.append(level, mainInfo.getHash(), encoded.get(), mainInfo.getCummDifficulty().toByteArray(),
+                        receipts == null ? ByteUtil.EMPTY_BYTE_ARRAY : receipts);
+            }
+            ancient.sync();
+
+            return removeFrozenLevels(start, ancient.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @implNote The method calling this method must handle the locking.
+     */
+    private List<byte[]> removeFrozenLevels(long from, long to) {
+        List<byte[]> removed = new ArrayList<>();
+        List<byte[]> indexKeys = new ArrayList<>();
+
+        for (long level = from; level < to; level++) {
+            byte[] mainHash = ancient.get(ANCIENT_HASHES, level);
+            List<BlockInfo> infos = index.get(level);
+            if (infos != null) {
+                for (BlockInfo info : infos) {
+                    removed.add(info.getHash());
+                    // the main chain block stays indexed by its hash
+                    if (!Arrays.equals(info.getHash(), mainHash)) {
+                        indexKeys.add(hashKey(info.getHash()));
+                    }
+                }
+            }
+            indexKeys.add(levelKey(level));
+            indexKeys.add(canonicalKey(level));
+        }
+
+        if (!removed.isEmpty()) {
+            blocksDS.deleteBatch(removed);
+        }
+        indexDS.deleteBatch(indexKeys);
+        return removed;
+    }
+
+    /**
+     * @return the key of the level in the index, as written by {@link DataSourceArray}
+     */
+    private static byte[] levelKey(long level) {
+        return level <= Integer.MAX_VALUE ? ByteUtil.intToBytes((int) level) : ByteUtil.longToBytes(level);
     }
 
     /**
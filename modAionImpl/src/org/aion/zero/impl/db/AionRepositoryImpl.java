@@ -26,14 +26,19 @@ package org.aion.zero.impl.db;
 
 import org.aion.base.db.*;
 import org.aion.base.type.Address;
+import org.aion.base.util.ByteArrayWrapper;
 import org.aion.base.util.Hex;
 import org.aion.mcf.core.AccountState;
 import org.aion.mcf.db.AbstractRepository;
+import org.aion.mcf.db.AncientStore;
 import org.aion.mcf.db.ContractDetailsCacheImpl;
 import org.aion.mcf.db.TransactionStore;
 import org.aion.mcf.trie.SecureTrie;
 import org.aion.mcf.trie.Trie;
+import org.aion.mcf.trie.TrieImpl;
 import org.aion.mcf.vm.types.DataWord;
+import org.aion.rlp.RLP;
+import org.aion.zero.db.AionContractDetailsImpl;
 import org.aion.zero.db.AionRepositoryCache;
 import org.aion.zero.impl.config.CfgAion;
 import org.aion.zero.impl.types.AionBlock;
@@ -41,13 +46,18 @@ import org.aion.zero.impl.types.AionTxInfo;
 import org.aion.zero.types.A0BlockHeader;
 import org.aion.zero.types.AionTransaction;
 import org.aion.zero.types.AionTxReceipt;
+import org.apache.commons.collections4.map.LRUMap;
 
 import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.aion.base.util.ByteUtil.EMPTY_BYTE_ARRAY;
+import static org.aion.crypto.HashUtil.EMPTY_DATA_HASH;
 import static org.aion.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.aion.crypto.HashUtil.h256;
 
 /**
  * Has direct database connection.
@@ -56,6 +66,42 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
 
     private TransactionStore<AionTransaction, AionTxReceipt, AionTxInfo> transactionStore;
 
+    private AddressIndex addressIndex;
+
+    // finalized blocks moved out of the block, index and transaction databases
+    private AncientStore ancientStore;
+    private Thread freezer;
+
+    private static final String ANCIENT_FOLDER = "ancient";
+    // segment files of the ancient tables
+    private static final long ANCIENT_SEGMENT_SIZE = 1L << 30;
+    // levels moved per block store lock
+    private static final int FREEZE_BATCH = 2048;
+    // levels moved before the databases are compacted
+    private static final long FREEZE_COMPACT = 1L << 17;
+    private static final long FREEZE_INTERVAL_MS = 30_000L;
+
+    // flat state snapshot, shared with the snapshots of this repository
+    private FlatStateStore flatState;
+    // root the pending diff was written on top of
+    private byte[] flatBase;
+    // accounts and storage written since the last block commit
+    private FlatStateStore.Diff flatPending = new FlatStateStore.Diff();
+
+    // state trie nodes of the last syncs kept for proofs, about 5MB
+    private static final int RECENT_PROOF_NODES = 16384;
+
+    // read-only snapshots of recent state roots, shared by concurrent calls
+    private static final int STATE_SNAPSHOTS = 4;
+    // trie nodes a read-only snapshot may hold before it is replaced
+    private static final int STATE_SNAPSHOT_NODES = 1 << 18;
+
+    private final Map<ByteArrayWrapper, AionRepositoryImpl> stateSnapshots =
+            Collections.synchronizedMap(new LRUMap<>(STATE_SNAPSHOTS));
+
+    // contract details read through a read-only snapshot, null for other repositories
+    private Map<Address, Optional<AionContractDetailsImpl>> snapshotDetails;
+
     /**
      * used by getSnapShotTo
      *
@@ -95,13 +141,29 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
 
             // Setup the cache for transaction data source.
             this.transactionStore = new TransactionStore<>(transactionDatabase,
-                    AionTransactionStoreSerializer.serializer);
+                    AionTransactionStoreSerializer.receiptsSerializer, AionTransactionStoreSerializer.serializer,
+                    AionTxInfo::new);
+
+            // Setup address index.
+            this.addressIndex = new AddressIndex(addressIndexDatabase);
+
+            // Setup ancient store, if blocks were moved to it.
+            if (new File(cfg.getDbPath(), ANCIENT_FOLDER).isDirectory()) {
+                this.ancientStore = openAncientStore();
+            }
 
             // Setup block store.
-            this.blockStore = new AionBlockStore(indexDatabase, blockDatabase);
+            this.blockStore = new AionBlockStore(indexDatabase, blockDatabase, ancientStore);
+            if (ancientStore != null) {
+                transactionStore.setAncientReceipts(blockStore::getAncientReceipts);
+            }
+
+            // Setup world trie, keeping recent nodes in memory for proofs.
+            worldState = ((TrieImpl) createStateTrie()).withRecentNodes(RECENT_PROOF_NODES);
 
-            // Setup world trie.
-            worldState = createStateTrie();
+            // Setup flat state snapshot.
+            this.flatState = new FlatStateStore(snapshotDatabase, stateDatabase.isEmpty(), this::scanState);
+            this.flatBase = worldState.getRootHash();
         } catch (Exception e) { // TODO - If any of the connections failed.
             LOG.error("Unable to initialize repository.", e);
         }
@@ -114,6 +176,105 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
         return this.transactionStore;
     }
 
+    /**
+     * @implNote The address index is only maintained by the blockchain when
+     *         it is enabled in the configuration.
+     */
+    public AddressIndex getAddressIndex() {
+        return this.addressIndex;
+    }
+
+    private AncientStore openAncientStore() {
+        if (!blockDatabase.isPersistent()) {
+            LOG.warn("The block database is not persistent. Blocks will not be moved to the ancient store.");
+            return null;
+        }
+        try {
+            return new AncientStore(new File(cfg.getDbPath(), ANCIENT_FOLDER), AionBlockStore.ANCIENT_TABLES,
+                    ANCIENT_SEGMENT_SIZE);
+        } catch (IOException e) {
+            LOG.error("Unable to open the ancient store.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the ancient store when blocks are first moved to it.
+     */
+    private boolean attachAncientStore() {
+        if (ancientStore == null) {
+            ancientStore = openAncientStore();
+            if (ancientStore == null) {
+                return false;
+            }
+            blockStore.setAncientStore(ancientStore);
+            transactionStore.setAncientReceipts(blockStore::getAncientReceipts);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the main chain blocks below the given level, with their receipts,
+     * to the ancient store and removes the blocks of these levels from the
+     * databases, compacting them after a large move.
+     *
+     * @return the number of levels moved
+     */
+    public long freezeAncient(long limit) {
+        if (!attachAncientStore()) {
+            return 0L;
+        }
+
+        long start = blockStore.getFrozenSize();
+        long frozen = start;
+        try {
+            while (frozen < limit && !Thread.currentThread().isInterrupted()) {
+                List<byte[]> removed = blockStore.freeze(Math.min(limit, frozen + FREEZE_BATCH),
+                        transactionStore::getEncodedReceipts);
+                transactionStore.removeReceipts(removed);
+
+                long size = blockStore.getFrozenSize();
+                if (size == frozen) {
+                    break;
+                }
+                frozen = size;
+            }
+        } catch (IOException e) {
+            LOG.error("Unable to move blocks to the ancient store.", e);
+        }
+
+        if (frozen - start >= FREEZE_COMPACT) {
+            LOG.info("Moved {} blocks to the ancient store. Compacting the block databases.", frozen - start);
+            blockDatabase.compact();
+            indexDatabase.compact();
+            transactionDatabase.compact();
+        }
+        return frozen - start;
+    }
+
+    /**
+     * Starts a background thread moving the blocks deeper than the given
+     * depth below the best block to the ancient store.
+     */
+    public void startFreezer(long depth) {
+        if (depth <= 0 || freezer != null || !attachAncientStore()) {
+            return;
+        }
+
+        freezer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                freezeAncient(blockStore.getMaxNumber() - depth);
+                try {
+                    Thread.sleep(FREEZE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }, "ancient-freezer");
+        freezer.setDaemon(true);
+        freezer.start();
+    }
+
     private Trie createStateTrie() {
         return new SecureTrie(stateDatabase).withPruningEnabled(pruneBlockCount >= 0);
     }
@@ -121,9 +282,43 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
     @Override
     public void updateBatch(Map<Address, AccountState> stateCache,
             Map<Address, IContractDetails<DataWord>> detailsCache) {
+        if (snapshotDetails != null) {
+            throw new UnsupportedOperationException("Read-only state snapshot.");
+        }
         rwLock.writeLock().lock();
 
         try {
+            // attach the touched storage to the stored contract details and
+            // compute their storage roots concurrently, the loop below then
+            // gets the roots from the tries
+            List<IContractDetails<DataWord>> touched = new ArrayList<>();
+            for (Map.Entry<Address, AccountState> entry : stateCache.entrySet()) {
+                Address address = entry.getKey();
+                IContractDetails<DataWord> contractDetails = detailsCache.get(address);
+
+                if (entry.getValue().isDeleted() || !contractDetails.isDirty()) {
+                    continue;
+                }
+
+                ContractDetailsCacheImpl contractDetailsCache = (ContractDetailsCacheImpl) contractDetails;
+                if (contractDetailsCache.origContract == null) {
+                    contractDetailsCache.origContract = this.cfg.contractDetailsImpl();
+
+                    try {
+                        contractDetailsCache.origContract.setAddress(address);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        LOG.error("contractDetailsCache setAddress exception [{}]", e.toString());
+                    }
+
+                    contractDetailsCache.commit();
+                }
+                touched.add(contractDetailsCache.origContract);
+            }
+            if (touched.size() > 1) {
+                touched.parallelStream().forEach(IContractDetails::getStorageHash);
+            }
+
             for (Map.Entry<Address, AccountState> entry : stateCache.entrySet()) {
                 Address address = entry.getKey();
                 AccountState accountState = entry.getValue();
@@ -132,7 +327,9 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
                 if (accountState.isDeleted()) {
                     // TODO-A: batch operations here
                     try {
+                        clearFlatStorage(address);
                         worldState.delete(address.toBytes());
+                        flatPending.deleteAccount(address);
                     } catch (Exception e) {
                         LOG.error("key deleted exception [{}]", e.toString());
                     }
@@ -159,23 +356,14 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
                     }
 
                     ContractDetailsCacheImpl contractDetailsCache = (ContractDetailsCacheImpl) contractDetails;
-                    if (contractDetailsCache.origContract == null) {
-                        contractDetailsCache.origContract = this.cfg.contractDetailsImpl();
-
-                        try {
-                            contractDetailsCache.origContract.setAddress(address);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            LOG.error("contractDetailsCache setAddress exception [{}]", e.toString());
-                        }
-
-                        contractDetailsCache.commit();
-                    }
-
                     contractDetails = contractDetailsCache.origContract;
 
                     updateContractDetails(address, contractDetails);
 
+                    for (DataWord key : contractDetailsCache.getStorageKeys()) {
+                        flatPending.putStorage(address, key, contractDetailsCache.get(key));
+                    }
+
                     if (!Arrays.equals(accountState.getCodeHash(), EMPTY_TRIE_HASH)) {
                         accountState.setStateRoot(contractDetails.getStorageHash());
                     }
@@ -206,6 +394,7 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
     private void updateContractDetails(final Address address, final IContractDetails<DataWord> contractDetails) {
         // locked by calling method
         detailsDS.update(address, contractDetails);
+        flatState.putContract(address);
     }
 
     @Override
@@ -259,6 +448,7 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
         rwLock.writeLock().lock();
         try {
             worldState.setRoot(root);
+            resetFlatState(root);
         } finally {
             rwLock.writeLock().unlock();
         }
@@ -286,10 +476,130 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
 
     @Override
     public DataWord getStorageValue(Address address, DataWord key) {
+        DataWord value = getFlatStorageValue(address, key, null);
+        if (value != null) {
+            return value;
+        }
+
         IContractDetails<DataWord> details = getContractDetails(address);
         return (details == null) ? null : details.get(key);
     }
 
+    /**
+     * @param storageRoot
+     *         the storage root the value is read at, {@code null} for the
+     *         current one
+     * @return the storage value from the flat state, or {@code null} if it
+     *         must be read from the storage trie
+     */
+    private DataWord getFlatStorageValue(Address address, DataWord key, byte[] storageRoot) {
+        rwLock.readLock().lock();
+        try {
+            byte[] accountData = getFlatAccount(address);
+
+            // without a storage root the trie read returns either null or zero
+            // depending on whether details were ever stored for the address
+            if (accountData == null || accountData.length == 0) {
+                return null;
+            }
+            byte[] root = new AccountState(accountData).getStateRoot();
+            if (Arrays.equals(root, EMPTY_TRIE_HASH) || (storageRoot != null && !Arrays.equals(root, storageRoot))) {
+                return null;
+            }
+
+            byte[] data = flatPending.getStorage(address, key);
+            if (data == null && flatState != null && flatBase != null) {
+                data = flatState.getStorage(flatBase, address, key);
+            }
+
+            if (data == null) {
+                return null;
+            }
+            return data.length == 0 ? DataWord.ZERO : new DataWord(data);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the encoded account from the flat state, an empty array if it
+     *         does not exist, or {@code null} if it must be read from the
+     *         state trie
+     * @implNote The method calling this method must handle the locking.
+     */
+    private byte[] getFlatAccount(Address address) {
+        byte[] accountData = flatPending.getAccount(address);
+        if (accountData == null && flatState != null && flatBase != null) {
+            accountData = flatState.getAccount(flatBase, address);
+        }
+        return accountData;
+    }
+
+    /**
+     * Clears the storage of an account about to be deleted from the flat
+     * state, so that a contract created again at the address does not read
+     * it. The keys are taken from its storage trie.
+     *
+     * @implNote The method calling this method must handle the locking.
+     */
+    private void clearFlatStorage(Address address) {
+        byte[] accountData = worldState.get(address.toBytes());
+        if (accountData.length == 0) {
+            return;
+        }
+        byte[] storageRoot = new AccountState(accountData).getStateRoot();
+        IContractDetails<DataWord> details = detailsDS.get(address.toBytes());
+        if (details == null || Arrays.equals(storageRoot, EMPTY_TRIE_HASH)) {
+            return;
+        }
+        ((AionContractDetailsImpl) details).scanStorage(storageRoot,
+                (key, value) -> flatPending.clearStorage(address, key));
+    }
+
+    /**
+     * Passes the accounts and the contract storage at the given state root
+     * to the flat state generator. The tries are read without the lock, so
+     * the scan fails if nodes of the root are pruned meanwhile.
+     */
+    private void scanState(byte[] root, FlatStateStore.StateWriter writer) {
+        Map<ByteArrayWrapper, byte[]> storageRoots = new HashMap<>();
+        ((TrieImpl) worldState).scanLeaves(root, (key, value) -> {
+            writer.putAccount(key, value);
+            byte[] storageRoot = new AccountState(value).getStateRoot();
+            if (!Arrays.equals(storageRoot, EMPTY_TRIE_HASH)) {
+                storageRoots.put(ByteArrayWrapper.wrap(key), storageRoot);
+            }
+        });
+
+        // the storage tries are found through the addresses of the contract details
+        for (ByteArrayWrapper address : detailsDS.keys()) {
+            if (address.getData().length != Address.ADDRESS_LEN) {
+                continue;
+            }
+            writer.putContract(Address.wrap(address.getData()));
+            byte[] accountKey = h256(address.getData());
+            byte[] storageRoot = storageRoots.remove(ByteArrayWrapper.wrap(accountKey));
+            if (storageRoot == null) {
+                continue;
+            }
+            AionContractDetailsImpl details = (AionContractDetailsImpl) detailsDS.get(address.getData());
+            details.scanStorage(storageRoot, (key, value) ->
+                    writer.putStorage(accountKey, key, RLP.decode2(value).get(0).getRLPData()));
+        }
+
+        if (!storageRoots.isEmpty()) {
+            throw new IllegalStateException("No contract details for " + storageRoots.size() + " accounts.");
+        }
+    }
+
+    /**
+     * @implNote The method calling this method must handle the locking.
+     */
+    private void resetFlatState(byte[] root) {
+        flatBase = root;
+        flatPending = new FlatStateStore.Diff();
+    }
+
     @Override
     public List<byte[]> getPoolTx() {
 
@@ -359,7 +669,9 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
      */
     private void updateAccountState(Address address, AccountState accountState) {
         // locked by calling method
-        worldState.update(address.toBytes(), accountState.getEncoded());
+        byte[] encoded = accountState.getEncoded();
+        worldState.update(address.toBytes(), encoded);
+        flatPending.putAccount(address, encoded);
     }
 
     /**
@@ -371,6 +683,9 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
      */
     @Override
     public IContractDetails<DataWord> getContractDetails(Address address) {
+        if (snapshotDetails != null) {
+            return snapshotDetails.computeIfAbsent(address, this::getReadSnapshotDetails).orElse(null);
+        }
         rwLock.readLock().lock();
 
         try {
@@ -396,6 +711,61 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
         }
     }
 
+    /**
+     * Details of a read-only snapshot, read once and shared by its callers.
+     */
+    private Optional<AionContractDetailsImpl> getReadSnapshotDetails(Address address) {
+        AccountState accountState = getAccountState(address);
+        byte[] storageRoot = accountState == null ? EMPTY_TRIE_HASH : accountState.getStateRoot();
+
+        IContractDetails<DataWord> details = detailsDS.get(address.toBytes());
+        if (!(details instanceof AionContractDetailsImpl)) {
+            return Optional.empty();
+        }
+        return Optional.of(((AionContractDetailsImpl) details).getReadSnapshotTo(storageRoot));
+    }
+
+    /**
+     * Builds the proof of an account under a state root, see
+     * {@link Trie#getProof(byte[], byte[])}. The account is verified with
+     * {@link TrieImpl#verifyProof} under the hash of the address.
+     *
+     * @return the encoded trie nodes, or {@code null} if the state at the
+     *         root is not stored
+     */
+    public List<byte[]> getAccountProof(Address address, byte[] stateRoot) {
+        rwLock.readLock().lock();
+        try {
+            return worldState.getProof(stateRoot, address.toBytes());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Builds the proof of a storage key under the storage root of a contract,
+     * taken from its account. The key is verified under its hash.
+     *
+     * @return the encoded trie nodes, or {@code null} if the storage at the
+     *         root is not stored
+     */
+    public List<byte[]> getStorageProof(Address address, byte[] storageRoot, DataWord key) {
+        if (Arrays.equals(storageRoot, EMPTY_TRIE_HASH)) {
+            return new ArrayList<>();
+        }
+
+        rwLock.readLock().lock();
+        try {
+            IContractDetails<DataWord> details = detailsDS.get(address.toBytes());
+            if (!(details instanceof AionContractDetailsImpl)) {
+                return null;
+            }
+            return ((AionContractDetailsImpl) details).getStorageProof(storageRoot, key);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
     @Override
     public boolean hasContractDetails(Address address) {
         rwLock.readLock().lock();
@@ -420,7 +790,13 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
         AccountState result = null;
 
         try {
-            byte[] accountData = worldState.get(address.toBytes());
+            byte[] accountData = getFlatAccount(address);
+            if (accountData == null) {
+                if (snapshotDetails != null) {
+                    worldState.prefetch(address.toBytes());
+                }
+                accountData = worldState.get(address.toBytes());
+            }
 
             if (accountData.length != 0) {
                 result = new AccountState(accountData);
@@ -432,6 +808,36 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
         }
     }
 
+    /**
+     * Warms the world state cache with the account and, for contracts, the
+     * details record and the storage trie nodes of the given keys. Meant to be
+     * called from prefetching threads ahead of transaction execution.
+     */
+    public void prefetch(Address address, Collection<DataWord> storageKeys) {
+        rwLock.readLock().lock();
+
+        try {
+            worldState.prefetch(address.toBytes());
+
+            if (storageKeys.isEmpty()) {
+                return;
+            }
+
+            AccountState accountState = getAccountState(address);
+            if (accountState == null || Arrays.equals(accountState.getStateRoot(), EMPTY_TRIE_HASH)) {
+                return;
+            }
+
+            IContractDetails<DataWord> details = detailsDS.get(address.toBytes());
+            if (details instanceof AionContractDetailsImpl) {
+                // the nodes are loaded into the storage nodes shared with the details given to the executor
+                ((AionContractDetailsImpl) details.getSnapshotTo(accountState.getStateRoot())).prefetch(storageKeys);
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
     @Override
     public boolean hasAccountState(Address address) {
         return getAccountState(address) != null;
@@ -448,8 +854,11 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
         AccountState account = getAccountState(address);
         IContractDetails<DataWord> details = getContractDetails(address);
 
+        // the storage of the details is read from the flat state while it is at the same storage root
+        byte[] storageRoot = (account == null) ? EMPTY_TRIE_HASH : account.getStateRoot();
         account = (account == null) ? new AccountState() : new AccountState(account);
-        details = new ContractDetailsCacheImpl(details);
+        details = (details == null) ? new ContractDetailsCacheImpl(null)
+                : new ContractDetailsCacheImpl(details, key -> getFlatStorageValue(address, key, storageRoot));
         // details.setAddress(addr);
 
         cacheAccounts.put(address, account);
@@ -470,6 +879,7 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
         rwLock.writeLock().lock();
         try {
             worldState.setRoot(root);
+            resetFlatState(root);
         } finally {
             rwLock.writeLock().unlock();
         }
@@ -491,6 +901,13 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
             worldState.sync();
             detailsDS.syncLargeStorage();
 
+            // add the block to the flat state on top of the previous one
+            byte[] root = worldState.getRootHash();
+            if (flatState != null && flatBase != null) {
+                flatState.commit(flatBase, root, flatPending);
+            }
+            resetFlatState(root);
+
             // temporarily removed since never used
         /* if (pruneBlockCount >= 0) {
             stateDSPrune.storeBlockChanges(blockHeader);
@@ -520,10 +937,176 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
         bestBlockNumber = curBlock.getNumber();
     } */
 
+    /**
+     * Moves contract codes out of legacy details records into the code store
+     * and rewrites the records in their compact form.
+     *
+     * @return the number of migrated contracts
+     */
+    public int migrateContractDetails() {
+        rwLock.writeLock().lock();
+        try {
+            return detailsDS.migrateLegacyDetails();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the encoded state trie node with the given hash, or {@code null}
+     *         if it is not stored
+     */
+    public byte[] getStateNode(byte[] hash) {
+        rwLock.readLock().lock();
+        try {
+            return stateDatabase.get(hash).orElse(null);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the encoded node of the storage trie of the given contract, or
+     *         {@code null} if it is not stored
+     * @implNote Contracts whose storage is inlined in their details record
+     *         have no nodes in the storage database, those nodes are read
+     *         from the record.
+     */
+    public byte[] getStorageNode(Address address, byte[] hash) {
+        rwLock.readLock().lock();
+        try {
+            byte[] node = AionContractDetailsImpl.storageSource(storageDatabase, address).get(hash).orElse(null);
+            if (node == null) {
+                IContractDetails<DataWord> details = detailsDS.get(address.toBytes());
+                if (details instanceof AionContractDetailsImpl) {
+                    node = ((AionContractDetailsImpl) details).getStorageNode(hash);
+                }
+            }
+            return node;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the contract code with the given hash, or {@code null} if it is
+     *         not in the code store
+     */
+    public byte[] getCodeByHash(byte[] hash) {
+        rwLock.readLock().lock();
+        try {
+            return codeDatabase.get(hash).orElse(null);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds a contract from the key of its account in the state trie, which
+     * is the hash of its address. The addresses are kept in the snapshot
+     * database, recorded as contracts are written and when the flat state is
+     * generated.
+     *
+     * @return the contract address, or {@code null} if it is not recorded
+     *         for the key
+     */
+    public Address getContractAddress(byte[] accountKey) {
+        return flatState.getContractAddress(accountKey);
+    }
+
+    /**
+     * Generates the flat state at the current root, which state sync wrote
+     * to the tries only.
+     */
+    public void generateFlatState() {
+        rwLock.readLock().lock();
+        try {
+            flatState.generate(worldState.getRootHash());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a state trie node downloaded by state sync.
+     */
+    public void putStateNode(byte[] hash, byte[] node) {
+        rwLock.writeLock().lock();
+        try {
+            stateDatabase.put(hash, node);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a node of the storage trie of a contract downloaded by state
+     * sync.
+     */
+    public void putStorageNode(Address address, byte[] hash, byte[] node) {
+        rwLock.writeLock().lock();
+        try {
+            AionContractDetailsImpl.storageSource(storageDatabase, address).put(hash, node);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a contract code downloaded by state sync.
+     */
+    public void putCode(byte[] hash, byte[] code) {
+        rwLock.writeLock().lock();
+        try {
+            codeDatabase.put(hash, code);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the details record of a contract found by state sync, which
+     * refers to the storage trie and the code downloaded separately.
+     */
+    public void putContractDetails(Address address, byte[] storageRoot, byte[] codeHash) {
+        List<byte[]> codeHashes = Arrays.equals(codeHash, EMPTY_DATA_HASH)
+                ? Collections.emptyList()
+                : Collections.singletonList(codeHash);
+
+        rwLock.writeLock().lock();
+        try {
+            detailsDS.putEncoded(address, AionContractDetailsImpl.encodeCompact(address, storageRoot, codeHashes));
+            flatState.putContract(address);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Commits the data written by state sync to disk.
+     */
+    public void commitStateSync() {
+        rwLock.writeLock().lock();
+        try {
+            for (IByteArrayKeyValueDatabase db : Arrays.asList(stateDatabase, storageDatabase, codeDatabase,
+                    detailsDatabase)) {
+                if (!db.isAutoCommitEnabled()) {
+                    db.commit();
+                }
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
     public Trie getWorldState() {
         return worldState;
     }
 
+    FlatStateStore getFlatState() {
+        return flatState;
+    }
+
     @Override
     public IRepository getSnapshotTo(byte[] root) {
         rwLock.readLock().lock();
@@ -536,6 +1119,8 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
             // repo.stateDSPrune = this.stateDSPrune;
             repo.pruneBlockCount = this.pruneBlockCount;
             repo.detailsDS = this.detailsDS;
+            repo.flatState = this.flatState;
+            repo.flatBase = root;
             repo.isSnapshot = true;
 
             repo.worldState = repo.createStateTrie();
@@ -547,6 +1132,39 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
         }
     }
 
+    /**
+     * Gets a read-only snapshot of the state at the given root, for calls that
+     * execute against a block without changing it. Unlike
+     * {@link #getSnapshotTo(byte[])}, the snapshots of recent roots are kept
+     * and shared by concurrent callers. They read the world state and the
+     * contract storage through caches of their own, loading missing nodes
+     * outside the cache locks, so the callers contend neither with block
+     * import nor with each other on database reads. Changes must be made in a
+     * tracking cache on top of the snapshot and rolled back.
+     */
+    public AionRepositoryImpl getStateSnapshot(byte[] root) {
+        ByteArrayWrapper key = ByteArrayWrapper.wrap(root);
+
+        AionRepositoryImpl snapshot = stateSnapshots.get(key);
+        if (snapshot == null || snapshot.getSnapshotNodes() > STATE_SNAPSHOT_NODES) {
+            snapshot = (AionRepositoryImpl) getSnapshotTo(root);
+            snapshot.snapshotDetails = new ConcurrentHashMap<>();
+            stateSnapshots.put(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the number of trie nodes cached by a read-only snapshot
+     */
+    private int getSnapshotNodes() {
+        int nodes = ((TrieImpl) worldState).getCache().getSize();
+        for (Optional<AionContractDetailsImpl> details : snapshotDetails.values()) {
+            nodes += details.map(AionContractDetailsImpl::getStorageCacheSize).orElse(0);
+        }
+        return nodes;
+    }
+
     @Override
     public void addTxBatch(Map<byte[], byte[]> pendingTx, boolean isPool) {
 
@@ -591,6 +1209,21 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
      */
     @Override
     public void close() {
+        if (freezer != null) {
+            freezer.interrupt();
+            try {
+                freezer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            freezer = null;
+        }
+
+        // stop generating the flat state before the databases it reads are closed
+        if (flatState != null) {
+            flatState.close();
+        }
+
         rwLock.writeLock().lock();
         try {
             try {
@@ -613,6 +1246,31 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
                 LOGGEN.error("Exception occurred while closing the state database.", e);
             }
 
+            try {
+                if (snapshotDatabase != null) {
+                    snapshotDatabase.close();
+                    LOGGEN.info("Snapshot database closed.");
+                    snapshotDatabase = null;
+                    flatState = null;
+                }
+            } catch (Exception e) {
+                LOGGEN.error("Exception occurred while closing the snapshot database.", e);
+            }
+
+            try {
+                if (addressIndexDatabase != null) {
+                    if (addressIndex != null) {
+                        addressIndex.close();
+                        addressIndex = null;
+                    }
+                    addressIndexDatabase.close();
+                    LOGGEN.info("Address index database closed.");
+                    addressIndexDatabase = null;
+                }
+            } catch (Exception e) {
+                LOGGEN.error("Exception occurred while closing the address index database.", e);
+            }
+
             try {
                 if (transactionDatabase != null) {
                     transactionDatabase.close();
@@ -633,6 +1291,12 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
                 LOGGEN.error("Exception occurred while closing the block store.", e);
             }
 
+            if (ancientStore != null) {
+                ancientStore.close();
+                LOGGEN.info("Ancient store closed.");
+                ancientStore = null;
+            }
+
             try {
                 if (txPoolDatabase != null) {
                     txPoolDatabase.close();
@@ -685,6 +1349,19 @@ public class AionRepositoryImpl extends AbstractRepository<AionBlock, A0BlockHea
         return this.detailsDatabase;
     }
 
+    /**
+     * Retrieves the underlying storage database that holds the contract
+     * storage tries.
+     * <p>
+     * Note that referencing the storage database directly is unsafe, and
+     * should only be used for debugging and testing purposes.
+     *
+     * @return
+     */
+    public IByteArrayKeyValueDatabase getStorageDatabase() {
+        return this.storageDatabase;
+    }
+
     @Override
     public String toString() {
         return "AionRepositoryImpl{ identityHashCode=" + System.identityHashCode(this) + ", " + //
@@ -30,10 +30,36 @@ import java.util.List;
 
 import org.aion.mcf.ds.Serializer;
 import org.aion.rlp.RLP;
+import org.aion.rlp.RLPElement;
 import org.aion.rlp.RLPList;
 import org.aion.zero.impl.types.AionTxInfo;
+import org.aion.zero.types.AionTxReceipt;
 
 public class AionTransactionStoreSerializer {
+    /**
+     * The receipts of a block, see {@link AionTxReceipt#getStoreEncoded()}.
+     */
+    public final static Serializer<List<AionTxReceipt>, byte[]> receiptsSerializer = new Serializer<List<AionTxReceipt>, byte[]>() {
+        @Override
+        public byte[] serialize(List<AionTxReceipt> object) {
+            byte[][] receiptsRlp = new byte[object.size()][];
+            for (int i = 0; i < receiptsRlp.length; i++) {
+                receiptsRlp[i] = object.get(i).getStoreEncoded();
+            }
+            return RLP.encodeList(receiptsRlp);
+        }
+
+        @Override
+        public List<AionTxReceipt> deserialize(byte[] stream) {
+            RLPList receiptList = (RLPList) RLP.decode2(stream).get(0);
+            List<AionTxReceipt> ret = new ArrayList<>(receiptList.size());
+            for (RLPElement receipt : receiptList) {
+                ret.add(AionTxReceipt.fromStoreEncoded((RLPList) receipt));
+            }
+            return ret;
+        }
+    };
+
     public final static Serializer<List<AionTxInfo>, byte[]> serializer = new Serializer<List<AionTxInfo>, byte[]>() {
         @Override
         public byte[] serialize(List<AionTxInfo> object) {
@@ -0,0 +1,819 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.db.IByteArrayKeyValueDatabase;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteArrayWrapper;
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.aion.mcf.vm.types.DataWord;
+import org.aion.rlp.RLP;
+import org.aion.rlp.RLPElement;
+import org.aion.rlp.RLPList;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.aion.base.util.ByteUtil.EMPTY_BYTE_ARRAY;
+import static org.aion.base.util.ByteUtil.merge;
+import static org.aion.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.aion.crypto.HashUtil.h256;
+
+/**
+ * Flat snapshot of the accounts and contract storage, used to answer state
+ * reads without walking the state and storage tries.
+ * <p>
+ * The snapshot database holds the state at a single root, the disk layer,
+ * keyed by the hash of the address and by the hashes of the address and the
+ * storage key, which are the keys of the state and storage tries. Each block
+ * committed on top of it adds an in-memory diff layer holding the accounts
+ * and storage values the block wrote, linked to the layer of its parent
+ * root. A read at a known root walks down the layers to the first one that
+ * wrote the key and reaches the disk layer otherwise. Layers of competing
+ * branches are kept side by side, so reads at the roots of recent forks are
+ * served too.
+ * <p>
+ * Once the newest branch is more than {@code maxLayers} blocks above the
+ * disk layer, the lowest layer is written into the database and becomes the
+ * new disk layer; layers that no longer connect to it are dropped. The diff
+ * layers are also journaled in the database, so they survive restarts.
+ * <p>
+ * Reads at roots the snapshot does not know return {@code null} and must be
+ * answered from the tries. When a block is committed on top of a root the
+ * snapshot does not hold, after a reorganization deeper than the layers or
+ * when the state was synced or reset to another root, and when there is no
+ * snapshot for an existing state database, the disk layer is generated again
+ * from the tries at the root of that block by a background thread. Blocks
+ * committed meanwhile are added as layers above it, but reads return
+ * {@code null} until the generation completes.
+ * <p>
+ * The database also maps the account keys of contracts back to their
+ * addresses, for serving state sync, which only sees the keys of the tries.
+ */
+public class FlatStateStore {
+
+    private static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.DB.name());
+
+    /** Number of blocks kept as diff layers above the disk layer. */
+    public static final int DEFAULT_MAX_LAYERS = 128;
+
+    // key prefixes in the snapshot database
+    private static final byte ROOT = 0;
+    private static final byte ACCOUNT = 1;
+    private static final byte STORAGE = 2;
+    private static final byte LAYER = 3;
+    private static final byte LAYER_INDEX = 4;
+    // addresses of the contracts by account key, kept across generations
+    private static final byte CONTRACT = 5;
+
+    private static final byte[] ROOT_KEY = new byte[] { ROOT };
+    private static final byte[] LAYER_INDEX_KEY = new byte[] { LAYER_INDEX };
+
+    /** Number of entries written to the database at once while generating. */
+    private static final int GENERATOR_BATCH_SIZE = 10_000;
+
+    private final IByteArrayKeyValueDatabase database;
+    private final StateSource source;
+    private final int maxLayers;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<ByteArrayWrapper, Layer> layers = new HashMap<>();
+
+    // root of the state held in the database, null if there is no snapshot
+    private ByteArrayWrapper diskRoot;
+
+    // generation of the disk layer, null once the disk layer is complete
+    private Generator generator;
+
+    private boolean closed;
+
+    /**
+     * Reads the state written into the snapshot when it is generated.
+     */
+    public interface StateSource {
+
+        /**
+         * Passes all the accounts and storage values at the given state root
+         * to the writer.
+         *
+         * @throws RuntimeException if the state cannot be read completely,
+         *         such as when trie nodes were pruned meanwhile
+         */
+        void scan(byte[] root, StateWriter writer);
+    }
+
+    /**
+     * Receives the generated state, keyed like the tries.
+     */
+    public interface StateWriter {
+
+        void putAccount(byte[] accountKey, byte[] encoded);
+
+        /**
+         * @param value the non-zero storage value, without leading zeroes
+         */
+        void putStorage(byte[] accountKey, byte[] storageKey, byte[] value);
+
+        void putContract(Address address);
+    }
+
+    /**
+     * Accounts and storage values written on top of a state root. Deleted
+     * accounts and zero storage values are recorded as empty arrays.
+     */
+    public static final class Diff {
+
+        private final Map<ByteArrayWrapper, byte[]> accounts = new HashMap<>();
+        private final Map<ByteArrayWrapper, byte[]> storage = new HashMap<>();
+
+        public void putAccount(Address address, byte[] encoded) {
+            accounts.put(accountKey(address), encoded);
+        }
+
+        /**
+         * Records the account as deleted. Its storage values must be cleared
+         * with {@link #clearStorage(Address, byte[])}.
+         */
+        public void deleteAccount(Address address) {
+            accounts.put(accountKey(address), EMPTY_BYTE_ARRAY);
+        }
+
+        public void putStorage(Address address, DataWord key, DataWord value) {
+            storage.put(storageKey(address, key),
+                    value == null || value.isZero() ? EMPTY_BYTE_ARRAY : value.getData().clone());
+        }
+
+        /**
+         * Clears a storage value given by the key of the storage trie, which
+         * is the hash of the storage key.
+         */
+        public void clearStorage(Address address, byte[] storageKey) {
+            storage.put(ByteArrayWrapper.wrap(merge(h256(address.toBytes()), storageKey)), EMPTY_BYTE_ARRAY);
+        }
+
+        /**
+         * @return the encoded account, an empty array if it was deleted, or
+         *         {@code null} if it was not written
+         */
+        public byte[] getAccount(Address address) {
+            return accounts.get(accountKey(address));
+        }
+
+        /**
+         * @return the storage value, an empty array if it was cleared, or
+         *         {@code null} if it was not written
+         */
+        public byte[] getStorage(Address address, DataWord key) {
+            return storage.get(storageKey(address, key));
+        }
+
+        public boolean isEmpty() {
+            return accounts.isEmpty() && storage.isEmpty();
+        }
+    }
+
+    private static final class Layer {
+
+        private final ByteArrayWrapper root;
+        private final ByteArrayWrapper parent;
+        private final Diff diff;
+
+        private Layer(ByteArrayWrapper root, ByteArrayWrapper parent, Diff diff) {
+            this.root = root;
+            this.parent = parent;
+            this.diff = diff;
+        }
+
+        private byte[] getEncoded() {
+            return RLP.encodeList(RLP.encodeElement(parent.getData()), encodeEntries(diff.accounts),
+                    encodeEntries(diff.storage));
+        }
+
+        private static Layer decode(ByteArrayWrapper root, byte[] encoded) {
+            RLPList list = (RLPList) RLP.decode2(encoded).get(0);
+            Diff diff = new Diff();
+            decodeEntries((RLPList) list.get(1), diff.accounts);
+            decodeEntries((RLPList) list.get(2), diff.storage);
+            return new Layer(root, ByteArrayWrapper.wrap(list.get(0).getRLPData()), diff);
+        }
+
+        private static byte[] encodeEntries(Map<ByteArrayWrapper, byte[]> entries) {
+            byte[][] encoded = new byte[entries.size()][];
+            int i = 0;
+            for (Map.Entry<ByteArrayWrapper, byte[]> entry : entries.entrySet()) {
+                encoded[i++] = RLP.encodeList(RLP.encodeElement(entry.getKey().getData()),
+                        RLP.encodeElement(entry.getValue()));
+            }
+            return RLP.encodeList(encoded);
+        }
+
+        private static void decodeEntries(RLPList list, Map<ByteArrayWrapper, byte[]> entries) {
+            for (RLPElement element : list) {
+                RLPList entry = (RLPList) element;
+                byte[] value = entry.get(1).getRLPData();
+                entries.put(ByteArrayWrapper.wrap(entry.get(0).getRLPData()),
+                        value == null ? EMPTY_BYTE_ARRAY : value);
+            }
+        }
+    }
+
+    /**
+     * Generates the disk layer at a state root, writing it to the database
+     * in batches. A generation superseded by a newer one or failing stops,
+     * and the next one waits for it to stop before clearing its entries.
+     */
+    private final class Generator implements StateWriter {
+
+        private final ByteArrayWrapper root;
+        private final Generator previous;
+        private final Thread thread;
+
+        private final Map<byte[], byte[]> batch = new HashMap<>();
+        private long accounts;
+        private long values;
+
+        private volatile boolean aborted;
+        // guarded by the lock, set when the generation must be started again
+        private boolean failed;
+
+        private Generator(ByteArrayWrapper root, Generator previous) {
+            this.root = root;
+            this.previous = previous;
+            this.thread = new Thread(this::run, "flat-state");
+            this.thread.setDaemon(true);
+        }
+
+        private void run() {
+            if (previous != null) {
+                previous.join();
+            }
+            try {
+                clear();
+                source.scan(root.getData(), this);
+                flush();
+                complete(this);
+            } catch (CancellationException e) {
+                LOG.debug("State snapshot generation at root {} stopped.", root);
+            } catch (RuntimeException e) {
+                fail(this, e);
+            }
+        }
+
+        private void join() {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Deletes the accounts and storage values left by earlier snapshots
+         * and the layers no longer held.
+         */
+        private void clear() {
+            List<byte[]> stale = new ArrayList<>();
+            for (byte[] key : database.keys()) {
+                if (key.length > 0 && (key[0] == ACCOUNT || key[0] == STORAGE)) {
+                    stale.add(key);
+                }
+            }
+            lock.readLock().lock();
+            try {
+                for (byte[] key : database.keys()) {
+                    if (key.length > 0 && key[0] == LAYER
+                            && !layers.containsKey(ByteArrayWrapper.wrap(Arrays.copyOfRange(key, 1, key.length)))) {
+                        stale.add(key);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (int i = 0; i < stale.size(); i += GENERATOR_BATCH_SIZE) {
+                checkAborted();
+                database.deleteBatch(stale.subList(i, Math.min(stale.size(), i + GENERATOR_BATCH_SIZE)));
+            }
+        }
+
+        @Override
+        public void putAccount(byte[] accountKey, byte[] encoded) {
+            put(prefixed(ACCOUNT, accountKey), encoded);
+            accounts++;
+        }
+
+        @Override
+        public void putStorage(byte[] accountKey, byte[] storageKey, byte[] value) {
+            put(prefixed(STORAGE, merge(accountKey, storageKey)), new DataWord(value).getData());
+            values++;
+        }
+
+        @Override
+        public void putContract(Address address) {
+            put(prefixed(CONTRACT, h256(address.toBytes())), address.toBytes());
+        }
+
+        private void put(byte[] key, byte[] value) {
+            batch.put(key, value);
+            if (batch.size() >= GENERATOR_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            checkAborted();
+            database.putBatch(batch);
+            batch.clear();
+        }
+
+        private void checkAborted() {
+            if (aborted) {
+                throw new CancellationException();
+            }
+        }
+    }
+
+    /**
+     * @param database
+     *         the snapshot database
+     * @param emptyState
+     *         whether the state database is empty, in which case a new
+     *         snapshot is started at the empty root
+     * @param source
+     *         the state to generate the snapshot from, or {@code null} if it
+     *         is never generated
+     */
+    public FlatStateStore(IByteArrayKeyValueDatabase database, boolean emptyState, StateSource source) {
+        this(database, emptyState, source, DEFAULT_MAX_LAYERS);
+    }
+
+    FlatStateStore(IByteArrayKeyValueDatabase database, boolean emptyState, StateSource source, int maxLayers) {
+        this.database = database;
+        this.source = source;
+        this.maxLayers = maxLayers;
+
+        Optional<byte[]> root = database.get(ROOT_KEY);
+
+        if (emptyState) {
+            if (!database.isEmpty() && !(root.isPresent() && Arrays.equals(root.get(), EMPTY_TRIE_HASH))) {
+                LOG.info("State database is empty, clearing the state snapshot.");
+                database.deleteBatch(database.keys());
+            }
+            diskRoot = ByteArrayWrapper.wrap(EMPTY_TRIE_HASH);
+            database.put(ROOT_KEY, EMPTY_TRIE_HASH);
+        } else if (root.isPresent()) {
+            diskRoot = ByteArrayWrapper.wrap(root.get());
+            loadLayers();
+        } else {
+            LOG.info("No state snapshot for the existing state database, it is generated from the next block.");
+        }
+    }
+
+    private void loadLayers() {
+        Optional<byte[]> index = database.get(LAYER_INDEX_KEY);
+        if (!index.isPresent()) {
+            return;
+        }
+
+        for (RLPElement element : (RLPList) RLP.decode2(index.get()).get(0)) {
+            ByteArrayWrapper root = ByteArrayWrapper.wrap(element.getRLPData());
+            Optional<byte[]> encoded = database.get(layerKey(root));
+            if (encoded.isPresent()) {
+                layers.put(root, Layer.decode(root, encoded.get()));
+            }
+        }
+
+        Map<ByteArrayWrapper, byte[]> batch = new HashMap<>();
+        dropUnreachable(batch);
+        if (!batch.isEmpty()) {
+            batch.put(ByteArrayWrapper.wrap(LAYER_INDEX_KEY), encodeIndex());
+            write(batch);
+        }
+
+        LOG.info("Loaded {} state snapshot layers above root {}.", layers.size(), diskRoot);
+    }
+
+    /**
+     * @return whether the snapshot holds the state at the given root
+     */
+    public boolean contains(byte[] root) {
+        lock.readLock().lock();
+        try {
+            ByteArrayWrapper key = ByteArrayWrapper.wrap(root);
+            return diskRoot != null && generator == null && (key.equals(diskRoot) || layers.containsKey(key));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the encoded account at the given state root, an empty array if
+     *         the account does not exist, or {@code null} if the root is not
+     *         in the snapshot
+     */
+    public byte[] getAccount(byte[] root, Address address) {
+        return get(root, accountKey(address), ACCOUNT);
+    }
+
+    /**
+     * @return the storage value at the given state root, an empty array if
+     *         the value is zero, or {@code null} if the root is not in the
+     *         snapshot
+     */
+    public byte[] getStorage(byte[] root, Address address, DataWord key) {
+        return get(root, storageKey(address, key), STORAGE);
+    }
+
+    private byte[] get(byte[] root, ByteArrayWrapper key, byte prefix) {
+        lock.readLock().lock();
+        try {
+            if (diskRoot == null || generator != null) {
+                return null;
+            }
+
+            ByteArrayWrapper current = ByteArrayWrapper.wrap(root);
+            // the layers form a tree above the disk layer, so the walk is bounded
+            for (int i = 0; i <= layers.size(); i++) {
+                if (current.equals(diskRoot)) {
+                    return database.get(prefixed(prefix, key.getData())).orElse(EMPTY_BYTE_ARRAY);
+                }
+
+                Layer layer = layers.get(current);
+                if (layer == null) {
+                    return null;
+                }
+
+                byte[] value = prefix == STORAGE ? layer.diff.storage.get(key) : layer.diff.accounts.get(key);
+                if (value != null) {
+                    return value;
+                }
+                current = layer.parent;
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the state at {@code root}, obtained by applying the diff to the
+     * state at {@code parentRoot}. Nothing is added if the state is already
+     * known. If the parent state is not in the snapshot, or an earlier
+     * generation failed, the snapshot is generated again at {@code root}.
+     *
+     * @return whether a layer was added
+     */
+    public boolean commit(byte[] parentRoot, byte[] root, Diff diff) {
+        ByteArrayWrapper parent = ByteArrayWrapper.wrap(parentRoot);
+        ByteArrayWrapper child = ByteArrayWrapper.wrap(root);
+
+        lock.writeLock().lock();
+        try {
+            if (closed || (diskRoot == null && source == null)) {
+                return false;
+            }
+            if (diskRoot == null || (generator != null && generator.failed)) {
+                startGeneration(child);
+                return false;
+            }
+            if (child.equals(diskRoot) || layers.containsKey(child)) {
+                return false;
+            }
+            if (!parent.equals(diskRoot) && !layers.containsKey(parent)) {
+                if (source == null) {
+                    LOG.debug("State snapshot does not hold parent root {} of {}.", parent, child);
+                } else {
+                    LOG.info("State snapshot does not hold parent root {} of {}.", parent, child);
+                    startGeneration(child);
+                }
+                return false;
+            }
+
+            Layer layer = new Layer(child, parent, diff);
+            layers.put(child, layer);
+
+            Map<ByteArrayWrapper, byte[]> batch = new HashMap<>();
+            batch.put(ByteArrayWrapper.wrap(layerKey(child)), layer.getEncoded());
+
+            // the disk layer is only written to once it is generated
+            if (generator == null) {
+                for (int depth = depth(layer); depth > maxLayers; depth--) {
+                    flatten(bottom(layer), batch);
+                }
+            }
+
+            batch.put(ByteArrayWrapper.wrap(LAYER_INDEX_KEY), encodeIndex());
+            write(batch);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Generates the snapshot again at the given root unless it already holds
+     * it or is generating it, used when the state was written to the tries
+     * without going through the snapshot.
+     */
+    public void generate(byte[] root) {
+        ByteArrayWrapper key = ByteArrayWrapper.wrap(root);
+
+        lock.writeLock().lock();
+        try {
+            if (closed || source == null) {
+                return;
+            }
+            if (generator == null ? key.equals(diskRoot) || layers.containsKey(key)
+                    : key.equals(generator.root) && !generator.failed) {
+                return;
+            }
+            startGeneration(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records the address of a contract, independently of the state roots
+     * held.
+     */
+    public void putContract(Address address) {
+        database.put(prefixed(CONTRACT, h256(address.toBytes())), address.toBytes());
+    }
+
+    /**
+     * Finds a contract from the key of its account in the state trie.
+     *
+     * @return the contract address, or {@code null} if it is not recorded
+     */
+    public Address getContractAddress(byte[] accountKey) {
+        return database.get(prefixed(CONTRACT, accountKey)).map(Address::wrap).orElse(null);
+    }
+
+    /**
+     * Drops the snapshot and starts generating its disk layer at the given
+     * root, stopping the generation in progress.
+     *
+     * @implNote The method calling this method must hold the write lock.
+     */
+    private void startGeneration(ByteArrayWrapper root) {
+        Generator previous = generator;
+        if (previous != null) {
+            previous.aborted = true;
+        }
+
+        Map<ByteArrayWrapper, byte[]> batch = new HashMap<>();
+        for (ByteArrayWrapper layer : layers.keySet()) {
+            batch.put(ByteArrayWrapper.wrap(layerKey(layer)), null);
+        }
+        layers.clear();
+        batch.put(ByteArrayWrapper.wrap(ROOT_KEY), null);
+        batch.put(ByteArrayWrapper.wrap(LAYER_INDEX_KEY), null);
+        write(batch);
+
+        diskRoot = root;
+        generator = new Generator(root, previous);
+        LOG.info("Generating the state snapshot at root {}, flat state reads are disabled until it completes.",
+                root);
+        generator.thread.start();
+    }
+
+    private void complete(Generator completed) {
+        lock.writeLock().lock();
+        try {
+            if (generator != completed || completed.aborted) {
+                return;
+            }
+            generator = null;
+
+            Map<ByteArrayWrapper, byte[]> batch = new HashMap<>();
+            batch.put(ByteArrayWrapper.wrap(ROOT_KEY), diskRoot.getData());
+
+            // flatten the layers added during the generation down to the newest branch
+            Layer deepest = null;
+            int maxDepth = 0;
+            for (Layer layer : layers.values()) {
+                int depth = depth(layer);
+                if (depth > maxDepth) {
+                    deepest = layer;
+                    maxDepth = depth;
+                }
+            }
+            for (; maxDepth > maxLayers; maxDepth--) {
+                flatten(bottom(deepest), batch);
+            }
+
+            batch.put(ByteArrayWrapper.wrap(LAYER_INDEX_KEY), encodeIndex());
+            write(batch);
+
+            LOG.info("Generated the state snapshot at root {} with {} accounts and {} storage values, "
+                    + "flat state reads are enabled.", completed.root, completed.accounts, completed.values);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void fail(Generator failed, RuntimeException e) {
+        lock.writeLock().lock();
+        try {
+            if (generator == failed && !failed.aborted) {
+                failed.failed = true;
+                LOG.warn("State snapshot generation at root {} failed, it is restarted at the next block: {}",
+                        failed.root, e.toString());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int depth(Layer layer) {
+        int depth = 1;
+        while (!layer.parent.equals(diskRoot)) {
+            layer = layers.get(layer.parent);
+            depth++;
+        }
+        return depth;
+    }
+
+    private Layer bottom(Layer layer) {
+        while (!layer.parent.equals(diskRoot)) {
+            layer = layers.get(layer.parent);
+        }
+        return layer;
+    }
+
+    /**
+     * Writes the layer directly above the disk layer into the database and
+     * drops its siblings along with their descendants.
+     */
+    private void flatten(Layer layer, Map<ByteArrayWrapper, byte[]> batch) {
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : layer.diff.accounts.entrySet()) {
+            batch.put(ByteArrayWrapper.wrap(prefixed(ACCOUNT, entry.getKey().getData())),
+                    entry.getValue().length == 0 ? null : entry.getValue());
+        }
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : layer.diff.storage.entrySet()) {
+            batch.put(ByteArrayWrapper.wrap(prefixed(STORAGE, entry.getKey().getData())),
+                    entry.getValue().length == 0 ? null : entry.getValue());
+        }
+
+        layers.remove(layer.root);
+        batch.put(ByteArrayWrapper.wrap(layerKey(layer.root)), null);
+
+        diskRoot = layer.root;
+        batch.put(ByteArrayWrapper.wrap(ROOT_KEY), diskRoot.getData());
+
+        dropUnreachable(batch);
+    }
+
+    private void dropUnreachable(Map<ByteArrayWrapper, byte[]> batch) {
+        boolean dropped;
+        do {
+            dropped = false;
+            Iterator<Layer> it = layers.values().iterator();
+            while (it.hasNext()) {
+                Layer layer = it.next();
+                if (!layer.parent.equals(diskRoot) && !layers.containsKey(layer.parent)) {
+                    it.remove();
+                    batch.put(ByteArrayWrapper.wrap(layerKey(layer.root)), null);
+                    dropped = true;
+                }
+            }
+        } while (dropped);
+    }
+
+    private byte[] encodeIndex() {
+        List<byte[]> roots = new ArrayList<>();
+        for (ByteArrayWrapper root : layers.keySet()) {
+            roots.add(RLP.encodeElement(root.getData()));
+        }
+        return RLP.encodeList(roots.toArray(new byte[0][]));
+    }
+
+    private void write(Map<ByteArrayWrapper, byte[]> batch) {
+        Map<byte[], byte[]> entries = new HashMap<>();
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : batch.entrySet()) {
+            entries.put(entry.getKey().getData(), entry.getValue());
+        }
+        database.putBatch(entries);
+    }
+
+    /**
+     * @return the root of the state held in the database, or {@code null} if
+     *         there is no snapshot
+     */
+    public byte[] getDiskRoot() {
+        lock.readLock().lock();
+        try {
+            return diskRoot == null ? null : diskRoot.getData();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getLayerCount() {
+        lock.readLock().lock();
+        try {
+            return layers.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether the disk layer is being generated, during which the
+     *         snapshot answers no reads
+     */
+    public boolean isGenerating() {
+        lock.readLock().lock();
+        try {
+            return generator != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether the last generation failed and waits for the next
+     *         block to start again
+     */
+    boolean isGenerationFailed() {
+        lock.readLock().lock();
+        try {
+            return generator != null && generator.failed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stops the generation in progress, waiting for it to stop writing.
+     */
+    public void close() {
+        Generator stopped;
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            stopped = generator;
+            if (stopped != null) {
+                stopped.aborted = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (stopped != null) {
+            stopped.join();
+        }
+    }
+
+    private static ByteArrayWrapper accountKey(Address address) {
+        return ByteArrayWrapper.wrap(h256(address.toBytes()));
+    }
+
+    private static ByteArrayWrapper storageKey(Address address, DataWord key) {
+        return ByteArrayWrapper.wrap(merge(h256(address.toBytes()), h256(key.getData())));
+    }
+
+    private static byte[] layerKey(ByteArrayWrapper root) {
+        return prefixed(LAYER, root.getData());
+    }
+
+    private static byte[] prefixed(byte prefix, byte[] key) {
+        byte[] bytes = new byte[key.length + 1];
+        bytes[0] = prefix;
+        System.arraycopy(key, 0, bytes, 1, key.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.util.ByteArrayWrapper;
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of the pending transactions kept in
+ * the transaction pool and the pending transaction cache.
+ * <p>
+ * Every addition and removal is appended as a checksummed record, so
+ * backing up the pool never touches the state database. Replaying the
+ * records from the start rebuilds the backed up transactions; replay stops
+ * at the first incomplete record left by a crash. The journal is rewritten
+ * with only the live transactions once the removed ones take up most of it.
+ */
+public class PendingTxJournal {
+
+    private static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.DB.name());
+
+    private static final int MAGIC = 0x61747831;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final byte END = 0;
+    private static final byte ADD_POOL = 1;
+    private static final byte ADD_CACHE = 2;
+    private static final byte REMOVE_POOL = 3;
+    private static final byte REMOVE_CACHE = 4;
+
+    private static final int HASH_SIZE = 32;
+
+    /** Operation, hash, payload length and checksum. */
+    private static final int RECORD_OVERHEAD = 1 + HASH_SIZE + 4 + 4;
+
+    private static final int INITIAL_CAPACITY = 1 << 20;
+
+    /** The journal is not compacted while smaller than this. */
+    private static final int MIN_COMPACT_SIZE = 4 << 20;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final File file;
+    private final boolean created;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    // record sizes of the live transactions
+    private final Map<ByteArrayWrapper, Integer> livePool = new HashMap<>();
+    private final Map<ByteArrayWrapper, Integer> liveCache = new HashMap<>();
+    private long liveBytes;
+
+    public PendingTxJournal(File file) throws IOException {
+        this.file = file;
+        this.created = !file.exists() || file.length() == 0;
+        open();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), INITIAL_CAPACITY));
+
+        livePool.clear();
+        liveCache.clear();
+        liveBytes = 0;
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            if (!created) {
+                LOG.warn("Unrecognized pending transaction journal {}, starting a new one.", file);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.put(HEADER_SIZE, END);
+            position = HEADER_SIZE;
+        } else {
+            position = replay(null, null);
+        }
+    }
+
+    /**
+     * @return {@code true} if the journal file did not exist when opened
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    /**
+     * Reads the records from the start of the journal and updates the live
+     * record sizes.
+     *
+     * @return the position after the last complete record
+     */
+    private int replay(Map<ByteArrayWrapper, byte[]> pool, Map<ByteArrayWrapper, byte[]> cache) {
+        livePool.clear();
+        liveCache.clear();
+        liveBytes = 0;
+
+        CRC32 crc = new CRC32();
+        int pos = HEADER_SIZE;
+        int limit = buffer.capacity();
+
+        while (pos + RECORD_OVERHEAD <= limit) {
+            byte op = buffer.get(pos);
+            if (op < ADD_POOL || op > REMOVE_CACHE) {
+                break;
+            }
+
+            int length = buffer.getInt(pos + 1 + HASH_SIZE);
+            int size = RECORD_OVERHEAD + length;
+            if (length < 0 || size > limit - pos) {
+                break;
+            }
+
+            ByteBuffer record = buffer.duplicate();
+            record.position(pos);
+            record.limit(pos + size - 4);
+            crc.reset();
+            crc.update(record);
+            if ((int) crc.getValue() != buffer.getInt(pos + size - 4)) {
+                break;
+            }
+
+            byte[] hash = new byte[HASH_SIZE];
+            record.position(pos + 1);
+            record.get(hash);
+            ByteArrayWrapper key = ByteArrayWrapper.wrap(hash);
+
+            boolean isPool = op == ADD_POOL || op == REMOVE_POOL;
+            Map<ByteArrayWrapper, byte[]> txs = isPool ? pool : cache;
+
+            if (op == ADD_POOL || op == ADD_CACHE) {
+                setLive(key, size, isPool);
+                if (txs != null) {
+                    byte[] payload = new byte[length];
+                    record.position(pos + 1 + HASH_SIZE + 4);
+                    record.get(payload);
+                    txs.put(key, payload);
+                }
+            } else {
+                removeLive(key, isPool);
+                if (txs != null) {
+                    txs.remove(key);
+                }
+            }
+            pos += size;
+        }
+        return pos;
+    }
+
+    private void setLive(ByteArrayWrapper key, int size, boolean isPool) {
+        Integer previous = (isPool ? livePool : liveCache).put(key, size);
+        liveBytes += size - (previous == null ? 0 : previous);
+    }
+
+    private boolean removeLive(ByteArrayWrapper key, boolean isPool) {
+        Integer previous = (isPool ? livePool : liveCache).remove(key);
+        if (previous == null) {
+            return false;
+        }
+        liveBytes -= previous;
+        return true;
+    }
+
+    private static void writeRecord(ByteBuffer out, byte op, byte[] hash, byte[] payload) {
+        int start = out.position();
+        out.put(op);
+        out.put(hash);
+        out.putInt(payload.length);
+        out.put(payload);
+
+        ByteBuffer record = out.duplicate();
+        record.position(start);
+        record.limit(out.position());
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        out.putInt((int) crc.getValue());
+    }
+
+    private void append(byte op, byte[] hash, byte[] payload) throws IOException {
+        int size = RECORD_OVERHEAD + payload.length;
+        ensureCapacity((long) position + size + 1);
+
+        buffer.position(position);
+        writeRecord(buffer, op, hash, payload);
+        position += size;
+
+        // a shorter record may be followed by the remains of an older one
+        buffer.put(position, END);
+    }
+
+    private void ensureCapacity(long required) throws IOException {
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        if (required > Integer.MAX_VALUE) {
+            throw new IOException("Pending transaction journal is full.");
+        }
+
+        long capacity = Math.min(Math.max((long) buffer.capacity() * 2, required), Integer.MAX_VALUE);
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Appends the given transactions, keyed by hash.
+     */
+    public synchronized void add(Map<byte[], byte[]> txs, boolean isPool) throws IOException {
+        for (Map.Entry<byte[], byte[]> e : txs.entrySet()) {
+            if (e.getKey().length != HASH_SIZE) {
+                continue;
+            }
+            append(isPool ? ADD_POOL : ADD_CACHE, e.getKey(), e.getValue());
+            setLive(ByteArrayWrapper.wrap(e.getKey()), RECORD_OVERHEAD + e.getValue().length, isPool);
+        }
+    }
+
+    /**
+     * Appends the removal of the given transactions, unknown hashes are
+     * ignored.
+     */
+    public synchronized void remove(Set<byte[]> hashes, boolean isPool) throws IOException {
+        for (byte[] hash : hashes) {
+            if (hash.length == HASH_SIZE && removeLive(ByteArrayWrapper.wrap(hash), isPool)) {
+                append(isPool ? REMOVE_POOL : REMOVE_CACHE, hash, EMPTY);
+            }
+        }
+    }
+
+    /**
+     * Writes the appended records to disk and compacts the journal when the
+     * removed transactions take up more than half of it.
+     */
+    public synchronized void flush() throws IOException {
+        buffer.force();
+
+        if (position > MIN_COMPACT_SIZE && position - HEADER_SIZE > 2 * liveBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the live transactions. The new journal
+     * replaces the old one atomically, so a crash leaves either of them.
+     */
+    synchronized void compact() throws IOException {
+        Map<ByteArrayWrapper, byte[]> pool = new LinkedHashMap<>();
+        Map<ByteArrayWrapper, byte[]> cache = new LinkedHashMap<>();
+        replay(pool, cache);
+
+        long t1 = System.currentTimeMillis();
+        int before = position;
+
+        ByteBuffer out = ByteBuffer.allocate((int) (HEADER_SIZE + liveBytes + 1));
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        for (Map.Entry<ByteArrayWrapper, byte[]> e : pool.entrySet()) {
+            writeRecord(out, ADD_POOL, e.getKey().getData(), e.getValue());
+        }
+        for (Map.Entry<ByteArrayWrapper, byte[]> e : cache.entrySet()) {
+            writeRecord(out, ADD_CACHE, e.getKey().getData(), e.getValue());
+        }
+        out.put(END);
+        out.flip();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel tmpChannel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                tmpChannel.write(out);
+            }
+            tmpChannel.force(true);
+        }
+
+        channel.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Compacted pending transaction journal from {} to {} bytes in {} ms.", before, position,
+                    System.currentTimeMillis() - t1);
+        }
+    }
+
+    /**
+     * @return the encoded transactions of the pool, in the order they were added
+     */
+    public synchronized List<byte[]> getPoolTx() {
+        Map<ByteArrayWrapper, byte[]> pool = new LinkedHashMap<>();
+        replay(pool, null);
+        return new ArrayList<>(pool.values());
+    }
+
+    /**
+     * @return the encoded transactions of the pending transaction cache, in
+     *         the order they were added
+     */
+    public synchronized List<byte[]> getCacheTx() {
+        Map<ByteArrayWrapper, byte[]> cache = new LinkedHashMap<>();
+        replay(null, cache);
+        return new ArrayList<>(cache.values());
+    }
+
+    /**
+     * @return the size in bytes of the appended records
+     */
+    public synchronized int size() {
+        return position;
+    }
+
+    public synchronized void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close the pending transaction journal.", e);
+        }
+    }
+}
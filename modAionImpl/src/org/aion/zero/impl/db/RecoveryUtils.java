@@ -27,6 +27,7 @@ import org.aion.log.AionLoggerFactory;
 import org.aion.mcf.db.IBlockStoreBase;
 import org.aion.zero.impl.AionBlockchainImpl;
 import org.aion.zero.impl.config.CfgAion;
+import org.aion.zero.impl.types.AionBlock;
 
 import java.io.File;
 import java.io.IOException;
@@ -125,6 +126,33 @@ public class RecoveryUtils {
         repository.close();
     }
 
+    /**
+     * Used by the CLI call.
+     */
+    public static void migrateContractDetails() {
+        // ensure mining is disabled
+        CfgAion cfg = CfgAion.inst();
+        cfg.dbFromXML();
+        cfg.getConsensus().setMining(false);
+
+        cfg.getDb().setHeapCacheEnabled(false);
+
+        Map<String, String> cfgLog = new HashMap<>();
+        cfgLog.put("DB", "INFO");
+        cfgLog.put("GEN", "INFO");
+
+        AionLoggerFactory.init(cfgLog);
+
+        AionRepositoryImpl repository = AionRepositoryImpl.inst();
+
+        int count = repository.migrateContractDetails();
+        System.out.println("Migrated " + count + " contract details records.");
+
+        // reclaim the space of the rewritten records
+        repository.compact();
+        repository.close();
+    }
+
     /**
      * Used by the CLI call.
      */
@@ -192,6 +220,23 @@ public class RecoveryUtils {
                     + "Cannot move to that block without synchronizing with peers. Start Aion instance to sync.");
             return Status.ILLEGAL_ARGUMENT;
         }
+        long nbFrozen = blockchain.getBlockStore().getFrozenSize();
+        if (nbBlock < nbFrozen - 1) {
+            System.out.println("The blocks up to #" + (nbFrozen - 1) + " were moved to the ancient store "
+                    + "and cannot be reverted.");
+            return Status.ILLEGAL_ARGUMENT;
+        }
+
+        // remove the entries of the reverted main chain blocks from the address index
+        AddressIndex addressIndex = blockchain.getAddressIndex();
+        if (addressIndex != null) {
+            for (long level = nbBestBlock; level > nbBlock; level--) {
+                AionBlock block = blockchain.getBlockStore().getChainBlockByNumber(level);
+                if (block != null) {
+                    addressIndex.revertBlock(block);
+                }
+            }
+        }
 
         // revert to block number and flush changes
         store.revert(nbBlock);
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.db.IRepositoryCache;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteArrayWrapper;
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.aion.mcf.db.AbstractRepositoryCache;
+import org.aion.mcf.vm.types.DataWord;
+import org.aion.zero.types.AionTransaction;
+import org.aion.zero.types.IAionBlock;
+import org.slf4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warms the world state and contract storage caches with the state a block
+ * is going to touch, so that transaction execution does not wait on the
+ * database for every cache miss.
+ * <p>
+ * The accounts are taken from the senders and recipients of the block's
+ * transactions, extended by the access lists recorded when the same
+ * transactions were executed before (in the pending state or on another
+ * branch). The lookups are spread over a fixed pool and run concurrently
+ * with the execution of the block.
+ */
+public class StatePrefetcher {
+
+    private static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.DB.name());
+
+    /** Number of transaction access lists kept for later prefetching. */
+    private static final int ACCESS_LIST_CAPACITY = 16_384;
+
+    private final int threads;
+    private final ExecutorService workers;
+
+    private final Map<ByteArrayWrapper, Map<Address, Set<DataWord>>> accessLists = new LinkedHashMap<>(1024, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteArrayWrapper, Map<Address, Set<DataWord>>> eldest) {
+            return size() > ACCESS_LIST_CAPACITY;
+        }
+    };
+
+    /**
+     * @param threads
+     *         the number of prefetching threads; zero disables prefetching
+     */
+    public StatePrefetcher(int threads) {
+        this.threads = Math.max(threads, 0);
+
+        if (this.threads == 0) {
+            this.workers = null;
+        } else {
+            this.workers = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+                private AtomicInteger cnt = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "state-prefetch-" + cnt.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    /**
+     * Records the accounts and storage keys touched by a transaction. The
+     * given tracking cache must contain only the effects of that
+     * transaction, i.e. it must be called before the cache is flushed.
+     */
+    public void record(byte[] txHash, IRepositoryCache track) {
+        if (workers == null || !(track instanceof AbstractRepositoryCache)) {
+            return;
+        }
+
+        Map<Address, Set<DataWord>> accessed = ((AbstractRepositoryCache<?>) track).getAccessedStorage();
+
+        synchronized (accessLists) {
+            accessLists.put(ByteArrayWrapper.wrap(txHash), accessed);
+        }
+    }
+
+    /**
+     * Starts loading the state touched by the given block. The returned
+     * handle must be cancelled once the block has been executed.
+     */
+    public Prefetch prefetch(AionRepositoryImpl repository, IAionBlock block) {
+        Prefetch prefetch = new Prefetch(block.getNumber());
+        if (workers == null) {
+            return prefetch;
+        }
+
+        // keep transaction order, so the first transactions are warmed first
+        Map<Address, Set<DataWord>> targets = new LinkedHashMap<>();
+        for (AionTransaction tx : block.getTransactionsList()) {
+            targets.computeIfAbsent(tx.getFrom(), k -> new HashSet<>());
+
+            Address to = tx.isContractCreation() ? tx.getContractAddress() : tx.getTo();
+            if (to != null) {
+                targets.computeIfAbsent(to, k -> new HashSet<>());
+            }
+
+            Map<Address, Set<DataWord>> recorded;
+            synchronized (accessLists) {
+                recorded = accessLists.get(ByteArrayWrapper.wrap(tx.getHash()));
+            }
+            if (recorded != null) {
+                for (Map.Entry<Address, Set<DataWord>> entry : recorded.entrySet()) {
+                    targets.computeIfAbsent(entry.getKey(), k -> new HashSet<>()).addAll(entry.getValue());
+                }
+            }
+        }
+        targets.computeIfAbsent(block.getCoinbase(), k -> new HashSet<>());
+
+        List<Map.Entry<Address, Set<DataWord>>> entries = new ArrayList<>(targets.entrySet());
+        int tasks = Math.min(threads, entries.size());
+
+        for (int t = 0; t < tasks; t++) {
+            final int offset = t;
+            try {
+                workers.execute(() -> {
+                    for (int i = offset; i < entries.size() && !prefetch.cancelled
+                            && !Thread.currentThread().isInterrupted(); i += tasks) {
+                        Map.Entry<Address, Set<DataWord>> entry = entries.get(i);
+                        try {
+                            repository.prefetch(entry.getKey(), entry.getValue());
+                        } catch (Exception e) {
+                            // prefetching is best effort, execution loads whatever is missing
+                            LOG.debug("prefetch failed for {}: {}", entry.getKey(), e.toString());
+                            return;
+                        }
+                        prefetch.accounts.incrementAndGet();
+                        prefetch.storageKeys.addAndGet(entry.getValue().size());
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the prefetcher was shut down
+                break;
+            }
+        }
+
+        return prefetch;
+    }
+
+    /**
+     * Stops the prefetching threads, waiting briefly for the lookups in
+     * progress so they do not read from closed databases.
+     */
+    public void shutdown() {
+        if (workers == null) {
+            return;
+        }
+        workers.shutdownNow();
+        try {
+            if (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOG.warn("state prefetching threads did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Handle of the prefetching started for a block.
+     */
+    public static final class Prefetch {
+
+        private final long number;
+        private final long start = System.nanoTime();
+        private final AtomicInteger accounts = new AtomicInteger();
+        private final AtomicInteger storageKeys = new AtomicInteger();
+        private volatile boolean cancelled = false;
+
+        private Prefetch(long number) {
+            this.number = number;
+        }
+
+        /**
+         * Stops the lookups that did not start yet.
+         */
+        public void cancel() {
+            cancelled = true;
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("prefetched {} accounts and {} storage keys for block {} in {} ms", accounts.get(),
+                        storageKeys.get(), number, (System.nanoTime() - start) / 1_000_000);
+            }
+        }
+    }
+}
@@ -124,9 +124,10 @@ public class AionPoW {
             this.syncMgr = SyncMgr.inst();
 
 
-            // return early if mining is disabled, otherwise we are doing needless
-            // work by generating new block templates on IMPORT_BEST
-            if (!config.getConsensus().getMining())
+            // return early if neither the internal miner nor the stratum server
+            // need work, otherwise we are doing needless work by generating new
+            // block templates on IMPORT_BEST
+            if (!config.getConsensus().getMining() && !config.getApi().getStratum().getActive())
                 return;
 
             setupHandler();
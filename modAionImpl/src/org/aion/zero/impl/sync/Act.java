@@ -59,6 +59,18 @@ public final class Act {
 
     public static final byte BROADCAST_BLOCK = 7;
 
+    public static final byte ANNOUNCE_TX = 8;
+
+    public static final byte REQ_TX = 9;
+
+    public static final byte REQ_TRIE_DATA = 10;
+
+    public static final byte RES_TRIE_DATA = 11;
+
+    public static final byte REQ_RECEIPTS = 12;
+
+    public static final byte RES_RECEIPTS = 13;
+
 //    private static final byte UNKNOWN = Byte.MAX_VALUE;
 
 //    private static Set<Byte> active = new HashSet<>() {{
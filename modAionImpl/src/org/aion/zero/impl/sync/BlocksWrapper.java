@@ -30,6 +30,7 @@
 package org.aion.zero.impl.sync;
 
 import org.aion.zero.impl.types.AionBlock;
+import org.aion.zero.types.AionTxReceipt;
 import java.util.List;
 
 /**
@@ -44,6 +45,9 @@ final class BlocksWrapper {
 
     private List<AionBlock> blocks;
 
+    // receipts of the blocks stored without execution below the state sync pivot
+    private List<List<AionTxReceipt>> receipts;
+
     /**
      *
      * @param _nodeIdHash int
@@ -56,6 +60,16 @@ final class BlocksWrapper {
         this.blocks = _blocks;
     }
 
+    /**
+     * @param _receipts List receipts of each block, for blocks that are
+     *                  stored without being executed
+     */
+    BlocksWrapper(int _nodeIdHash, String _displayId, final List<AionBlock> _blocks,
+            final List<List<AionTxReceipt>> _receipts){
+        this(_nodeIdHash, _displayId, _blocks);
+        this.receipts = _receipts;
+    }
+
     /**
      * @return int - node id hash
      */
@@ -75,4 +89,11 @@ final class BlocksWrapper {
         return this.blocks;
     }
 
+    /**
+     * @return List - receipts of each block, null for blocks to execute
+     */
+    List<List<AionTxReceipt>> getReceipts(){
+        return this.receipts;
+    }
+
 }
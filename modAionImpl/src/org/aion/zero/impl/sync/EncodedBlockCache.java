@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.aion.base.util.ByteArrayWrapper;
+import org.aion.rlp.RLP;
+import org.aion.rlp.RLPWriter;
+import org.aion.zero.impl.db.AionBlockStore;
+
+/**
+ * Shared cache of the encoded headers and bodies served to syncing peers.
+ * Both are sliced out of the block RLP as it is stored, so serving a block
+ * neither decodes its transactions nor encodes them again. The cache is
+ * bounded by the number of cached bytes and safe for concurrent readers.
+ */
+public final class EncodedBlockCache {
+
+    public final static long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private final AionBlockStore blockStore;
+
+    private final Cache<ByteArrayWrapper, EncodedBlock> cache;
+
+    public EncodedBlockCache(final AionBlockStore _blockStore, final long _maxBytes) {
+        this.blockStore = _blockStore;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(_maxBytes)
+                .weigher((ByteArrayWrapper _key, EncodedBlock _block) -> _key.getData().length + _block.weight())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return the encoded header of the block or {@code null} if the block is unknown
+     */
+    public byte[] getHeader(final byte[] _hash) {
+        EncodedBlock block = get(_hash);
+        return block == null ? null : block.header;
+    }
+
+    /**
+     * @return the encoded body of the block, as in {@code AionBlock#getEncodedBody()},
+     *         or {@code null} if the block is unknown
+     */
+    public byte[] getBody(final byte[] _hash) {
+        EncodedBlock block = get(_hash);
+        return block == null ? null : block.body;
+    }
+
+    /**
+     * Returns up to {@code _limit} encoded main chain headers in ascending
+     * order starting at {@code _fromNumber}. Stops at the first number that
+     * has no main chain block.
+     */
+    public List<byte[]> getHeaders(final long _fromNumber, final int _limit) {
+        List<byte[]> headers = new ArrayList<>();
+        for (long number = _fromNumber; headers.size() < _limit; number++) {
+            byte[] hash = blockStore.getBlockHashByNumber(number);
+            if (hash == null) {
+                break;
+            }
+            byte[] header = getHeader(hash);
+            if (header == null) {
+                break;
+            }
+            headers.add(header);
+        }
+        return headers;
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * @return ratio of lookups served from the cache, {@code 1.0} before the first lookup
+     */
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return String.format("hits=%d misses=%d hit-rate=%.2f entries=%d", stats.hitCount(), stats.missCount(),
+                stats.hitRate(), cache.size());
+    }
+
+    private EncodedBlock get(final byte[] _hash) {
+        ByteArrayWrapper key = ByteArrayWrapper.wrap(_hash);
+        EncodedBlock block = cache.getIfPresent(key);
+        if (block == null) {
+            byte[] encoded = blockStore.getEncodedBlockByHash(_hash);
+            if (encoded == null) {
+                return null;
+            }
+            block = slice(encoded);
+            if (block != null) {
+                cache.put(key, block);
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Splits a stored block {@code [header, [transactions]]} into its header
+     * and the body {@code [[transactions]]} by walking the RLP prefixes only.
+     */
+    static EncodedBlock slice(final byte[] _encoded) {
+        int header = RLP.getFirstListElement(_encoded, 0);
+        int txs = header < 0 ? -1 : RLP.getNextElementIndex(_encoded, header);
+        int end = txs < 0 ? -1 : RLP.getNextElementIndex(_encoded, txs);
+        if (end < 0 || end > _encoded.length) {
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(RLPWriter.sizeOfList(end - txs));
+        RLPWriter.writeListHeader(body, end - txs);
+        body.put(_encoded, txs, end - txs);
+        return new EncodedBlock(Arrays.copyOfRange(_encoded, header, txs), body.array());
+    }
+
+    static final class EncodedBlock {
+
+        final byte[] header;
+
+        final byte[] body;
+
+        EncodedBlock(final byte[] _header, final byte[] _body) {
+            this.header = _header;
+            this.body = _body;
+        }
+
+        int weight() {
+            return header.length + body.length;
+        }
+    }
+}
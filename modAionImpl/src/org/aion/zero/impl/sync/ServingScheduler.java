@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import org.aion.p2p.INode;
+import org.aion.p2p.IP2pMgr;
+import org.slf4j.Logger;
+
+/**
+ * Schedules the work of answering sync requests from peers. Requests are
+ * admitted against a token bucket per peer and route, queued per peer and
+ * served by a few workers in deficit round robin order, so peers share the
+ * serving capacity in proportion to their weight. While blocks are being
+ * imported the workers only get a fixed share of the wall clock.
+ */
+public final class ServingScheduler {
+
+    /**
+     * Serving work for one request.
+     */
+    @FunctionalInterface
+    public interface Task {
+
+        /**
+         * @return the number of bytes sent to the peer
+         */
+        int serve();
+    }
+
+    private final static int WORKERS = 2;
+
+    private final static int MAX_PENDING_PER_PEER = 8;
+
+    // charged for every request on top of the bytes sent
+    private final static int REQUEST_COST = 1024;
+
+    // bytes served to a peer of weight 1 in one round
+    private final static long QUANTUM = 256 * 1024;
+
+    private final static double MAX_WEIGHT = 4.0;
+
+    private final static long PEERS_INTERVAL = 1000;
+
+    private final static long RATE_WINDOW = 10000;
+
+    // share of the wall clock the workers may take while blocks are imported
+    private final static double IMPORT_SHARE = 0.25;
+
+    private final static long MAX_SERVING_BURST = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final static long MAX_SERVING_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // bytes per second and burst of each peer, by request route
+    private final static Map<Byte, long[]> BUDGETS = new HashMap<>();
+
+    static {
+        BUDGETS.put(Act.REQ_STATUS, new long[] { 8 * 1024, 16 * 1024 });
+        BUDGETS.put(Act.REQ_BLOCKS_HEADERS, new long[] { 256 * 1024, 512 * 1024 });
+        BUDGETS.put(Act.REQ_BLOCKS_BODIES, new long[] { 4 * 1024 * 1024, 8 * 1024 * 1024 });
+        BUDGETS.put(Act.REQ_TRIE_DATA, new long[] { 2 * 1024 * 1024, 4 * 1024 * 1024 });
+        BUDGETS.put(Act.REQ_RECEIPTS, new long[] { 1024 * 1024, 2 * 1024 * 1024 });
+    }
+
+    private final AtomicBoolean start;
+
+    private final IP2pMgr p2pMgr;
+
+    private final BooleanSupplier importActive;
+
+    private final Logger log;
+
+    private final Map<Integer, PeerQueue> peers = new ConcurrentHashMap<>();
+
+    // peers with pending requests that are not being served, guarded by this
+    private final Deque<PeerQueue> ready = new ArrayDeque<>();
+
+    private final AtomicLong peersTs = new AtomicLong();
+
+    private final AtomicLong limited = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Object servingBudgetLock = new Object();
+
+    private long servingBudget = MAX_SERVING_BURST;
+
+    private long servingBudgetTs = System.nanoTime();
+
+    ServingScheduler(final AtomicBoolean _start, final IP2pMgr _p2pMgr, final BooleanSupplier _importActive,
+            final Logger _log) {
+        this.start = _start;
+        this.p2pMgr = _p2pMgr;
+        this.importActive = _importActive;
+        this.log = _log;
+    }
+
+    void start() {
+        for (int i = 1; i <= WORKERS; i++) {
+            new Thread(() -> {
+                while (this.start.get()) {
+                    try {
+                        serveNext(500);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "sync-serve-" + i).start();
+        }
+    }
+
+    /**
+     * Queues the answer to a request of the peer.
+     *
+     * @return {@code false} if the request was dropped because the peer
+     *         used up its budget for the route or has too many pending requests
+     */
+    public boolean submit(final int _nodeIdHash, final String _displayId, final byte _route, final Task _task) {
+        PeerQueue pq = this.peers.computeIfAbsent(_nodeIdHash, id -> new PeerQueue(_displayId));
+
+        TokenBucket bucket = pq.buckets.get(_route);
+        if (bucket != null && !bucket.hasTokens(System.currentTimeMillis())) {
+            this.limited.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug("<sync-serve-limited route={} node={}>", _route, _displayId);
+            }
+            return false;
+        }
+
+        synchronized (this) {
+            if (pq.jobs.size() >= MAX_PENDING_PER_PEER) {
+                this.dropped.incrementAndGet();
+                if (log.isDebugEnabled()) {
+                    log.debug("<sync-serve-dropped route={} node={} pending={}>", _route, _displayId,
+                            pq.jobs.size());
+                }
+                return false;
+            }
+            pq.jobs.add(new Job(_route, _task));
+            if (!pq.scheduled) {
+                pq.scheduled = true;
+                this.ready.addLast(pq);
+                notify();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Serves one request, waiting up to the given time for one to arrive.
+     *
+     * @return {@code false} if there was nothing to serve
+     */
+    boolean serveNext(final long _timeoutMs) throws InterruptedException {
+        refreshPeers();
+
+        PeerQueue pq;
+        synchronized (this) {
+            pq = next();
+            if (pq == null && _timeoutMs > 0) {
+                wait(_timeoutMs);
+                pq = next();
+            }
+        }
+        if (pq == null) {
+            return false;
+        }
+
+        Job job;
+        synchronized (this) {
+            job = pq.jobs.poll();
+        }
+
+        awaitServingBudget();
+
+        long t0 = System.nanoTime();
+        int bytes = 0;
+        try {
+            bytes = job.task.serve();
+        } catch (Exception e) {
+            log.error("<sync-serve-error route={} node={}> {}", job.route, pq.displayId, e.toString());
+        }
+        chargeServingBudget(System.nanoTime() - t0);
+
+        long cost = REQUEST_COST + bytes;
+        TokenBucket bucket = pq.buckets.get(job.route);
+        if (bucket != null) {
+            bucket.charge(cost, System.currentTimeMillis());
+        }
+
+        synchronized (this) {
+            pq.deficit -= cost;
+            pq.served += bytes;
+            if (pq.jobs.isEmpty()) {
+                // idle peers do not keep their credit
+                pq.scheduled = false;
+                pq.deficit = 0;
+            } else {
+                // the peer keeps its turn while it has credit left
+                if (pq.deficit > 0) {
+                    this.ready.addFirst(pq);
+                } else {
+                    this.ready.addLast(pq);
+                }
+                notify();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deficit round robin: a peer starting its turn gets its quantum added to
+     * the deficit and is served until the deficit is used up. The cost of a
+     * request is only known afterwards, so a peer may overdraw and then sit
+     * out turns until the quantum covers the debt.
+     */
+    private PeerQueue next() {
+        while (true) {
+            PeerQueue pq = this.ready.pollFirst();
+            if (pq == null || pq.deficit > 0) {
+                return pq;
+            }
+            pq.deficit += (long) (QUANTUM * pq.weight);
+            if (pq.deficit > 0) {
+                return pq;
+            }
+            this.ready.addLast(pq);
+        }
+    }
+
+    /**
+     * Updates the weights from the peer scores and forgets idle peers that
+     * are no longer connected.
+     */
+    private void refreshPeers() {
+        long now = System.currentTimeMillis();
+        long last = this.peersTs.get();
+        if (now - last < PEERS_INTERVAL || !this.peersTs.compareAndSet(last, now)) {
+            return;
+        }
+
+        Map<Integer, INode> active = this.p2pMgr.getActiveNodes();
+        synchronized (this) {
+            Iterator<Map.Entry<Integer, PeerQueue>> it = this.peers.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Integer, PeerQueue> entry = it.next();
+                INode node = active.get(entry.getKey());
+                if (node == null) {
+                    if (!entry.getValue().scheduled) {
+                        it.remove();
+                    }
+                } else {
+                    entry.getValue().weight = Math.min(MAX_WEIGHT, 1 + Math.log1p(Math.max(0, node.getScore())));
+                }
+            }
+        }
+    }
+
+    private void awaitServingBudget() throws InterruptedException {
+        while (this.start.get()) {
+            long wait;
+            synchronized (this.servingBudgetLock) {
+                refillServingBudget();
+                if (this.servingBudget > 0) {
+                    return;
+                }
+                wait = (long) (-this.servingBudget / IMPORT_SHARE);
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(wait, MAX_SERVING_WAIT) + 1);
+        }
+    }
+
+    private void chargeServingBudget(long _elapsed) {
+        synchronized (this.servingBudgetLock) {
+            refillServingBudget();
+            if (this.importActive.getAsBoolean()) {
+                this.servingBudget -= _elapsed;
+            }
+        }
+    }
+
+    private void refillServingBudget() {
+        long now = System.nanoTime();
+        if (this.importActive.getAsBoolean()) {
+            this.servingBudget = Math.min(MAX_SERVING_BURST,
+                    this.servingBudget + (long) ((now - this.servingBudgetTs) * IMPORT_SHARE));
+        } else {
+            this.servingBudget = MAX_SERVING_BURST;
+        }
+        this.servingBudgetTs = now;
+    }
+
+    /**
+     * @return bytes per second served to each peer over the last window, by display id
+     */
+    public Map<String, Long> getServedBytesPerSec() {
+        long now = System.currentTimeMillis();
+        Map<String, Long> rates = new HashMap<>();
+        synchronized (this) {
+            for (PeerQueue pq : this.peers.values()) {
+                if (now - pq.windowTs >= RATE_WINDOW) {
+                    pq.rate = (pq.served - pq.windowServed) * 1000 / (now - pq.windowTs);
+                    pq.windowTs = now;
+                    pq.windowServed = pq.served;
+                }
+                if (pq.rate > 0) {
+                    rates.put(pq.displayId, pq.rate);
+                }
+            }
+        }
+        return rates;
+    }
+
+    /**
+     * @return the number of requests dropped because the peer used up its budget
+     */
+    public long getLimitedCount() {
+        return this.limited.get();
+    }
+
+    /**
+     * @return the number of requests dropped because the peer had too many pending
+     */
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    private static final class Job {
+
+        private final byte route;
+
+        private final Task task;
+
+        private Job(final byte _route, final Task _task) {
+            this.route = _route;
+            this.task = _task;
+        }
+    }
+
+    private static final class PeerQueue {
+
+        private final String displayId;
+
+        private final Map<Byte, TokenBucket> buckets = new HashMap<>();
+
+        // the fields below are guarded by the scheduler
+
+        private final Deque<Job> jobs = new ArrayDeque<>();
+
+        private boolean scheduled;
+
+        private long deficit;
+
+        private double weight = 1;
+
+        private long served;
+
+        private long windowTs = System.currentTimeMillis();
+
+        private long windowServed;
+
+        private long rate;
+
+        private PeerQueue(final String _displayId) {
+            this.displayId = _displayId;
+            for (Map.Entry<Byte, long[]> budget : BUDGETS.entrySet()) {
+                this.buckets.put(budget.getKey(), new TokenBucket(budget.getValue()[0], budget.getValue()[1]));
+            }
+        }
+    }
+
+    /**
+     * Bytes budget refilled at a fixed rate. Requests are admitted while the
+     * balance is positive and charged once their size is known, so a large
+     * answer leaves the peer in debt until the budget catches up.
+     */
+    static final class TokenBucket {
+
+        private final long rate;
+
+        private final long burst;
+
+        private long tokens;
+
+        private long ts;
+
+        TokenBucket(long _rate, long _burst) {
+            this.rate = _rate;
+            this.burst = _burst;
+            this.tokens = _burst;
+            this.ts = System.currentTimeMillis();
+        }
+
+        synchronized boolean hasTokens(long _now) {
+            refill(_now);
+            return this.tokens > 0;
+        }
+
+        synchronized void charge(long _cost, long _now) {
+            refill(_now);
+            this.tokens -= _cost;
+        }
+
+        private void refill(long _now) {
+            if (_now > this.ts) {
+                this.tokens = Math.min(this.burst, this.tokens + (_now - this.ts) * this.rate / 1000);
+                this.ts = _now;
+            }
+        }
+    }
+}
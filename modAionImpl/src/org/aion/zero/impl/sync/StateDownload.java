@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteUtil;
+import org.aion.mcf.core.AccountState;
+import org.aion.mcf.trie.BranchNode;
+import org.aion.mcf.trie.ExtensionNode;
+import org.aion.mcf.trie.HashNode;
+import org.aion.mcf.trie.LeafNode;
+import org.aion.mcf.trie.TrieNode;
+import org.aion.zero.impl.db.AionRepositoryImpl;
+import org.slf4j.Logger;
+
+import static org.aion.crypto.HashUtil.EMPTY_DATA_HASH;
+import static org.aion.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.aion.crypto.HashUtil.h256;
+
+/**
+ * Downloads the world state at a given state root.
+ * <p>
+ * The state trie is walked from its root. Every node is requested by hash and
+ * checked against it before it is stored, so the whole state is verified
+ * against the root. The children referenced by hash are then scheduled.
+ * Accounts with storage or code only give the hash of the contract address,
+ * which is the key of the account, so the address is requested next; once it
+ * is known the details record of the contract is written and its storage
+ * trie and code are scheduled.
+ * <p>
+ * Items that are already stored, left by an interrupted download or shared
+ * with the local state, are walked without being requested. Items are taken
+ * depth first, which bounds the pending items by the depth of the tries
+ * rather than their width. Each peer has at most one request in flight and
+ * the items it does not answer go back to the queue.
+ */
+final class StateDownload {
+
+    // time after which the items of an unanswered request are requested again
+    static final long REQUEST_TIMEOUT = 10000;
+
+    private static final int KEY_NIBBLES = 64;
+
+    private static final class Task {
+
+        private final StateItem item;
+
+        // nibbles of the key leading to a state trie node
+        private final byte[] path;
+
+        // account of an address item
+        private final AccountState account;
+
+        private Task(StateItem item, byte[] path, AccountState account) {
+            this.item = item;
+            this.path = path;
+            this.account = account;
+        }
+    }
+
+    private static final class Request {
+
+        private final List<Task> tasks;
+
+        private final long sent;
+
+        private Request(List<Task> tasks, long sent) {
+            this.tasks = tasks;
+            this.sent = sent;
+        }
+    }
+
+    private final AionRepositoryImpl repository;
+
+    private final byte[] root;
+
+    private final Logger log;
+
+    private final Deque<Task> pending = new ArrayDeque<>();
+
+    // items pending or in flight
+    private final Set<StateItem> scheduled = new HashSet<>();
+
+    private final Map<Integer, Request> inFlight = new HashMap<>();
+
+    // stored items to walk
+    private final Deque<Task> stored = new ArrayDeque<>();
+
+    private long downloaded;
+
+    private long downloadedBytes;
+
+    private long reused;
+
+    private long lastProgress;
+
+    StateDownload(final AionRepositoryImpl _repository, final byte[] _root, final Logger _log) {
+        this.repository = _repository;
+        this.root = _root;
+        this.log = _log;
+        this.lastProgress = System.currentTimeMillis();
+
+        if (!Arrays.equals(_root, EMPTY_TRIE_HASH)) {
+            schedule(new Task(new StateItem(StateItem.STATE_NODE, _root, null), new byte[0], null));
+            walkStored();
+        }
+    }
+
+    /**
+     * Takes the next items to request from a peer.
+     *
+     * @return the items, empty if the peer has a request in flight or there
+     *         is nothing to request
+     */
+    synchronized List<StateItem> request(int _nodeIdHash, int _max, long _now) {
+        if (inFlight.containsKey(_nodeIdHash) || pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Task> tasks = new ArrayList<>(Math.min(_max, pending.size()));
+        while (tasks.size() < _max && !pending.isEmpty()) {
+            tasks.add(pending.pop());
+        }
+        inFlight.put(_nodeIdHash, new Request(tasks, _now));
+
+        List<StateItem> items = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            items.add(task.item);
+        }
+        return items;
+    }
+
+    /**
+     * Verifies and stores the answer of a peer, matched with its request in
+     * flight. Missing and invalid items are requested again.
+     *
+     * @return {@code false} if the answer holds data that does not match the
+     *         requested hashes
+     */
+    synchronized boolean receive(int _nodeIdHash, final List<byte[]> _values) {
+        Request request = inFlight.remove(_nodeIdHash);
+        if (request == null) {
+            // the request expired
+            return true;
+        }
+
+        boolean valid = _values.size() <= request.tasks.size();
+        int count = 0;
+        for (int i = 0; i < request.tasks.size(); i++) {
+            Task task = request.tasks.get(i);
+            byte[] value = i < _values.size() ? _values.get(i) : null;
+            if (value == null || value.length == 0) {
+                retry(task);
+                continue;
+            }
+            if (!verify(task.item, value)) {
+                valid = false;
+                retry(task);
+                continue;
+            }
+
+            scheduled.remove(task.item);
+            store(task, value);
+            process(task, value);
+            downloaded++;
+            downloadedBytes += value.length;
+            count++;
+        }
+        walkStored();
+
+        if (count > 0) {
+            repository.commitStateSync();
+            lastProgress = System.currentTimeMillis();
+        }
+        return valid;
+    }
+
+    /**
+     * Gives up the requests that were not answered in time.
+     */
+    synchronized void expire(long _now) {
+        Iterator<Request> it = inFlight.values().iterator();
+        while (it.hasNext()) {
+            Request request = it.next();
+            if (_now - request.sent > REQUEST_TIMEOUT) {
+                it.remove();
+                request.tasks.forEach(this::retry);
+            }
+        }
+    }
+
+    /**
+     * @return whether the whole state is stored
+     */
+    synchronized boolean isDone() {
+        return pending.isEmpty() && inFlight.isEmpty();
+    }
+
+    byte[] getRoot() {
+        return root;
+    }
+
+    synchronized long getLastProgress() {
+        return lastProgress;
+    }
+
+    synchronized int getPending() {
+        return pending.size();
+    }
+
+    synchronized long getDownloaded() {
+        return downloaded;
+    }
+
+    synchronized long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    synchronized long getReused() {
+        return reused;
+    }
+
+    private void retry(Task task) {
+        // to the back of the queue, so that other items are served first
+        pending.addLast(task);
+    }
+
+    private static boolean verify(StateItem item, byte[] value) {
+        if (item.getType() == StateItem.ADDRESS && value.length != Address.ADDRESS_LEN) {
+            return false;
+        }
+        return Arrays.equals(h256(value), item.getHash());
+    }
+
+    private void schedule(Task task) {
+        if (!scheduled.add(task.item)) {
+            return;
+        }
+
+        byte[] value = getStored(task.item);
+        if (value != null) {
+            scheduled.remove(task.item);
+            stored.push(task);
+            return;
+        }
+        pending.push(task);
+    }
+
+    private byte[] getStored(StateItem item) {
+        switch (item.getType()) {
+        case StateItem.STATE_NODE:
+            return repository.getStateNode(item.getHash());
+        case StateItem.STORAGE_NODE:
+            return repository.getStorageNode(item.getAddress(), item.getHash());
+        case StateItem.CODE:
+            return repository.getCodeByHash(item.getHash());
+        case StateItem.ADDRESS:
+            Address address = repository.getContractAddress(item.getHash());
+            return address == null ? null : address.toBytes();
+        default:
+            return null;
+        }
+    }
+
+    private void walkStored() {
+        while (!stored.isEmpty()) {
+            Task task = stored.pop();
+            byte[] value = getStored(task.item);
+            if (value != null) {
+                process(task, value);
+                reused++;
+            }
+        }
+    }
+
+    private void store(Task task, byte[] value) {
+        StateItem item = task.item;
+        switch (item.getType()) {
+        case StateItem.STATE_NODE:
+            repository.putStateNode(item.getHash(), value);
+            break;
+        case StateItem.STORAGE_NODE:
+            repository.putStorageNode(item.getAddress(), item.getHash(), value);
+            break;
+        case StateItem.CODE:
+            repository.putCode(item.getHash(), value);
+            break;
+        case StateItem.ADDRESS:
+            repository.putContractDetails(Address.wrap(value), task.account.getStateRoot(),
+                    task.account.getCodeHash());
+            break;
+        }
+    }
+
+    private void process(Task task, byte[] value) {
+        StateItem item = task.item;
+        try {
+            switch (item.getType()) {
+            case StateItem.STATE_NODE:
+                walkState(TrieNode.decode(value), task.path);
+                break;
+            case StateItem.STORAGE_NODE:
+                walkStorage(TrieNode.decode(value), item.getAddress());
+                break;
+            case StateItem.ADDRESS:
+                Address address = Address.wrap(value);
+                byte[] storageRoot = task.account.getStateRoot();
+                if (!Arrays.equals(storageRoot, EMPTY_TRIE_HASH)) {
+                    schedule(new Task(new StateItem(StateItem.STORAGE_NODE, storageRoot, address), null, null));
+                }
+                byte[] codeHash = task.account.getCodeHash();
+                if (!Arrays.equals(codeHash, EMPTY_DATA_HASH)) {
+                    schedule(new Task(new StateItem(StateItem.CODE, codeHash, null), null, null));
+                }
+                break;
+            }
+        } catch (Exception e) {
+            // the data matches its hash, so the trie itself is broken
+            log.error("<state-sync invalid-item {}> {}", item, e.toString());
+        }
+    }
+
+    private void walkState(TrieNode node, byte[] path) {
+        if (node instanceof HashNode) {
+            schedule(new Task(new StateItem(StateItem.STATE_NODE, node.getHash(), null), path, null));
+        } else if (node instanceof LeafNode) {
+            LeafNode leaf = (LeafNode) node;
+            byte[] key = ByteUtil.merge(path, leaf.getPath());
+            if (key.length != KEY_NIBBLES) {
+                log.error("<state-sync invalid-key-length {}>", key.length);
+                return;
+            }
+            AccountState account = new AccountState(leaf.getValue());
+            if (!Arrays.equals(account.getStateRoot(), EMPTY_TRIE_HASH)
+                    || !Arrays.equals(account.getCodeHash(), EMPTY_DATA_HASH)) {
+                schedule(new Task(new StateItem(StateItem.ADDRESS, packNibbles(key), null), null, account));
+            }
+        } else if (node instanceof ExtensionNode) {
+            ExtensionNode extension = (ExtensionNode) node;
+            walkState(extension.getChild(), ByteUtil.merge(path, extension.getPath()));
+        } else if (node instanceof BranchNode) {
+            BranchNode branch = (BranchNode) node;
+            for (int i = 0; i < 16; i++) {
+                TrieNode child = branch.getChild(i);
+                if (child != null) {
+                    walkState(child, ByteUtil.merge(path, new byte[] { (byte) i }));
+                }
+            }
+        }
+    }
+
+    private void walkStorage(TrieNode node, Address address) {
+        if (node instanceof HashNode) {
+            schedule(new Task(new StateItem(StateItem.STORAGE_NODE, node.getHash(), address), null, null));
+        } else if (node instanceof ExtensionNode) {
+            walkStorage(((ExtensionNode) node).getChild(), address);
+        } else if (node instanceof BranchNode) {
+            BranchNode branch = (BranchNode) node;
+            for (int i = 0; i < 16; i++) {
+                TrieNode child = branch.getChild(i);
+                if (child != null) {
+                    walkStorage(child, address);
+                }
+            }
+        }
+    }
+
+    private static byte[] packNibbles(byte[] nibbles) {
+        byte[] bytes = new byte[nibbles.length / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((nibbles[2 * i] << 4) | nibbles[2 * i + 1]);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync;
+
+import java.util.Arrays;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteUtil;
+
+/**
+ * A piece of the world state downloaded by state sync, identified by its
+ * hash: a node of the state trie, a node of the storage trie of a contract,
+ * a contract code, or the address of a contract, which is the preimage of
+ * the key of its account in the state trie.
+ */
+public final class StateItem {
+
+    public static final byte STATE_NODE = 0;
+
+    public static final byte STORAGE_NODE = 1;
+
+    public static final byte CODE = 2;
+
+    public static final byte ADDRESS = 3;
+
+    private final byte type;
+
+    private final byte[] hash;
+
+    // contract owning a storage node, null for the other types
+    private final Address address;
+
+    public StateItem(byte _type, final byte[] _hash, final Address _address) {
+        this.type = _type;
+        this.hash = _hash;
+        this.address = _address;
+    }
+
+    public byte getType() {
+        return this.type;
+    }
+
+    public byte[] getHash() {
+        return this.hash;
+    }
+
+    public Address getAddress() {
+        return this.address;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StateItem)) {
+            return false;
+        }
+        StateItem other = (StateItem) o;
+        return type == other.type && Arrays.equals(hash, other.hash)
+                && (address == null ? other.address == null : address.equals(other.address));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(hash) * 31 + type;
+    }
+
+    @Override
+    public String toString() {
+        return type + ":" + ByteUtil.toHexString(hash) + (address == null ? "" : "@" + address);
+    }
+}
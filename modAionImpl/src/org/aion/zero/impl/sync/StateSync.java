@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.aion.base.util.ByteArrayWrapper;
+import org.aion.base.util.Hex;
+import org.aion.zero.impl.AionBlockchainImpl;
+import org.aion.zero.impl.db.AionRepositoryImpl;
+import org.aion.zero.impl.types.AionBlock;
+import org.aion.zero.types.A0BlockHeader;
+import org.slf4j.Logger;
+
+/**
+ * Tracks the phases of the state sync of a new node.
+ * <p>
+ * Instead of executing every block from genesis, the node picks a pivot
+ * block some distance behind the best block of the network, takes its
+ * header once several peers sent the same one and downloads the world state
+ * at its state root. It then downloads the headers, bodies and receipts of
+ * the blocks up to the pivot, which are stored without execution once they
+ * match the roots of their headers, and executes the blocks above the pivot
+ * as usual.
+ * <p>
+ * If no progress is made on the state for a while, a newer pivot is picked
+ * since peers may have pruned the older state. Once the state is complete
+ * the pivot is recorded in the block store, so a node restarted while the
+ * history is downloaded resumes storing it instead of recovering the state
+ * of its best block. The flat state is generated at the pivot once the sync
+ * is done.
+ */
+final class StateSync {
+
+    enum Phase {
+        // waiting for the header of the pivot
+        PIVOT,
+        // downloading the state at the pivot
+        STATE,
+        // storing the blocks up to the pivot
+        HISTORY,
+        DONE
+    }
+
+    // number of blocks between the pivot and the best block of the network
+    static final long PIVOT_DISTANCE = 1024;
+
+    // time without progress after which a new pivot is picked
+    static final long STALL_TIMEOUT = 60000;
+
+    // number of peers that must send the same pivot header
+    static final int PIVOT_CONFIRMATIONS = 2;
+
+    private final AionBlockchainImpl chain;
+
+    private final AionRepositoryImpl repository;
+
+    private final Logger log;
+
+    private volatile Phase phase = Phase.PIVOT;
+
+    // number of the requested pivot
+    private volatile long pivotNumber = -1;
+
+    private volatile A0BlockHeader pivot;
+
+    // peers that sent each header of the requested pivot
+    private final Map<ByteArrayWrapper, Set<Integer>> pivotVotes = new HashMap<>();
+
+    private volatile StateDownload download;
+
+    StateSync(final AionBlockchainImpl _chain, final AionRepositoryImpl _repository, final Logger _log) {
+        this.chain = _chain;
+        this.repository = _repository;
+        this.log = _log;
+    }
+
+    Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return whether blocks can be downloaded
+     */
+    boolean allowsBlocks() {
+        Phase current = phase;
+        return current == Phase.HISTORY || current == Phase.DONE;
+    }
+
+    /**
+     * @return whether a block is above the pivot while the history is
+     *         downloaded, in which case it can not be imported yet
+     */
+    boolean isAbovePivot(long _number) {
+        A0BlockHeader current = pivot;
+        return phase == Phase.HISTORY && current != null && _number > current.getNumber();
+    }
+
+    /**
+     * @return whether the receipts of a block are downloaded instead of
+     *         executing it
+     */
+    boolean isBelowPivot(long _number) {
+        A0BlockHeader current = pivot;
+        return phase == Phase.HISTORY && current != null && _number <= current.getNumber();
+    }
+
+    long getPivotNumber() {
+        return pivotNumber;
+    }
+
+    synchronized void setPivotNumber(long _number) {
+        if (_number != pivotNumber) {
+            pivotVotes.clear();
+        }
+        this.pivotNumber = _number;
+    }
+
+    A0BlockHeader getPivot() {
+        return pivot;
+    }
+
+    StateDownload getDownload() {
+        return download;
+    }
+
+    /**
+     * Counts a validated header of the requested pivot sent by a peer and
+     * starts the state download at it once enough peers sent the same one.
+     */
+    synchronized void offerPivot(int _nodeIdHash, final A0BlockHeader _header) {
+        if (phase != Phase.PIVOT || _header.getNumber() != pivotNumber) {
+            return;
+        }
+        Set<Integer> votes = pivotVotes.computeIfAbsent(ByteArrayWrapper.wrap(_header.getHash()),
+                k -> new HashSet<>());
+        votes.add(_nodeIdHash);
+        if (votes.size() < PIVOT_CONFIRMATIONS) {
+            if (log.isDebugEnabled()) {
+                log.debug("<state-sync pivot-vote num={} hash={} votes={}>", _header.getNumber(),
+                        Hex.toHexString(_header.getHash()), votes.size());
+            }
+            return;
+        }
+        pivotVotes.clear();
+
+        this.pivot = _header;
+        this.download = new StateDownload(repository, _header.getStateRoot(), log);
+        this.phase = Phase.STATE;
+        log.info("<state-sync pivot num={} hash={} root={}>", _header.getNumber(), Hex.toHexString(_header.getHash()),
+                Hex.toHexString(_header.getStateRoot()));
+    }
+
+    /**
+     * @return {@code false} if the peer sent data that does not match the
+     *         requested hashes
+     */
+    boolean receive(int _nodeIdHash, final List<byte[]> _values) {
+        StateDownload current = download;
+        if (phase != Phase.STATE || current == null) {
+            return true;
+        }
+        boolean valid = current.receive(_nodeIdHash, _values);
+        if (current.isDone()) {
+            finishState();
+        }
+        return valid;
+    }
+
+    synchronized void finishState() {
+        if (phase == Phase.STATE && download.isDone()) {
+            chain.getBlockStore().setStateSyncPivot(pivot);
+            phase = Phase.HISTORY;
+            log.info("<state-sync state-done num={} items={} bytes={} reused={}>", pivot.getNumber(),
+                    download.getDownloaded(), download.getDownloadedBytes(), download.getReused());
+        }
+    }
+
+    /**
+     * Continues storing the blocks below the pivot recorded before a restart,
+     * whose state is complete.
+     */
+    synchronized void resume(final A0BlockHeader _pivot) {
+        this.pivot = _pivot;
+        this.pivotNumber = _pivot.getNumber();
+        this.phase = Phase.HISTORY;
+        log.info("<state-sync resume num={} best={}>", _pivot.getNumber(), chain.getBestBlock().getNumber());
+    }
+
+    /**
+     * Picks a new pivot if the download of the state does not progress.
+     */
+    synchronized void checkStalled(long _now) {
+        if (phase == Phase.STATE && _now - download.getLastProgress() > STALL_TIMEOUT) {
+            log.warn("<state-sync stalled num={} pending={}>", pivot.getNumber(), download.getPending());
+            repivot();
+        }
+    }
+
+    /**
+     * Checks the best block against the pivot once the history is stored.
+     */
+    synchronized void checkHistory() {
+        if (phase != Phase.HISTORY) {
+            return;
+        }
+        AionBlock best = chain.getBestBlock();
+        if (best.getNumber() < pivot.getNumber()) {
+            return;
+        }
+        if (best.getNumber() == pivot.getNumber() && Arrays.equals(best.getHash(), pivot.getHash())
+                && Arrays.equals(repository.getRoot(), pivot.getStateRoot())) {
+            phase = Phase.DONE;
+            chain.getBlockStore().setStateSyncPivot(null);
+            repository.generateFlatState();
+            log.info("<state-sync done num={}>", best.getNumber());
+        } else {
+            log.warn("<state-sync pivot-mismatch num={} best={}>", pivot.getNumber(), best.getNumber());
+            repivot();
+        }
+    }
+
+    /**
+     * Gives up the state sync, the blocks are executed from the best block.
+     */
+    synchronized void skip() {
+        if (phase != Phase.DONE) {
+            if (phase == Phase.HISTORY) {
+                chain.getBlockStore().setStateSyncPivot(null);
+            }
+            phase = Phase.DONE;
+            log.info("<state-sync skipped best={}>", chain.getBestBlock().getNumber());
+        }
+    }
+
+    private void repivot() {
+        if (phase == Phase.HISTORY) {
+            chain.getBlockStore().setStateSyncPivot(null);
+        }
+        phase = Phase.PIVOT;
+        pivotNumber = -1;
+        pivot = null;
+        download = null;
+    }
+}
@@ -50,8 +50,12 @@ import org.aion.log.AionLoggerFactory;
 import org.aion.log.LogEnum;
 import org.aion.p2p.IP2pMgr;
 import org.aion.zero.impl.AionBlockchainImpl;
+import org.aion.zero.impl.db.AionRepositoryImpl;
+import org.aion.zero.impl.sync.msg.ReqReceipts;
+import org.aion.zero.impl.sync.msg.ResReceipts;
 import org.aion.zero.impl.types.AionBlock;
 import org.aion.zero.types.A0BlockHeader;
+import org.aion.zero.types.AionTxReceipt;
 
 /**
  * @author chris
@@ -90,8 +94,10 @@ public final class SyncMgr {
     // store the hashes of blocks which have been successfully imported
     private final Map<ByteArrayWrapper, Object> importedBlockHashes = Collections.synchronizedMap(new LRUMap<>(4096));
 
-    //private ExecutorService workers = Executors.newFixedThreadPool(5);
-    private ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+    // number of threads sending headers requests
+    private static final int HEADERS_WORKERS = 2;
+
+    private ExecutorService workers = Executors.newFixedThreadPool(HEADERS_WORKERS, new ThreadFactory() {
 
         private AtomicInteger cnt = new AtomicInteger(0);
 
@@ -101,8 +107,23 @@ public final class SyncMgr {
         }
     });
 
+    // peers with a headers request waiting for a response, mapped to the time it was sent
+    private final Map<Integer, Long> headersInFlight = new ConcurrentHashMap<>();
+
+    private SyncStatics statics;
+
+    private TaskScheduleHeaders headersScheduler;
+
+    private ServingScheduler servingScheduler;
+
     private BlockHeaderValidator<A0BlockHeader> blockHeaderValidator;
 
+    // null unless the node started empty with state sync enabled
+    private volatile StateSync stateSync;
+
+    // blocks below the pivot waiting for their receipts, by peer
+    private final ConcurrentHashMap<Integer, BlocksWrapper> blocksWithReceiptsRequested = new ConcurrentHashMap<>();
+
     private static final class AionSyncMgrHolder {
         static final SyncMgr INSTANCE = new SyncMgr();
     }
@@ -132,7 +153,7 @@ public final class SyncMgr {
 
         // trigger send headers routine immediately
         if(_remoteTotalDiff.compareTo(selfTd) > 0) {
-            this.getHeaders(selfTd);
+            this.getHeaders();
 
             // update network best status
             synchronized (this.networkStatus){
@@ -140,13 +161,15 @@ public final class SyncMgr {
                 if(_remoteTotalDiff.compareTo(networkTd) > 0){
                     String remoteBestBlockHash = Hex.toHexString(_remoteBestBlockHash);
 
-                    log.debug(
-                        "<network-status-updated on-sync id={}->{} td={}->{} bn={}->{} bh={}->{}>",
-                            this.networkStatus.getTargetDisplayId(), _displayId,
-                            this.networkStatus.getTargetTotalDiff().toString(10), _remoteTotalDiff.toString(10),
-                            this.networkStatus.getTargetBestBlockNumber(), _remoteBestBlockNumber,
-                            this.networkStatus.getTargetBestBlockHash(), remoteBestBlockHash
-                    );
+                    if (log.isDebugEnabled()) {
+                        log.debug(
+                            "<network-status-updated on-sync id={}->{} td={}->{} bn={}->{} bh={}->{}>",
+                                this.networkStatus.getTargetDisplayId(), _displayId,
+                                this.networkStatus.getTargetTotalDiff().toString(10), _remoteTotalDiff.toString(10),
+                                this.networkStatus.getTargetBestBlockNumber(), _remoteBestBlockNumber,
+                                this.networkStatus.getTargetBestBlockHash(), remoteBestBlockHash
+                        );
+                    }
 
                     this.networkStatus.update(
                             _displayId,
@@ -160,7 +183,8 @@ public final class SyncMgr {
     }
 
     public void init(final IP2pMgr _p2pMgr, final IEventMgr _evtMgr, final int _blocksQueueMax,
-                     final boolean _showStatus, final boolean _printReport, final String _reportFolder) {
+                     final boolean _showStatus, final boolean _printReport, final String _reportFolder,
+                     final boolean _stateSync) {
         this.p2pMgr = _p2pMgr;
         this.chain = AionBlockchainImpl.inst();
         this.evtMgr = _evtMgr;
@@ -170,14 +194,37 @@ public final class SyncMgr {
         this.blockHeaderValidator = new ChainConfiguration().createBlockHeaderValidator();
 
         long selfBest = this.chain.getBestBlock().getNumber();
-        SyncStatics statics = new SyncStatics(selfBest);
+        this.statics = new SyncStatics(selfBest);
+
+        // a state sync interrupted while storing the history resumes even if disabled,
+        // since the blocks below its pivot have no state to execute on
+        A0BlockHeader pivot = this.chain.getBlockStore().getStateSyncPivot();
+        if (pivot != null && pivot.getNumber() < selfBest) {
+            pivot = null;
+            this.chain.getBlockStore().setStateSyncPivot(null);
+        }
+        if (pivot != null || (_stateSync && selfBest == 0)) {
+            this.stateSync = new StateSync(this.chain, (AionRepositoryImpl) this.chain.getRepository(), log);
+            if (pivot != null) {
+                this.stateSync.resume(pivot);
+            }
+            new Thread(new TaskStateSync(this.start, this.chain, this.p2pMgr, this.stateSync, log), "sync-st").start();
+        }
+        this.headersScheduler = new TaskScheduleHeaders(this.start, this.chain, this.p2pMgr, this.workers,
+                HEADERS_WORKERS, this.peerStates, this.headersInFlight, this.statics, log);
 
+        new Thread(this.headersScheduler, "sync-gh").start();
         new Thread(new TaskGetBodies(this.p2pMgr, this.start, this.downloadedHeaders, this.headersWithBodiesRequested, this.peerStates, log), "sync-gb").start();
-        new Thread(new TaskImportBlocks(this.p2pMgr, this.chain, this.start, statics, this.downloadedBlocks, this.importedBlockHashes, this.peerStates, log), "sync-ib").start();
+        new Thread(new TaskImportBlocks(this.p2pMgr, this.chain, this.start, this.statics, this.downloadedBlocks, this.importedBlockHashes, this.peerStates, log), "sync-ib").start();
         new Thread(new TaskGetStatus(this.start, this.p2pMgr, log), "sync-gs").start();
 
+        // serving is held back while downloaded blocks are waiting or being imported
+        this.servingScheduler = new ServingScheduler(this.start, this.p2pMgr,
+                () -> this.statics.isImporting() || !this.downloadedBlocks.isEmpty(), log);
+        this.servingScheduler.start();
+
         if(_showStatus)
-            new Thread(new TaskShowStatus(this.start, INTERVAL_SHOW_STATUS, this.chain, this.networkStatus, statics, log, _printReport, _reportFolder), "sync-ss").start();
+            new Thread(new TaskShowStatus(this.start, INTERVAL_SHOW_STATUS, this.chain, this.networkStatus, statics, this.headersInFlight, this.servingScheduler, log, _printReport, _reportFolder), "sync-ss").start();
 
         setupEventHandler();
     }
@@ -190,13 +237,19 @@ public final class SyncMgr {
 
     private AtomicBoolean queueFull = new AtomicBoolean(false);
 
-    private void getHeaders(BigInteger _selfTd){
+    private void getHeaders(){
+        StateSync current = this.stateSync;
+        if (current != null && !current.allowsBlocks()) {
+            // the state at the pivot comes first
+            return;
+        }
         if (downloadedBlocks.size() > blocksQueueMax) {
             if (queueFull.compareAndSet(false, true)) {
                 log.debug("Downloaded blocks queue is full. Stop requesting headers");
             }
         } else {
-            workers.submit(new TaskGetHeaders(p2pMgr, chain.getBestBlock().getNumber(), _selfTd, peerStates, log));
+            // coalesced with other status updates by the scheduler
+            headersScheduler.trigger();
             queueFull.set(false);
         }
     }
@@ -208,10 +261,22 @@ public final class SyncMgr {
      * @param _headers List validate headers batch and add batch to imported headers
      */
     public void validateAndAddHeaders(int _nodeIdHashcode, String _displayId, List<A0BlockHeader> _headers) {
+        // the peer answered, it can be asked again
+        headersInFlight.remove(_nodeIdHashcode);
+
         if (_headers == null || _headers.isEmpty()) {
             return;
         }
 
+        StateSync sync = this.stateSync;
+        if (sync != null && !sync.allowsBlocks()) {
+            // the only headers requested are the one of the pivot
+            if (_headers.size() == 1 && this.blockHeaderValidator.validate(_headers.get(0), log)) {
+                sync.offerPivot(_nodeIdHashcode, _headers.get(0));
+            }
+            return;
+        }
+
         if (log.isDebugEnabled()) {
             log.debug(
                     "<incoming-headers from={} size={} node={}>",
@@ -228,25 +293,33 @@ public final class SyncMgr {
 
             // ignore this batch if any invalidated header
             if(!this.blockHeaderValidator.validate(current, log)) {
-                log.debug("<invalid-header num={} hash={}>", current.getNumber(), current.getHash());
+                if (log.isDebugEnabled()) {
+                    log.debug("<invalid-header num={} hash={}>", current.getNumber(), current.getHash());
 
-                // Print header to allow debugging
-                log.debug("Invalid header: {}", current.toString());
+                    // Print header to allow debugging
+                    log.debug("Invalid header: {}", current.toString());
+                }
 
                 return;
             }
 
             // break if not consisting
             if(prev != null && (current.getNumber() != (prev.getNumber() + 1) || !Arrays.equals(current.getParentHash(), prev.getHash()))) {
-                log.debug("<inconsistent-block-headers from={}, num={}, prev+1={}, p_hash={}, prev={}>",
-                        _displayId,
-                        current.getNumber(),
-                        prev.getNumber() + 1,
-                        ByteUtil.toHexString(current.getParentHash()),
-                        ByteUtil.toHexString(prev.getHash()));
+                if (log.isDebugEnabled()) {
+                    log.debug("<inconsistent-block-headers from={}, num={}, prev+1={}, p_hash={}, prev={}>",
+                            _displayId,
+                            current.getNumber(),
+                            prev.getNumber() + 1,
+                            ByteUtil.toHexString(current.getParentHash()),
+                            ByteUtil.toHexString(prev.getHash()));
+                }
                 return;
             }
 
+            // blocks above the pivot wait for the history below it
+            if (sync != null && sync.isAbovePivot(current.getNumber()))
+                break;
+
             // add if not cached
             if(!importedBlockHashes.containsKey(ByteArrayWrapper.wrap(current.getHash())))
                 filtered.add(current);
@@ -298,9 +371,78 @@ public final class SyncMgr {
                     _displayId);
         }
 
+        // the receipts of the blocks below the pivot are downloaded instead of executing them
+        StateSync current = this.stateSync;
+        if (current != null && current.isBelowPivot(blocks.get(0).getNumber())) {
+            List<byte[]> hashes = new ArrayList<>(m);
+            for (AionBlock block : blocks) {
+                hashes.add(block.getHash());
+            }
+            this.blocksWithReceiptsRequested.put(_nodeIdHashcode, new BlocksWrapper(_nodeIdHashcode, _displayId, blocks));
+            this.p2pMgr.send(_nodeIdHashcode, new ReqReceipts(hashes));
+            return;
+        }
+
         // add batch
         downloadedBlocks.add(new BlocksWrapper(_nodeIdHashcode, _displayId, blocks));
     }
+
+    /**
+     * @param _nodeIdHashcode int
+     * @param _displayId String
+     * @param _receipts List<byte[]> encoded receipts of each block
+     * Pair the blocks below the state sync pivot with their receipts
+     * and add the batch to the import queue, where they are checked
+     * against the receipts roots of the headers
+     */
+    public void validateAndAddReceipts(int _nodeIdHashcode, String _displayId, final List<byte[]> _receipts) {
+        BlocksWrapper bw = this.blocksWithReceiptsRequested.remove(_nodeIdHashcode);
+        if (bw == null || _receipts == null)
+            return;
+
+        List<AionBlock> blocks = new ArrayList<>();
+        List<List<AionTxReceipt>> receipts = new ArrayList<>();
+        Iterator<AionBlock> blockIt = bw.getBlocks().iterator();
+        Iterator<byte[]> receiptsIt = _receipts.iterator();
+        while (blockIt.hasNext() && receiptsIt.hasNext()) {
+            List<AionTxReceipt> blockReceipts = ResReceipts.decodeReceipts(receiptsIt.next());
+            if (blockReceipts == null) {
+                log.error("<assemble-and-validate-receipts node={}>", _displayId);
+                break;
+            }
+            blocks.add(blockIt.next());
+            receipts.add(blockReceipts);
+        }
+
+        if (blocks.isEmpty())
+            return;
+
+        if (log.isDebugEnabled()) {
+            log.debug("<incoming-receipts from={} size={} node={}>",
+                    blocks.get(0).getNumber(),
+                    blocks.size(),
+                    _displayId);
+        }
+
+        downloadedBlocks.add(new BlocksWrapper(_nodeIdHashcode, _displayId, blocks, receipts));
+    }
+
+    /**
+     * @param _nodeIdHashcode int
+     * @param _displayId String
+     * @param _values List<byte[]> requested state items, empty if missing
+     * @return false if the peer sent data not matching the requested hashes
+     */
+    public boolean validateAndAddTrieData(int _nodeIdHashcode, String _displayId, final List<byte[]> _values) {
+        StateSync current = this.stateSync;
+        if (current == null || _values == null)
+            return true;
+
+        if (log.isDebugEnabled()) {
+            log.debug("<incoming-trie-data size={} node={}>", _values.size(), _displayId);
+        }
+        return current.receive(_nodeIdHashcode, _values);
+    }
     
     public long getNetworkBestBlockNumber() {
         synchronized (this.networkStatus){
@@ -314,6 +456,35 @@ public final class SyncMgr {
     }
 
 
+    /**
+     * @return the number of headers requests dispatched to peers
+     */
+    public long getHeadersScheduled() {
+        return statics == null ? 0 : statics.getHeadersScheduled();
+    }
+
+    /**
+     * @return the number of headers requests coalesced or skipped because
+     *         the peer had a request in flight
+     */
+    public long getHeadersSkipped() {
+        return statics == null ? 0 : statics.getHeadersSkipped();
+    }
+
+    /**
+     * @return the number of headers requests waiting for a response
+     */
+    public int getHeadersInFlight() {
+        return headersInFlight.size();
+    }
+
+    /**
+     * @return the scheduler answering the sync requests of peers
+     */
+    public ServingScheduler getServingScheduler() {
+        return this.servingScheduler;
+    }
+
     public Map<Integer, PeerState> getPeerStates() {
         return new HashMap<>(this.peerStates);
     }
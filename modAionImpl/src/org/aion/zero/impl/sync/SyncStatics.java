@@ -30,6 +30,8 @@
 
 package org.aion.zero.impl.sync;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * @author chris
  */
@@ -41,6 +43,15 @@ final class SyncStatics {
 
     private double avgBlocksPerSec;
 
+    // headers requests dispatched to a peer
+    private final AtomicLong headersScheduled = new AtomicLong();
+
+    // headers requests coalesced into another round or dropped since the peer had one in flight
+    private final AtomicLong headersSkipped = new AtomicLong();
+
+    // a batch of downloaded blocks is being imported
+    private volatile boolean importing;
+
     SyncStatics(long _startBlock){
         this.start = System.currentTimeMillis();
         this.startBlock = _startBlock;
@@ -54,4 +65,28 @@ final class SyncStatics {
     synchronized double getAvgBlocksPerSec(){
         return this.avgBlocksPerSec;
     }
+
+    void addHeadersScheduled(long _count) {
+        headersScheduled.addAndGet(_count);
+    }
+
+    long getHeadersScheduled() {
+        return headersScheduled.get();
+    }
+
+    void addHeadersSkipped(long _count) {
+        headersSkipped.addAndGet(_count);
+    }
+
+    long getHeadersSkipped() {
+        return headersSkipped.get();
+    }
+
+    void setImporting(boolean _importing) {
+        importing = _importing;
+    }
+
+    boolean isImporting() {
+        return importing;
+    }
 }
@@ -34,14 +34,11 @@ import org.aion.p2p.IP2pMgr;
 import org.aion.zero.impl.sync.msg.ReqBlocksHeaders;
 import org.slf4j.Logger;
 
-import java.math.BigInteger;
-import java.util.Collection;
-import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.stream.Collectors;
 
 /**
+ * Sends a block headers request to a peer picked by {@link TaskScheduleHeaders}.
+ *
  * @author chris
  */
 final class TaskGetHeaders implements Runnable {
@@ -50,47 +47,26 @@ final class TaskGetHeaders implements Runnable {
 
     private final long selfNumber;
 
-    private final BigInteger selfTd;
+    private final INode node;
 
-    private final Map<Integer, PeerState> peerStates;
+    private final PeerState state;
 
-    private final Logger log;
+    private final Map<Integer, Long> headersInFlight;
 
-    private final Random random = new Random(System.currentTimeMillis());
+    private final Logger log;
 
-    TaskGetHeaders(IP2pMgr p2p, long selfNumber, BigInteger selfTd, Map<Integer, PeerState> peerStates, Logger log) {
+    TaskGetHeaders(IP2pMgr p2p, long selfNumber, INode node, PeerState state, Map<Integer, Long> headersInFlight,
+            Logger log) {
         this.p2p = p2p;
         this.selfNumber = selfNumber;
-        this.selfTd = selfTd;
-        this.peerStates = peerStates;
+        this.node = node;
+        this.state = state;
+        this.headersInFlight = headersInFlight;
         this.log = log;
     }
 
     @Override
     public void run() {
-        // get all active nodes
-        Collection<INode> nodes = this.p2p.getActiveNodes().values();
-
-        // filter nodes by total difficulty
-        long now = System.currentTimeMillis();
-        List<INode> nodesFiltered = nodes.stream()
-                .filter(n ->
-                        // higher td
-                        n.getTotalDifficulty() != null && n.getTotalDifficulty().compareTo(this.selfTd) >= 0
-                                // not recently requested
-                                && (now - 5000) > peerStates.computeIfAbsent(n.getIdHash(), k -> new PeerState(PeerState.Mode.NORMAL, selfNumber)).getLastHeaderRequest()
-                )
-                .collect(Collectors.toList());
-        if (nodesFiltered.isEmpty()) {
-            return;
-        }
-
-        // pick one random node
-        INode node = nodesFiltered.get(random.nextInt(nodesFiltered.size()));
-
-        // fetch the peer state
-        PeerState state = peerStates.get(node.getIdHash());
-
         // decide the start block number
         long from = 0;
         int size = 24;
@@ -107,6 +83,7 @@ final class TaskGetHeaders implements Runnable {
                     from = Math.max(1, selfNumber + 1 - 16);
                 } else {
                     // no need to request from this node. His TD is probably corrupted.
+                    headersInFlight.remove(node.getIdHash());
                     return;
                 }
 
@@ -132,6 +109,6 @@ final class TaskGetHeaders implements Runnable {
         this.p2p.send(node.getIdHash(), rbh);
 
         // update timestamp
-        state.setLastHeaderRequest(now);
+        state.setLastHeaderRequest(System.currentTimeMillis());
     }
 }
@@ -34,8 +34,10 @@ import org.aion.mcf.core.ImportResult;
 import org.aion.p2p.IP2pMgr;
 import org.aion.zero.impl.AionBlockchainImpl;
 import org.aion.zero.impl.types.AionBlock;
+import org.aion.zero.types.AionTxReceipt;
 import org.slf4j.Logger;
 
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
@@ -96,11 +98,20 @@ final class TaskImportBlocks implements Runnable {
             } catch (InterruptedException ex) {
                 return;
             }
+            this.statis.setImporting(true);
 
             List<AionBlock> batch = bw.getBlocks().stream()
                     .filter(b -> importedBlockHashes.get(ByteArrayWrapper.wrap(b.getHash())) == null)
                     .collect(Collectors.toList());
 
+            // receipts of the blocks stored without execution below the state sync pivot
+            Map<AionBlock, List<AionTxReceipt>> receipts = new IdentityHashMap<>();
+            if (bw.getReceipts() != null) {
+                for (int i = 0; i < bw.getBlocks().size(); i++) {
+                    receipts.put(bw.getBlocks().get(i), bw.getReceipts().get(i));
+                }
+            }
+
             PeerState state = peerStates.get(bw.getNodeIdHash());
             if (state == null) {
                 log.warn("This is not supposed to happen, but the peer is sending us blocks without ask");
@@ -110,7 +121,9 @@ final class TaskImportBlocks implements Runnable {
                 long t1 = System.currentTimeMillis();
                 ImportResult importResult;
                 try {
-                    importResult = this.chain.tryToConnect(b);
+                    List<AionTxReceipt> blockReceipts = receipts.get(b);
+                    importResult = blockReceipts == null ? this.chain.tryToConnect(b)
+                            : this.chain.tryToStore(b, blockReceipts);
                 } catch (Throwable e) {
                     log.error("<import-block throw> {}", e.toString());
                     if (e.getMessage().contains("No space left on device")) {
@@ -120,13 +133,15 @@ final class TaskImportBlocks implements Runnable {
                     continue;
                 }
                 long t2 = System.currentTimeMillis();
-                log.info("<import-status: node = {}, hash = {}, number = {}, txs = {}, result = {}, time elapsed = {} ms>",
-                        bw.getDisplayId(),
-                        b.getShortHash(),
-                        b.getNumber(),
-                        b.getTransactionsList().size(),
-                        importResult,
-                        t2 - t1);
+                if (log.isInfoEnabled()) {
+                    log.info("<import-status: node = {}, hash = {}, number = {}, txs = {}, result = {}, time elapsed = {} ms>",
+                            bw.getDisplayId(),
+                            b.getShortHash(),
+                            b.getNumber(),
+                            b.getTransactionsList().size(),
+                            importResult,
+                            t2 - t1);
+                }
                 switch (importResult) {
                     case IMPORTED_BEST:
                     case IMPORTED_NOT_BEST:
@@ -183,6 +198,7 @@ final class TaskImportBlocks implements Runnable {
             }
 
             this.statis.update(this.chain.getBestBlock().getNumber());
+            this.statis.setImporting(false);
         }
     }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ */
+
+package org.aion.zero.impl.sync;
+
+import org.aion.p2p.INode;
+import org.aion.p2p.IP2pMgr;
+import org.aion.zero.impl.AionBlockchainImpl;
+import org.slf4j.Logger;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalescing scheduler for block headers requests. Status updates only mark
+ * the schedule as dirty; this task then reads the chain state once and
+ * dispatches at most one request per peer onto the headers workers.
+ */
+final class TaskScheduleHeaders implements Runnable {
+
+    // minimum time between two headers requests to the same peer
+    private static final long REQUEST_INTERVAL = 5000;
+
+    // how long the scheduler sleeps when nothing has been triggered
+    private static final long IDLE_WAIT = 1000;
+
+    private final AtomicBoolean start;
+
+    private final AionBlockchainImpl chain;
+
+    private final IP2pMgr p2p;
+
+    private final ExecutorService workers;
+
+    private final int maxRequests;
+
+    private final Map<Integer, PeerState> peerStates;
+
+    private final Map<Integer, Long> headersInFlight;
+
+    private final SyncStatics statics;
+
+    private final Logger log;
+
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+    private final Object signal = new Object();
+
+    private final Random random = new Random(System.currentTimeMillis());
+
+    TaskScheduleHeaders(final AtomicBoolean _start, final AionBlockchainImpl _chain, final IP2pMgr _p2p,
+            final ExecutorService _workers, final int _maxRequests, final Map<Integer, PeerState> _peerStates,
+            final Map<Integer, Long> _headersInFlight, final SyncStatics _statics, final Logger _log) {
+        this.start = _start;
+        this.chain = _chain;
+        this.p2p = _p2p;
+        this.workers = _workers;
+        this.maxRequests = _maxRequests;
+        this.peerStates = _peerStates;
+        this.headersInFlight = _headersInFlight;
+        this.statics = _statics;
+        this.log = _log;
+    }
+
+    /**
+     * Requests a scheduling round. Calls made before the round starts are
+     * coalesced into it.
+     */
+    void trigger() {
+        if (dirty.compareAndSet(false, true)) {
+            synchronized (signal) {
+                signal.notify();
+            }
+        } else {
+            statics.addHeadersSkipped(1);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (this.start.get()) {
+            try {
+                synchronized (signal) {
+                    if (!dirty.get()) {
+                        signal.wait(IDLE_WAIT);
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (log.isDebugEnabled()) { log.debug("<sync-gh shutdown>"); }
+                return;
+            }
+
+            if (dirty.getAndSet(false)) {
+                try {
+                    schedule();
+                } catch (Exception e) {
+                    log.error("<sync-gh exception={}>", e.toString());
+                }
+            }
+        }
+        if (log.isDebugEnabled()) { log.debug("<sync-gh shutdown>"); }
+    }
+
+    private void schedule() {
+        BigInteger selfTd = this.chain.getTotalDifficulty();
+        long selfNumber = this.chain.getBestBlock().getNumber();
+        long now = System.currentTimeMillis();
+
+        // expire requests that were never answered
+        headersInFlight.values().removeIf(sent -> now - sent > REQUEST_INTERVAL);
+
+        // filter nodes by total difficulty, recent requests and pending requests
+        List<INode> candidates = new ArrayList<>();
+        for (INode n : this.p2p.getActiveNodes().values()) {
+            if (n.getTotalDifficulty() == null || n.getTotalDifficulty().compareTo(selfTd) < 0) {
+                continue;
+            }
+            PeerState state = peerStates.computeIfAbsent(n.getIdHash(), k -> new PeerState(PeerState.Mode.NORMAL, selfNumber));
+            if (headersInFlight.containsKey(n.getIdHash())) {
+                statics.addHeadersSkipped(1);
+                continue;
+            }
+            if (now - REQUEST_INTERVAL > state.getLastHeaderRequest()) {
+                candidates.add(n);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        // prefer the best scoring nodes, at most one request per node. The
+        // last slot goes to a random node so that new peers get measured.
+        Collections.shuffle(candidates, random);
+        Map<INode, Double> scores = new IdentityHashMap<>();
+        candidates.forEach(n -> scores.put(n, n.getScore()));
+        candidates.sort(Comparator.comparingDouble((INode n) -> scores.get(n)).reversed());
+
+        int count = Math.min(maxRequests, candidates.size());
+        if (count > 1 && candidates.size() > count) {
+            Collections.swap(candidates, count - 1, count - 1 + random.nextInt(candidates.size() - count + 1));
+        }
+        for (INode node : candidates.subList(0, count)) {
+            headersInFlight.put(node.getIdHash(), now);
+            statics.addHeadersScheduled(1);
+            workers.execute(new TaskGetHeaders(p2p, selfNumber, node, peerStates.get(node.getIdHash()),
+                    headersInFlight, log));
+        }
+    }
+}
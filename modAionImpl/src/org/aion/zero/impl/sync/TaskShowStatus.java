@@ -36,6 +36,7 @@ import org.slf4j.Logger;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -55,19 +56,26 @@ final class TaskShowStatus implements Runnable {
 
     private final SyncStatics statics;
 
+    private final Map<Integer, Long> headersInFlight;
+
+    private final ServingScheduler servingScheduler;
+
     private final Logger log;
 
     private final boolean printReport;
     private final String reportFolder;
 
     TaskShowStatus(final AtomicBoolean _start, int _interval, final AionBlockchainImpl _chain,
-            final NetworkStatus _networkStatus, final SyncStatics _statics, final Logger _log,
+            final NetworkStatus _networkStatus, final SyncStatics _statics,
+            final Map<Integer, Long> _headersInFlight, final ServingScheduler _servingScheduler, final Logger _log,
             final boolean _printReport, final String _reportFolder) {
         this.start = _start;
         this.interval = _interval;
         this.chain = _chain;
         this.networkStatus = _networkStatus;
         this.statics = _statics;
+        this.headersInFlight = _headersInFlight;
+        this.servingScheduler = _servingScheduler;
         this.log = _log;
         this.printReport = _printReport;
         this.reportFolder = _reportFolder;
@@ -85,7 +93,18 @@ final class TaskShowStatus implements Runnable {
                     + " td=" + selfTd + "/" + networkStatus.getTargetTotalDiff().toString(10) //
                     + " b-num=" + selfBest.getNumber() + "/" + this.networkStatus.getTargetBestBlockNumber() //
                     + " b-hash=" + Hex.toHexString(this.chain.getBestBlockHash()) //
-                    + "/" + this.networkStatus.getTargetBestBlockHash() + "]";
+                    + "/" + this.networkStatus.getTargetBestBlockHash() //
+                    + " headers-scheduled=" + this.statics.getHeadersScheduled() //
+                    + " headers-skipped=" + this.statics.getHeadersSkipped() //
+                    + " headers-in-flight=" + this.headersInFlight.size() + "]";
+
+            StringBuilder serving = new StringBuilder();
+            serving.append("[sync-serving limited=").append(this.servingScheduler.getLimitedCount()) //
+                    .append(" dropped=").append(this.servingScheduler.getDroppedCount());
+            for (Map.Entry<String, Long> rate : this.servingScheduler.getServedBytesPerSec().entrySet()) {
+                serving.append(" ").append(rate.getKey()).append("=").append(rate.getValue()).append("B/s");
+            }
+            status += "\n" + serving.append("]");
 
             // print to std output
             System.out.println(status);
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.aion.p2p.INode;
+import org.aion.p2p.IP2pMgr;
+import org.aion.zero.impl.AionBlockchainImpl;
+import org.aion.zero.impl.sync.msg.ReqBlocksHeaders;
+import org.aion.zero.impl.sync.msg.ReqTrieData;
+import org.aion.zero.impl.types.AionBlock;
+import org.slf4j.Logger;
+
+/**
+ * Drives the state sync: requests the header of the pivot block and then
+ * the state at its root from the peers that have it.
+ */
+final class TaskStateSync implements Runnable {
+
+    private static final long INTERVAL = 20;
+
+    private static final long PIVOT_INTERVAL = 5000;
+
+    // number of peers asked for the header of the pivot
+    private static final int PIVOT_PEERS = 4;
+
+    private static final long STATUS_INTERVAL = 10000;
+
+    static final int MAX_ITEMS_PER_REQUEST = 384;
+
+    private final AtomicBoolean start;
+
+    private final AionBlockchainImpl chain;
+
+    private final IP2pMgr p2p;
+
+    private final StateSync stateSync;
+
+    private final Logger log;
+
+    TaskStateSync(final AtomicBoolean _start, final AionBlockchainImpl _chain, final IP2pMgr _p2p,
+            final StateSync _stateSync, final Logger _log) {
+        this.start = _start;
+        this.chain = _chain;
+        this.p2p = _p2p;
+        this.stateSync = _stateSync;
+        this.log = _log;
+    }
+
+    @Override
+    public void run() {
+        long lastPivot = 0;
+        long lastStatus = System.currentTimeMillis();
+        while (start.get() && stateSync.getPhase() != StateSync.Phase.DONE) {
+            try {
+                long now = System.currentTimeMillis();
+                switch (stateSync.getPhase()) {
+                case PIVOT:
+                    if (now - lastPivot > PIVOT_INTERVAL) {
+                        lastPivot = now;
+                        requestPivot();
+                    }
+                    break;
+                case STATE:
+                    requestState(now);
+                    break;
+                case HISTORY:
+                    stateSync.checkHistory();
+                    break;
+                default:
+                    break;
+                }
+
+                if (now - lastStatus > STATUS_INTERVAL) {
+                    lastStatus = now;
+                    StateDownload download = stateSync.getDownload();
+                    if (download != null) {
+                        log.info("<state-sync phase={} pivot={} items={} bytes={} reused={} pending={}>",
+                                stateSync.getPhase(), stateSync.getPivotNumber(), download.getDownloaded(),
+                                download.getDownloadedBytes(), download.getReused(), download.getPending());
+                    }
+                }
+
+                Thread.sleep(INTERVAL);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                log.error("<sync-st exception={}>", e.toString());
+            }
+        }
+        log.info("<sync-st shutdown>");
+    }
+
+    private void requestPivot() {
+        INode target = null;
+        for (INode node : p2p.getActiveNodes().values()) {
+            BigInteger td = node.getTotalDifficulty();
+            if (node.getBestBlockNumber() > 0 && td != null
+                    && (target == null || td.compareTo(target.getTotalDifficulty()) > 0)) {
+                target = node;
+            }
+        }
+        if (target == null) {
+            return;
+        }
+
+        AionBlock best = chain.getBestBlock();
+        long number = target.getBestBlockNumber() - StateSync.PIVOT_DISTANCE;
+        if (number <= best.getNumber()) {
+            if (chain.getRepository().isValidRoot(best.getStateRoot())) {
+                // close enough to execute the remaining blocks
+                stateSync.skip();
+                return;
+            }
+            // the blocks stored so far have no state, it is needed above them
+            number = target.getBestBlockNumber();
+            if (number <= best.getNumber()) {
+                return;
+            }
+        }
+
+        // the pivot is only taken once enough peers agree on its header
+        List<INode> peers = new ArrayList<>();
+        for (INode node : p2p.getActiveNodes().values()) {
+            if (node.getBestBlockNumber() >= number && node.getTotalDifficulty() != null) {
+                peers.add(node);
+            }
+        }
+        if (peers.size() < StateSync.PIVOT_CONFIRMATIONS) {
+            if (log.isDebugEnabled()) {
+                log.debug("<state-sync request-pivot num={} peers={} waiting>", number, peers.size());
+            }
+            return;
+        }
+        peers.sort(Comparator.comparing(INode::getTotalDifficulty).reversed());
+
+        stateSync.setPivotNumber(number);
+        for (INode node : peers.subList(0, Math.min(PIVOT_PEERS, peers.size()))) {
+            p2p.send(node.getIdHash(), new ReqBlocksHeaders(number, 1));
+            if (log.isDebugEnabled()) {
+                log.debug("<state-sync request-pivot num={} node={}>", number, node.getIdShort());
+            }
+        }
+    }
+
+    private void requestState(long _now) {
+        StateDownload download = stateSync.getDownload();
+        if (download == null) {
+            return;
+        }
+        if (download.isDone()) {
+            stateSync.finishState();
+            return;
+        }
+        stateSync.checkStalled(_now);
+        download.expire(_now);
+
+        long pivot = stateSync.getPivotNumber();
+        List<INode> nodes = new ArrayList<>(p2p.getActiveNodes().values());
+        for (INode node : nodes) {
+            if (node.getBestBlockNumber() < pivot) {
+                continue;
+            }
+            List<StateItem> items = download.request(node.getIdHash(), MAX_ITEMS_PER_REQUEST, _now);
+            if (!items.isEmpty()) {
+                p2p.send(node.getIdHash(), new ReqTrieData(items));
+            }
+        }
+    }
+}
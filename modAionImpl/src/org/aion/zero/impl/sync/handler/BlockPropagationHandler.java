@@ -162,22 +162,26 @@ public class BlockPropagationHandler {
 
         if (this.blockchain.skipTryToConnect(block.getNumber())) {
             result = ImportResult.NO_PARENT;
-            log.info("<import-status: node = {}, hash = {}, number = {}, txs = {}, result = NOT_IN_RANGE>",
-                     _displayId,
-                     block.getShortHash(),
-                     block.getNumber(),
-                     block.getTransactionsList().size(),
-                     result);
+            if (log.isInfoEnabled()) {
+                log.info("<import-status: node = {}, hash = {}, number = {}, txs = {}, result = NOT_IN_RANGE>",
+                         _displayId,
+                         block.getShortHash(),
+                         block.getNumber(),
+                         block.getTransactionsList().size(),
+                         result);
+            }
         } else {
             result = this.blockchain.tryToConnect(block);
             long t2 = System.currentTimeMillis();
-            log.info("<import-status: node = {}, hash = {}, number = {}, txs = {}, result = {}, time elapsed = {} ms>",
-                     _displayId,
-                     block.getShortHash(),
-                     block.getNumber(),
-                     block.getTransactionsList().size(),
-                     result,
-                     t2 - t1);
+            if (log.isInfoEnabled()) {
+                log.info("<import-status: node = {}, hash = {}, number = {}, txs = {}, result = {}, time elapsed = {} ms>",
+                         _displayId,
+                         block.getShortHash(),
+                         block.getNumber(),
+                         block.getTransactionsList().size(),
+                         result,
+                         t2 - t1);
+            }
         }
 
         // notify higher td peers in order to limit the rebroadcast on delay of res status updating
@@ -195,13 +199,15 @@ public class BlockPropagationHandler {
                     .filter(n -> n.getIdHash() != nodeId)
                     .filter(n -> n.getTotalDifficulty().compareTo(td) >= 0)
                     .forEach(n -> {
-                        log.debug("<push-status blk={} hash={} to-node={} dd={} import-result={}>",
-                            block.getNumber(),
-                            block.getShortHash(),
-                            n.getIdShort(),
-                            td.longValue() -  n.getTotalDifficulty().longValue(),
-                            result.name()
-                        );
+                        if (log.isDebugEnabled()) {
+                            log.debug("<push-status blk={} hash={} to-node={} dd={} import-result={}>",
+                                block.getNumber(),
+                                block.getShortHash(),
+                                n.getIdShort(),
+                                td.longValue() -  n.getTotalDifficulty().longValue(),
+                                result.name()
+                            );
+                        }
                         this.p2pManager.send(n.getIdHash(), rs);
                     });
         }
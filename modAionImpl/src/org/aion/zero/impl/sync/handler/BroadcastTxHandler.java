@@ -37,6 +37,7 @@ package org.aion.zero.impl.sync.handler;
 
 import org.aion.base.util.ByteArrayWrapper;
 import org.aion.base.util.ByteUtil;
+import org.aion.crypto.HashUtil;
 import org.aion.mcf.blockchain.IPendingStateInternal;
 import org.aion.p2p.Ctrl;
 import org.aion.p2p.Handler;
@@ -49,42 +50,112 @@ import org.aion.zero.types.AionTransaction;
 import org.slf4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author chris
  * handler for new transaction broadcasted from network
+ *
+ * Intake is staged: transactions already validated or being validated are
+ * dropped by hash on the p2p thread, the rest are decoded and their
+ * signatures verified in batches on a bounded pool, and the valid ones are
+ * handed to the pending state by nrg price, keeping each sender's
+ * transactions in nonce order.
  */
 public final class BroadcastTxHandler extends Handler {
 
+    private static final int VERIFY_BATCH = 64;
+
+    private static final int VERIFY_QUEUE = 1024;
+
+    private static final int TX_QUEUE = 50_000;
+
     private final Logger log;
 
     private final IPendingStateInternal pendingState;
 
     private final IP2pMgr p2pMgr;
 
-    private LinkedBlockingQueue<AionTransaction> txQueue;
+    private final TxPropagationHandler txPropHandler;
+
+    private LinkedBlockingQueue<ReceivedTx> txQueue;
 
     private ScheduledExecutorService ex;
 
+    private ThreadPoolExecutor verifier;
+
+    // hashes of the transactions between receipt and validation
+    private final Set<ByteArrayWrapper> inFlight = ConcurrentHashMap.newKeySet();
+
     private final boolean isSyncOnlyNode;
 
-    public BroadcastTxHandler(final Logger _log, final IPendingStateInternal _pendingState, final IP2pMgr _p2pMgr, final boolean isSyncOnlyNode) {
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong duplicated = new AtomicLong();
+
+    private final AtomicLong invalid = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong handedOff = new AtomicLong();
+
+    private final AtomicLong latencyTotal = new AtomicLong();
+
+    private final AtomicLong latencyMax = new AtomicLong();
+
+    private static final class ReceivedTx {
+
+        private final AionTransaction tx;
+        private final long receivedAt;
+
+        private ReceivedTx(AionTransaction tx, long receivedAt) {
+            this.tx = tx;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    public BroadcastTxHandler(final Logger _log, final IPendingStateInternal _pendingState, final IP2pMgr _p2pMgr,
+            final TxPropagationHandler _txPropHandler, final boolean isSyncOnlyNode) {
         super(Ver.V0, Ctrl.SYNC, Act.BROADCAST_TX);
         this.log = _log;
         this.pendingState = _pendingState;
         this.p2pMgr = _p2pMgr;
-        this.txQueue = new LinkedBlockingQueue<>(50_000);
+        this.txPropHandler = _txPropHandler;
+        this.txQueue = new LinkedBlockingQueue<>(TX_QUEUE);
         this.isSyncOnlyNode = isSyncOnlyNode;
 
         if(isSyncOnlyNode)
             return;
         // don't run the buffertask in sync-node mode
 
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+        this.verifier = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(VERIFY_QUEUE), new ThreadFactory() {
+            private AtomicInteger cnt = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tx-verify-" + cnt.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
         this.ex = Executors.newSingleThreadScheduledExecutor();
         this.ex.scheduleWithFixedDelay(new BufferTask(), 5000, 500, TimeUnit.MILLISECONDS);
     }
@@ -93,7 +164,7 @@ public final class BroadcastTxHandler extends Handler {
         @Override
         public void run() {
             if (!txQueue.isEmpty()) {
-                List<AionTransaction> txs = new ArrayList<>();
+                List<ReceivedTx> txs = new ArrayList<>();
                 try {
                     txQueue.drainTo(txs);
                 } catch (Throwable e) {
@@ -104,12 +175,58 @@ public final class BroadcastTxHandler extends Handler {
                         log.trace("BufferTask add txs into pendingState:{}", txs.size());
                     }
 
-                    pendingState.addPendingTransactions(txs);
+                    long now = System.currentTimeMillis();
+                    for (ReceivedTx r : txs) {
+                        long latency = now - r.receivedAt;
+                        latencyTotal.addAndGet(latency);
+                        latencyMax.accumulateAndGet(latency, Math::max);
+                    }
+                    handedOff.addAndGet(txs.size());
+
+                    pendingState.addPendingTransactions(priorityOrder(txs));
+
+                    if (log.isDebugEnabled()) {
+                        log.debug("<tx-intake received={} duplicated={} invalid={} dropped={} handed-off={} "
+                                        + "verify-queue={} tx-queue={} avg-latency={}ms max-latency={}ms>",
+                                received.get(), duplicated.get(), invalid.get(), dropped.get(), handedOff.get(),
+                                getVerifyQueueSize(), getTxQueueSize(), getAverageLatency(), latencyMax.get());
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Orders the transactions by descending nrg price, then places the
+     * transactions of each sender in nonce order on the positions taken by
+     * that sender.
+     */
+    private static List<AionTransaction> priorityOrder(List<ReceivedTx> received) {
+        List<AionTransaction> txs = new ArrayList<>(received.size());
+        for (ReceivedTx r : received) {
+            txs.add(r.tx);
+        }
+        txs.sort(Comparator.comparingLong(AionTransaction::getNrgPrice).reversed());
+
+        Map<ByteArrayWrapper, List<AionTransaction>> bySender = new HashMap<>();
+        for (AionTransaction tx : txs) {
+            bySender.computeIfAbsent(ByteArrayWrapper.wrap(tx.getFrom().toBytes()), k -> new ArrayList<>()).add(tx);
+        }
+
+        for (List<AionTransaction> senderTxs : bySender.values()) {
+            senderTxs.sort(Comparator.comparing(AionTransaction::getNonceBI));
+        }
+
+        Map<ByteArrayWrapper, Integer> next = new HashMap<>();
+        List<AionTransaction> rtn = new ArrayList<>(txs.size());
+        for (AionTransaction tx : txs) {
+            ByteArrayWrapper sender = ByteArrayWrapper.wrap(tx.getFrom().toBytes());
+            int i = next.merge(sender, 1, Integer::sum) - 1;
+            rtn.add(bySender.get(sender).get(i));
+        }
+        return rtn;
+    }
+
     @Override
     public final void receive(int _nodeIdHashcode, String _displayId, final byte[] _msgBytes) {
         if(isSyncOnlyNode)
@@ -136,42 +253,89 @@ public final class BroadcastTxHandler extends Handler {
             return;
         }
 
+        long now = System.currentTimeMillis();
+        received.addAndGet(broadCastTx.size());
+
+        // the hash of a transaction is the hash of its encoding, no need to decode duplicates
+        List<byte[]> fresh = new ArrayList<>();
+        List<ByteArrayWrapper> freshHashes = new ArrayList<>();
+        List<ByteArrayWrapper> duplicateHashes = new ArrayList<>();
+        for (byte[] raw : broadCastTx) {
+            ByteArrayWrapper hash = ByteArrayWrapper.wrap(HashUtil.h256(raw));
+            if (TXValidator.isInCache(hash) || !inFlight.add(hash)) {
+                duplicated.incrementAndGet();
+                duplicateHashes.add(hash);
+            } else {
+                fresh.add(raw);
+                freshHashes.add(hash);
+            }
+        }
+
+        // the peer holds the duplicates too, they are not to be sent back to it
+        if (!duplicateHashes.isEmpty()) {
+            txPropHandler.onKnownTx(_nodeIdHashcode, duplicateHashes);
+        }
+
+        for (int i = 0; i < fresh.size(); i += VERIFY_BATCH) {
+            int end = Math.min(i + VERIFY_BATCH, fresh.size());
+            List<byte[]> batch = fresh.subList(i, end);
+            List<ByteArrayWrapper> hashes = freshHashes.subList(i, end);
+            try {
+                verifier.execute(() -> verify(_nodeIdHashcode, batch, hashes, now));
+            } catch (RejectedExecutionException e) {
+                inFlight.removeAll(hashes);
+                dropped.addAndGet(batch.size());
+                if (log.isDebugEnabled()) {
+                    log.debug("<BroadcastTxHandler verify queue full, dropped {} txs from {}>", batch.size(),
+                            _displayId);
+                }
+            }
+        }
+    }
+
+    private void verify(int _nodeIdHashcode, List<byte[]> batch, List<ByteArrayWrapper> hashes, long receivedAt) {
         try {
-            for (AionTransaction tx : castRawTx(broadCastTx)) {
-                if (!txQueue.offer(tx)) {
+            for (AionTransaction tx : castRawTx(_nodeIdHashcode, batch)) {
+                if (!txQueue.offer(new ReceivedTx(tx, receivedAt))) {
+                    dropped.incrementAndGet();
                     if (log.isTraceEnabled()) {
-                        log.trace("<BroadcastTxHandler txQueue full! {}>", _displayId);
+                        log.trace("<BroadcastTxHandler txQueue full!>");
                     }
-                    break;
                 }
             }
-
         } catch (Throwable e) {
             log.error("BroadcastTxHandler throw {}", e.toString());
+        } finally {
+            inFlight.removeAll(hashes);
         }
     }
 
-    private List<AionTransaction> castRawTx(List<byte[]> broadCastTx) {
+    private List<AionTransaction> castRawTx(int _nodeIdHashcode, List<byte[]> broadCastTx) {
         List<AionTransaction> rtn = new ArrayList<>();
+        List<AionTransaction> received = new ArrayList<>();
 
         for (byte[] raw : broadCastTx) {
             try {
                 AionTransaction tx = new AionTransaction(raw);
                 if (tx.getHash() != null) {
-                    if (!TXValidator.isInCache(ByteArrayWrapper.wrap(tx.getHash()))) {
-                        if (TXValidator.isValid(tx)) {
-                            rtn.add(tx);
-                        }
+                    received.add(tx);
+                    if (TXValidator.isValid(tx)) {
+                        rtn.add(tx);
+                    } else {
+                        invalid.incrementAndGet();
                     }
                 }
             } catch (Exception e) {
                 // do nothing, invalid transaction from bad peer
+                invalid.incrementAndGet();
                 if (log.isDebugEnabled()) {
                     log.debug("castRawTx exception: " + e.toString());
                 }
             }
         }
 
+        txPropHandler.onReceiveTx(_nodeIdHashcode, received);
+
         if (log.isTraceEnabled()) {
             log.trace("BroadcastTxHandler.castRawTx Tx#{} validTx#{}", broadCastTx.size(), rtn.size());
         }
@@ -179,11 +343,50 @@ public final class BroadcastTxHandler extends Handler {
         return rtn;
     }
 
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    public long getDuplicatedCount() {
+        return duplicated.get();
+    }
+
+    public long getInvalidCount() {
+        return invalid.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getHandedOffCount() {
+        return handedOff.get();
+    }
+
+    public int getVerifyQueueSize() {
+        return verifier == null ? 0 : verifier.getQueue().size();
+    }
+
+    public int getTxQueueSize() {
+        return txQueue.size();
+    }
+
+    /**
+     * @return the average time in ms from receipt to handoff to the pending state
+     */
+    public long getAverageLatency() {
+        long count = handedOff.get();
+        return count == 0 ? 0 : latencyTotal.get() / count;
+    }
+
     @Override
     public void shutDown() {
         log.info("BroadcastTxHandler shutdown!");
         if (ex != null) {
             ex.shutdown();
         }
+        if (verifier != null) {
+            verifier.shutdown();
+        }
     }
 }
@@ -35,21 +35,17 @@
 
 package org.aion.zero.impl.sync.handler;
 
-import org.aion.base.util.ByteArrayWrapper;
 import org.aion.base.util.ByteUtil;
 import org.aion.p2p.*;
-import org.aion.zero.impl.core.IAionBlockchain;
 import org.aion.zero.impl.sync.Act;
+import org.aion.zero.impl.sync.EncodedBlockCache;
+import org.aion.zero.impl.sync.ServingScheduler;
 import org.aion.zero.impl.sync.msg.ReqBlocksBodies;
 import org.aion.zero.impl.sync.msg.ResBlocksBodies;
-import org.aion.zero.impl.types.AionBlock;
-import org.apache.commons.collections4.map.LRUMap;
 import org.slf4j.Logger;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author chris handler for request block bodies broadcasted from network
@@ -60,18 +56,20 @@ public final class ReqBlocksBodiesHandler extends Handler {
 
     private final Logger log;
 
-    private final IAionBlockchain blockchain;
+    private final EncodedBlockCache cache;
 
-    private final IP2pMgr p2pMgr;
+    private final ServingScheduler scheduler;
 
-    private final Map<ByteArrayWrapper, byte[]> cache = Collections.synchronizedMap(new LRUMap<>(512));
+    private final IP2pMgr p2pMgr;
 
     private final boolean isSyncOnlyNode;
 
-    public ReqBlocksBodiesHandler(final Logger _log, final IAionBlockchain _blockchain, final IP2pMgr _p2pMgr, final boolean isSyncOnlyNode) {
+    public ReqBlocksBodiesHandler(final Logger _log, final EncodedBlockCache _cache, final ServingScheduler _scheduler,
+            final IP2pMgr _p2pMgr, final boolean isSyncOnlyNode) {
         super(Ver.V0, Ctrl.SYNC, Act.REQ_BLOCKS_BODIES);
         this.log = _log;
-        this.blockchain = _blockchain;
+        this.cache = _cache;
+        this.scheduler = _scheduler;
         this.p2pMgr = _p2pMgr;
         this.isSyncOnlyNode = isSyncOnlyNode;
     }
@@ -83,61 +81,53 @@ public final class ReqBlocksBodiesHandler extends Handler {
 
         ReqBlocksBodies reqBlocks = ReqBlocksBodies.decode(_msgBytes);
         if (reqBlocks != null) {
+            this.scheduler.submit(_nodeIdHashcode, _displayId, Act.REQ_BLOCKS_BODIES,
+                    () -> serve(_nodeIdHashcode, _displayId, reqBlocks));
+        } else {
 
-            // limit number of blocks
-            List<byte[]> hashes = reqBlocks.getBlocksHashes();
-            hashes = hashes.size() > MAX_NUM_OF_BLOCKS ? hashes.subList(0, MAX_NUM_OF_BLOCKS) : hashes;
-
-            // results
-            List<byte[]> blockBodies = new ArrayList<>();
-
-            // read from cache, then block store
-            int out = 0;
-            for (byte[] hash : hashes) {
-
-                // ref for add.
-                byte[] blockBytesForadd;
-
-                byte[] blockBytes = cache.get(ByteArrayWrapper.wrap(hash));
+            this.log.error("<req-bodies decode-error, unable to decode bodies from {}, len: {}>", _displayId,
+                    _msgBytes.length);
 
-                // if cached , add.
-                if (blockBytes != null) {
-                    blockBytesForadd = blockBytes;
-                } else {
-                    AionBlock block = blockchain.getBlockByHash(hash);
+            if (this.log.isTraceEnabled()) {
+                this.log.trace("req-bodies dump: {}", ByteUtil.toHexString(_msgBytes));
+            }
+        }
+    }
 
-                    if (block != null) {
-                        blockBytesForadd = block.getEncodedBody();
-                        cache.put(ByteArrayWrapper.wrap(hash), block.getEncodedBody());
-                    } else {
-                        // not found
-                        break;
-                    }
-                }
+    private int serve(int _nodeIdHashcode, String _displayId, final ReqBlocksBodies reqBlocks) {
+        // limit number of blocks
+        List<byte[]> hashes = reqBlocks.getBlocksHashes();
+        hashes = hashes.size() > MAX_NUM_OF_BLOCKS ? hashes.subList(0, MAX_NUM_OF_BLOCKS) : hashes;
+
+        // results
+        List<byte[]> blockBodies = new ArrayList<>();
+
+        // read from the shared cache, which falls back to the block store
+        int out = 0;
+        for (byte[] hash : hashes) {
+            byte[] body = cache.getBody(hash);
+            if (body == null) {
+                // not found
+                break;
+            }
 
-                if ((out += blockBytesForadd.length) > P2pConstant.MAX_BODY_SIZE) {
+            if ((out += body.length) > P2pConstant.MAX_BODY_SIZE) {
+                if (log.isDebugEnabled()) {
                     log.debug("<req-blocks-bodies-max-size-reach size={}/{}>", out, P2pConstant.MAX_BODY_SIZE);
-                    break;
                 }
-
-                blockBodies.add(blockBytesForadd);
-
+                break;
             }
 
-            this.p2pMgr.send(_nodeIdHashcode, new ResBlocksBodies(blockBodies));
-
-            if (log.isDebugEnabled()) {
-                this.log.debug("<req-bodies req-size={} res-size={} node={}>", reqBlocks.getBlocksHashes().size(),
-                        blockBodies.size(), _displayId);
-            }
-        } else {
+            blockBodies.add(body);
+        }
 
-            this.log.error("<req-bodies decode-error, unable to decode bodies from {}, len: {}>", _displayId,
-                    _msgBytes.length);
+        ResBlocksBodies res = new ResBlocksBodies(blockBodies);
+        this.p2pMgr.send(_nodeIdHashcode, res);
 
-            if (this.log.isTraceEnabled()) {
-                this.log.trace("req-bodies dump: {}", ByteUtil.toHexString(_msgBytes));
-            }
+        if (log.isDebugEnabled()) {
+            this.log.debug("<req-bodies req-size={} res-size={} node={} cache=[{}]>",
+                    reqBlocks.getBlocksHashes().size(), blockBodies.size(), _displayId, cache);
         }
+        return res.encodedLength();
     }
 }
\ No newline at end of file
@@ -35,16 +35,15 @@
 
 package org.aion.zero.impl.sync.handler;
 
-import org.aion.mcf.types.BlockIdentifier;
 import org.aion.p2p.Ctrl;
 import org.aion.p2p.Handler;
 import org.aion.p2p.IP2pMgr;
 import org.aion.p2p.Ver;
-import org.aion.zero.impl.core.IAionBlockchain;
 import org.aion.zero.impl.sync.Act;
+import org.aion.zero.impl.sync.EncodedBlockCache;
+import org.aion.zero.impl.sync.ServingScheduler;
 import org.aion.zero.impl.sync.msg.ReqBlocksHeaders;
 import org.aion.zero.impl.sync.msg.ResBlocksHeaders;
-import org.aion.zero.types.A0BlockHeader;
 import org.slf4j.Logger;
 import java.util.List;
 
@@ -60,16 +59,20 @@ public final class ReqBlocksHeadersHandler extends Handler {
 
     private final Logger log;
 
-    private final IAionBlockchain blockchain;
+    private final EncodedBlockCache cache;
+
+    private final ServingScheduler scheduler;
 
     private final IP2pMgr p2pMgr;
 
     private final boolean isSyncOnlyNode;
 
-    public ReqBlocksHeadersHandler(final Logger _log, final IAionBlockchain _blockchain, final IP2pMgr _p2pMgr, final boolean isSyncOnlyNode) {
+    public ReqBlocksHeadersHandler(final Logger _log, final EncodedBlockCache _cache, final ServingScheduler _scheduler,
+            final IP2pMgr _p2pMgr, final boolean isSyncOnlyNode) {
         super(Ver.V0, Ctrl.SYNC, Act.REQ_BLOCKS_HEADERS);
         this.log = _log;
-        this.blockchain = _blockchain;
+        this.cache = _cache;
+        this.scheduler = _scheduler;
         this.p2pMgr = _p2pMgr;
         this.isSyncOnlyNode = isSyncOnlyNode;
     }
@@ -86,10 +89,12 @@ public final class ReqBlocksHeadersHandler extends Handler {
             if (log.isDebugEnabled()) {
                 this.log.debug("<req-headers from-number={} size={} node={}>", fromBlock, take, _displayId);
             }
-            List<A0BlockHeader> headers = this.blockchain.getListOfHeadersStartFrom(
-                    new BlockIdentifier(null, fromBlock), 0, Math.min(take, MAX_NUM_OF_BLOCKS), false);
-            ResBlocksHeaders rbhs = new ResBlocksHeaders(headers);
-            this.p2pMgr.send(_nodeIdHashcode, rbhs);
+            this.scheduler.submit(_nodeIdHashcode, _displayId, Act.REQ_BLOCKS_HEADERS, () -> {
+                List<byte[]> headers = this.cache.getHeaders(fromBlock, Math.min(take, MAX_NUM_OF_BLOCKS));
+                ResBlocksHeaders rbhs = ResBlocksHeaders.fromEncoded(headers);
+                this.p2pMgr.send(_nodeIdHashcode, rbhs);
+                return rbhs.encodedLength();
+            });
         } else {
             this.log.error("<req-headers decode-error msg-bytes={} node={}>", _msgBytes == null ? 0 : _msgBytes.length,
                     _nodeIdHashcode);
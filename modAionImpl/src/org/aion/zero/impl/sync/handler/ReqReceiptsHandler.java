@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.aion.base.util.ByteUtil;
+import org.aion.p2p.Ctrl;
+import org.aion.p2p.Handler;
+import org.aion.p2p.IP2pMgr;
+import org.aion.p2p.P2pConstant;
+import org.aion.p2p.Ver;
+import org.aion.zero.impl.AionBlockchainImpl;
+import org.aion.zero.impl.sync.Act;
+import org.aion.zero.impl.sync.ServingScheduler;
+import org.aion.zero.impl.sync.msg.ReqReceipts;
+import org.aion.zero.impl.sync.msg.ResReceipts;
+import org.aion.zero.types.AionTxReceipt;
+import org.slf4j.Logger;
+
+/**
+ * Serves the transaction receipts of blocks to peers downloading the history
+ * below their state sync pivot.
+ */
+public final class ReqReceiptsHandler extends Handler {
+
+    private final static int MAX_NUM_OF_BLOCKS = 96;
+
+    private final Logger log;
+
+    private final AionBlockchainImpl chain;
+
+    private final ServingScheduler scheduler;
+
+    private final IP2pMgr p2pMgr;
+
+    private final boolean isSyncOnlyNode;
+
+    public ReqReceiptsHandler(final Logger _log, final AionBlockchainImpl _chain, final ServingScheduler _scheduler,
+            final IP2pMgr _p2pMgr, final boolean isSyncOnlyNode) {
+        super(Ver.V0, Ctrl.SYNC, Act.REQ_RECEIPTS);
+        this.log = _log;
+        this.chain = _chain;
+        this.scheduler = _scheduler;
+        this.p2pMgr = _p2pMgr;
+        this.isSyncOnlyNode = isSyncOnlyNode;
+    }
+
+    @Override
+    public void receive(int _nodeIdHashcode, String _displayId, final byte[] _msgBytes) {
+        if (isSyncOnlyNode)
+            return;
+
+        ReqReceipts req = ReqReceipts.decode(_msgBytes);
+        if (req != null) {
+            this.scheduler.submit(_nodeIdHashcode, _displayId, Act.REQ_RECEIPTS,
+                    () -> serve(_nodeIdHashcode, _displayId, req));
+        } else {
+            this.log.error("<req-receipts decode-error from {} len: {}>", _displayId, _msgBytes.length);
+            if (this.log.isTraceEnabled()) {
+                this.log.trace("req-receipts dump: {}", ByteUtil.toHexString(_msgBytes));
+            }
+        }
+    }
+
+    private int serve(int _nodeIdHashcode, String _displayId, final ReqReceipts _req) {
+        List<byte[]> hashes = _req.getBlocksHashes();
+        hashes = hashes.size() > MAX_NUM_OF_BLOCKS ? hashes.subList(0, MAX_NUM_OF_BLOCKS) : hashes;
+
+        List<byte[]> receipts = new ArrayList<>();
+        int out = 0;
+        for (byte[] hash : hashes) {
+            List<AionTxReceipt> blockReceipts = chain.getReceipts(hash);
+            if (blockReceipts == null) {
+                // not found
+                break;
+            }
+
+            byte[] encoded = ResReceipts.encodeReceipts(blockReceipts);
+            if ((out += encoded.length) > P2pConstant.MAX_BODY_SIZE) {
+                break;
+            }
+            receipts.add(encoded);
+        }
+
+        ResReceipts res = new ResReceipts(receipts);
+        this.p2pMgr.send(_nodeIdHashcode, res);
+
+        if (log.isDebugEnabled()) {
+            this.log.debug("<req-receipts req-size={} res-size={} node={}>", _req.getBlocksHashes().size(),
+                    receipts.size(), _displayId);
+        }
+        return out;
+    }
+}
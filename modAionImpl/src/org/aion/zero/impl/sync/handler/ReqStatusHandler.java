@@ -41,6 +41,7 @@ import org.aion.p2p.IP2pMgr;
 import org.aion.p2p.Ver;
 import org.aion.zero.impl.core.IAionBlockchain;
 import org.aion.zero.impl.sync.Act;
+import org.aion.zero.impl.sync.ServingScheduler;
 import org.aion.zero.impl.sync.msg.ResStatus;
 import org.slf4j.Logger;
 
@@ -57,6 +58,8 @@ public final class ReqStatusHandler extends Handler {
 
 	private IP2pMgr mgr;
 
+	private ServingScheduler scheduler;
+
 	private byte[] genesisHash;
 
     private final int UPDATE_INTERVAL = 500;
@@ -66,17 +69,25 @@ public final class ReqStatusHandler extends Handler {
     private volatile long cacheTs = 0;
 
 	public ReqStatusHandler(final Logger _log, final IAionBlockchain _chain, final IP2pMgr _mgr,
-			final byte[] _genesisHash) {
+			final ServingScheduler _scheduler, final byte[] _genesisHash) {
 		super(Ver.V0, Ctrl.SYNC, Act.REQ_STATUS);
 		this.log = _log;
 		this.chain = _chain;
 		this.mgr = _mgr;
+		this.scheduler = _scheduler;
 		this.genesisHash = _genesisHash;
 		this.cache = new ResStatus(0, new byte[0], new byte[0], _genesisHash);
 	}
 
 	@Override
 	public void receive(int _nodeIdHashcode, String _displayId, byte[] _msg) {
+	    this.scheduler.submit(_nodeIdHashcode, _displayId, Act.REQ_STATUS, () -> serve(_nodeIdHashcode, _displayId));
+	}
+
+	/**
+	 * @return 0, the status answer is covered by the fixed cost of a request
+	 */
+	private int serve(int _nodeIdHashcode, String _displayId) {
 
 	    long now = System.currentTimeMillis();
 
@@ -94,9 +105,12 @@ public final class ReqStatusHandler extends Handler {
         }
 
         this.mgr.send(_nodeIdHashcode, cache);
-        this.log.debug("<req-status node={} return-blk={}>",
-            _displayId,
-            cache.getBestBlockNumber()
-        );
+        if (log.isDebugEnabled()) {
+            this.log.debug("<req-status node={} return-blk={}>",
+                _displayId,
+                cache.getBestBlockNumber()
+            );
+        }
+        return 0;
 	}
 }
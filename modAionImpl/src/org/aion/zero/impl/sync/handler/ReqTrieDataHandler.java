@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteUtil;
+import org.aion.p2p.Ctrl;
+import org.aion.p2p.Handler;
+import org.aion.p2p.IP2pMgr;
+import org.aion.p2p.Ver;
+import org.aion.zero.impl.db.AionRepositoryImpl;
+import org.aion.zero.impl.sync.Act;
+import org.aion.zero.impl.sync.ServingScheduler;
+import org.aion.zero.impl.sync.StateItem;
+import org.aion.zero.impl.sync.msg.ReqTrieData;
+import org.aion.zero.impl.sync.msg.ResTrieData;
+import org.slf4j.Logger;
+
+import static org.aion.base.util.ByteUtil.EMPTY_BYTE_ARRAY;
+
+/**
+ * Serves the state trie nodes, storage trie nodes, codes and contract
+ * addresses requested by peers running state sync.
+ */
+public final class ReqTrieDataHandler extends Handler {
+
+    private final static int MAX_NUM_OF_ITEMS = 384;
+
+    private final static int MAX_RES_SIZE = 2 * 1024 * 1024;
+
+    private final Logger log;
+
+    private final AionRepositoryImpl repository;
+
+    private final ServingScheduler scheduler;
+
+    private final IP2pMgr p2pMgr;
+
+    private final boolean isSyncOnlyNode;
+
+    public ReqTrieDataHandler(final Logger _log, final AionRepositoryImpl _repository,
+            final ServingScheduler _scheduler, final IP2pMgr _p2pMgr, final boolean isSyncOnlyNode) {
+        super(Ver.V0, Ctrl.SYNC, Act.REQ_TRIE_DATA);
+        this.log = _log;
+        this.repository = _repository;
+        this.scheduler = _scheduler;
+        this.p2pMgr = _p2pMgr;
+        this.isSyncOnlyNode = isSyncOnlyNode;
+    }
+
+    @Override
+    public void receive(int _nodeIdHashcode, String _displayId, final byte[] _msgBytes) {
+        if (isSyncOnlyNode)
+            return;
+
+        ReqTrieData req = ReqTrieData.decode(_msgBytes);
+        if (req != null) {
+            this.scheduler.submit(_nodeIdHashcode, _displayId, Act.REQ_TRIE_DATA,
+                    () -> serve(_nodeIdHashcode, _displayId, req));
+        } else {
+            this.log.error("<req-trie-data decode-error from {} len: {}>", _displayId, _msgBytes.length);
+            if (this.log.isTraceEnabled()) {
+                this.log.trace("req-trie-data dump: {}", ByteUtil.toHexString(_msgBytes));
+            }
+        }
+    }
+
+    private int serve(int _nodeIdHashcode, String _displayId, final ReqTrieData _req) {
+        List<StateItem> items = _req.getItems();
+        items = items.size() > MAX_NUM_OF_ITEMS ? items.subList(0, MAX_NUM_OF_ITEMS) : items;
+
+        List<byte[]> values = new ArrayList<>(items.size());
+        int found = 0;
+        int out = 0;
+        for (StateItem item : items) {
+            byte[] value = get(item);
+            if (value == null) {
+                values.add(EMPTY_BYTE_ARRAY);
+                continue;
+            }
+            if (out + value.length > MAX_RES_SIZE) {
+                break;
+            }
+            out += value.length;
+            values.add(value);
+            found = values.size();
+        }
+
+        // items missing at the end are left out
+        ResTrieData res = new ResTrieData(new ArrayList<>(values.subList(0, found)));
+        this.p2pMgr.send(_nodeIdHashcode, res);
+
+        if (log.isDebugEnabled()) {
+            this.log.debug("<req-trie-data req-size={} res-size={} bytes={} node={}>", _req.getItems().size(),
+                    found, out, _displayId);
+        }
+        return out;
+    }
+
+    private byte[] get(final StateItem _item) {
+        switch (_item.getType()) {
+        case StateItem.STATE_NODE:
+            return repository.getStateNode(_item.getHash());
+        case StateItem.STORAGE_NODE:
+            return _item.getAddress() == null ? null
+                    : repository.getStorageNode(_item.getAddress(), _item.getHash());
+        case StateItem.CODE:
+            return repository.getCodeByHash(_item.getHash());
+        case StateItem.ADDRESS:
+            Address address = repository.getContractAddress(_item.getHash());
+            return address == null ? null : address.toBytes();
+        default:
+            return null;
+        }
+    }
+}
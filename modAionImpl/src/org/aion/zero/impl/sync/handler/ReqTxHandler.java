@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync.handler;
+
+import org.aion.base.util.ByteUtil;
+import org.aion.p2p.Ctrl;
+import org.aion.p2p.Handler;
+import org.aion.p2p.Ver;
+import org.aion.zero.impl.sync.Act;
+import org.aion.zero.impl.sync.msg.ReqTx;
+import org.slf4j.Logger;
+
+/**
+ * handler for requests of announced transaction bodies
+ */
+public final class ReqTxHandler extends Handler {
+
+    private final Logger log;
+
+    private final TxPropagationHandler txPropHandler;
+
+    public ReqTxHandler(final Logger _log, final TxPropagationHandler _txPropHandler) {
+        super(Ver.V0, Ctrl.SYNC, Act.REQ_TX);
+        this.log = _log;
+        this.txPropHandler = _txPropHandler;
+    }
+
+    @Override
+    public void receive(int _nodeIdHashcode, String _displayId, final byte[] _msgBytes) {
+        ReqTx msg = ReqTx.decode(_msgBytes);
+        if (msg == null) {
+            this.log.error("<req-tx decode-error, unable to decode hashes from {}, len: {}>", _displayId,
+                    _msgBytes == null ? 0 : _msgBytes.length);
+
+            if (this.log.isTraceEnabled()) {
+                this.log.trace("req-tx dump: {}", ByteUtil.toHexString(_msgBytes));
+            }
+            return;
+        }
+
+        // an empty request acknowledges that the sender handles announcements
+        this.txPropHandler.onReqTx(_nodeIdHashcode, _displayId, msg.getTxHashes());
+    }
+}
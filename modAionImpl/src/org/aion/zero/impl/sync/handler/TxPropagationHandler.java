@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync.handler;
+
+import org.aion.base.type.ITransaction;
+import org.aion.base.util.ByteArrayWrapper;
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.aion.mcf.blockchain.IPendingState;
+import org.aion.p2p.INode;
+import org.aion.p2p.IP2pMgr;
+import org.aion.p2p.P2pConstant;
+import org.aion.zero.impl.sync.msg.AnnounceTx;
+import org.aion.zero.impl.sync.msg.BroadcastTx;
+import org.aion.zero.impl.sync.msg.ReqTx;
+import org.aion.zero.impl.valid.TXValidator;
+import org.aion.zero.types.AionTransaction;
+import org.apache.commons.collections4.map.LRUMap;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handles state and actions related to transaction propagation
+ *
+ * A batch of transactions is pushed in full to a random subset of sqrt(N) of
+ * the N active peers, the remaining peers only receive the hashes and pull the
+ * bodies they have not seen yet. Whether a peer handles announcements is
+ * negotiated once it is active: the first transactions pushed to it are
+ * followed by an empty announcement, which peers handling announcements
+ * acknowledge with an empty request. Peers that did not acknowledge it get
+ * full pushes. Every peer has a filter of the transactions it is known to have, so nothing
+ * is sent back to the peer it came from.
+ */
+public class TxPropagationHandler {
+
+    private static final Logger log = AionLoggerFactory.getLogger(LogEnum.SYNC.name());
+
+    /**
+     * Hashes remembered per peer, older entries may be announced again.
+     */
+    private static final int KNOWN_TX_PER_PEER = 32 * 1024;
+
+    /**
+     * Encoded transactions kept to answer requests for announced hashes.
+     */
+    private static final int TX_BODY_CACHE = 16 * 1024;
+
+    private static final int MAX_TX_PER_REQUEST = 256;
+
+    /**
+     * A request for a hash is repeated to the next announcer after this time.
+     */
+    private static final long REQUEST_TIMEOUT = 5000;
+
+    private final IP2pMgr p2pMgr;
+
+    private final IPendingState<AionTransaction> pendingState;
+
+    private final boolean isSyncOnlyNode;
+
+    private final long requestTimeout;
+
+    // all accesses to the per peer maps are guarded by the map instance
+    private final Map<Integer, Map<ByteArrayWrapper, Boolean>> knownTx = new ConcurrentHashMap<>();
+
+    private final Map<ByteArrayWrapper, byte[]> txBodies = Collections.synchronizedMap(new LRUMap<>(TX_BODY_CACHE));
+
+    private final Map<ByteArrayWrapper, Long> requested = Collections.synchronizedMap(new LRUMap<>(TX_BODY_CACHE));
+
+    // peers known to handle announcements
+    private final Set<Integer> announcers = ConcurrentHashMap.newKeySet();
+
+    // peers sent the empty announcement asking whether they handle announcements
+    private final Set<Integer> probed = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong txPushed = new AtomicLong();
+
+    private final AtomicLong txAnnounced = new AtomicLong();
+
+    private final AtomicLong txRequested = new AtomicLong();
+
+    private final AtomicLong txServed = new AtomicLong();
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    public TxPropagationHandler(final IP2pMgr p2pMgr, final IPendingState<AionTransaction> pendingState,
+            final boolean isSyncOnlyNode) {
+        this(p2pMgr, pendingState, isSyncOnlyNode, REQUEST_TIMEOUT);
+    }
+
+    TxPropagationHandler(final IP2pMgr p2pMgr, final IPendingState<AionTransaction> pendingState,
+            final boolean isSyncOnlyNode, final long requestTimeout) {
+        this.p2pMgr = p2pMgr;
+        this.pendingState = pendingState;
+        this.isSyncOnlyNode = isSyncOnlyNode;
+        this.requestTimeout = requestTimeout;
+    }
+
+    private Map<ByteArrayWrapper, Boolean> knownBy(int nodeId) {
+        return knownTx.computeIfAbsent(nodeId, k -> new LRUMap<>(KNOWN_TX_PER_PEER));
+    }
+
+    /**
+     * @return true if the hash was not yet known to be held by the peer
+     */
+    private static boolean markKnown(Map<ByteArrayWrapper, Boolean> known, ByteArrayWrapper hash) {
+        synchronized (known) {
+            return known.put(hash, true) == null;
+        }
+    }
+
+    public void propagateTx(final List<AionTransaction> txs) {
+        if (txs == null || txs.isEmpty())
+            return;
+
+        Map<Integer, INode> activeNodes = this.p2pMgr.getActiveNodes();
+        if (activeNodes == null || activeNodes.isEmpty())
+            return;
+
+        // forget the filters of disconnected peers
+        knownTx.keySet().retainAll(activeNodes.keySet());
+        announcers.retainAll(activeNodes.keySet());
+        probed.retainAll(activeNodes.keySet());
+
+        List<ByteArrayWrapper> hashes = new ArrayList<>(txs.size());
+        for (AionTransaction tx : txs) {
+            ByteArrayWrapper hash = ByteArrayWrapper.wrap(tx.getHash());
+            hashes.add(hash);
+            txBodies.put(hash, tx.getEncoded());
+        }
+
+        List<INode> peers = new ArrayList<>(activeNodes.values());
+        Collections.shuffle(peers);
+        int pushCount = (int) Math.ceil(Math.sqrt(peers.size()));
+
+        for (int i = 0; i < peers.size(); i++) {
+            INode peer = peers.get(i);
+            Map<ByteArrayWrapper, Boolean> known = knownBy(peer.getIdHash());
+
+            if (i < pushCount || !announcers.contains(peer.getIdHash())) {
+                List<ITransaction> fresh = new ArrayList<>();
+                for (int j = 0; j < txs.size(); j++) {
+                    if (markKnown(known, hashes.get(j))) {
+                        fresh.add(txs.get(j));
+                    }
+                }
+                if (!fresh.isEmpty()) {
+                    for (ITransaction tx : fresh) {
+                        bytesSent.addAndGet(tx.getEncoded().length);
+                    }
+                    txPushed.addAndGet(fresh.size());
+                    this.p2pMgr.send(peer.getIdHash(), new BroadcastTx(fresh));
+                }
+            } else {
+                List<byte[]> fresh = new ArrayList<>();
+                for (ByteArrayWrapper hash : hashes) {
+                    if (markKnown(known, hash)) {
+                        fresh.add(hash.getData());
+                    }
+                }
+                if (!fresh.isEmpty()) {
+                    bytesSent.addAndGet(fresh.size() * 32);
+                    txAnnounced.addAndGet(fresh.size());
+                    this.p2pMgr.send(peer.getIdHash(), new AnnounceTx(fresh));
+                }
+            }
+
+            if (!announcers.contains(peer.getIdHash()) && probed.add(peer.getIdHash())) {
+                this.p2pMgr.send(peer.getIdHash(), new AnnounceTx(Collections.emptyList()));
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("<propagate-tx txs={} peers={} pushed-to={} tx-pushed={} tx-announced={} bytes-sent={}>",
+                    txs.size(), peers.size(), Math.min(pushCount, peers.size()), txPushed.get(), txAnnounced.get(),
+                    bytesSent.get());
+        }
+    }
+
+    /**
+     * Records the transactions received from a peer, so they are neither
+     * requested again nor propagated back to it.
+     */
+    public void onReceiveTx(final int nodeId, final List<AionTransaction> txs) {
+        List<ByteArrayWrapper> hashes = new ArrayList<>(txs.size());
+        for (AionTransaction tx : txs) {
+            hashes.add(ByteArrayWrapper.wrap(tx.getHash()));
+        }
+        onKnownTx(nodeId, hashes);
+    }
+
+    /**
+     * Records the hashes of transactions received from a peer without being
+     * decoded, such as the duplicates of transactions already seen.
+     */
+    public void onKnownTx(final int nodeId, final List<ByteArrayWrapper> hashes) {
+        Map<ByteArrayWrapper, Boolean> known = knownBy(nodeId);
+        for (ByteArrayWrapper hash : hashes) {
+            markKnown(known, hash);
+            requested.remove(hash);
+        }
+    }
+
+    public void onAnnounceTx(final int nodeId, final String displayId, final List<byte[]> hashes) {
+        if (isSyncOnlyNode)
+            return;
+
+        announcers.add(nodeId);
+        if (hashes.isEmpty()) {
+            // acknowledges the probe of a peer, which then announces to this node
+            this.p2pMgr.send(nodeId, new ReqTx(Collections.emptyList()));
+            return;
+        }
+
+        Map<ByteArrayWrapper, Boolean> known = knownBy(nodeId);
+        long now = System.currentTimeMillis();
+
+        List<byte[]> missing = new ArrayList<>();
+        for (byte[] h : hashes) {
+            ByteArrayWrapper hash = ByteArrayWrapper.wrap(h);
+            markKnown(known, hash);
+
+            if (missing.size() >= MAX_TX_PER_REQUEST || txBodies.containsKey(hash) || TXValidator.isInCache(hash))
+                continue;
+
+            synchronized (requested) {
+                Long sentAt = requested.get(hash);
+                if (sentAt != null && now - sentAt < requestTimeout)
+                    continue;
+                requested.put(hash, now);
+            }
+            missing.add(h);
+        }
+
+        if (!missing.isEmpty()) {
+            txRequested.addAndGet(missing.size());
+            this.p2pMgr.send(nodeId, new ReqTx(missing));
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace("<announce-tx from={} hashes={} requested={}>", displayId, hashes.size(), missing.size());
+        }
+    }
+
+    public void onReqTx(final int nodeId, final String displayId, final List<byte[]> hashes) {
+        if (isSyncOnlyNode)
+            return;
+
+        announcers.add(nodeId);
+        List<byte[]> limited = hashes.size() > MAX_TX_PER_REQUEST ? hashes.subList(0, MAX_TX_PER_REQUEST) : hashes;
+
+        List<ITransaction> txs = new ArrayList<>();
+        int out = 0;
+        for (byte[] h : limited) {
+            // older announced transactions may only be left in the pool
+            AionTransaction tx = null;
+            byte[] encoded = txBodies.get(ByteArrayWrapper.wrap(h));
+            if (encoded == null) {
+                tx = pendingState.getPendingTransaction(h);
+                if (tx == null)
+                    continue;
+                encoded = tx.getEncoded();
+            }
+            if (out + encoded.length > P2pConstant.MAX_BODY_SIZE)
+                break;
+            out += encoded.length;
+            txs.add(tx == null ? new AionTransaction(encoded) : tx);
+        }
+
+        if (!txs.isEmpty()) {
+            bytesSent.addAndGet(out);
+            txServed.addAndGet(txs.size());
+            this.p2pMgr.send(nodeId, new BroadcastTx(txs));
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace("<req-tx from={} hashes={} served={}>", displayId, hashes.size(), txs.size());
+        }
+    }
+
+    public long getTxPushed() {
+        return txPushed.get();
+    }
+
+    public long getTxAnnounced() {
+        return txAnnounced.get();
+    }
+
+    public long getTxRequested() {
+        return txRequested.get();
+    }
+
+    public long getTxServed() {
+        return txServed.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+}
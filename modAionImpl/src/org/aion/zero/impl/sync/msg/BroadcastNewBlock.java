@@ -35,7 +35,9 @@
 
 package org.aion.zero.impl.sync.msg;
 
+import java.nio.ByteBuffer;
 import org.aion.zero.impl.sync.Act;
+import org.aion.zero.impl.types.AionBlock;
 import org.aion.base.type.IBlock;
 import org.aion.p2p.Ctrl;
 import org.aion.p2p.Msg;
@@ -60,6 +62,23 @@ public final class BroadcastNewBlock extends Msg {
         return this.block.getEncoded();
     }
 
+    @Override
+    public int encodedLength() {
+        if (this.block instanceof AionBlock) {
+            return ((AionBlock) this.block).getEncodedLength();
+        }
+        return -1;
+    }
+
+    @Override
+    public void encode(final ByteBuffer _buf) {
+        if (this.block instanceof AionBlock) {
+            ((AionBlock) this.block).encode(_buf);
+        } else {
+            _buf.put(this.block.getEncoded());
+        }
+    }
+
     public static byte[] decode(final byte[] _msgBytes) {
         return RLP.decode2OneItem(_msgBytes, 0).getRLPData();
     }
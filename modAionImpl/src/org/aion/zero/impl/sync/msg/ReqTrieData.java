@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync.msg;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.aion.base.type.Address;
+import org.aion.p2p.Ctrl;
+import org.aion.p2p.Msg;
+import org.aion.p2p.Ver;
+import org.aion.rlp.RLP;
+import org.aion.rlp.RLPElement;
+import org.aion.rlp.RLPList;
+import org.aion.zero.impl.sync.Act;
+import org.aion.zero.impl.sync.StateItem;
+
+import static org.aion.base.util.ByteUtil.EMPTY_BYTE_ARRAY;
+
+/**
+ * Requests pieces of the world state by hash, answered with
+ * {@link ResTrieData}. Each item is encoded as {@code [type, hash, address]}
+ * with an empty address for the items that are not storage nodes.
+ */
+public final class ReqTrieData extends Msg {
+
+    private final List<StateItem> items;
+
+    public ReqTrieData(final List<StateItem> _items) {
+        super(Ver.V0, Ctrl.SYNC, Act.REQ_TRIE_DATA);
+        this.items = _items;
+    }
+
+    public static ReqTrieData decode(final byte[] _msgBytes) {
+        if (_msgBytes == null || _msgBytes.length == 0) {
+            return null;
+        }
+        try {
+            RLPList list = (RLPList) RLP.decode2(_msgBytes).get(0);
+            List<StateItem> items = new ArrayList<>(list.size());
+            for (RLPElement element : list) {
+                RLPList item = (RLPList) element;
+                byte[] type = item.get(0).getRLPData();
+                byte[] hash = item.get(1).getRLPData();
+                byte[] address = item.get(2).getRLPData();
+                if (hash == null || hash.length != 32) {
+                    return null;
+                }
+                items.add(new StateItem(type == null || type.length == 0 ? 0 : type[0], hash,
+                        address == null || address.length == 0 ? null : Address.wrap(address)));
+            }
+            return new ReqTrieData(items);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public List<StateItem> getItems() {
+        return this.items;
+    }
+
+    @Override
+    public byte[] encode() {
+        byte[][] encoded = new byte[this.items.size()][];
+        int i = 0;
+        for (StateItem item : this.items) {
+            encoded[i++] = RLP.encodeList(RLP.encodeByte(item.getType()), RLP.encodeElement(item.getHash()),
+                    RLP.encodeElement(item.getAddress() == null ? EMPTY_BYTE_ARRAY : item.getAddress().toBytes()));
+        }
+        return RLP.encodeList(encoded);
+    }
+}
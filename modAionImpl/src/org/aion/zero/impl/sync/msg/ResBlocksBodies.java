@@ -35,6 +35,7 @@
 
 package org.aion.zero.impl.sync.msg;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import org.aion.p2p.Ctrl;
@@ -44,6 +45,7 @@ import org.aion.rlp.RLPElement;
 import org.aion.zero.impl.sync.Act;
 import org.aion.rlp.RLP;
 import org.aion.rlp.RLPList;
+import org.aion.rlp.RLPWriter;
 
 /**
  *
@@ -78,4 +80,25 @@ public final class ResBlocksBodies extends Msg {
     public byte[] encode() {
         return RLP.encodeList(this.blocksBodies.toArray(new byte[this.blocksBodies.size()][]));
     }
+
+    @Override
+    public int encodedLength() {
+        return RLPWriter.sizeOfList(payloadLength());
+    }
+
+    @Override
+    public void encode(final ByteBuffer _buf) {
+        RLPWriter.writeListHeader(_buf, payloadLength());
+        for (byte[] body : this.blocksBodies) {
+            _buf.put(body);
+        }
+    }
+
+    private int payloadLength() {
+        int len = 0;
+        for (byte[] body : this.blocksBodies) {
+            len += body.length;
+        }
+        return len;
+    }
 }
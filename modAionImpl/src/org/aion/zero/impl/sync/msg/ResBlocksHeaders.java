@@ -35,6 +35,7 @@
 
 package org.aion.zero.impl.sync.msg;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import org.aion.p2p.Ctrl;
@@ -44,6 +45,7 @@ import org.aion.rlp.RLPElement;
 import org.aion.zero.impl.sync.Act;
 import org.aion.rlp.RLP;
 import org.aion.rlp.RLPList;
+import org.aion.rlp.RLPWriter;
 import org.aion.zero.types.A0BlockHeader;
 
 /**
@@ -53,11 +55,28 @@ import org.aion.zero.types.A0BlockHeader;
  */
 public final class ResBlocksHeaders extends Msg {
 
-    private final List<A0BlockHeader> blockHeaders;
+    private List<A0BlockHeader> blockHeaders;
+
+    private final List<byte[]> encodedHeaders;
 
     public ResBlocksHeaders(final List<A0BlockHeader> _blockHeaders) {
         super(Ver.V0, Ctrl.SYNC, Act.RES_BLOCKS_HEADERS);
         blockHeaders = _blockHeaders;
+        encodedHeaders = null;
+    }
+
+    private ResBlocksHeaders(final List<byte[]> _encodedHeaders, final boolean _encoded) {
+        super(Ver.V0, Ctrl.SYNC, Act.RES_BLOCKS_HEADERS);
+        blockHeaders = null;
+        encodedHeaders = _encodedHeaders;
+    }
+
+    /**
+     * Creates the message from headers that are already RLP encoded, which
+     * are written as they are instead of being decoded and encoded again.
+     */
+    public static ResBlocksHeaders fromEncoded(final List<byte[]> _encodedHeaders) {
+        return new ResBlocksHeaders(_encodedHeaders, true);
     }
 
     public static ResBlocksHeaders decode(final byte[] _msgBytes) {
@@ -79,17 +98,44 @@ public final class ResBlocksHeaders extends Msg {
     }
 
     public List<A0BlockHeader> getHeaders() {
+        if (this.blockHeaders == null) {
+            List<A0BlockHeader> headers = new ArrayList<>();
+            try {
+                for (byte[] header : this.encodedHeaders) {
+                    headers.add(A0BlockHeader.fromRLP(header, true));
+                }
+            } catch (Exception ex) {
+                throw new IllegalStateException("invalid encoded header", ex);
+            }
+            this.blockHeaders = headers;
+        }
         return this.blockHeaders;
     }
 
     @Override
     public byte[] encode() {
-        List<byte[]> tempList = new ArrayList<>();
-        for (A0BlockHeader blockHeader : this.blockHeaders) {
-            tempList.add(blockHeader.getEncoded());
+        return RLP.encodeList(getEncodedHeaders());
+    }
+
+    @Override
+    public int encodedLength() {
+        return RLPWriter.sizeOfList(getEncodedHeaders());
+    }
+
+    @Override
+    public void encode(final ByteBuffer _buf) {
+        RLPWriter.writeList(_buf, getEncodedHeaders());
+    }
+
+    private byte[][] getEncodedHeaders() {
+        if (this.encodedHeaders != null) {
+            return this.encodedHeaders.toArray(new byte[this.encodedHeaders.size()][]);
+        }
+        byte[][] bytesArray = new byte[this.blockHeaders.size()][];
+        for (int i = 0; i < bytesArray.length; i++) {
+            bytesArray[i] = this.blockHeaders.get(i).getEncoded();
         }
-        byte[][] bytesArray = tempList.toArray(new byte[tempList.size()][]);
-        return RLP.encodeList(bytesArray);
+        return bytesArray;
     }
 
 }
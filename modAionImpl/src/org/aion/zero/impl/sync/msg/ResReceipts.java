@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync.msg;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.aion.p2p.Ctrl;
+import org.aion.p2p.Msg;
+import org.aion.p2p.Ver;
+import org.aion.rlp.RLP;
+import org.aion.rlp.RLPElement;
+import org.aion.rlp.RLPList;
+import org.aion.zero.impl.sync.Act;
+import org.aion.zero.types.AionTxReceipt;
+
+/**
+ * Answers {@link ReqReceipts} with one list of encoded receipts per block, in
+ * the order of the request. The answer ends at the first block the peer does
+ * not have the receipts of.
+ */
+public final class ResReceipts extends Msg {
+
+    // encoded receipt lists
+    private final List<byte[]> receipts;
+
+    public ResReceipts(final List<byte[]> _receipts) {
+        super(Ver.V0, Ctrl.SYNC, Act.RES_RECEIPTS);
+        this.receipts = _receipts;
+    }
+
+    public static ResReceipts decode(final byte[] _msgBytes) {
+        if (_msgBytes == null || _msgBytes.length == 0) {
+            return null;
+        }
+        try {
+            RLPList list = (RLPList) RLP.decode2(_msgBytes).get(0);
+            List<byte[]> receipts = new ArrayList<>(list.size());
+            for (RLPElement element : list) {
+                receipts.add(((RLPList) element).getRLPData());
+            }
+            return new ResReceipts(receipts);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the receipts of one block
+     */
+    public static byte[] encodeReceipts(final List<AionTxReceipt> _receipts) {
+        byte[][] encoded = new byte[_receipts.size()][];
+        int i = 0;
+        for (AionTxReceipt receipt : _receipts) {
+            encoded[i++] = receipt.getEncoded();
+        }
+        return RLP.encodeList(encoded);
+    }
+
+    /**
+     * @return the receipts of one block, or {@code null} if they cannot be
+     *         decoded
+     */
+    public static List<AionTxReceipt> decodeReceipts(final byte[] _encoded) {
+        try {
+            RLPList list = (RLPList) RLP.decode2(_encoded).get(0);
+            List<AionTxReceipt> receipts = new ArrayList<>(list.size());
+            for (RLPElement element : list) {
+                receipts.add(new AionTxReceipt(element.getRLPData()));
+            }
+            return receipts;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public List<byte[]> getReceipts() {
+        return this.receipts;
+    }
+
+    @Override
+    public byte[] encode() {
+        return RLP.encodeList(this.receipts.toArray(new byte[this.receipts.size()][]));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * The aion network project leverages useful source code from other
+ * open source projects. We greatly appreciate the effort that was
+ * invested in these projects and we thank the individual contributors
+ * for their work. For provenance information and contributors
+ * please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ */
+
+package org.aion.zero.impl.sync.msg;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.aion.p2p.Ctrl;
+import org.aion.p2p.Msg;
+import org.aion.p2p.Ver;
+import org.aion.rlp.RLP;
+import org.aion.rlp.RLPElement;
+import org.aion.rlp.RLPList;
+import org.aion.zero.impl.sync.Act;
+
+import static org.aion.base.util.ByteUtil.EMPTY_BYTE_ARRAY;
+
+/**
+ * Answers {@link ReqTrieData} with the requested data in the order of the
+ * request. Items the peer does not have are answered with an empty value and
+ * the answer may end before the last item.
+ */
+public final class ResTrieData extends Msg {
+
+    private final List<byte[]> values;
+
+    public ResTrieData(final List<byte[]> _values) {
+        super(Ver.V0, Ctrl.SYNC, Act.RES_TRIE_DATA);
+        this.values = _values;
+    }
+
+    public static ResTrieData decode(final byte[] _msgBytes) {
+        if (_msgBytes == null || _msgBytes.length == 0) {
+            return null;
+        }
+        try {
+            RLPList list = (RLPList) RLP.decode2(_msgBytes).get(0);
+            List<byte[]> values = new ArrayList<>(list.size());
+            for (RLPElement element : list) {
+                byte[] value = element.getRLPData();
+                values.add(value == null ? EMPTY_BYTE_ARRAY : value);
+            }
+            return new ResTrieData(values);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public List<byte[]> getValues() {
+        return this.values;
+    }
+
+    @Override
+    public byte[] encode() {
+        byte[][] encoded = new byte[this.values.size()][];
+        int i = 0;
+        for (byte[] value : this.values) {
+            encoded[i++] = RLP.encodeElement(value);
+        }
+        return RLP.encodeList(encoded);
+    }
+}
@@ -27,15 +27,46 @@ package org.aion.zero.impl.tx;
 import java.util.List;
 
 import org.aion.p2p.IP2pMgr;
+import org.aion.zero.impl.sync.handler.TxPropagationHandler;
 import org.aion.zero.types.AionTransaction;
 
 public class A0TxTask extends AbstractTxTask<AionTransaction, IP2pMgr> {
 
+    private final TxPropagationHandler txPropHandler;
+
     public A0TxTask(AionTransaction _tx, IP2pMgr _p2pMgr) {
         super(_tx, _p2pMgr);
+        this.txPropHandler = null;
     }
 
     public A0TxTask(List<AionTransaction> _tx, IP2pMgr _p2pMgr) {
         super(_tx, _p2pMgr);
+        this.txPropHandler = null;
+    }
+
+    public A0TxTask(List<AionTransaction> _tx, IP2pMgr _p2pMgr, TxPropagationHandler _txPropHandler) {
+        super(_tx, _p2pMgr);
+        this.txPropHandler = _txPropHandler;
+    }
+
+    /**
+     * Pushes to a subset of the peers and announces to the rest when a
+     * propagation handler is set, otherwise pushes to every active peer.
+     */
+    @Override
+    public List<AionTransaction> call() throws Exception {
+        if (this.txPropHandler == null) {
+            return super.call();
+        }
+
+        try {
+            this.txPropHandler.propagateTx(this.tx);
+            return tx;
+        } catch (Throwable th) {
+            // Todo : Log
+            System.out.println(th.getMessage());
+        }
+
+        return null;
     }
 }
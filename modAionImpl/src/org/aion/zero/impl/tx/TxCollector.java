@@ -1,6 +1,7 @@
 package org.aion.zero.impl.tx;
 
 import org.aion.p2p.IP2pMgr;
+import org.aion.zero.impl.sync.handler.TxPropagationHandler;
 import org.aion.zero.types.AionTransaction;
 import org.slf4j.Logger;
 
@@ -35,6 +36,8 @@ public class TxCollector {
 
     private IP2pMgr p2p;
 
+    private TxPropagationHandler txPropHandler;
+
     private AtomicInteger queueSizeBytes = new AtomicInteger();
     private AtomicLong lastBroadcast = new AtomicLong(System.currentTimeMillis());
     private LinkedBlockingQueue<AionTransaction> transactionQueue;
@@ -43,8 +46,9 @@ public class TxCollector {
     private Logger LOG;
 
 
-    public TxCollector(IP2pMgr p2p, final Logger logTx) {
+    public TxCollector(IP2pMgr p2p, TxPropagationHandler txPropHandler, final Logger logTx) {
         this.p2p = p2p;
+        this.txPropHandler = txPropHandler;
         this.LOG = logTx;
 
         // Leave unbounded for now, may need to restrict queue size and drop tx until able to process tx
@@ -121,7 +125,7 @@ public class TxCollector {
                 LOG.trace("TxCollector.broadcastTx Tx#{}", transactions.size());
             }
 
-            TxBroadcaster.getInstance().submitTransaction(new A0TxTask(transactions, this.p2p));
+            TxBroadcaster.getInstance().submitTransaction(new A0TxTask(transactions, this.p2p, this.txPropHandler));
         }
     }
 
@@ -35,6 +35,7 @@ import org.aion.mcf.types.AbstractBlock;
 import org.aion.rlp.RLP;
 import org.aion.rlp.RLPElement;
 import org.aion.rlp.RLPList;
+import org.aion.rlp.RLPWriter;
 import org.aion.zero.exceptions.HeaderStructureException;
 import org.aion.zero.types.A0BlockHeader;
 import org.aion.zero.types.AionTransaction;
@@ -42,6 +43,7 @@ import org.aion.zero.types.IAionBlock;
 import org.slf4j.Logger;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -386,14 +388,43 @@ public class AionBlock extends AbstractBlock<A0BlockHeader, AionTransaction> imp
     public byte[] getEncoded() {
         if (rlpEncoded == null) {
             byte[] header = this.header.getEncoded();
+            ByteBuffer buf = ByteBuffer.allocate(getEncodedLength(header));
+            encode(buf, header);
+            this.rlpEncoded = buf.array();
+        }
+        return rlpEncoded;
+    }
 
-            List<byte[]> block = getBodyElements();
-            block.add(0, header);
-            byte[][] elements = block.toArray(new byte[block.size()][]);
+    /**
+     * @return length of {@link #getEncoded()}
+     */
+    public int getEncodedLength() {
+        if (rlpEncoded != null) {
+            return rlpEncoded.length;
+        }
+        return getEncodedLength(this.header.getEncoded());
+    }
 
-            this.rlpEncoded = RLP.encodeList(elements);
+    /**
+     * Writes {@link #getEncoded()} into the given buffer. The block and its
+     * body are written in one pass when the encoding is not cached yet.
+     */
+    public void encode(ByteBuffer buf) {
+        if (rlpEncoded != null) {
+            buf.put(rlpEncoded);
+        } else {
+            encode(buf, this.header.getEncoded());
         }
-        return rlpEncoded;
+    }
+
+    private int getEncodedLength(byte[] header) {
+        return RLPWriter.sizeOfList(header.length + getTransactionsEncodedLength());
+    }
+
+    private void encode(ByteBuffer buf, byte[] header) {
+        RLPWriter.writeListHeader(buf, header.length + getTransactionsEncodedLength());
+        buf.put(header);
+        encodeTransactions(buf);
     }
 
     public byte[] getEncodedWithoutNonce() {
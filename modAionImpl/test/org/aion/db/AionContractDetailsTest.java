@@ -42,6 +42,8 @@ import org.aion.base.util.ByteUtil;
 import org.aion.db.impl.DBVendor;
 import org.aion.db.impl.DatabaseFactory;
 import org.aion.db.impl.leveldb.LevelDBConstants;
+import org.aion.db.impl.mockdb.MockDB;
+import org.aion.mcf.db.DetailsDataStore;
 import org.aion.mcf.vm.types.DataWord;
 import org.aion.zero.db.AionContractDetailsImpl;
 import org.aion.zero.impl.db.AionRepositoryImpl;
@@ -55,6 +57,9 @@ import java.util.Map;
 import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class AionContractDetailsTest {
@@ -335,4 +340,89 @@ public class AionContractDetailsTest {
             assertEquals(elements.get(key), deserialized.get(key));
         }
     }
+
+    @Test
+    public void testCompactSerialization() {
+        Address address = Address.wrap(RandomUtils.nextBytes(Address.ADDRESS_LEN));
+        byte[] code = RandomUtils.nextBytes(512);
+        Map<DataWord, DataWord> elements = new HashMap<>();
+
+        AionRepositoryImpl repository = AionRepositoryImpl.createForTesting(repoConfig);
+        IByteArrayKeyValueDatabase externalStorage = repository.getStorageDatabase();
+        IByteArrayKeyValueDatabase codeStore = new MockDB("code");
+        codeStore.open();
+
+        AionContractDetailsImpl original = new AionContractDetailsImpl(0, 1000000);
+        original.setExternalStorageDataSource(externalStorage);
+        original.setCodeSource(codeStore);
+        original.setAddress(address);
+        original.setCode(code);
+
+        for (int i = 0; i < 10; i++) {
+            DataWord key = new DataWord(RandomUtils.nextBytes(16));
+            DataWord value = new DataWord(RandomUtils.nextBytes(16));
+
+            elements.put(key, value);
+            original.put(key, value);
+        }
+
+        original.syncCodes();
+        byte[] rlp = original.getEncoded();
+        original.syncStorage();
+
+        // the code itself is kept out of the record
+        assertTrue(rlp.length < code.length);
+        assertFalse(codeStore.isEmpty());
+
+        AionContractDetailsImpl deserialized = new AionContractDetailsImpl();
+        deserialized.setExternalStorageDataSource(externalStorage);
+        deserialized.setCodeSource(codeStore);
+        deserialized.decode(rlp);
+
+        assertFalse(deserialized.isLegacyEncoded());
+        assertTrue(address.equals(deserialized.getAddress()));
+        assertEquals(ByteUtil.toHexString(code), ByteUtil.toHexString(deserialized.getCode()));
+
+        for (DataWord key : elements.keySet()) {
+            assertEquals(elements.get(key), deserialized.get(key));
+        }
+    }
+
+    @Test
+    public void testCachedDetailsShareDecodedStorage() {
+        Address address = Address.wrap(RandomUtils.nextBytes(Address.ADDRESS_LEN));
+        IByteArrayKeyValueDatabase detailsDb = new MockDB("details");
+        IByteArrayKeyValueDatabase storageDb = new MockDB("storage");
+        IByteArrayKeyValueDatabase codeDb = new MockDB("code");
+        detailsDb.open();
+        storageDb.open();
+        codeDb.open();
+        DetailsDataStore store = new DetailsDataStore(detailsDb, storageDb, codeDb, repoConfig);
+
+        IContractDetails<DataWord> details = repoConfig.contractDetailsImpl();
+        details.setCode(RandomUtils.nextBytes(64));
+        DataWord key = new DataWord(RandomUtils.nextBytes(16));
+        DataWord value = new DataWord(RandomUtils.nextBytes(16));
+        details.put(key, value);
+        for (int i = 0; i < 10; i++) {
+            details.put(new DataWord(RandomUtils.nextBytes(16)), new DataWord(RandomUtils.nextBytes(16)));
+        }
+        store.update(address, details);
+        byte[] root = details.getStorageHash();
+
+        AionContractDetailsImpl first = (AionContractDetailsImpl) store.get(address.toBytes());
+        AionContractDetailsImpl second = (AionContractDetailsImpl) store.get(address.toBytes());
+
+        // the inlined storage trie is shared instead of decoded for each caller
+        assertFalse(first.externalStorage);
+        assertNotSame(first, second);
+        assertSame(first.getStorageNode(root), second.getStorageNode(root));
+
+        // changes of a caller are not seen by the others
+        first.put(key, DataWord.ZERO);
+        assertEquals(DataWord.ZERO, first.get(key));
+        assertEquals(value, second.get(key));
+        assertEquals(value, store.get(address.toBytes()).get(key));
+        assertEquals(ByteUtil.toHexString(root), ByteUtil.toHexString(second.getStorageHash()));
+    }
 }
@@ -171,6 +171,53 @@ public class BlockchainIntegrationTest {
                         .subtract(BigInteger.valueOf(100)));
     }
 
+    /**
+     * A block connected from its own sealed template must leave the same state
+     * as the same block imported (and re-executed) by another node.
+     */
+    @Test
+    public void testSealedTemplateMatchesImportedBlock() {
+        final Address receiverAddress = Address.wrap(ByteUtil.hexStringToBytes("CAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFE"));
+
+        StandaloneBlockchain.Bundle bundle = (new StandaloneBlockchain.Builder())
+                .withValidatorConfiguration("simple")
+                .withDefaultAccounts()
+                .build();
+        StandaloneBlockchain bc = bundle.bc;
+
+        StandaloneBlockchain other = (new StandaloneBlockchain.Builder())
+                .withValidatorConfiguration("simple")
+                .withDefaultAccounts(bundle.privateKeys)
+                .build().bc;
+
+        for (int i = 0; i < 3; i++) {
+            AionTransaction tx = new AionTransaction(
+                    BigInteger.valueOf(i).toByteArray(),
+                    receiverAddress,
+                    BigInteger.valueOf(100).toByteArray(),
+                    ByteUtil.EMPTY_BYTE_ARRAY,
+                    21000L,
+                    1L);
+            tx.sign(bundle.privateKeys.get(0));
+
+            AionBlock block = bc.createNewBlock(bc.getBestBlock(), Collections.singletonList(tx), true);
+            assertThat(bc.tryToConnect(block)).isEqualTo(ImportResult.IMPORTED_BEST);
+            assertThat(other.tryToConnect(new AionBlock(block.getEncoded()))).isEqualTo(ImportResult.IMPORTED_BEST);
+
+            assertThat(bc.getBestBlock().getHash()).isEqualTo(other.getBestBlock().getHash());
+            assertThat(bc.getRepository().getRoot()).isEqualTo(other.getRepository().getRoot());
+        }
+
+        assertThat(bc.getRepository().getBalance(receiverAddress)).isEqualTo(BigInteger.valueOf(300));
+        assertThat(other.getRepository().getBalance(receiverAddress)).isEqualTo(BigInteger.valueOf(300));
+
+        // the sealing node took its templates, the importing node executed the blocks
+        assertThat(bc.getAppliedTemplateCount()).isEqualTo(3L);
+        assertThat(bc.getExecutedBlockCount()).isEqualTo(0L);
+        assertThat(other.getAppliedTemplateCount()).isEqualTo(0L);
+        assertThat(other.getExecutedBlockCount()).isEqualTo(3L);
+    }
+
     @Test
     public void testAppendIncorrectTimestampBlock() {
         StandaloneBlockchain.Bundle bundle = (new StandaloneBlockchain.Builder())
@@ -0,0 +1,313 @@
+package org.aion.zero.impl;
+
+import org.aion.base.db.IRepositoryCache;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteUtil;
+import org.aion.crypto.ECKey;
+import org.aion.crypto.ECKeyFac;
+import org.aion.crypto.HashUtil;
+import org.aion.db.impl.DBVendor;
+import org.aion.mcf.core.ImportResult;
+import org.aion.mcf.vm.types.Bloom;
+import org.aion.mcf.vm.types.DataWord;
+import org.aion.vm.PrecompiledContracts;
+import org.aion.zero.impl.db.AionRepositoryImpl;
+import org.aion.zero.impl.types.AionBlock;
+import org.aion.zero.types.AionTransaction;
+import org.aion.zero.types.AionTxExecSummary;
+import org.aion.zero.types.AionTxReceipt;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Compares speculative parallel execution with sequential execution over
+ * generated blocks. The transactions are run by a deterministic stand-in for
+ * the virtual machine that only uses the repository interface, so the
+ * comparison exercises the conflict detection and not the VM. The same
+ * blocks of transfers, contract calls and precompiled contract calls are
+ * also imported by two chains executing them with the transaction executor,
+ * one sequentially and one speculatively.
+ */
+public class SpeculativeTxExecutorTest {
+
+    private static final long NRG_USED = 21_000L;
+    private static final long NRG_PRICE = 10L;
+
+    /** Stores a new storage row and increments a counter, from BlockchainAccountStateTest. */
+    private static final String STATE_EXPANSION_BYTECODE = "0x605060405260006001600050909055341561001a5760006000fd5b61001f565b6101688061002e6000396000f30060506040526000356c01000000000000000000000000900463ffffffff16806331e658a514610049578063549262ba1461008957806361bc221a1461009f57610043565b60006000fd5b34156100555760006000fd5b610073600480808060100135903590916020019091929050506100c9565b6040518082815260100191505060405180910390f35b34156100955760006000fd5b61009d6100eb565b005b34156100ab5760006000fd5b6100b3610133565b6040518082815260100191505060405180910390f35b6000600050602052818160005260105260306000209050600091509150505481565b6001600060005060006001600050546000825281601001526020019081526010016000209050600050819090905550600160008181505480929190600101919050909055505b565b600160005054815600a165627a7a72305820c615f3373321aa7e9c05d9a69e49508147861fb2a54f2945fbbaa7d851125fe80029";
+
+    private static final byte[] STATE_EXPANSION_CALL = ByteUtil.hexStringToBytes("549262ba");
+
+    /** Contract call flag that makes the contract store the coinbase balance. */
+    private static final byte READ_COINBASE = 1;
+
+    private static final Address COINBASE = address(0xcb);
+
+    private final List<Address> accounts = new ArrayList<>();
+    private final List<Address> contracts = new ArrayList<>();
+
+    public SpeculativeTxExecutorTest() {
+        for (int i = 0; i < 8; i++) {
+            accounts.add(address(i + 1));
+        }
+        for (int i = 0; i < 3; i++) {
+            contracts.add(address(0x100 + i));
+        }
+    }
+
+    private static Address address(int value) {
+        byte[] bytes = new byte[Address.ADDRESS_LEN];
+        bytes[Address.ADDRESS_LEN - 2] = (byte) (value >> 8);
+        bytes[Address.ADDRESS_LEN - 1] = (byte) value;
+        return Address.wrap(bytes);
+    }
+
+    /**
+     * Deterministic transaction semantics: value transfer and fee payment,
+     * plus a storage counter update when the recipient has code.
+     */
+    private static AionTxExecSummary run(AionTransaction tx, IRepositoryCache repo) {
+        Address from = tx.getFrom();
+        Address to = tx.getTo();
+        BigInteger value = new BigInteger(1, tx.getValue());
+        BigInteger fee = BigInteger.valueOf(NRG_USED * tx.getNrgPrice());
+
+        AionTxReceipt receipt = new AionTxReceipt(HashUtil.EMPTY_TRIE_HASH, new Bloom(), Collections.emptyList());
+        receipt.setTransaction(tx);
+        receipt.setNrgUsed(NRG_USED);
+        AionTxExecSummary.Builder builder = AionTxExecSummary.builderFor(receipt).result(new byte[0]);
+
+        BigInteger nonce = new BigInteger(1, tx.getNonce());
+        if (!repo.getNonce(from).equals(nonce) || repo.getBalance(from).compareTo(value.add(fee)) < 0) {
+            return builder.markAsRejected().build();
+        }
+
+        IRepositoryCache track = repo.startTracking();
+        track.incrementNonce(from);
+        track.addBalance(from, value.add(fee).negate());
+        track.addBalance(to, value);
+
+        if (track.getCode(to).length > 0) {
+            DataWord key = new DataWord(tx.getData().length > 1 ? tx.getData()[1] : 0);
+            DataWord current = (DataWord) track.getStorageValue(to, key);
+            long next = (current == null ? 0 : current.longValue()) + 1;
+            if (tx.getData().length > 0 && tx.getData()[0] == READ_COINBASE) {
+                next += track.getBalance(COINBASE).longValue();
+            }
+            track.addStorageRow(to, key, new DataWord(next));
+        }
+        track.flush();
+
+        repo.addBalance(COINBASE, fee);
+        return builder.build();
+    }
+
+    private AionRepositoryImpl newRepository() {
+        AionRepositoryImpl repository = AionRepositoryImpl.createForTesting(new MockRepositoryConfig(DBVendor.MOCKDB));
+        IRepositoryCache track = repository.startTracking();
+        for (Address account : accounts) {
+            track.createAccount(account);
+            track.addBalance(account, BigInteger.valueOf(1_000_000_000L));
+        }
+        for (Address contract : contracts) {
+            track.createAccount(contract);
+            track.saveCode(contract, new byte[] { 0x60, (byte) contract.toBytes()[Address.ADDRESS_LEN - 1] });
+        }
+        track.flush();
+        repository.flush();
+        return repository;
+    }
+
+    private List<AionTransaction> generateBlock(Random random, long[] nonces, int size) {
+        List<AionTransaction> txs = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int sender = random.nextInt(accounts.size());
+            Address from = accounts.get(sender);
+
+            Address to;
+            byte[] data = new byte[0];
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                to = accounts.get(random.nextInt(accounts.size()));
+            } else if (kind < 7) {
+                to = COINBASE;
+            } else if (kind < 8) {
+                // fresh recipient
+                to = address(0x1000 + random.nextInt(1 << 12));
+            } else {
+                to = contracts.get(random.nextInt(contracts.size()));
+                data = new byte[] { (byte) (random.nextInt(4) == 0 ? READ_COINBASE : 0),
+                        (byte) random.nextInt(3) };
+            }
+
+            // some transactions reuse or skip a nonce and get rejected
+            long nonce = random.nextInt(20) == 0 ? nonces[sender] + 1 : nonces[sender]++;
+
+            txs.add(new AionTransaction(BigInteger.valueOf(nonce).toByteArray(), from, to,
+                    BigInteger.valueOf(random.nextInt(1000)).toByteArray(), data, NRG_USED, NRG_PRICE));
+        }
+        return txs;
+    }
+
+    private List<Object> execute(SpeculativeTxExecutor executor, AionRepositoryImpl repository,
+            List<AionTransaction> txs) {
+        List<Object> results = new ArrayList<>();
+        IRepositoryCache track = repository.startTracking();
+
+        List<AionTxExecSummary> summaries = executor.execute(txs, COINBASE, track,
+                SpeculativeTxExecutorTest::run, (tx, summary) -> {
+                    track.flush();
+                    results.add(new BigInteger(1, repository.getRoot()));
+                });
+
+        for (AionTxExecSummary summary : summaries) {
+            results.add(summary.isRejected());
+            results.add(summary.getNrgUsed());
+        }
+        return results;
+    }
+
+    private void compare(long seed, int blocks, int blockSize) {
+        Random random = new Random(seed);
+        AionRepositoryImpl sequentialRepo = newRepository();
+        AionRepositoryImpl parallelRepo = newRepository();
+
+        SpeculativeTxExecutor sequential = new SpeculativeTxExecutor(1);
+        SpeculativeTxExecutor parallel = new SpeculativeTxExecutor(4);
+
+        long[] nonces = new long[accounts.size()];
+        for (int b = 0; b < blocks; b++) {
+            List<AionTransaction> txs = generateBlock(random, nonces, blockSize);
+
+            assertThat(execute(parallel, parallelRepo, txs)).isEqualTo(execute(sequential, sequentialRepo, txs));
+            assertThat(parallelRepo.getRoot()).isEqualTo(sequentialRepo.getRoot());
+
+            sequentialRepo.flush();
+            parallelRepo.flush();
+        }
+
+        // both paths were exercised
+        assertThat(parallel.getSpeculatedCount()).isGreaterThan(0L);
+        assertThat(parallel.getReexecutedCount()).isGreaterThan(0L);
+    }
+
+    @Test
+    public void testSmallBlocks() {
+        compare(1L, 20, 5);
+    }
+
+    @Test
+    public void testLargeBlocks() {
+        compare(2L, 10, 100);
+    }
+
+    @Test
+    public void testManySeeds() {
+        for (long seed = 10; seed < 20; seed++) {
+            compare(seed, 5, 30);
+        }
+    }
+
+    private static AionTransaction signed(ECKey key, long nonce, Address to, long value, byte[] data, long nrg) {
+        AionTransaction tx = new AionTransaction(BigInteger.valueOf(nonce).toByteArray(), to,
+                BigInteger.valueOf(value).toByteArray(), data, nrg, NRG_PRICE);
+        tx.sign(key);
+        return tx;
+    }
+
+    private static StandaloneBlockchain chain(List<ECKey> keys, int threads) {
+        return new StandaloneBlockchain.Builder()
+                .withValidatorConfiguration("simple")
+                .withDefaultAccounts(keys)
+                .withTxExecutorThreads(threads)
+                .build().bc;
+    }
+
+    @Test
+    public void testChainBlocks() {
+        List<ECKey> keys = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            keys.add(ECKeyFac.inst().create());
+        }
+        StandaloneBlockchain sequential = chain(keys, 1);
+        StandaloneBlockchain speculative = chain(keys, 4);
+
+        long[] nonces = new long[keys.size()];
+        AionTransaction deploy = signed(keys.get(0), nonces[0]++, null, 0,
+                ByteUtil.hexStringToBytes(STATE_EXPANSION_BYTECODE), 1_000_000L);
+        Address contract = deploy.getContractAddress();
+
+        Random random = new Random(4L);
+        AionBlock parent = sequential.getBestBlock();
+        for (int b = 0; b < 10; b++) {
+            List<AionTransaction> txs = new ArrayList<>();
+            if (b == 0) {
+                txs.add(deploy);
+            }
+            for (int t = 0; t < 20; t++) {
+                int sender = random.nextInt(keys.size());
+                ECKey key = keys.get(sender);
+                int kind = random.nextInt(4);
+                if (kind == 0) {
+                    // calls of the same contract conflict on its storage
+                    txs.add(signed(key, nonces[sender]++, contract, 0, STATE_EXPANSION_CALL, 200_000L));
+                } else if (kind == 1) {
+                    txs.add(signed(key, nonces[sender]++, PrecompiledContracts.totalCurrencyAddress, 0,
+                            new byte[] { 0 }, 100_000L));
+                } else {
+                    // transfers to the other senders conflict with their transactions
+                    Address to = Address.wrap(keys.get(random.nextInt(keys.size())).getAddress());
+                    txs.add(signed(key, nonces[sender]++, to, 1 + random.nextInt(1000), ByteUtil.EMPTY_BYTE_ARRAY,
+                            21_000L));
+                }
+            }
+
+            AionBlock block = sequential.createNewBlock(parent, txs, true);
+            assertThat(sequential.tryToConnect(block)).isEqualTo(ImportResult.IMPORTED_BEST);
+            // the header holds the state and receipts roots of the sequential execution
+            assertThat(speculative.tryToConnect(block)).isEqualTo(ImportResult.IMPORTED_BEST);
+            parent = block;
+        }
+
+        assertThat(speculative.getRepository().getRoot()).isEqualTo(sequential.getRepository().getRoot());
+        assertThat(speculative.getTxExecutor().getSpeculatedCount()).isGreaterThan(0L);
+        assertThat(speculative.getTxExecutor().getReexecutedCount()).isGreaterThan(0L);
+        assertThat(sequential.getTxExecutor().getSpeculatedCount()).isEqualTo(0L);
+
+        speculative.close();
+        sequential.close();
+    }
+
+    @Test
+    public void testShutdown() {
+        AionRepositoryImpl repository = newRepository();
+        SpeculativeTxExecutor executor = new SpeculativeTxExecutor(4);
+        executor.shutdown();
+
+        // the transactions are executed on the block track
+        List<AionTransaction> txs = generateBlock(new Random(5L), new long[accounts.size()], 10);
+        execute(executor, repository, txs);
+
+        assertThat(executor.getSpeculatedCount()).isEqualTo(0L);
+        assertThat(executor.getReexecutedCount()).isEqualTo(10L);
+    }
+
+    @Test
+    public void testSequentialFallback() {
+        AionRepositoryImpl repository = newRepository();
+        SpeculativeTxExecutor executor = new SpeculativeTxExecutor(1);
+
+        List<AionTransaction> txs = generateBlock(new Random(3L), new long[accounts.size()], 10);
+        execute(executor, repository, txs);
+
+        assertThat(executor.getSpeculatedCount()).isEqualTo(0L);
+        assertThat(executor.getReexecutedCount()).isEqualTo(0L);
+    }
+}
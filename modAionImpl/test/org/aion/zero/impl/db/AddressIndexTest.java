@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.db.IByteArrayKeyValueDatabase;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteUtil;
+import org.aion.crypto.ECKey;
+import org.aion.crypto.HashUtil;
+import org.aion.db.impl.mockdb.MockDB;
+import org.aion.mcf.core.ImportResult;
+import org.aion.mcf.vm.types.Bloom;
+import org.aion.zero.impl.StandaloneBlockchain;
+import org.aion.zero.impl.types.AionBlock;
+import org.aion.zero.types.AionInternalTx;
+import org.aion.zero.types.AionTransaction;
+import org.aion.zero.types.AionTxExecSummary;
+import org.aion.zero.types.AionTxReceipt;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AddressIndexTest {
+
+    private static Address address(int value) {
+        return Address.wrap(HashUtil.h256(BigInteger.valueOf(value).toByteArray()));
+    }
+
+    private static AionTransaction transfer(ECKey key, long nonce, Address to) {
+        AionTransaction tx = new AionTransaction(BigInteger.valueOf(nonce).toByteArray(), to,
+                BigInteger.ONE.toByteArray(), ByteUtil.EMPTY_BYTE_ARRAY, 21_000L, 1L);
+        tx.sign(key);
+        return tx;
+    }
+
+    private static StandaloneBlockchain.Bundle newChain() {
+        return new StandaloneBlockchain.Builder()
+                .withValidatorConfiguration("simple")
+                .withDefaultAccounts()
+                .withAddressIndex()
+                .build();
+    }
+
+    private static AionBlock connect(StandaloneBlockchain bc, AionBlock parent, List<AionTransaction> txs,
+            ImportResult expected) {
+        AionBlock block = bc.createNewBlock(parent, txs, true);
+        assertThat(bc.tryToConnect(block)).isEqualTo(expected);
+        return block;
+    }
+
+    private static void awaitBackfill(AddressIndex index) throws InterruptedException {
+        for (int wait = 0; wait < 100 && index.getBackfillBlock() >= 0; wait++) {
+            Thread.sleep(50);
+        }
+        assertThat(index.getBackfillBlock()).isEqualTo(-1L);
+    }
+
+    private static List<String> describe(List<AddressIndex.Entry> entries) {
+        List<String> described = new ArrayList<>();
+        for (AddressIndex.Entry entry : entries) {
+            described.add(entry.getBlockNumber() + "/" + ByteUtil.toHexString(entry.getBlockHash()) + "/"
+                    + entry.getTxIndex());
+        }
+        return described;
+    }
+
+    @Test
+    public void testPagesNewestFirst() {
+        StandaloneBlockchain.Bundle bundle = newChain();
+        StandaloneBlockchain bc = bundle.bc;
+        ECKey sender = bundle.privateKeys.get(0);
+
+        long nonce = 0;
+        for (int b = 0; b < 3; b++) {
+            connect(bc, bc.getBestBlock(), Arrays.asList(transfer(sender, nonce++, address(b)),
+                    transfer(sender, nonce++, address(10))), ImportResult.IMPORTED_BEST);
+        }
+
+        AddressIndex index = bc.getAddressIndex();
+        Address from = Address.wrap(sender.getAddress());
+        assertThat(index.getCount(from)).isEqualTo(6L);
+        assertThat(index.getCount(address(10))).isEqualTo(3L);
+        assertThat(index.getCount(address(1))).isEqualTo(1L);
+        assertThat(index.getCount(address(99))).isEqualTo(0L);
+
+        List<AddressIndex.Entry> first = index.getEntries(from, 0, 4);
+        assertThat(first.size()).isEqualTo(4);
+        assertThat(first.get(0).getBlockNumber()).isEqualTo(3L);
+        assertThat(first.get(0).getTxIndex()).isEqualTo(1);
+        assertThat(first.get(0).getBlockHash()).isEqualTo(bc.getBestBlock().getHash());
+        assertThat(first.get(1).getTxIndex()).isEqualTo(0);
+        assertThat(first.get(3).getBlockNumber()).isEqualTo(2L);
+
+        List<AddressIndex.Entry> second = index.getEntries(from, 4, 4);
+        assertThat(second.size()).isEqualTo(2);
+        assertThat(second.get(1).getBlockNumber()).isEqualTo(1L);
+        assertThat(second.get(1).getTxIndex()).isEqualTo(0);
+
+        assertThat(index.getEntries(from, 6, 4)).isEmpty();
+    }
+
+    @Test
+    public void testReBranchAndRevert() {
+        StandaloneBlockchain.Bundle bundle = newChain();
+        StandaloneBlockchain bc = bundle.bc;
+        ECKey sender = bundle.privateKeys.get(0);
+        Address from = Address.wrap(sender.getAddress());
+        AionBlock genesis = bc.getBestBlock();
+
+        AionBlock main = connect(bc, genesis, Collections.singletonList(transfer(sender, 0, address(1))),
+                ImportResult.IMPORTED_BEST);
+        AionBlock side = connect(bc, genesis, Collections.singletonList(transfer(sender, 0, address(2))),
+                ImportResult.IMPORTED_NOT_BEST);
+
+        AddressIndex index = bc.getAddressIndex();
+        assertThat(index.getCount(address(1))).isEqualTo(1L);
+        assertThat(index.getCount(address(2))).isEqualTo(0L);
+
+        // the side branch becomes the main chain
+        AionBlock best = connect(bc, side, Collections.singletonList(transfer(sender, 1, address(3))),
+                ImportResult.IMPORTED_BEST);
+
+        assertThat(index.getCount(address(1))).isEqualTo(0L);
+        assertThat(index.getCount(address(2))).isEqualTo(1L);
+        assertThat(index.getCount(address(3))).isEqualTo(1L);
+
+        List<AddressIndex.Entry> entries = index.getEntries(from, 0, 10);
+        assertThat(entries.size()).isEqualTo(2);
+        assertThat(entries.get(0).getBlockHash()).isEqualTo(best.getHash());
+        assertThat(entries.get(1).getBlockHash()).isEqualTo(side.getHash());
+        assertThat(entries.get(1).getBlockHash()).isNotEqualTo(main.getHash());
+
+        // reverting the chain removes the entries of the reverted blocks
+        assertThat(RecoveryUtils.revertTo(bc, 1)).isEqualTo(RecoveryUtils.Status.SUCCESS);
+        assertThat(index.getCount(address(3))).isEqualTo(0L);
+        assertThat(index.getCount(address(2))).isEqualTo(1L);
+        assertThat(index.getCount(from)).isEqualTo(1L);
+    }
+
+    @Test
+    public void testBackfill() throws InterruptedException {
+        StandaloneBlockchain.Bundle bundle = newChain();
+        StandaloneBlockchain bc = bundle.bc;
+        ECKey sender = bundle.privateKeys.get(0);
+
+        long nonce = 0;
+        for (int b = 0; b < 4; b++) {
+            List<AionTransaction> txs = new ArrayList<>();
+            for (int i = 0; i <= b; i++) {
+                txs.add(transfer(sender, nonce++, address(i)));
+            }
+            connect(bc, bc.getBestBlock(), txs, ImportResult.IMPORTED_BEST);
+        }
+
+        // a new index over the same blocks, filled in the background
+        IByteArrayKeyValueDatabase database = new MockDB("addressindex");
+        database.open();
+        AddressIndex backfilled = new AddressIndex(database);
+        backfilled.startBackfill(bc.getBestBlock(), bc.getBlockStore()::getBlockByHash);
+        awaitBackfill(backfilled);
+
+        AddressIndex live = bc.getAddressIndex();
+        List<Address> addresses = new ArrayList<>(Arrays.asList(address(0), address(1), address(3)));
+        addresses.add(Address.wrap(sender.getAddress()));
+        for (Address address : addresses) {
+            assertThat(backfilled.getCount(address)).isEqualTo(live.getCount(address));
+            assertThat(describe(backfilled.getEntries(address, 0, 100)))
+                    .isEqualTo(describe(live.getEntries(address, 0, 100)));
+        }
+
+        // blocks after the backfill are appended above the backfilled entries
+        AionBlock next = connect(bc, bc.getBestBlock(),
+                Collections.singletonList(transfer(sender, nonce, address(0))), ImportResult.IMPORTED_BEST);
+        backfilled.putBlock(next, null, true);
+        assertThat(backfilled.getCount(address(0))).isEqualTo(5L);
+        assertThat(backfilled.getEntries(address(0), 0, 1).get(0).getBlockHash()).isEqualTo(next.getHash());
+
+        backfilled.close();
+    }
+
+    @Test
+    public void testReBranchAcrossBackfill() throws InterruptedException {
+        StandaloneBlockchain.Bundle bundle = newChain();
+        StandaloneBlockchain bc = bundle.bc;
+        ECKey sender = bundle.privateKeys.get(0);
+
+        List<AionBlock> oldBranch = new ArrayList<>();
+        long nonce = 0;
+        for (int b = 0; b < 4; b++) {
+            List<AionTransaction> txs = new ArrayList<>();
+            for (int i = 0; i <= b; i++) {
+                txs.add(transfer(sender, nonce++, address(i)));
+            }
+            oldBranch.add(connect(bc, bc.getBestBlock(), txs, ImportResult.IMPORTED_BEST));
+        }
+
+        // one index backfilled before the reorganization, one still waiting
+        IByteArrayKeyValueDatabase database = new MockDB("addressindex");
+        database.open();
+        AddressIndex backfilled = new AddressIndex(database);
+        backfilled.startBackfill(bc.getBestBlock(), bc.getBlockStore()::getBlockByHash);
+        awaitBackfill(backfilled);
+
+        CountDownLatch release = new CountDownLatch(1);
+        IByteArrayKeyValueDatabase pendingDatabase = new MockDB("addressindex");
+        pendingDatabase.open();
+        AddressIndex pending = new AddressIndex(pendingDatabase);
+        pending.startBackfill(bc.getBestBlock(), hash -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return bc.getBlockStore().getBlockByHash(hash);
+        });
+
+        // a longer branch from block 1, below the blocks stored before the indexes
+        List<AionBlock> newBranch = new ArrayList<>();
+        AionBlock parent = oldBranch.get(0);
+        nonce = 1;
+        for (int b = 0; b < 4; b++) {
+            AionBlock block = bc.createNewBlock(parent, Arrays.asList(transfer(sender, nonce++, address(1)),
+                    transfer(sender, nonce++, address(20 + b))), true);
+            bc.tryToConnect(block);
+            newBranch.add(block);
+            parent = block;
+        }
+        assertThat(bc.getBestBlock().getHash()).isEqualTo(parent.getHash());
+
+        for (AddressIndex index : Arrays.asList(backfilled, pending)) {
+            for (int b = oldBranch.size() - 1; b > 0; b--) {
+                index.revertBlock(oldBranch.get(b));
+            }
+            for (AionBlock block : newBranch) {
+                index.applyBlock(block);
+            }
+        }
+        release.countDown();
+        awaitBackfill(pending);
+
+        AddressIndex live = bc.getAddressIndex();
+        List<Address> addresses = new ArrayList<>(Arrays.asList(address(0), address(1), address(2), address(3),
+                address(20), address(23)));
+        addresses.add(Address.wrap(sender.getAddress()));
+        for (Address address : addresses) {
+            for (AddressIndex index : Arrays.asList(backfilled, pending)) {
+                assertThat(index.getCount(address)).isEqualTo(live.getCount(address));
+                assertThat(describe(index.getEntries(address, 0, 100)))
+                        .isEqualTo(describe(live.getEntries(address, 0, 100)));
+            }
+        }
+        assertThat(backfilled.getCount(address(3))).isEqualTo(0L);
+        assertThat(backfilled.getCount(address(1))).isEqualTo(4L);
+
+        backfilled.close();
+        pending.close();
+    }
+
+    @Test
+    public void testInternalTransactions() {
+        AionTransaction tx = new AionTransaction(BigInteger.ZERO.toByteArray(), address(1), address(2),
+                BigInteger.ONE.toByteArray(), ByteUtil.EMPTY_BYTE_ARRAY, 21_000L, 1L);
+
+        AionInternalTx call = new AionInternalTx(new byte[32], 1, 0, BigInteger.ZERO.toByteArray(), address(2),
+                address(3), BigInteger.ONE.toByteArray(), ByteUtil.EMPTY_BYTE_ARRAY, "call");
+        AionInternalTx rejected = new AionInternalTx(new byte[32], 1, 1, BigInteger.ZERO.toByteArray(), address(2),
+                address(4), BigInteger.ONE.toByteArray(), ByteUtil.EMPTY_BYTE_ARRAY, "call");
+        AionInternalTx create = new AionInternalTx(new byte[32], 1, 2, BigInteger.ONE.toByteArray(), address(3),
+                null, BigInteger.ZERO.toByteArray(), ByteUtil.EMPTY_BYTE_ARRAY, "create");
+
+        AionTxReceipt receipt = new AionTxReceipt(HashUtil.EMPTY_TRIE_HASH, new Bloom(), Collections.emptyList());
+        receipt.setTransaction(tx);
+        AionTxExecSummary summary = AionTxExecSummary.builderFor(receipt)
+                .internalTransactions(Arrays.asList(call, rejected, create))
+                .result(new byte[0])
+                .build();
+
+        Set<Address> touched = AddressIndex.touchedAddresses(tx, summary);
+        assertThat(touched).containsExactly(address(1), address(2), address(3), address(4),
+                create.getContractAddress());
+        assertThat(AddressIndex.touchedAddresses(tx, null)).containsExactly(address(1), address(2));
+    }
+}
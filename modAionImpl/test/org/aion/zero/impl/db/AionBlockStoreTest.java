@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.db.IByteArrayKeyValueDatabase;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteUtil;
+import org.aion.crypto.HashUtil;
+import org.aion.db.impl.mockdb.MockDB;
+import org.aion.zero.impl.types.AionBlock;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AionBlockStoreTest {
+
+    private static final BigInteger DIFFICULTY = BigInteger.valueOf(16);
+
+    private IByteArrayKeyValueDatabase indexDatabase;
+    private IByteArrayKeyValueDatabase blockDatabase;
+
+    private AionBlockStore newStore() {
+        indexDatabase = new MockDB("index");
+        indexDatabase.open();
+        blockDatabase = new MockDB("block");
+        blockDatabase.open();
+        return new AionBlockStore(indexDatabase, blockDatabase);
+    }
+
+    private static AionBlock block(AionBlock parent, int variant) {
+        return new AionBlock(parent == null ? new byte[32] : parent.getHash(), Address.ZERO_ADDRESS(), new byte[256],
+                DIFFICULTY.toByteArray(), parent == null ? 0 : parent.getNumber() + 1, 1_000L, new byte[] {
+                (byte) variant }, new byte[32], HashUtil.EMPTY_TRIE_HASH, HashUtil.EMPTY_TRIE_HASH,
+                HashUtil.EMPTY_TRIE_HASH, Collections.emptyList(), new byte[0], 0L, 10_000_000L);
+    }
+
+    private static BigInteger td(AionBlock block) {
+        return DIFFICULTY.multiply(BigInteger.valueOf(block.getNumber() + 1));
+    }
+
+    /**
+     * Checks the number and hash indexes against the blocks of each level.
+     */
+    private static void checkIndexes(AionBlockStore store) {
+        for (long level = 0; level <= store.getMaxNumber(); level++) {
+            byte[] mainHash = null;
+            for (Map.Entry<AionBlock, Map.Entry<BigInteger, Boolean>> entry : store.getBlocksByNumber(level)) {
+                byte[] hash = entry.getKey().getHash();
+                assertThat(store.isBlockExist(hash)).isTrue();
+                assertThat(store.getTotalDifficultyForHash(hash)).isEqualTo(entry.getValue().getKey());
+                if (mainHash == null && entry.getValue().getValue()) {
+                    mainHash = hash;
+                }
+            }
+            assertThat(store.getBlockHashByNumber(level)).isEqualTo(mainHash);
+        }
+    }
+
+    @Test
+    public void testIndexesFollowReBranchRevertAndPrune() {
+        AionBlockStore store = newStore();
+        AionBlock genesis = block(null, 0);
+        store.saveBlock(genesis, td(genesis), true);
+
+        List<AionBlock> main = new ArrayList<>();
+        AionBlock parent = genesis;
+        for (int i = 0; i < 3; i++) {
+            parent = block(parent, 0);
+            store.saveBlock(parent, td(parent), true);
+            main.add(parent);
+        }
+        checkIndexes(store);
+        assertThat(store.getChainBlockByNumber(2).getHash()).isEqualTo(main.get(1).getHash());
+
+        // a longer side chain becomes the main chain
+        List<AionBlock> side = new ArrayList<>();
+        parent = genesis;
+        for (int i = 0; i < 4; i++) {
+            parent = block(parent, 1);
+            store.saveBlock(parent, td(parent), false);
+            side.add(parent);
+        }
+        assertThat(store.getBlockHashByNumber(4)).isNull();
+        store.reBranch(parent);
+        checkIndexes(store);
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(store.getBlockHashByNumber(i + 1)).isEqualTo(side.get(i).getHash());
+        }
+        assertThat(store.getChainBlockByNumber(2).getHash()).isEqualTo(side.get(1).getHash());
+        assertThat(store.getChainBlockByNumberWithTotalDifficulty(3).getValue()).isEqualTo(td(side.get(2)));
+        assertThat(store.getTotalDifficultyForHash(main.get(2).getHash())).isEqualTo(td(main.get(2)));
+        assertThat(store.getTotalDifficulty()).isEqualTo(td(side.get(3)));
+        assertThat(store.getListHashesStartWith(1, 10).size()).isEqualTo(4);
+
+        // reverting removes the blocks above the level from the indexes
+        store.revert(2);
+        checkIndexes(store);
+        assertThat(store.getMaxNumber()).isEqualTo(2L);
+        assertThat(store.getBlockHashByNumber(3)).isNull();
+        assertThat(store.isBlockExist(main.get(2).getHash())).isFalse();
+        assertThat(store.isBlockExist(side.get(2).getHash())).isFalse();
+        assertThat(store.getTotalDifficultyForHash(side.get(3).getHash())).isEqualTo(BigInteger.ZERO);
+
+        // pruning removes the side chain and recomputes the total difficulties
+        store.pruneAndCorrect();
+        checkIndexes(store);
+        assertThat(store.isBlockExist(main.get(0).getHash())).isFalse();
+        assertThat(store.getBlockHashByNumber(2)).isEqualTo(side.get(1).getHash());
+        assertThat(store.getTotalDifficultyForHash(side.get(1).getHash())).isEqualTo(td(side.get(1)));
+    }
+
+    @Test
+    public void testMigration() {
+        AionBlockStore store = newStore();
+        AionBlock genesis = block(null, 0);
+        store.saveBlock(genesis, td(genesis), true);
+
+        List<AionBlock> blocks = new ArrayList<>();
+        AionBlock parent = genesis;
+        for (int i = 0; i < 20; i++) {
+            if (i % 5 == 0) {
+                AionBlock uncle = block(parent, 2);
+                store.saveBlock(uncle, td(uncle), false);
+                blocks.add(uncle);
+            }
+            parent = block(parent, 0);
+            store.saveBlock(parent, td(parent), true);
+            blocks.add(parent);
+        }
+        List<byte[]> hashes = new ArrayList<>();
+        for (long level = 0; level <= store.getMaxNumber(); level++) {
+            hashes.add(store.getBlockHashByNumber(level));
+        }
+
+        // a store written before the number and hash indexes
+        for (byte[] key : indexDatabase.keys()) {
+            if (key.length == 1 || key.length == 9 || key.length == 33) {
+                indexDatabase.delete(key);
+            }
+        }
+        assertThat(store.getBlockHashByNumber(5)).isNull();
+
+        AionBlockStore migrated = new AionBlockStore(indexDatabase, blockDatabase);
+        checkIndexes(migrated);
+        for (long level = 0; level <= migrated.getMaxNumber(); level++) {
+            assertThat(migrated.getBlockHashByNumber(level)).isEqualTo(hashes.get((int) level));
+        }
+        for (AionBlock block : blocks) {
+            assertThat(migrated.getTotalDifficultyForHash(block.getHash())).isEqualTo(td(block));
+        }
+        assertThat(migrated.getBestBlock().getHash()).isEqualTo(parent.getHash());
+    }
+
+    @Test
+    public void testMigrationWithMissingTopLevel() {
+        AionBlockStore store = newStore();
+        AionBlock parent = block(null, 0);
+        store.saveBlock(parent, td(parent), true);
+        List<AionBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            parent = block(parent, 0);
+            store.saveBlock(parent, td(parent), true);
+            blocks.add(parent);
+        }
+        long top = store.getMaxNumber();
+
+        // the entries pending when the last level is skipped must still be written
+        for (byte[] key : indexDatabase.keys()) {
+            if (key.length == 1 || key.length == 9 || key.length == 33) {
+                indexDatabase.delete(key);
+            }
+        }
+        indexDatabase.delete(ByteUtil.intToBytes((int) top));
+
+        AionBlockStore migrated = new AionBlockStore(indexDatabase, blockDatabase);
+        for (AionBlock block : blocks.subList(0, blocks.size() - 1)) {
+            assertThat(migrated.getBlockHashByNumber(block.getNumber())).isEqualTo(block.getHash());
+            assertThat(migrated.getTotalDifficultyForHash(block.getHash())).isEqualTo(td(block));
+        }
+        assertThat(migrated.getBlockHashByNumber(top)).isNull();
+    }
+
+    /* The lookups as they were done from the level records. */
+
+    private List<AionBlockStore.BlockInfo> legacyLevel(long level) {
+        return AionBlockStore.BLOCK_INFO_SERIALIZER.deserialize(
+                indexDatabase.get(ByteUtil.intToBytes((int) level)).get());
+    }
+
+    private byte[] legacyHashByNumber(long level) {
+        for (AionBlockStore.BlockInfo info : legacyLevel(level)) {
+            if (info.isMainChain()) {
+                return info.getHash();
+            }
+        }
+        return null;
+    }
+
+    private AionBlock legacyBlockByNumber(long level) {
+        return new AionBlock(blockDatabase.get(legacyHashByNumber(level)).get());
+    }
+
+    private BigInteger legacyTotalDifficulty(byte[] hash) {
+        AionBlock block = new AionBlock(blockDatabase.get(hash).get());
+        for (AionBlockStore.BlockInfo info : legacyLevel(block.getNumber())) {
+            if (Arrays.equals(info.getHash(), hash)) {
+                return info.getCummDifficulty();
+            }
+        }
+        return BigInteger.ZERO;
+    }
+
+    @Ignore
+    @Test
+    public void benchmarkLookups() {
+        int levels = 100_000;
+        int lookups = 200_000;
+
+        AionBlockStore store = newStore();
+        AionBlock parent = block(null, 0);
+        store.saveBlock(parent, td(parent), true);
+        for (int i = 1; i < levels; i++) {
+            AionBlock block = block(parent, 0);
+            store.saveBlock(block, td(block), true);
+            // forks on a tenth of the levels
+            if (i % 10 == 0) {
+                for (int f = 1; f <= 3; f++) {
+                    AionBlock uncle = block(parent, f);
+                    store.saveBlock(uncle, td(uncle), false);
+                }
+            }
+            parent = block;
+        }
+
+        long[] numbers = new long[lookups];
+        byte[][] hashes = new byte[lookups][];
+        Random random = new Random(1L);
+        for (int i = 0; i < lookups; i++) {
+            numbers[i] = random.nextInt(levels);
+            hashes[i] = store.getBlockHashByNumber(numbers[i]);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (long number : numbers) {
+                legacyHashByNumber(number);
+            }
+            long legacyHash = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (long number : numbers) {
+                store.getBlockHashByNumber(number);
+            }
+            long indexedHash = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] hash : hashes) {
+                legacyTotalDifficulty(hash);
+            }
+            long legacyTd = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] hash : hashes) {
+                store.getTotalDifficultyForHash(hash);
+            }
+            long indexedTd = System.nanoTime() - start;
+
+            // the block store part of eth_getBlockByNumber: the block, then its total difficulty
+            start = System.nanoTime();
+            for (long number : numbers) {
+                legacyTotalDifficulty(legacyBlockByNumber(number).getHash());
+            }
+            long legacyCall = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (long number : numbers) {
+                store.getTotalDifficultyForHash(store.getChainBlockByNumber(number).getHash());
+            }
+            long indexedCall = System.nanoTime() - start;
+
+            System.out.println("round " + round + ": hash by number lookups/s " + perSecond(lookups, legacyHash)
+                    + " -> " + perSecond(lookups, indexedHash) + ", total difficulty by hash lookups/s "
+                    + perSecond(lookups, legacyTd) + " -> " + perSecond(lookups, indexedTd)
+                    + ", by-number call latency ns " + legacyCall / lookups + " -> " + indexedCall / lookups);
+        }
+    }
+
+    private static long perSecond(int count, long nanos) {
+        return count * 1_000_000_000L / Math.max(1L, nanos);
+    }
+}
@@ -55,6 +55,8 @@ import org.aion.zero.impl.db.AionRepositoryImpl;
 import org.aion.zero.impl.db.ContractDetailsAion;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
 
@@ -332,4 +334,85 @@ public class AionRepositoryImplTest {
         repository.syncToRoot(root);
         assertThat(repository.getBalance(DOG_ACC)).isEqualTo(BigInteger.ONE);
     }
+
+    // keeps the storage of every contract in the storage database
+    private IRepositoryConfig externalStorageConfig = new IRepositoryConfig() {
+        @Override
+        public String getDbPath() {
+            return repoConfig.getDbPath();
+        }
+
+        @Override
+        public int getPrune() {
+            return repoConfig.getPrune();
+        }
+
+        @Override
+        public IContractDetails contractDetailsImpl() {
+            return ContractDetailsAion.createForTesting(0, 0).getDetails();
+        }
+
+        @Override
+        public Properties getDatabaseConfig(String db_name) {
+            return repoConfig.getDatabaseConfig(db_name);
+        }
+    };
+
+    private static List<DataWord> addStorage(AionRepositoryImpl repository, Address contract, int count) {
+        IRepositoryCache track = repository.startTracking();
+        track.createAccount(contract);
+        track.saveCode(contract, HashUtil.h256("code".getBytes()));
+        List<DataWord> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            DataWord key = new DataWord(HashUtil.blake128(BigInteger.valueOf(i).toByteArray()));
+            keys.add(key);
+            track.addStorageRow(contract, key, new DataWord(i + 1));
+        }
+        track.flush();
+        repository.flush();
+        return keys;
+    }
+
+    /**
+     * Storage prefetched ahead of execution is read by the details that the
+     * executor's tracks are loaded with without going to the storage database.
+     */
+    @Test
+    public void testPrefetchWarmsStorageOfLoadedDetails() {
+        AionRepositoryImpl repository = AionRepositoryImpl.createForTesting(externalStorageConfig);
+        Address contract = Address.wrap(HashUtil.h256("contract".getBytes()));
+        List<DataWord> keys = addStorage(repository, contract, 64);
+
+        repository.prefetch(contract, keys);
+        repository.getStorageDatabase().close();
+
+        IContractDetails<DataWord> details = repository.getContractDetails(contract);
+        for (int i = 0; i < keys.size(); i++) {
+            assertThat(details.get(keys.get(i))).isEqualTo(new DataWord(i + 1));
+        }
+    }
+
+    /**
+     * Storage values missing from a track are read from the flat state, so
+     * execution does not walk the storage trie.
+     */
+    @Test
+    public void testTrackStorageReadFromFlatState() {
+        AionRepositoryImpl repository = AionRepositoryImpl.createForTesting(externalStorageConfig);
+        Address contract = Address.wrap(HashUtil.h256("contract".getBytes()));
+        List<DataWord> keys = addStorage(repository, contract, 64);
+
+        // any read of the storage trie fails
+        repository.getStorageDatabase().close();
+
+        IRepositoryCache track = repository.startTracking();
+        IRepositoryCache nested = track.startTracking();
+        for (int i = 0; i < keys.size(); i++) {
+            assertThat(nested.getStorageValue(contract, keys.get(i))).isEqualTo(new DataWord(i + 1));
+        }
+
+        track.addStorageRow(contract, keys.get(0), new DataWord(100));
+        assertThat(track.getStorageValue(contract, keys.get(0))).isEqualTo(new DataWord(100));
+        assertThat(track.startTracking().getStorageValue(contract, keys.get(0))).isEqualTo(new DataWord(100));
+    }
 }
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteUtil;
+import org.aion.crypto.ECKey;
+import org.aion.crypto.HashUtil;
+import org.aion.mcf.core.ImportResult;
+import org.aion.mcf.db.AncientStore;
+import org.aion.mcf.db.TransactionStore;
+import org.aion.zero.impl.StandaloneBlockchain;
+import org.aion.zero.impl.types.AionBlock;
+import org.aion.zero.impl.types.AionTxInfo;
+import org.aion.zero.types.AionTransaction;
+import org.aion.zero.types.AionTxReceipt;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AncientBlockStoreTest {
+
+    private File dir;
+    private AncientStore ancient;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("ancient").toFile();
+    }
+
+    @After
+    public void teardown() {
+        if (ancient != null) {
+            ancient.close();
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static AionTransaction transfer(ECKey key, long nonce, int to) {
+        AionTransaction tx = new AionTransaction(BigInteger.valueOf(nonce).toByteArray(),
+                Address.wrap(HashUtil.h256(BigInteger.valueOf(to).toByteArray())), BigInteger.ONE.toByteArray(),
+                ByteUtil.EMPTY_BYTE_ARRAY, 21_000L, 1L);
+        tx.sign(key);
+        return tx;
+    }
+
+    private static AionBlock connect(StandaloneBlockchain bc, AionBlock parent, List<AionTransaction> txs,
+            ImportResult expected) {
+        AionBlock block = bc.createNewBlock(parent, txs, true);
+        assertThat(bc.tryToConnect(block)).isEqualTo(expected);
+        return block;
+    }
+
+    @Test
+    public void testFreeze() throws IOException {
+        StandaloneBlockchain.Bundle bundle = new StandaloneBlockchain.Builder()
+                .withValidatorConfiguration("simple")
+                .withDefaultAccounts()
+                .build();
+        StandaloneBlockchain bc = bundle.bc;
+        ECKey sender = bundle.privateKeys.get(0);
+
+        List<AionBlock> chain = new ArrayList<>();
+        List<AionTransaction> txs = new ArrayList<>();
+        chain.add(bc.getBestBlock());
+        AionBlock side = null;
+        for (int b = 1; b <= 30; b++) {
+            AionTransaction tx = transfer(sender, b - 1, b);
+            txs.add(tx);
+            AionBlock parent = chain.get(b - 1);
+            chain.add(connect(bc, parent, Collections.singletonList(tx), ImportResult.IMPORTED_BEST));
+            if (b == 10) {
+                side = connect(bc, parent, Collections.singletonList(transfer(sender, b - 1, 100)),
+                        ImportResult.IMPORTED_NOT_BEST);
+            }
+        }
+
+        AionBlockStore store = bc.getBlockStore();
+        TransactionStore<AionTransaction, AionTxReceipt, AionTxInfo> txStore = bc.getTransactionStore();
+        List<BigInteger> tds = new ArrayList<>();
+        for (AionBlock block : chain) {
+            tds.add(store.getTotalDifficultyForHash(block.getHash()));
+        }
+
+        ancient = new AncientStore(dir, AionBlockStore.ANCIENT_TABLES, 4096);
+        store.setAncientStore(ancient);
+        txStore.setAncientReceipts(store::getAncientReceipts);
+
+        List<byte[]> removed = store.freeze(20, txStore::getEncodedReceipts);
+        txStore.removeReceipts(removed);
+
+        // the main chain blocks of the levels and the side chain block were removed
+        assertThat(store.getFrozenSize()).isEqualTo(20L);
+        assertThat(removed.size()).isEqualTo(21);
+        assertThat(store.getBlockByHash(side.getHash())).isNull();
+        assertThat(txStore.getEncodedReceipts(chain.get(5).getHash())).isNull();
+
+        // all blocks are still read through the block store and the transaction store
+        for (int b = 0; b < chain.size(); b++) {
+            AionBlock block = chain.get(b);
+            assertThat(store.getChainBlockByNumber(b).getHash()).isEqualTo(block.getHash());
+            assertThat(store.getBlockByHash(block.getHash()).getEncoded()).isEqualTo(block.getEncoded());
+            assertThat(store.getEncodedBlockByHash(block.getHash())).isEqualTo(block.getEncoded());
+            assertThat(store.getBlockHashByNumber(b)).isEqualTo(block.getHash());
+            assertThat(store.getTotalDifficultyForHash(block.getHash())).isEqualTo(tds.get(b));
+            assertThat(store.getChainBlockByNumberWithTotalDifficulty(b).getValue()).isEqualTo(tds.get(b));
+            assertThat(store.getBlocksByNumber(b).size()).isEqualTo(1);
+            if (b > 0) {
+                AionTxInfo info = txStore.get(txs.get(b - 1).getHash(), block.getHash());
+                assertThat(info.getReceipt().isSuccessful()).isTrue();
+                assertThat(txStore.getReceipts(block.getHash()).size()).isEqualTo(1);
+            }
+        }
+        assertThat(store.getListHashesEndWith(bc.getBestBlock().getHash(), 31).size()).isEqualTo(31);
+        assertThat(store.getListHashesStartWith(15, 10).size()).isEqualTo(10);
+
+        // frozen levels cannot be reverted
+        store.revert(10);
+        assertThat(store.getMaxNumber()).isEqualTo(30L);
+        assertThat(RecoveryUtils.revertTo(bc, 10)).isEqualTo(RecoveryUtils.Status.ILLEGAL_ARGUMENT);
+
+        // new blocks are added on top of the frozen levels
+        connect(bc, bc.getBestBlock(), Collections.singletonList(transfer(sender, 30, 31)),
+                ImportResult.IMPORTED_BEST);
+        assertThat(store.getMaxNumber()).isEqualTo(31L);
+
+        // the levels above the frozen ones can still be reverted and frozen later
+        assertThat(RecoveryUtils.revertTo(bc, 25)).isEqualTo(RecoveryUtils.Status.SUCCESS);
+        store.freeze(25, txStore::getEncodedReceipts);
+        assertThat(store.getFrozenSize()).isEqualTo(25L);
+        assertThat(store.getBestBlock().getHash()).isEqualTo(chain.get(25).getHash());
+    }
+
+    @Test
+    public void testResumeInterruptedFreeze() throws IOException {
+        StandaloneBlockchain.Bundle bundle = new StandaloneBlockchain.Builder()
+                .withValidatorConfiguration("simple")
+                .withDefaultAccounts()
+                .build();
+        StandaloneBlockchain bc = bundle.bc;
+        for (int b = 1; b <= 10; b++) {
+            connect(bc, bc.getBestBlock(), Collections.emptyList(), ImportResult.IMPORTED_BEST);
+        }
+        AionBlockStore store = bc.getBlockStore();
+        byte[] hash = store.getBlockHashByNumber(3);
+
+        // the ancient store got the levels but the databases were not changed
+        ancient = new AncientStore(dir, AionBlockStore.ANCIENT_TABLES, 4096);
+        for (long level = 0; level < 5; level++) {
+            AionBlock block = store.getChainBlockByNumber(level);
+            ancient.append(level, block.getHash(), block.getEncoded(),
+                    store.getTotalDifficultyForHash(block.getHash()).toByteArray(), ByteUtil.EMPTY_BYTE_ARRAY);
+        }
+        store.setAncientStore(ancient);
+
+        // the next freeze removes them from the databases
+        List<byte[]> removed = store.freeze(6, h -> null);
+        assertThat(removed.size()).isEqualTo(6);
+        assertThat(store.getFrozenSize()).isEqualTo(6L);
+        assertThat(store.getBlockByHash(hash).getNumber()).isEqualTo(3L);
+        assertThat(store.getAncientReceipts(hash)).isNull();
+    }
+}
@@ -0,0 +1,424 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.db.IByteArrayKeyValueDatabase;
+import org.aion.base.db.IContractDetails;
+import org.aion.base.db.IRepositoryCache;
+import org.aion.base.type.Address;
+import org.aion.crypto.HashUtil;
+import org.aion.db.impl.DBVendor;
+import org.aion.db.impl.mockdb.MockDB;
+import org.aion.mcf.core.AccountState;
+import org.aion.mcf.vm.types.DataWord;
+import org.aion.zero.impl.MockRepositoryConfig;
+import org.aion.zero.types.A0BlockHeader;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.crypto.HashUtil.EMPTY_TRIE_HASH;
+
+public class FlatStateStoreTest {
+
+    private static final int STORAGE_KEYS = 8;
+
+    private final List<Address> accounts = new ArrayList<>();
+    private final List<Address> contracts = new ArrayList<>();
+
+    public FlatStateStoreTest() {
+        for (int i = 0; i < 16; i++) {
+            accounts.add(address(i + 1));
+        }
+        for (int i = 0; i < 4; i++) {
+            contracts.add(address(0x100 + i));
+        }
+    }
+
+    private static Address address(int value) {
+        return Address.wrap(HashUtil.h256(BigInteger.valueOf(value).toByteArray()));
+    }
+
+    private static byte[] root(int value) {
+        return HashUtil.h256(new byte[] { (byte) value });
+    }
+
+    private static void commitBlock(AionRepositoryImpl repository) throws Exception {
+        repository.commitBlock(new A0BlockHeader.Builder().withStateRoot(repository.getRoot()).build());
+    }
+
+    private AionRepositoryImpl newRepository() throws Exception {
+        AionRepositoryImpl repository = AionRepositoryImpl.createForTesting(new MockRepositoryConfig(DBVendor.MOCKDB));
+
+        IRepositoryCache track = repository.startTracking();
+        for (Address account : accounts) {
+            track.createAccount(account);
+            track.addBalance(account, BigInteger.valueOf(1_000_000L));
+        }
+        for (Address contract : contracts) {
+            track.createAccount(contract);
+            track.saveCode(contract, contract.toBytes());
+        }
+        track.flush();
+        commitBlock(repository);
+        return repository;
+    }
+
+    /** Applies a block of random account and storage updates, one flush per transaction. */
+    private void applyBlock(AionRepositoryImpl repository, Random random) throws Exception {
+        for (int tx = 0; tx < 10; tx++) {
+            IRepositoryCache track = repository.startTracking();
+
+            Address account = accounts.get(random.nextInt(accounts.size()));
+            if (random.nextInt(20) == 0) {
+                track.deleteAccount(account);
+            } else {
+                track.incrementNonce(account);
+                track.addBalance(account, BigInteger.valueOf(random.nextInt(1000)));
+            }
+
+            Address contract = contracts.get(random.nextInt(contracts.size()));
+            for (int i = 0; i < 3; i++) {
+                DataWord key = new DataWord(random.nextInt(STORAGE_KEYS));
+                int value = random.nextInt(4) == 0 ? 0 : random.nextInt(1000) + 1;
+                track.addStorageRow(contract, key, new DataWord(value));
+            }
+            track.flush();
+        }
+        commitBlock(repository);
+    }
+
+    /** Checks the flat state at the repository root against the tries. */
+    private void assertMatchesTrie(AionRepositoryImpl repository) {
+        byte[] root = repository.getRoot();
+        FlatStateStore flatState = repository.getFlatState();
+        assertThat(flatState.contains(root)).isTrue();
+
+        List<Address> addresses = new ArrayList<>(accounts);
+        addresses.addAll(contracts);
+        for (Address address : addresses) {
+            byte[] expected = repository.getWorldState().get(address.toBytes());
+            assertThat(flatState.getAccount(root, address)).isEqualTo(expected);
+
+            AccountState account = repository.getAccountState(address);
+            if (expected.length == 0) {
+                assertThat(account).isNull();
+            } else {
+                assertThat(account.getEncoded()).isEqualTo(expected);
+            }
+        }
+
+        for (Address contract : contracts) {
+            IContractDetails<DataWord> details = repository.getContractDetails(contract);
+            for (int i = 0; i < STORAGE_KEYS; i++) {
+                DataWord key = new DataWord(i);
+                DataWord expected = details.get(key);
+
+                byte[] flat = flatState.getStorage(root, contract, key);
+                assertThat(flat).isEqualTo(expected.isZero() ? new byte[0] : expected.getData());
+                assertThat(repository.getStorageValue(contract, key)).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void testReadsMatchTrie() throws Exception {
+        AionRepositoryImpl repository = newRepository();
+        assertMatchesTrie(repository);
+
+        Random random = new Random(1L);
+        for (int block = 0; block < 20; block++) {
+            applyBlock(repository, random);
+            assertMatchesTrie(repository);
+        }
+        assertThat(repository.getFlatState().getLayerCount()).isEqualTo(21);
+    }
+
+    @Test
+    public void testForkReads() throws Exception {
+        AionRepositoryImpl repository = newRepository();
+        Random random = new Random(2L);
+        for (int block = 0; block < 5; block++) {
+            applyBlock(repository, random);
+        }
+        byte[] forkRoot = repository.getRoot();
+
+        List<byte[]> roots = new ArrayList<>();
+        for (int branch = 0; branch < 2; branch++) {
+            repository.setRoot(forkRoot);
+            for (int block = 0; block < 4; block++) {
+                applyBlock(repository, random);
+                roots.add(repository.getRoot());
+            }
+        }
+
+        // both branches are readable through snapshots of the repository
+        for (byte[] root : roots) {
+            assertMatchesTrie((AionRepositoryImpl) repository.getSnapshotTo(root));
+        }
+    }
+
+    @Test
+    public void testPendingUpdates() throws Exception {
+        AionRepositoryImpl repository = newRepository();
+
+        IRepositoryCache track = repository.startTracking();
+        track.addBalance(accounts.get(0), BigInteger.TEN);
+        track.addStorageRow(contracts.get(0), new DataWord(1), new DataWord(7));
+        track.flush();
+
+        // the flat state does not know the current root before the block is committed
+        assertThat(repository.getFlatState().contains(repository.getRoot())).isFalse();
+        assertThat(repository.getBalance(accounts.get(0))).isEqualTo(BigInteger.valueOf(1_000_010L));
+        assertThat(repository.getStorageValue(contracts.get(0), new DataWord(1))).isEqualTo(new DataWord(7));
+
+        commitBlock(repository);
+        assertMatchesTrie(repository);
+    }
+
+    private static void awaitGeneration(FlatStateStore flatState) throws InterruptedException {
+        for (int i = 0; i < 500 && flatState.isGenerating(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(flatState.isGenerating()).isFalse();
+    }
+
+    @Test
+    public void testRegenerateAfterUnknownParent() throws Exception {
+        AionRepositoryImpl repository = newRepository();
+        Random random = new Random(3L);
+        for (int block = 0; block < 5; block++) {
+            applyBlock(repository, random);
+        }
+
+        // a root the flat state never saw, like one set by state sync
+        IRepositoryCache track = repository.startTracking();
+        track.addStorageRow(contracts.get(1), new DataWord(1), new DataWord(42));
+        track.addBalance(accounts.get(1), BigInteger.ONE);
+        track.flush();
+        repository.syncToRoot(repository.getRoot());
+
+        applyBlock(repository, random);
+
+        awaitGeneration(repository.getFlatState());
+        assertThat(repository.getFlatState().getDiskRoot()).isEqualTo(repository.getRoot());
+        assertMatchesTrie(repository);
+
+        for (int block = 0; block < 5; block++) {
+            applyBlock(repository, random);
+            assertMatchesTrie(repository);
+        }
+    }
+
+    @Test
+    public void testGenerateAfterStateSync() throws Exception {
+        AionRepositoryImpl repository = newRepository();
+        Random random = new Random(4L);
+        for (int block = 0; block < 5; block++) {
+            applyBlock(repository, random);
+        }
+
+        // state written to the tries only, as by state sync
+        IRepositoryCache track = repository.startTracking();
+        track.addStorageRow(contracts.get(2), new DataWord(2), new DataWord(43));
+        track.flush();
+        repository.syncToRoot(repository.getRoot());
+
+        repository.generateFlatState();
+        awaitGeneration(repository.getFlatState());
+        assertThat(repository.getFlatState().getDiskRoot()).isEqualTo(repository.getRoot());
+        assertMatchesTrie(repository);
+
+        // the held root is not generated again
+        repository.generateFlatState();
+        assertThat(repository.getFlatState().isGenerating()).isFalse();
+
+        for (Address contract : contracts) {
+            assertThat(repository.getContractAddress(HashUtil.h256(contract.toBytes()))).isEqualTo(contract);
+        }
+        assertThat(repository.getContractAddress(HashUtil.h256(address(0x200).toBytes()))).isNull();
+    }
+
+    @Test
+    public void testDeletedContractStorage() throws Exception {
+        AionRepositoryImpl repository = newRepository();
+        Address contract = contracts.get(0);
+
+        IRepositoryCache track = repository.startTracking();
+        for (int i = 0; i < STORAGE_KEYS; i++) {
+            track.addStorageRow(contract, new DataWord(i), new DataWord(i + 1));
+        }
+        track.flush();
+        commitBlock(repository);
+
+        track = repository.startTracking();
+        track.deleteAccount(contract);
+        track.flush();
+        commitBlock(repository);
+
+        // created again at the same address, like with CREATE2
+        track = repository.startTracking();
+        track.createAccount(contract);
+        track.saveCode(contract, contract.toBytes());
+        track.addStorageRow(contract, new DataWord(0), new DataWord(100));
+        track.flush();
+        commitBlock(repository);
+        byte[] recreated = repository.getRoot();
+
+        // flatten the deletion into the disk layer
+        for (int block = 0; block < FlatStateStore.DEFAULT_MAX_LAYERS; block++) {
+            track = repository.startTracking();
+            track.incrementNonce(accounts.get(0));
+            track.flush();
+            commitBlock(repository);
+        }
+        FlatStateStore flatState = repository.getFlatState();
+        assertThat(flatState.getDiskRoot()).isEqualTo(recreated);
+
+        assertThat(repository.getStorageValue(contract, new DataWord(0))).isEqualTo(new DataWord(100));
+        for (int i = 1; i < STORAGE_KEYS; i++) {
+            assertThat(flatState.getStorage(recreated, contract, new DataWord(i))).isEqualTo(new byte[0]);
+            assertThat(repository.getStorageValue(contract, new DataWord(i))).isEqualTo(DataWord.ZERO);
+        }
+        assertMatchesTrie(repository);
+    }
+
+    @Test
+    public void testFlattenAndReload() {
+        IByteArrayKeyValueDatabase database = new MockDB("snapshot");
+        database.open();
+        FlatStateStore store = new FlatStateStore(database, true, null, 2);
+
+        Address account = address(1);
+        DataWord key = new DataWord(1);
+
+        FlatStateStore.Diff diff = new FlatStateStore.Diff();
+        diff.putAccount(account, new byte[] { 1 });
+        diff.putStorage(account, key, new DataWord(1));
+        assertThat(store.commit(EMPTY_TRIE_HASH, root(1), diff)).isTrue();
+
+        diff = new FlatStateStore.Diff();
+        diff.putAccount(account, new byte[] { 2 });
+        assertThat(store.commit(root(1), root(2), diff)).isTrue();
+
+        // sibling of root 2
+        diff = new FlatStateStore.Diff();
+        diff.putAccount(account, new byte[] { 22 });
+        assertThat(store.commit(root(1), root(22), diff)).isTrue();
+
+        diff = new FlatStateStore.Diff();
+        diff.putStorage(account, key, DataWord.ZERO);
+        assertThat(store.commit(root(2), root(3), diff)).isTrue();
+        assertThat(store.getDiskRoot()).isEqualTo(root(1));
+        assertThat(store.contains(root(22))).isTrue();
+
+        diff = new FlatStateStore.Diff();
+        diff.deleteAccount(account);
+        assertThat(store.commit(root(3), root(4), diff)).isTrue();
+
+        // root 1 was written to disk and root 2 followed, leaving its sibling unreachable
+        assertThat(store.getDiskRoot()).isEqualTo(root(2));
+        assertThat(store.contains(root(1))).isFalse();
+        assertThat(store.contains(root(22))).isFalse();
+        assertThat(store.getLayerCount()).isEqualTo(2);
+
+        // unknown parents and known roots are not added
+        assertThat(store.commit(root(1), root(5), new FlatStateStore.Diff())).isFalse();
+        assertThat(store.commit(root(3), root(4), new FlatStateStore.Diff())).isFalse();
+
+        for (FlatStateStore flatState : new FlatStateStore[] { store, new FlatStateStore(database, false, null, 2) }) {
+            assertThat(flatState.getDiskRoot()).isEqualTo(root(2));
+            assertThat(flatState.getLayerCount()).isEqualTo(2);
+
+            assertThat(flatState.getAccount(root(2), account)).isEqualTo(new byte[] { 2 });
+            assertThat(flatState.getStorage(root(2), account, key)).isEqualTo(new DataWord(1).getData());
+            assertThat(flatState.getAccount(root(3), account)).isEqualTo(new byte[] { 2 });
+            assertThat(flatState.getStorage(root(3), account, key)).isEqualTo(new byte[0]);
+            assertThat(flatState.getAccount(root(4), account)).isEqualTo(new byte[0]);
+            assertThat(flatState.getAccount(root(1), account)).isNull();
+        }
+    }
+
+    @Test
+    public void testExistingStateWithoutSnapshot() {
+        IByteArrayKeyValueDatabase database = new MockDB("snapshot");
+        database.open();
+        FlatStateStore store = new FlatStateStore(database, false, null);
+
+        assertThat(store.getDiskRoot()).isNull();
+        assertThat(store.getAccount(EMPTY_TRIE_HASH, address(1))).isNull();
+        assertThat(store.commit(EMPTY_TRIE_HASH, root(1), new FlatStateStore.Diff())).isFalse();
+    }
+
+    @Test
+    public void testGenerateExistingState() throws Exception {
+        IByteArrayKeyValueDatabase database = new MockDB("snapshot");
+        database.open();
+
+        Address account = address(1);
+        DataWord key = new DataWord(1);
+        AtomicInteger scans = new AtomicInteger();
+        FlatStateStore store = new FlatStateStore(database, false, (root, writer) -> {
+            // the first scan fails like on a pruned node
+            if (scans.getAndIncrement() == 0) {
+                throw new RuntimeException("Not found");
+            }
+            byte[] accountKey = HashUtil.h256(account.toBytes());
+            writer.putAccount(accountKey, root);
+            writer.putStorage(accountKey, HashUtil.h256(key.getData()), new byte[] { 7 });
+        }, 2);
+
+        assertThat(store.commit(EMPTY_TRIE_HASH, root(1), new FlatStateStore.Diff())).isFalse();
+        assertThat(store.getAccount(root(1), account)).isNull();
+        for (int i = 0; i < 500 && !store.isGenerationFailed(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(store.isGenerationFailed()).isTrue();
+        assertThat(store.isGenerating()).isTrue();
+
+        // the next block restarts the failed generation at its root
+        assertThat(store.commit(root(1), root(2), new FlatStateStore.Diff())).isFalse();
+        FlatStateStore.Diff diff = new FlatStateStore.Diff();
+        diff.putAccount(account, new byte[] { 3 });
+        assertThat(store.commit(root(2), root(3), diff)).isTrue();
+        awaitGeneration(store);
+
+        assertThat(store.getDiskRoot()).isEqualTo(root(2));
+        assertThat(store.getAccount(root(2), account)).isEqualTo(root(2));
+        assertThat(store.getStorage(root(2), account, key)).isEqualTo(new DataWord(7).getData());
+        assertThat(store.getAccount(root(3), account)).isEqualTo(new byte[] { 3 });
+        assertThat(store.getAccount(root(2), address(2))).isEqualTo(new byte[0]);
+
+        FlatStateStore reloaded = new FlatStateStore(database, false, null, 2);
+        assertThat(reloaded.contains(root(3))).isTrue();
+        assertThat(reloaded.getStorage(root(3), account, key)).isEqualTo(new DataWord(7).getData());
+        store.close();
+    }
+}
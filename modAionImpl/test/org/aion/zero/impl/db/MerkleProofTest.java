@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.db.IRepositoryCache;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteUtil;
+import org.aion.crypto.HashUtil;
+import org.aion.db.impl.DBVendor;
+import org.aion.mcf.core.AccountState;
+import org.aion.mcf.core.ImportResult;
+import org.aion.mcf.trie.TrieImpl;
+import org.aion.mcf.vm.types.DataWord;
+import org.aion.rlp.RLP;
+import org.aion.zero.impl.MockRepositoryConfig;
+import org.aion.zero.impl.StandaloneBlockchain;
+import org.aion.zero.impl.types.AionBlock;
+import org.aion.zero.impl.types.AionTxInfo;
+import org.aion.zero.types.AionTransaction;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.crypto.HashUtil.EMPTY_TRIE_HASH;
+
+public class MerkleProofTest {
+
+    private static Address address(int value) {
+        return Address.wrap(HashUtil.h256(BigInteger.valueOf(value).toByteArray()));
+    }
+
+    private static AccountState verifyAccount(byte[] root, Address address, List<byte[]> proof) {
+        byte[] encoded = TrieImpl.verifyProof(root, HashUtil.h256(address.toBytes()), proof);
+        assertThat(encoded).isNotNull();
+        return encoded.length == 0 ? null : new AccountState(encoded);
+    }
+
+    private AionRepositoryImpl newRepository(int accounts) {
+        AionRepositoryImpl repository = AionRepositoryImpl.createForTesting(new MockRepositoryConfig(DBVendor.MOCKDB));
+        IRepositoryCache track = repository.startTracking();
+        for (int i = 0; i < accounts; i++) {
+            track.createAccount(address(i));
+            track.addBalance(address(i), BigInteger.valueOf(1000 + i));
+        }
+        track.flush();
+        repository.flush();
+        return repository;
+    }
+
+    @Test
+    public void testAccountProof() {
+        AionRepositoryImpl repository = newRepository(64);
+        byte[] root = repository.getRoot();
+
+        for (int i = 0; i < 64; i++) {
+            List<byte[]> proof = repository.getAccountProof(address(i), root);
+            assertThat(proof).isNotNull();
+            assertThat(proof.isEmpty()).isFalse();
+
+            AccountState account = verifyAccount(root, address(i), proof);
+            assertThat(account.getBalance()).isEqualTo(BigInteger.valueOf(1000 + i));
+        }
+
+        // absence of an account
+        List<byte[]> proof = repository.getAccountProof(address(1000), root);
+        assertThat(verifyAccount(root, address(1000), proof)).isNull();
+    }
+
+    @Test
+    public void testOldRoot() {
+        AionRepositoryImpl repository = newRepository(32);
+        byte[] old = repository.getRoot();
+
+        IRepositoryCache track = repository.startTracking();
+        for (int i = 0; i < 32; i++) {
+            track.addBalance(address(i), BigInteger.ONE);
+        }
+        track.flush();
+        repository.flush();
+        byte[] root = repository.getRoot();
+        assertThat(root).isNotEqualTo(old);
+
+        for (int i = 0; i < 32; i++) {
+            assertThat(verifyAccount(old, address(i), repository.getAccountProof(address(i), old)).getBalance())
+                    .isEqualTo(BigInteger.valueOf(1000 + i));
+            assertThat(verifyAccount(root, address(i), repository.getAccountProof(address(i), root)).getBalance())
+                    .isEqualTo(BigInteger.valueOf(1001 + i));
+        }
+
+        // unknown root
+        assertThat(repository.getAccountProof(address(0), HashUtil.h256(old))).isNull();
+    }
+
+    @Test
+    public void testTamperedProof() {
+        AionRepositoryImpl repository = newRepository(64);
+        byte[] root = repository.getRoot();
+        List<byte[]> proof = repository.getAccountProof(address(7), root);
+
+        for (int i = 0; i < proof.size(); i++) {
+            List<byte[]> tampered = new ArrayList<>(proof);
+            byte[] node = tampered.get(i).clone();
+            node[node.length - 1] ^= 1;
+            tampered.set(i, node);
+            assertThat(TrieImpl.verifyProof(root, HashUtil.h256(address(7).toBytes()), tampered)).isNull();
+        }
+
+        // a missing node
+        List<byte[]> truncated = new ArrayList<>(proof.subList(0, proof.size() - 1));
+        assertThat(TrieImpl.verifyProof(root, HashUtil.h256(address(7).toBytes()), truncated)).isNull();
+    }
+
+    @Test
+    public void testStorageProof() {
+        AionRepositoryImpl repository = newRepository(4);
+        Address contract = address(0x100);
+
+        IRepositoryCache track = repository.startTracking();
+        track.createAccount(contract);
+        track.saveCode(contract, new byte[] { 0x60, 0x00 });
+        for (int i = 1; i <= 32; i++) {
+            track.addStorageRow(contract, new DataWord(i), new DataWord(i * 7));
+        }
+        track.flush();
+        repository.flush();
+
+        byte[] root = repository.getRoot();
+        AccountState account = verifyAccount(root, contract, repository.getAccountProof(contract, root));
+        byte[] storageRoot = account.getStateRoot();
+        assertThat(storageRoot).isNotEqualTo(EMPTY_TRIE_HASH);
+
+        for (int i = 1; i <= 33; i++) {
+            DataWord key = new DataWord(i);
+            List<byte[]> proof = repository.getStorageProof(contract, storageRoot, key);
+            assertThat(proof).isNotNull();
+
+            byte[] value = TrieImpl.verifyProof(storageRoot, HashUtil.h256(key.getData()), proof);
+            assertThat(value).isNotNull();
+            if (i <= 32) {
+                assertThat(new DataWord(RLP.decode2(value).get(0).getRLPData())).isEqualTo(new DataWord(i * 7));
+            } else {
+                assertThat(value).isEmpty();
+            }
+        }
+
+        // accounts without storage
+        assertThat(repository.getStorageProof(address(0), EMPTY_TRIE_HASH, new DataWord(1)).size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testReceiptProof() {
+        StandaloneBlockchain.Bundle bundle = (new StandaloneBlockchain.Builder())
+                .withValidatorConfiguration("simple")
+                .withDefaultAccounts()
+                .build();
+        StandaloneBlockchain bc = bundle.bc;
+
+        List<AionTransaction> txs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            AionTransaction tx = new AionTransaction(BigInteger.valueOf(i).toByteArray(), address(i),
+                    BigInteger.valueOf(100).toByteArray(), ByteUtil.EMPTY_BYTE_ARRAY, 21_000L, 1L);
+            tx.sign(bundle.privateKeys.get(0));
+            txs.add(tx);
+        }
+        AionBlock block = bc.createNewBlock(bc.getBestBlock(), txs, true);
+        assertThat(bc.tryToConnect(block)).isEqualTo(ImportResult.IMPORTED_BEST);
+        assertThat(block.getTransactionsList().size()).isEqualTo(20);
+
+        for (int i = 0; i < 20; i++) {
+            AionTxInfo info = bc.getTransactionInfo(txs.get(i).getHash());
+            List<byte[]> proof = bc.getReceiptProof(block.getHash(), info.getIndex());
+            assertThat(proof).isNotNull();
+
+            byte[] value = TrieImpl.verifyProof(block.getReceiptsRoot(), RLP.encodeInt(info.getIndex()), proof);
+            assertThat(value).isEqualTo(info.getReceipt().getReceiptTrieEncoded());
+        }
+
+        // unknown block
+        assertThat(bc.getReceiptProof(HashUtil.h256(block.getHash()), 0)).isNull();
+    }
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PendingTxJournalTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+        file = new File(dir, "pendingtx.journal");
+    }
+
+    @After
+    public void teardown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static byte[] hash(int i) {
+        byte[] hash = new byte[32];
+        Arrays.fill(hash, (byte) i);
+        hash[0] = (byte) (i >> 8);
+        return hash;
+    }
+
+    private static byte[] tx(int i, int size) {
+        byte[] tx = new byte[size];
+        Arrays.fill(tx, (byte) (i * 7));
+        return tx;
+    }
+
+    private static Map<byte[], byte[]> txs(int from, int to, int size) {
+        Map<byte[], byte[]> txs = new LinkedHashMap<>();
+        for (int i = from; i < to; i++) {
+            txs.put(hash(i), tx(i, size));
+        }
+        return txs;
+    }
+
+    private static Set<byte[]> hashes(int from, int to) {
+        Set<byte[]> hashes = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            hashes.add(hash(i));
+        }
+        return hashes;
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        PendingTxJournal journal = new PendingTxJournal(file);
+        assertThat(journal.isCreated()).isTrue();
+
+        journal.add(txs(0, 10, 100), true);
+        journal.add(txs(10, 15, 100), false);
+        journal.remove(hashes(0, 4), true);
+        journal.remove(hashes(10, 11), false);
+        journal.flush();
+        journal.close();
+
+        journal = new PendingTxJournal(file);
+        assertThat(journal.isCreated()).isFalse();
+
+        List<byte[]> pool = journal.getPoolTx();
+        assertThat(pool.size()).isEqualTo(6);
+        for (int i = 0; i < pool.size(); i++) {
+            assertThat(pool.get(i)).isEqualTo(tx(i + 4, 100));
+        }
+        assertThat(journal.getCacheTx().size()).isEqualTo(4);
+        journal.close();
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        PendingTxJournal journal = new PendingTxJournal(file);
+        journal.add(txs(0, 3, 100), true);
+        int end = journal.size();
+        journal.add(txs(3, 4, 100), true);
+        journal.flush();
+        journal.close();
+
+        // corrupt the payload of the last record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(end + 50);
+            raf.write(0xff);
+        }
+
+        journal = new PendingTxJournal(file);
+        assertThat(journal.getPoolTx().size()).isEqualTo(3);
+
+        // records appended after the torn one are replayed
+        journal.add(txs(5, 6, 10), true);
+        journal.flush();
+        journal.close();
+
+        journal = new PendingTxJournal(file);
+        List<byte[]> pool = journal.getPoolTx();
+        assertThat(pool.size()).isEqualTo(4);
+        assertThat(pool.get(3)).isEqualTo(tx(5, 10));
+        journal.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        PendingTxJournal journal = new PendingTxJournal(file);
+
+        // add and remove more than the compaction threshold
+        for (int round = 0; round < 40; round++) {
+            journal.add(txs(0, 200, 1000), true);
+            journal.remove(hashes(0, 200), true);
+        }
+        journal.add(txs(1000, 1010, 1000), true);
+        journal.add(txs(2000, 2005, 500), false);
+        journal.remove(Collections.singleton(hash(1000)), true);
+
+        int before = journal.size();
+        journal.flush();
+        assertThat(journal.size()).isLessThan(before);
+        assertThat(journal.size()).isLessThan(20_000);
+
+        journal.add(txs(3000, 3001, 100), true);
+        journal.flush();
+        journal.close();
+
+        journal = new PendingTxJournal(file);
+        List<byte[]> pool = journal.getPoolTx();
+        assertThat(pool.size()).isEqualTo(10);
+        assertThat(pool.get(0)).isEqualTo(tx(1001, 1000));
+        assertThat(pool.get(9)).isEqualTo(tx(3000, 100));
+        assertThat(journal.getCacheTx().size()).isEqualTo(5);
+        journal.close();
+    }
+}
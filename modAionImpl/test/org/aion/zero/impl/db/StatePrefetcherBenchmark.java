@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.db.IContractDetails;
+import org.aion.base.db.IRepositoryCache;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteUtil;
+import org.aion.crypto.ECKey;
+import org.aion.crypto.HashUtil;
+import org.aion.db.impl.DBVendor;
+import org.aion.mcf.core.ImportResult;
+import org.aion.mcf.vm.types.DataWord;
+import org.aion.vm.TransactionExecutor;
+import org.aion.zero.impl.db.ContractDetailsAion;
+import org.aion.zero.impl.MockRepositoryConfig;
+import org.aion.zero.impl.StandaloneBlockchain;
+import org.aion.zero.impl.types.AionBlock;
+import org.aion.zero.types.AionTransaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Replays blocks on cold state caches with and without prefetching. Each
+ * replay runs on a fresh snapshot of the parent state, which starts with an
+ * empty world state trie cache and reads the nodes from the database.
+ */
+public class StatePrefetcherBenchmark {
+
+    private static final int ACCOUNTS = 4_000;
+    private static final int TXS_PER_BLOCK = 200;
+    private static final int BLOCKS = 20;
+
+    private static final int CONTRACTS = 20;
+    private static final int SLOTS = 10_000;
+    private static final int READS_PER_TX = 4;
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("prefetch").toFile();
+    }
+
+    @After
+    public void teardown() {
+        deleteRecursively(dir);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteRecursively(f);
+            }
+        }
+        file.delete();
+    }
+
+    private static AionTransaction transfer(ECKey key, long nonce, int to) {
+        AionTransaction tx = new AionTransaction(BigInteger.valueOf(nonce).toByteArray(),
+                Address.wrap(HashUtil.h256(BigInteger.valueOf(to).toByteArray())), BigInteger.ONE.toByteArray(),
+                ByteUtil.EMPTY_BYTE_ARRAY, 21_000L, 1L);
+        tx.sign(key);
+        return tx;
+    }
+
+    private static long replay(AionRepositoryImpl repository, AionBlock parent, AionBlock block,
+            StatePrefetcher prefetcher) {
+        AionRepositoryImpl snapshot = (AionRepositoryImpl) repository.getSnapshotTo(parent.getStateRoot());
+
+        long start = System.nanoTime();
+        StatePrefetcher.Prefetch prefetch = prefetcher.prefetch(snapshot, block);
+        for (AionTransaction tx : block.getTransactionsList()) {
+            IRepositoryCache track = snapshot.startTracking();
+            new TransactionExecutor(tx, block, track).execute();
+            track.flush();
+        }
+        prefetch.cancel();
+        return System.nanoTime() - start;
+    }
+
+    @Ignore
+    @Test
+    public void benchmarkColdReplay() {
+        StandaloneBlockchain.Bundle bundle = new StandaloneBlockchain.Builder()
+                .withValidatorConfiguration("simple")
+                .withDefaultAccounts()
+                .withRepoConfig(new MockRepositoryConfig(DBVendor.LEVELDB) {
+                    @Override
+                    public String getDbPath() {
+                        return dir.getAbsolutePath();
+                    }
+                })
+                .build();
+        StandaloneBlockchain bc = bundle.bc;
+        ECKey sender = bundle.privateKeys.get(0);
+
+        // fill the state, then transfer to random existing accounts
+        long nonce = 0;
+        AionBlock parent = bc.getBestBlock();
+        Random random = new Random(0);
+        List<AionBlock> chain = new ArrayList<>();
+        for (int b = 0; b < ACCOUNTS / TXS_PER_BLOCK + BLOCKS; b++) {
+            List<AionTransaction> txs = new ArrayList<>();
+            for (int i = 0; i < TXS_PER_BLOCK; i++) {
+                int to = b * TXS_PER_BLOCK < ACCOUNTS ? b * TXS_PER_BLOCK + i : random.nextInt(ACCOUNTS);
+                txs.add(transfer(sender, nonce++, to));
+            }
+            AionBlock block = bc.createNewBlock(parent, txs, true);
+            assertThat(bc.tryToConnect(block)).isEqualTo(ImportResult.IMPORTED_BEST);
+            chain.add(block);
+            parent = block;
+        }
+        bc.getRepository().flush();
+
+        AionRepositoryImpl repository = (AionRepositoryImpl) bc.getRepository();
+        StatePrefetcher none = new StatePrefetcher(0);
+        StatePrefetcher prefetcher = new StatePrefetcher(4);
+        long withoutPrefetch = 0;
+        long withPrefetch = 0;
+        for (int b = chain.size() - BLOCKS; b < chain.size(); b++) {
+            AionBlock block = chain.get(b);
+            // alternate the order, so neither replay always reads after the other
+            if (b % 2 == 0) {
+                withoutPrefetch += replay(repository, chain.get(b - 1), block, none);
+                withPrefetch += replay(repository, chain.get(b - 1), block, prefetcher);
+            } else {
+                withPrefetch += replay(repository, chain.get(b - 1), block, prefetcher);
+                withoutPrefetch += replay(repository, chain.get(b - 1), block, none);
+            }
+        }
+        prefetcher.shutdown();
+
+        System.out.println("cold replay of " + BLOCKS + " blocks of " + TXS_PER_BLOCK + " transfers:");
+        System.out.println("  without prefetching: " + withoutPrefetch / 1_000_000 + " ms");
+        System.out.println("  with prefetching:    " + withPrefetch / 1_000_000 + " ms");
+    }
+
+    /**
+     * Reads the storage keys of the given transactions through tracks of a
+     * fresh snapshot, as the executor does, while the prefetching threads load
+     * them through {@link AionRepositoryImpl#prefetch}.
+     */
+    private static long replayStorage(AionRepositoryImpl repository, List<Map.Entry<Address, List<DataWord>>> txs,
+            ExecutorService workers, int threads) {
+        AionRepositoryImpl snapshot = (AionRepositoryImpl) repository.getSnapshotTo(repository.getRoot());
+
+        long start = System.nanoTime();
+        for (int t = 0; workers != null && t < threads; t++) {
+            final int offset = t;
+            workers.execute(() -> {
+                for (int i = offset; i < txs.size(); i += threads) {
+                    snapshot.prefetch(txs.get(i).getKey(), txs.get(i).getValue());
+                }
+            });
+        }
+        for (Map.Entry<Address, List<DataWord>> tx : txs) {
+            IRepositoryCache track = snapshot.startTracking();
+            for (DataWord key : tx.getValue()) {
+                assertThat(track.getStorageValue(tx.getKey(), key)).isNotNull();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    @Ignore
+    @Test
+    public void benchmarkColdStorageReplay() throws InterruptedException {
+        AionRepositoryImpl repository = AionRepositoryImpl.createForTesting(new MockRepositoryConfig(DBVendor.LEVELDB) {
+            @Override
+            public String getDbPath() {
+                return dir.getAbsolutePath();
+            }
+
+            @Override
+            public IContractDetails contractDetailsImpl() {
+                return ContractDetailsAion.createForTesting(0, 64 * 1024).getDetails();
+            }
+        });
+
+        // contracts with storage tries large enough to be kept in the storage database
+        List<Address> contracts = new ArrayList<>();
+        List<List<DataWord>> unread = new ArrayList<>();
+        Random random = new Random(0);
+        for (int c = 0; c < CONTRACTS; c++) {
+            Address contract = Address.wrap(HashUtil.h256(BigInteger.valueOf(c).toByteArray()));
+            IRepositoryCache track = repository.startTracking();
+            track.createAccount(contract);
+            track.saveCode(contract, contract.toBytes());
+            List<DataWord> keys = new ArrayList<>();
+            for (int i = 0; i < SLOTS; i++) {
+                DataWord key = new DataWord(HashUtil.blake128(BigInteger.valueOf(i).toByteArray()));
+                track.addStorageRow(contract, key, new DataWord(i + 1));
+                keys.add(key);
+            }
+            track.flush();
+            repository.flush();
+
+            // every replay reads keys no replay read before, the shared storage nodes outlive the snapshots
+            Collections.shuffle(keys, random);
+            contracts.add(contract);
+            unread.add(keys);
+        }
+
+        int threads = 4;
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        long withoutPrefetch = 0;
+        long withPrefetch = 0;
+        for (int b = 0; b < BLOCKS; b++) {
+            List<List<Map.Entry<Address, List<DataWord>>>> replays = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                List<Map.Entry<Address, List<DataWord>>> txs = new ArrayList<>();
+                for (int i = 0; i < TXS_PER_BLOCK; i++) {
+                    int c = random.nextInt(CONTRACTS);
+                    List<DataWord> keys = new ArrayList<>();
+                    for (int k = 0; k < READS_PER_TX; k++) {
+                        keys.add(unread.get(c).remove(unread.get(c).size() - 1));
+                    }
+                    txs.add(new AbstractMap.SimpleEntry<>(contracts.get(c), keys));
+                }
+                replays.add(txs);
+            }
+            // alternate the order, so neither replay always reads after the other
+            if (b % 2 == 0) {
+                withoutPrefetch += replayStorage(repository, replays.get(0), null, threads);
+                withPrefetch += replayStorage(repository, replays.get(1), workers, threads);
+            } else {
+                withPrefetch += replayStorage(repository, replays.get(0), workers, threads);
+                withoutPrefetch += replayStorage(repository, replays.get(1), null, threads);
+            }
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.SECONDS);
+        repository.close();
+
+        System.out.println("cold replay of " + BLOCKS + " blocks of " + TXS_PER_BLOCK + " transactions reading "
+                + READS_PER_TX + " storage keys:");
+        System.out.println("  without prefetching: " + withoutPrefetch / 1_000_000 + " ms");
+        System.out.println("  with prefetching:    " + withPrefetch / 1_000_000 + " ms");
+    }
+}
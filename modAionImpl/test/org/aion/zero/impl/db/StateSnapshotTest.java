@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.db.IRepository;
+import org.aion.base.db.IRepositoryCache;
+import org.aion.base.type.Address;
+import org.aion.crypto.HashUtil;
+import org.aion.db.impl.DBVendor;
+import org.aion.mcf.vm.types.DataWord;
+import org.aion.zero.impl.MockRepositoryConfig;
+import org.aion.zero.types.A0BlockHeader;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class StateSnapshotTest {
+
+    private static final int STORAGE_KEYS = 16;
+
+    private final List<Address> accounts = new ArrayList<>();
+    private final List<Address> contracts = new ArrayList<>();
+
+    public StateSnapshotTest() {
+        for (int i = 0; i < 64; i++) {
+            accounts.add(address(i + 1));
+        }
+        for (int i = 0; i < 4; i++) {
+            contracts.add(address(0x100 + i));
+        }
+    }
+
+    private static Address address(int value) {
+        return Address.wrap(HashUtil.h256(BigInteger.valueOf(value).toByteArray()));
+    }
+
+    private static void commitBlock(AionRepositoryImpl repository) throws Exception {
+        repository.commitBlock(new A0BlockHeader.Builder().withStateRoot(repository.getRoot()).build());
+    }
+
+    private AionRepositoryImpl newRepository() throws Exception {
+        AionRepositoryImpl repository = AionRepositoryImpl.createForTesting(new MockRepositoryConfig(DBVendor.MOCKDB));
+
+        IRepositoryCache track = repository.startTracking();
+        for (Address account : accounts) {
+            track.createAccount(account);
+            track.addBalance(account, BigInteger.valueOf(1_000L));
+        }
+        for (Address contract : contracts) {
+            track.createAccount(contract);
+            track.saveCode(contract, contract.toBytes());
+            for (int i = 0; i < STORAGE_KEYS; i++) {
+                track.addStorageRow(contract, new DataWord(i), new DataWord(i + 1));
+            }
+        }
+        track.flush();
+        commitBlock(repository);
+        return repository;
+    }
+
+    /** Adds {@code delta} to every balance and storage value. */
+    private void applyBlock(AionRepositoryImpl repository, int delta) throws Exception {
+        IRepositoryCache track = repository.startTracking();
+        for (Address account : accounts) {
+            track.addBalance(account, BigInteger.valueOf(delta));
+        }
+        for (Address contract : contracts) {
+            for (int i = 0; i < STORAGE_KEYS; i++) {
+                DataWord value = (DataWord) track.getStorageValue(contract, new DataWord(i));
+                track.addStorageRow(contract, new DataWord(i), new DataWord(value.longValue() + delta));
+            }
+        }
+        track.flush();
+        commitBlock(repository);
+    }
+
+    /** Reads the state the way a call does, in a tracking cache that is rolled back. */
+    private long readAll(IRepository repository) {
+        IRepositoryCache track = repository.startTracking();
+        try {
+            long sum = 0;
+            for (Address account : accounts) {
+                sum += track.getBalance(account).longValue();
+            }
+            for (Address contract : contracts) {
+                assertThat(track.getCode(contract)).isEqualTo(contract.toBytes());
+                for (int i = 0; i < STORAGE_KEYS; i++) {
+                    sum += ((DataWord) track.getStorageValue(contract, new DataWord(i))).longValue();
+                }
+            }
+            return sum;
+        } finally {
+            track.rollback();
+        }
+    }
+
+    private long expectedSum(int delta) {
+        long storage = (long) STORAGE_KEYS * (STORAGE_KEYS + 1) / 2 + (long) STORAGE_KEYS * delta;
+        return accounts.size() * (1_000L + delta) + contracts.size() * storage;
+    }
+
+    @Test
+    public void testSnapshotKeepsRoot() throws Exception {
+        AionRepositoryImpl repository = newRepository();
+        byte[] root = repository.getRoot();
+
+        AionRepositoryImpl snapshot = repository.getStateSnapshot(root);
+        assertThat(readAll(snapshot)).isEqualTo(expectedSum(0));
+
+        applyBlock(repository, 5);
+        assertThat(readAll(repository)).isEqualTo(expectedSum(5));
+
+        // the same snapshot is shared and still reads the old root
+        assertThat(repository.getStateSnapshot(root)).isSameAs(snapshot);
+        assertThat(readAll(snapshot)).isEqualTo(expectedSum(0));
+        assertThat(readAll(repository.getStateSnapshot(repository.getRoot()))).isEqualTo(expectedSum(5));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsReadOnly() throws Exception {
+        AionRepositoryImpl repository = newRepository();
+        AionRepositoryImpl snapshot = repository.getStateSnapshot(repository.getRoot());
+
+        IRepositoryCache track = snapshot.startTracking();
+        track.addBalance(accounts.get(0), BigInteger.ONE);
+        track.flush();
+    }
+
+    @Test
+    public void testConcurrentReadsDuringImport() throws Exception {
+        AionRepositoryImpl repository = newRepository();
+        byte[] root = repository.getRoot();
+
+        AtomicBoolean importing = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            results.add(readers.submit(() -> {
+                boolean matched = true;
+                do {
+                    matched &= readAll(repository.getStateSnapshot(root)) == expectedSum(0);
+                } while (importing.get());
+                return matched;
+            }));
+        }
+
+        for (int block = 1; block <= 20; block++) {
+            applyBlock(repository, 1);
+        }
+        importing.set(false);
+
+        for (Future<Boolean> result : results) {
+            assertThat(result.get()).isTrue();
+        }
+        readers.shutdown();
+        assertThat(readAll(repository)).isEqualTo(expectedSum(20));
+    }
+
+    /**
+     * Call throughput against the state of one block at 1 to 64 concurrent
+     * clients while blocks are imported, with snapshots created per call as
+     * before and with the shared read-only snapshots.
+     */
+    @Ignore
+    @Test
+    public void benchmarkCallThroughput() throws Exception {
+        for (int clients = 1; clients <= 64; clients *= 2) {
+            long perCall = measure(clients, false);
+            long shared = measure(clients, true);
+            System.out.println("clients: " + clients + ", calls/s per-call snapshot: " + perCall
+                    + ", shared snapshot: " + shared);
+        }
+    }
+
+    private long measure(int clients, boolean shared) throws Exception {
+        AionRepositoryImpl repository = newRepository();
+        byte[] root = repository.getRoot();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(clients + 1);
+
+        Future<?> importer = executor.submit(() -> {
+            while (running.get()) {
+                applyBlock(repository, 1);
+            }
+            return null;
+        });
+
+        List<Future<Long>> calls = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            calls.add(executor.submit(() -> {
+                long count = 0;
+                while (running.get()) {
+                    readAll(shared ? repository.getStateSnapshot(root) : repository.getSnapshotTo(root));
+                    count++;
+                }
+                return count;
+            }));
+        }
+
+        TimeUnit.SECONDS.sleep(2);
+        running.set(false);
+
+        long total = 0;
+        for (Future<Long> call : calls) {
+            total += call.get();
+        }
+        importer.get();
+        executor.shutdown();
+        return total / 2;
+    }
+}
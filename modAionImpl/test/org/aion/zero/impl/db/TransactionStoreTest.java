@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.db;
+
+import org.aion.base.db.IByteArrayKeyValueDatabase;
+import org.aion.base.type.Address;
+import org.aion.base.util.FastByteComparisons;
+import org.aion.crypto.ECKey;
+import org.aion.crypto.ECKeyFac;
+import org.aion.crypto.HashUtil;
+import org.aion.db.impl.mockdb.MockDB;
+import org.aion.mcf.db.TransactionStore;
+import org.aion.mcf.vm.types.Bloom;
+import org.aion.mcf.vm.types.Log;
+import org.aion.zero.impl.types.AionTxInfo;
+import org.aion.zero.types.AionTransaction;
+import org.aion.zero.types.AionTxReceipt;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.crypto.HashUtil.EMPTY_TRIE_HASH;
+
+public class TransactionStoreTest {
+
+    private static TransactionStore<AionTransaction, AionTxReceipt, AionTxInfo> newStore() {
+        IByteArrayKeyValueDatabase database = new MockDB("transaction");
+        database.open();
+        return new TransactionStore<>(database, AionTransactionStoreSerializer.receiptsSerializer,
+                AionTransactionStoreSerializer.serializer, AionTxInfo::new);
+    }
+
+    private static byte[] hash(int value) {
+        return HashUtil.h256(BigInteger.valueOf(value).toByteArray());
+    }
+
+    private static final ECKey KEY = ECKeyFac.inst().create();
+
+    // transactions are built once, their hashes cover the creation time
+    private static final List<AionTransaction> TXS = new ArrayList<>();
+
+    static {
+        for (int nonce = 0; nonce < 16; nonce++) {
+            AionTransaction tx = new AionTransaction(BigInteger.valueOf(nonce).toByteArray(),
+                    Address.wrap(hash(nonce)), BigInteger.ONE.toByteArray(), new byte[0], 21_000L, 1L);
+            tx.sign(KEY);
+            TXS.add(tx);
+        }
+    }
+
+    private static AionTransaction tx(int nonce) {
+        return TXS.get(nonce);
+    }
+
+    private static AionTxReceipt receipt(AionTransaction tx, int logs) {
+        List<Log> logInfoList = new ArrayList<>();
+        for (int i = 0; i < logs; i++) {
+            logInfoList.add(new Log(Address.wrap(hash(100 + i)), Collections.singletonList(hash(200 + i)),
+                    new byte[] { (byte) i }));
+        }
+        AionTxReceipt receipt = new AionTxReceipt(EMPTY_TRIE_HASH, new Bloom(), new ArrayList<>());
+        receipt.setLogs(logInfoList);
+        receipt.setExecutionResult(new byte[] { (byte) logs });
+        receipt.setNrgUsed(21_000L + logs);
+        if (logs == 0) {
+            receipt.setError("REVERT");
+        }
+        receipt.setTransaction(tx);
+        return receipt;
+    }
+
+    private static List<AionTxReceipt> block(int first, int size) {
+        List<AionTxReceipt> receipts = new ArrayList<>();
+        for (int i = first; i < first + size; i++) {
+            receipts.add(receipt(tx(i), i % 3));
+        }
+        return receipts;
+    }
+
+    private static void assertSameReceipt(AionTxReceipt actual, AionTxReceipt expected) {
+        assertThat(actual).isEqualTo(expected);
+        assertThat(actual.getEnergyUsed()).isEqualTo(expected.getEnergyUsed());
+        assertThat(actual.getReceiptTrieEncoded()).isEqualTo(expected.getReceiptTrieEncoded());
+    }
+
+    @Test
+    public void testBlockReceipts() {
+        TransactionStore<AionTransaction, AionTxReceipt, AionTxInfo> store = newStore();
+        List<AionTxReceipt> receipts = block(0, 10);
+        store.putBlock(hash(-1), receipts, true);
+
+        List<AionTxReceipt> stored = store.getReceipts(hash(-1));
+        assertThat(stored.size()).isEqualTo(10);
+        for (int i = 0; i < 10; i++) {
+            assertSameReceipt(stored.get(i), receipts.get(i));
+
+            AionTxInfo info = store.get(receipts.get(i).getTransaction().getHash(), hash(-1));
+            assertThat(info.getIndex()).isEqualTo(i);
+            assertThat(info.getBlockHash()).isEqualTo(hash(-1));
+            assertSameReceipt(info.getReceipt(), receipts.get(i));
+        }
+
+        assertThat(store.getReceipts(hash(-2))).isNull();
+        assertThat(store.get(tx(11).getHash())).isNull();
+    }
+
+    @Test
+    public void testBloomNotFromLogs() {
+        TransactionStore<AionTransaction, AionTxReceipt, AionTxInfo> store = newStore();
+        AionTxReceipt receipt = new AionTxReceipt(EMPTY_TRIE_HASH, Bloom.create(hash(1)), new ArrayList<>());
+        receipt.setTransaction(tx(1));
+        store.putBlock(hash(-1), Collections.singletonList(receipt), true);
+
+        assertSameReceipt(store.getReceipts(hash(-1)).get(0), receipt);
+    }
+
+    @Test
+    public void testTransactionInSeveralBlocks() {
+        TransactionStore<AionTransaction, AionTxReceipt, AionTxInfo> store = newStore();
+        store.putBlock(hash(-1), block(0, 4), true);
+        // a fork block with the same transactions in another order
+        List<AionTxReceipt> fork = block(0, 4);
+        Collections.reverse(fork);
+        store.putBlock(hash(-2), fork, false);
+        // storing a block again does not duplicate it
+        store.putBlock(hash(-1), block(0, 4), true);
+
+        byte[] txHash = tx(0).getHash();
+        List<AionTxInfo> infos = store.get(txHash);
+        assertThat(infos.size()).isEqualTo(2);
+
+        AionTxInfo main = store.get(txHash, blockHash -> FastByteComparisons.equal(blockHash, hash(-1)));
+        assertThat(main.getBlockHash()).isEqualTo(hash(-1));
+        assertThat(main.getIndex()).isEqualTo(0);
+
+        AionTxInfo other = store.get(txHash, blockHash -> FastByteComparisons.equal(blockHash, hash(-2)));
+        assertThat(other.getBlockHash()).isEqualTo(hash(-2));
+        assertThat(other.getIndex()).isEqualTo(3);
+
+        assertThat(store.get(txHash, blockHash -> false)).isNull();
+    }
+
+    @Test
+    public void testLegacyRecords() {
+        IByteArrayKeyValueDatabase database = new MockDB("transaction");
+        database.open();
+        TransactionStore<AionTransaction, AionTxReceipt, AionTxInfo> store = new TransactionStore<>(database,
+                AionTransactionStoreSerializer.receiptsSerializer, AionTransactionStoreSerializer.serializer,
+                AionTxInfo::new);
+
+        // the infos of a transaction as written before the receipt records
+        AionTxReceipt receipt = receipt(tx(1), 2);
+        byte[] txHash = tx(1).getHash();
+        database.put(txHash, AionTransactionStoreSerializer.serializer.serialize(
+                Collections.singletonList(new AionTxInfo(receipt, hash(-1), 5))));
+
+        AionTxInfo info = store.get(txHash, blockHash -> false);
+        assertThat(info.getIndex()).isEqualTo(5);
+        assertSameReceipt(info.getReceipt(), receipt);
+        assertThat(store.get(txHash, hash(-1)).getIndex()).isEqualTo(5);
+        assertThat(store.get(txHash).size()).isEqualTo(1);
+
+        // later blocks with the transaction keep the legacy info readable
+        store.putBlock(hash(-2), Collections.singletonList(receipt(tx(1), 2)), false);
+        assertThat(store.get(txHash, hash(-1)).getIndex()).isEqualTo(5);
+        assertThat(store.get(txHash, hash(-2)).getIndex()).isEqualTo(0);
+        assertThat(store.get(txHash).size()).isEqualTo(2);
+
+        // the single locator of the fork block is not taken for the only block
+        assertThat(store.get(txHash, blockHash -> false)).isNull();
+        AionTxInfo main = store.get(txHash, blockHash -> FastByteComparisons.equal(blockHash, hash(-1)));
+        assertThat(main.getIndex()).isEqualTo(5);
+    }
+}
@@ -84,6 +84,11 @@ public class BlockPropagationTest {
         public String getBinaryVersion() {
             return "";
         }
+
+        @Override
+        public double getScore() {
+            return 0;
+        }
     }
 
     private static class P2pMock implements IP2pMgr {
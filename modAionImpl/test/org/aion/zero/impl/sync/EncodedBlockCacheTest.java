@@ -0,0 +1,120 @@
+package org.aion.zero.impl.sync;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteUtil;
+import org.aion.crypto.ECKey;
+import org.aion.crypto.HashUtil;
+import org.aion.mcf.core.ImportResult;
+import org.aion.zero.impl.StandaloneBlockchain;
+import org.aion.zero.impl.types.AionBlock;
+import org.aion.zero.types.AionTransaction;
+import org.junit.Test;
+
+public class EncodedBlockCacheTest {
+
+    private static final Address RECEIVER = Address.wrap(
+            ByteUtil.hexStringToBytes("CAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFECAFE"));
+
+    private final List<AionBlock> blocks = new ArrayList<>();
+
+    private StandaloneBlockchain createChain(int count) {
+        StandaloneBlockchain.Bundle bundle = (new StandaloneBlockchain.Builder())
+                .withValidatorConfiguration("simple")
+                .withDefaultAccounts()
+                .build();
+        StandaloneBlockchain bc = bundle.bc;
+        ECKey sender = bundle.privateKeys.get(0);
+
+        for (int i = 0; i < count; i++) {
+            List<AionTransaction> txs = new ArrayList<>();
+            // every other block is left empty
+            for (int j = 0; i % 2 == 0 && j < 3; j++) {
+                AionTransaction tx = new AionTransaction(BigInteger.valueOf(txs.size() + 3 * (i / 2)).toByteArray(),
+                        RECEIVER, BigInteger.valueOf(100).toByteArray(), ByteUtil.EMPTY_BYTE_ARRAY, 21000L, 1L);
+                tx.sign(sender);
+                txs.add(tx);
+            }
+            AionBlock block = bc.createNewBlock(bc.getBestBlock(), txs, true);
+            assertThat(bc.tryToConnect(block)).isEqualTo(ImportResult.IMPORTED_BEST);
+            assertThat(block.getTransactionsList().size()).isEqualTo(txs.size());
+            blocks.add(block);
+        }
+        return bc;
+    }
+
+    @Test
+    public void testMatchesBlockEncoding() {
+        StandaloneBlockchain bc = createChain(4);
+        EncodedBlockCache cache = new EncodedBlockCache(bc.getBlockStore(), EncodedBlockCache.DEFAULT_MAX_BYTES);
+
+        for (AionBlock block : blocks) {
+            assertThat(cache.getHeader(block.getHash())).isEqualTo(block.getHeader().getEncoded());
+            assertThat(cache.getBody(block.getHash())).isEqualTo(block.getEncodedBody());
+        }
+
+        List<byte[]> headers = cache.getHeaders(1, 96);
+        assertThat(headers.size()).isEqualTo(blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            assertThat(headers.get(i)).isEqualTo(blocks.get(i).getHeader().getEncoded());
+        }
+
+        // one store read per block, the rest served from the cache
+        assertThat(cache.getMissCount()).isEqualTo((long) blocks.size());
+        assertThat(cache.getHitCount()).isEqualTo(2L * blocks.size());
+    }
+
+    @Test
+    public void testHeadersRange() {
+        StandaloneBlockchain bc = createChain(4);
+        EncodedBlockCache cache = new EncodedBlockCache(bc.getBlockStore(), EncodedBlockCache.DEFAULT_MAX_BYTES);
+
+        List<byte[]> headers = cache.getHeaders(2, 2);
+        assertThat(headers.size()).isEqualTo(2);
+        assertThat(headers.get(0)).isEqualTo(blocks.get(1).getHeader().getEncoded());
+        assertThat(headers.get(1)).isEqualTo(blocks.get(2).getHeader().getEncoded());
+
+        // stops at the best block
+        assertThat(cache.getHeaders(4, 10).size()).isEqualTo(1);
+        assertThat(cache.getHeaders(5, 10).size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testUnknownBlock() {
+        StandaloneBlockchain bc = createChain(1);
+        EncodedBlockCache cache = new EncodedBlockCache(bc.getBlockStore(), EncodedBlockCache.DEFAULT_MAX_BYTES);
+
+        assertThat(cache.getBody(HashUtil.h256("unknown".getBytes()))).isNull();
+        assertThat(cache.getHeader(HashUtil.h256("unknown".getBytes()))).isNull();
+    }
+
+    @Test
+    public void testByteBound() {
+        StandaloneBlockchain bc = createChain(2);
+        EncodedBlockCache cache = new EncodedBlockCache(bc.getBlockStore(), 1);
+
+        // nothing fits, every lookup goes to the store and still returns the right bytes
+        for (int i = 0; i < 2; i++) {
+            for (AionBlock block : blocks) {
+                assertThat(cache.getBody(block.getHash())).isEqualTo(block.getEncodedBody());
+            }
+        }
+        assertThat(cache.getHitCount()).isEqualTo(0L);
+        assertThat(cache.getMissCount()).isEqualTo(4L);
+    }
+
+    @Test
+    public void testSliceEmptyBody() {
+        createChain(2);
+        AionBlock block = blocks.get(1);
+        EncodedBlockCache.EncodedBlock slice = EncodedBlockCache.slice(block.getEncoded());
+
+        assertThat(block.getTransactionsList().size()).isEqualTo(0);
+        assertThat(slice.header).isEqualTo(block.getHeader().getEncoded());
+        assertThat(slice.body).isEqualTo(block.getEncodedBody());
+    }
+}
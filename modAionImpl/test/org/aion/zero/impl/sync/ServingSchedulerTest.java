@@ -0,0 +1,165 @@
+package org.aion.zero.impl.sync;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.aion.p2p.INode;
+import org.aion.p2p.IP2pMgr;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class ServingSchedulerTest {
+
+    // a route without a budget
+    private static final byte UNLIMITED = Act.BROADCAST_TX;
+
+    @Mock
+    private IP2pMgr p2pMgr;
+
+    @Mock
+    private INode fastPeer;
+
+    @Mock
+    private INode slowPeer;
+
+    private final List<Integer> served = new ArrayList<>();
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(fastPeer.getScore()).thenReturn(100.0);
+        when(slowPeer.getScore()).thenReturn(0.0);
+        Map<Integer, INode> active = new HashMap<>();
+        active.put(1, fastPeer);
+        active.put(2, slowPeer);
+        when(p2pMgr.getActiveNodes()).thenReturn(active);
+    }
+
+    private ServingScheduler create(boolean importing) {
+        return new ServingScheduler(new AtomicBoolean(true), p2pMgr, () -> importing,
+                AionLoggerFactory.getLogger(LogEnum.SYNC.name()));
+    }
+
+    private boolean submit(ServingScheduler scheduler, int peer, byte route, int bytes) {
+        return scheduler.submit(peer, "peer-" + peer, route, () -> {
+            served.add(peer);
+            return bytes;
+        });
+    }
+
+    private void serveAll(ServingScheduler scheduler) throws InterruptedException {
+        while (scheduler.serveNext(0)) {
+        }
+    }
+
+    @Test
+    public void testRouteBudget() throws InterruptedException {
+        ServingScheduler scheduler = create(false);
+
+        int admitted = 0;
+        for (int i = 0; i < 40; i++) {
+            if (submit(scheduler, 1, Act.REQ_STATUS, 0)) {
+                admitted++;
+            }
+            serveAll(scheduler);
+        }
+
+        // the burst of the status route covers 16 requests
+        assertThat(admitted).isAtLeast(16);
+        assertThat(admitted).isLessThan(20);
+        assertThat(scheduler.getLimitedCount()).isEqualTo((long) (40 - admitted));
+
+        // another peer has its own budget
+        assertThat(submit(scheduler, 2, Act.REQ_STATUS, 0)).isTrue();
+    }
+
+    @Test
+    public void testPendingCap() throws InterruptedException {
+        ServingScheduler scheduler = create(false);
+
+        for (int i = 0; i < 10; i++) {
+            submit(scheduler, 1, UNLIMITED, 0);
+        }
+        assertThat(scheduler.getDroppedCount()).isEqualTo(2L);
+
+        serveAll(scheduler);
+        assertThat(served.size()).isEqualTo(8);
+    }
+
+    @Test
+    public void testFairQueuing() throws InterruptedException {
+        when(fastPeer.getScore()).thenReturn(0.0);
+        ServingScheduler scheduler = create(false);
+
+        for (int i = 0; i < 8; i++) {
+            submit(scheduler, 1, UNLIMITED, 256 * 1024);
+        }
+        submit(scheduler, 2, UNLIMITED, 256 * 1024);
+        submit(scheduler, 2, UNLIMITED, 256 * 1024);
+        serveAll(scheduler);
+
+        // the second peer does not wait for the backlog of the first
+        assertThat(served.subList(0, 4)).containsExactly(1, 2, 1, 2);
+        assertThat(served.size()).isEqualTo(10);
+    }
+
+    @Test
+    public void testWeightedQueuing() throws InterruptedException {
+        ServingScheduler scheduler = create(false);
+
+        for (int i = 0; i < 8; i++) {
+            submit(scheduler, 1, UNLIMITED, 256 * 1024);
+            submit(scheduler, 2, UNLIMITED, 256 * 1024);
+        }
+        serveAll(scheduler);
+
+        // the peer with the better score gets four times the share
+        assertThat(served.subList(0, 10)).containsExactly(1, 1, 1, 1, 2, 1, 1, 1, 1, 2).inOrder();
+    }
+
+    @Test
+    public void testServingCapWhileImporting() throws InterruptedException {
+        long idle = timeBusyJobs(create(false));
+        long importing = timeBusyJobs(create(true));
+
+        // 400ms of work against a 200ms burst refilled at a quarter of the
+        // wall clock needs about 800ms
+        assertThat(idle).isLessThan(600L);
+        assertThat(importing).isAtLeast(700L);
+    }
+
+    private long timeBusyJobs(ServingScheduler scheduler) throws InterruptedException {
+        for (int peer = 0; peer < 5; peer++) {
+            for (int i = 0; i < 8; i++) {
+                scheduler.submit(peer, "peer-" + peer, UNLIMITED, () -> {
+                    long end = System.nanoTime() + 10_000_000L;
+                    while (System.nanoTime() < end) {
+                    }
+                    return 0;
+                });
+            }
+        }
+        long start = System.currentTimeMillis();
+        serveAll(scheduler);
+        return System.currentTimeMillis() - start;
+    }
+
+    @Test
+    public void testServedRate() throws InterruptedException {
+        ServingScheduler scheduler = create(false);
+        submit(scheduler, 1, UNLIMITED, 1000);
+        serveAll(scheduler);
+
+        // nothing is reported before the first window ends
+        assertThat(scheduler.getServedBytesPerSec().isEmpty()).isTrue();
+    }
+}
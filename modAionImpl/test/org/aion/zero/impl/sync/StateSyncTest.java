@@ -0,0 +1,389 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.sync;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.math.BigInteger;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.aion.base.db.IRepositoryCache;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteUtil;
+import org.aion.db.impl.DBVendor;
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.aion.mcf.core.ImportResult;
+import org.aion.mcf.vm.types.DataWord;
+import org.aion.p2p.Handler;
+import org.aion.p2p.INode;
+import org.aion.p2p.IP2pMgr;
+import org.aion.p2p.Msg;
+import org.aion.zero.impl.MockRepositoryConfig;
+import org.aion.zero.impl.StandaloneBlockchain;
+import org.aion.zero.impl.db.AionRepositoryImpl;
+import org.aion.zero.impl.sync.handler.ReqReceiptsHandler;
+import org.aion.zero.impl.sync.handler.ReqTrieDataHandler;
+import org.aion.zero.impl.sync.msg.ReqReceipts;
+import org.aion.zero.impl.sync.msg.ReqTrieData;
+import org.aion.zero.impl.sync.msg.ResReceipts;
+import org.aion.zero.impl.sync.msg.ResTrieData;
+import org.aion.zero.impl.types.AionBlock;
+import org.aion.zero.types.A0BlockHeader;
+import org.aion.zero.types.AionTransaction;
+import org.aion.zero.types.AionTxReceipt;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+/**
+ * Downloads the state from local peers serving it through the request
+ * handlers, with the messages passed as encoded bytes.
+ */
+public class StateSyncTest {
+
+    private static final Logger log = AionLoggerFactory.getLogger(LogEnum.SYNC.name());
+
+    // id of the node under test at the peers
+    private static final int SELF = 100;
+
+    /**
+     * Keeps the messages sent by a peer.
+     */
+    private static final class Network implements IP2pMgr {
+
+        private final Map<Integer, List<byte[]>> sent = new HashMap<>();
+
+        @Override
+        public Map<Integer, INode> getActiveNodes() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void register(List<Handler> _hs) {}
+
+        @Override
+        public INode getRandom() {
+            return null;
+        }
+
+        @Override
+        public void send(int _id, Msg _msg) {
+            sent.computeIfAbsent(_id, k -> new ArrayList<>()).add(_msg.encode());
+        }
+
+        @Override
+        public void shutdown() {}
+
+        @Override
+        public void run() {}
+
+        @Override
+        public List<Short> versions() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int chainId() {
+            return 0;
+        }
+
+        @Override
+        public void closeSocket(SocketChannel _sc, String _reason) {}
+
+        @Override
+        public boolean isShowLog() {
+            return false;
+        }
+
+        @Override
+        public void errCheck(int nodeIdHashcode, String _displayId) {}
+    }
+
+    private static final class Peer {
+
+        private final int id;
+
+        private final Network network = new Network();
+
+        private final ServingScheduler scheduler = new ServingScheduler(new AtomicBoolean(true), network,
+                () -> false, log);
+
+        private final Handler trieDataHandler;
+
+        private final Handler receiptsHandler;
+
+        private Peer(int id, AionRepositoryImpl repository, StandaloneBlockchain chain) {
+            this.id = id;
+            this.trieDataHandler = new ReqTrieDataHandler(log, repository, scheduler, network, false);
+            this.receiptsHandler = chain == null ? null
+                    : new ReqReceiptsHandler(log, chain, scheduler, network, false);
+        }
+
+        private byte[] ask(Handler handler, byte[] request) throws InterruptedException {
+            handler.receive(SELF, "self", request);
+            while (scheduler.serveNext(0)) {
+            }
+            List<byte[]> answers = network.sent.remove(SELF);
+            return answers == null ? null : answers.get(0);
+        }
+
+        private List<byte[]> getTrieData(List<StateItem> items) throws InterruptedException {
+            return ResTrieData.decode(ask(trieDataHandler, new ReqTrieData(items).encode())).getValues();
+        }
+
+        private List<byte[]> getReceipts(List<byte[]> hashes) throws InterruptedException {
+            return ResReceipts.decode(ask(receiptsHandler, new ReqReceipts(hashes).encode())).getReceipts();
+        }
+    }
+
+    private static Address randomAddress(Random random) {
+        byte[] bytes = new byte[Address.ADDRESS_LEN];
+        random.nextBytes(bytes);
+        return Address.wrap(bytes);
+    }
+
+    private final List<Address> accounts = new ArrayList<>();
+
+    private final List<Address> contracts = new ArrayList<>();
+
+    private AionRepositoryImpl newSource() {
+        AionRepositoryImpl repository = AionRepositoryImpl.createForTesting(new MockRepositoryConfig(DBVendor.MOCKDB));
+        Random random = new Random(1L);
+        IRepositoryCache track = repository.startTracking();
+        for (int i = 0; i < 200; i++) {
+            Address account = randomAddress(random);
+            track.createAccount(account);
+            track.addBalance(account, BigInteger.valueOf(i + 1));
+            accounts.add(account);
+        }
+        for (int i = 0; i < 10; i++) {
+            Address contract = randomAddress(random);
+            track.createAccount(contract);
+            // some contracts share their code
+            track.saveCode(contract, new byte[] { 0x60, (byte) (i % 4) });
+            for (int j = 0; j < 50; j++) {
+                track.addStorageRow(contract, new DataWord(j), new DataWord(i * 1000 + j + 1));
+            }
+            contracts.add(contract);
+        }
+        track.flush();
+        repository.flush();
+        return repository;
+    }
+
+    private static void download(StateDownload download, List<Peer> peers) throws InterruptedException {
+        int rounds = 0;
+        while (!download.isDone()) {
+            for (Peer peer : peers) {
+                List<StateItem> items = download.request(peer.id, 64, System.currentTimeMillis());
+                if (!items.isEmpty()) {
+                    assertThat(download.receive(peer.id, peer.getTrieData(items))).isTrue();
+                }
+            }
+            assertThat(++rounds).isLessThan(10000);
+        }
+    }
+
+    private void assertSameState(AionRepositoryImpl source, AionRepositoryImpl target) {
+        assertThat(target.getRoot()).isEqualTo(source.getRoot());
+        for (Address account : accounts) {
+            assertThat(target.getBalance(account)).isEqualTo(source.getBalance(account));
+        }
+        for (Address contract : contracts) {
+            assertThat(target.getCode(contract)).isEqualTo(source.getCode(contract));
+            for (int j = 0; j < 50; j++) {
+                assertThat(target.getStorageValue(contract, new DataWord(j)))
+                        .isEqualTo(source.getStorageValue(contract, new DataWord(j)));
+            }
+        }
+    }
+
+    @Test
+    public void testDownloadFromPeers() throws InterruptedException {
+        AionRepositoryImpl source = newSource();
+        byte[] root = source.getRoot();
+
+        // a peer without the state answers with missing items
+        AionRepositoryImpl empty = AionRepositoryImpl.createForTesting(new MockRepositoryConfig(DBVendor.MOCKDB));
+        List<Peer> peers = Arrays.asList(new Peer(1, source, null), new Peer(2, empty, null),
+                new Peer(3, source, null));
+
+        AionRepositoryImpl target = AionRepositoryImpl.createForTesting(new MockRepositoryConfig(DBVendor.MOCKDB));
+        StateDownload download = new StateDownload(target, root, log);
+        download(download, peers);
+        target.syncToRoot(root);
+
+        assertSameState(source, target);
+
+        // the stored state is walked without requesting anything
+        StateDownload again = new StateDownload(target, root, log);
+        assertThat(again.isDone()).isTrue();
+        assertThat(again.getDownloaded()).isEqualTo(0L);
+        assertThat(again.getReused()).isAtLeast(download.getDownloaded());
+    }
+
+    @Test
+    public void testInvalidData() throws InterruptedException {
+        AionRepositoryImpl source = newSource();
+        byte[] root = source.getRoot();
+        Peer peer = new Peer(1, source, null);
+
+        AionRepositoryImpl target = AionRepositoryImpl.createForTesting(new MockRepositoryConfig(DBVendor.MOCKDB));
+        StateDownload download = new StateDownload(target, root, log);
+
+        // data not matching the requested hashes is rejected and requested again
+        List<StateItem> items = download.request(2, 64, System.currentTimeMillis());
+        assertThat(download.receive(2, Collections.singletonList(new byte[] { 1, 2, 3 }))).isFalse();
+        assertThat(download.getDownloaded()).isEqualTo(0L);
+
+        // answers beyond the request are invalid
+        items = download.request(2, 64, System.currentTimeMillis());
+        List<byte[]> values = new ArrayList<>(peer.getTrieData(items));
+        values.add(new byte[] { 1 });
+        assertThat(download.receive(2, values)).isFalse();
+
+        download(download, Collections.singletonList(peer));
+        target.syncToRoot(root);
+        assertSameState(source, target);
+    }
+
+    @Test
+    public void testExpiredRequest() throws InterruptedException {
+        AionRepositoryImpl source = newSource();
+        AionRepositoryImpl target = AionRepositoryImpl.createForTesting(new MockRepositoryConfig(DBVendor.MOCKDB));
+        StateDownload download = new StateDownload(target, source.getRoot(), log);
+
+        long now = System.currentTimeMillis();
+        assertThat(download.request(1, 64, now).isEmpty()).isFalse();
+        // one request in flight per peer
+        assertThat(download.request(1, 64, now).isEmpty()).isTrue();
+
+        download.expire(now + StateDownload.REQUEST_TIMEOUT + 1);
+        assertThat(download.request(1, 64, now).isEmpty()).isFalse();
+    }
+
+    private static List<AionTxReceipt> decodeReceipts(byte[] encoded) {
+        return ResReceipts.decodeReceipts(encoded);
+    }
+
+    @Test
+    public void testSyncToPivot() throws InterruptedException {
+        StandaloneBlockchain.Bundle bundle = (new StandaloneBlockchain.Builder())
+                .withValidatorConfiguration("simple")
+                .withDefaultAccounts()
+                .build();
+        StandaloneBlockchain source = bundle.bc;
+        StandaloneBlockchain target = (new StandaloneBlockchain.Builder())
+                .withValidatorConfiguration("simple")
+                .withDefaultAccounts(bundle.privateKeys)
+                .build().bc;
+
+        Random random = new Random(2L);
+        List<AionBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            List<AionTransaction> txs = new ArrayList<>();
+            for (int j = 0; j < 3; j++) {
+                AionTransaction tx = new AionTransaction(BigInteger.valueOf(i).toByteArray(), randomAddress(random),
+                        BigInteger.valueOf(100).toByteArray(), ByteUtil.EMPTY_BYTE_ARRAY, 21000L, 1L);
+                tx.sign(bundle.privateKeys.get(j));
+                txs.add(tx);
+            }
+            AionBlock block = source.createNewBlock(source.getBestBlock(), txs, true);
+            assertThat(source.tryToConnect(block)).isEqualTo(ImportResult.IMPORTED_BEST);
+            blocks.add(block);
+        }
+        AionBlock pivot = blocks.get(3);
+
+        Peer peer = new Peer(1, (AionRepositoryImpl) source.getRepository(), source);
+        AionRepositoryImpl targetRepository = (AionRepositoryImpl) target.getRepository();
+        StateSync sync = new StateSync(target, targetRepository, log);
+        sync.setPivotNumber(pivot.getNumber());
+
+        // the pivot is taken once two peers sent the same header
+        A0BlockHeader forged = new A0BlockHeader(pivot.getHeader());
+        forged.setEnergyConsumed(forged.getEnergyConsumed() + 1);
+        sync.offerPivot(1, pivot.getHeader());
+        sync.offerPivot(1, pivot.getHeader());
+        sync.offerPivot(2, forged);
+        assertThat(sync.getPhase()).isEqualTo(StateSync.Phase.PIVOT);
+        sync.offerPivot(3, pivot.getHeader());
+        assertThat(sync.getPhase()).isEqualTo(StateSync.Phase.STATE);
+
+        StateDownload download = sync.getDownload();
+        download(download, Collections.singletonList(peer));
+        sync.finishState();
+        assertThat(sync.getPhase()).isEqualTo(StateSync.Phase.HISTORY);
+        assertThat(target.getBlockStore().getStateSyncPivot().getHash()).isEqualTo(pivot.getHash());
+
+        // the genesis state is shared with the pivot
+        assertThat(download.getReused()).isGreaterThan(0L);
+
+        List<byte[]> hashes = new ArrayList<>();
+        for (AionBlock block : blocks.subList(0, 4)) {
+            hashes.add(block.getHash());
+        }
+        List<byte[]> receipts = peer.getReceipts(hashes);
+        assertThat(receipts.size()).isEqualTo(4);
+
+        // receipts not matching the header are rejected
+        List<AionTxReceipt> tampered = decodeReceipts(receipts.get(0));
+        tampered.get(0).setNrgUsed(tampered.get(0).getEnergyUsed() + 1);
+        assertThat(target.tryToStore(new AionBlock(blocks.get(0).getEncoded()), tampered))
+                .isEqualTo(ImportResult.INVALID_BLOCK);
+        assertThat(target.tryToStore(new AionBlock(blocks.get(0).getEncoded()), decodeReceipts(receipts.get(0))
+                .subList(0, 2))).isEqualTo(ImportResult.INVALID_BLOCK);
+
+        // a restarted node resumes storing the history at the recorded pivot
+        StateSync resumed = new StateSync(target, targetRepository, log);
+        resumed.resume(target.getBlockStore().getStateSyncPivot());
+        assertThat(resumed.isBelowPivot(pivot.getNumber())).isTrue();
+        assertThat(resumed.isAbovePivot(pivot.getNumber() + 1)).isTrue();
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(target.tryToStore(new AionBlock(blocks.get(i).getEncoded()), decodeReceipts(receipts.get(i))))
+                    .isEqualTo(ImportResult.IMPORTED_BEST);
+        }
+        assertThat(target.getBestBlock().getHash()).isEqualTo(pivot.getHash());
+        assertThat(targetRepository.getRoot()).isEqualTo(pivot.getStateRoot());
+
+        resumed.checkHistory();
+        assertThat(resumed.getPhase()).isEqualTo(StateSync.Phase.DONE);
+        assertThat(target.getBlockStore().getStateSyncPivot()).isNull();
+
+        // the blocks above the pivot are executed
+        for (AionBlock block : blocks.subList(4, 6)) {
+            assertThat(target.tryToConnect(new AionBlock(block.getEncoded()))).isEqualTo(ImportResult.IMPORTED_BEST);
+        }
+        assertThat(targetRepository.getRoot()).isEqualTo(source.getRepository().getRoot());
+        assertThat(target.getTransactionInfo(blocks.get(1).getTransactionsList().get(0).getHash())).isNotNull();
+    }
+}
@@ -0,0 +1,395 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.zero.impl.sync.handler;
+
+import org.aion.base.db.IRepositoryCache;
+import org.aion.base.type.Address;
+import org.aion.base.util.ByteArrayWrapper;
+import org.aion.base.util.ByteUtil;
+import org.aion.crypto.ECKey;
+import org.aion.crypto.ECKeyFac;
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.aion.mcf.blockchain.IPendingState;
+import org.aion.p2p.Handler;
+import org.aion.p2p.INode;
+import org.aion.p2p.IP2pMgr;
+import org.aion.p2p.Msg;
+import org.aion.zero.impl.sync.msg.AnnounceTx;
+import org.aion.zero.impl.sync.msg.BroadcastTx;
+import org.aion.zero.impl.sync.msg.ReqTx;
+import org.aion.zero.types.AionTransaction;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import java.math.BigInteger;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TxPropagationHandlerTest {
+
+    private static final ECKey KEY = ECKeyFac.inst().create();
+
+    private static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.SYNC.name());
+
+    private static final class Node implements INode {
+
+        private final int id;
+
+        private Node(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public byte[] getId() {
+            return ByteUtil.intToBytes(id);
+        }
+
+        @Override
+        public int getIdHash() {
+            return id;
+        }
+
+        @Override
+        public String getIdShort() {
+            return Integer.toString(id);
+        }
+
+        @Override
+        public byte[] getIp() {
+            return new byte[4];
+        }
+
+        @Override
+        public String getIpStr() {
+            return "0.0.0.0";
+        }
+
+        @Override
+        public int getPort() {
+            return 0;
+        }
+
+        @Override
+        public long getBestBlockNumber() {
+            return 0;
+        }
+
+        @Override
+        public BigInteger getTotalDifficulty() {
+            return BigInteger.ZERO;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return 0;
+        }
+
+        @Override
+        public void updateStatus(long _bestBlockNumber, byte[] _bestBlockHash, BigInteger _totalDifficulty) {}
+
+        @Override
+        public String getBinaryVersion() {
+            return "";
+        }
+
+        @Override
+        public double getScore() {
+            return 0;
+        }
+    }
+
+    /**
+     * Keeps the messages sent to the active peers.
+     */
+    private static final class Network implements IP2pMgr {
+
+        private final Map<Integer, INode> nodes = new HashMap<>();
+
+        private final Map<Integer, List<Msg>> sent = new HashMap<>();
+
+        private Network(int peers) {
+            for (int id = 1; id <= peers; id++) {
+                nodes.put(id, new Node(id));
+            }
+        }
+
+        private List<Msg> sent(int id) {
+            List<Msg> msgs = sent.remove(id);
+            return msgs == null ? Collections.emptyList() : msgs;
+        }
+
+        @Override
+        public Map<Integer, INode> getActiveNodes() {
+            return nodes;
+        }
+
+        @Override
+        public void register(List<Handler> _hs) {}
+
+        @Override
+        public INode getRandom() {
+            return null;
+        }
+
+        @Override
+        public void send(int _id, Msg _msg) {
+            sent.computeIfAbsent(_id, k -> new ArrayList<>()).add(_msg);
+        }
+
+        @Override
+        public void shutdown() {}
+
+        @Override
+        public void run() {}
+
+        @Override
+        public List<Short> versions() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int chainId() {
+            return 0;
+        }
+
+        @Override
+        public void closeSocket(SocketChannel _sc, String _reason) {}
+
+        @Override
+        public boolean isShowLog() {
+            return false;
+        }
+
+        @Override
+        public void errCheck(int nodeIdHashcode, String _displayId) {}
+    }
+
+    /**
+     * Holds the pending transactions looked up by hash.
+     */
+    private static final class Pool implements IPendingState<AionTransaction> {
+
+        private final Map<ByteArrayWrapper, AionTransaction> txs = new HashMap<>();
+
+        @Override
+        public List<AionTransaction> addPendingTransactions(List<AionTransaction> transactions) {
+            for (AionTransaction tx : transactions) {
+                txs.put(ByteArrayWrapper.wrap(tx.getHash()), tx);
+            }
+            return transactions;
+        }
+
+        @Override
+        public List<AionTransaction> addPendingTransaction(AionTransaction tx) {
+            return addPendingTransactions(Collections.singletonList(tx));
+        }
+
+        @Override
+        public IRepositoryCache<?, ?, ?> getRepository() {
+            return null;
+        }
+
+        @Override
+        public List<AionTransaction> getPendingTransactions() {
+            return new ArrayList<>(txs.values());
+        }
+
+        @Override
+        public AionTransaction getPendingTransaction(byte[] txHash) {
+            return txs.get(ByteArrayWrapper.wrap(txHash));
+        }
+
+        @Override
+        public BigInteger bestPendingStateNonce(Address addr) {
+            return BigInteger.ZERO;
+        }
+
+        @Override
+        public String getVersion() {
+            return "";
+        }
+    }
+
+    private static AionTransaction tx(long nonce) {
+        AionTransaction tx = new AionTransaction(BigInteger.valueOf(nonce).toByteArray(), Address.ZERO_ADDRESS(),
+                BigInteger.ONE.toByteArray(), ByteUtil.EMPTY_BYTE_ARRAY, 21_000L, 1L);
+        tx.sign(KEY);
+        return tx;
+    }
+
+    private static List<ByteArrayWrapper> hashes(List<byte[]> hashes) {
+        List<ByteArrayWrapper> wrapped = new ArrayList<>();
+        for (byte[] hash : hashes) {
+            wrapped.add(ByteArrayWrapper.wrap(hash));
+        }
+        return wrapped;
+    }
+
+    /**
+     * Delivers the probe sent to a peer to a handler of its own, and its
+     * acknowledgement back, through the message handlers.
+     */
+    private static void negotiate(TxPropagationHandler handler, Msg probe, int id) {
+        Network remoteNetwork = new Network(0);
+        TxPropagationHandler remote = new TxPropagationHandler(remoteNetwork, new Pool(), false);
+        new AnnounceTxHandler(LOG, remote).receive(0, "", probe.encode());
+
+        List<Msg> acks = remoteNetwork.sent(0);
+        assertThat(acks.size()).isEqualTo(1);
+        assertThat(acks.get(0)).isInstanceOf(ReqTx.class);
+        new ReqTxHandler(LOG, handler).receive(id, "", acks.get(0).encode());
+    }
+
+    @Test
+    public void testPushAndAnnounce() {
+        Network network = new Network(9);
+        TxPropagationHandler handler = new TxPropagationHandler(network, new Pool(), false);
+
+        // new peers get full pushes, followed by an empty announcement probing them
+        handler.propagateTx(Collections.singletonList(tx(0)));
+        for (int id = 1; id <= 9; id++) {
+            List<Msg> msgs = network.sent(id);
+            assertThat(msgs.size()).isEqualTo(2);
+            assertThat(msgs.get(0)).isInstanceOf(BroadcastTx.class);
+            assertThat(msgs.get(1)).isInstanceOf(AnnounceTx.class);
+            assertThat(((AnnounceTx) msgs.get(1)).getTxHashes()).isEmpty();
+
+            // peers 8 and 9 do not handle announcements and never answer
+            if (id < 8) {
+                negotiate(handler, msgs.get(1), id);
+            }
+        }
+        assertThat(handler.getTxPushed()).isEqualTo(9L);
+
+        // sqrt(9) peers get the transaction, the others handling announcements its hash
+        AionTransaction tx = tx(1);
+        handler.propagateTx(Collections.singletonList(tx));
+        int pushed = 0;
+        int announced = 0;
+        for (int id = 1; id <= 9; id++) {
+            List<Msg> msgs = network.sent(id);
+            assertThat(msgs.size()).isEqualTo(1);
+            if (msgs.get(0) instanceof BroadcastTx) {
+                pushed++;
+            } else {
+                assertThat(id).isLessThan(8);
+                assertThat(msgs.get(0)).isInstanceOf(AnnounceTx.class);
+                assertThat(hashes(((AnnounceTx) msgs.get(0)).getTxHashes()))
+                        .containsExactly(ByteArrayWrapper.wrap(tx.getHash()));
+                announced++;
+            }
+        }
+        assertThat(pushed + announced).isEqualTo(9);
+        assertThat(announced).isAtLeast(4);
+    }
+
+    @Test
+    public void testKnownFilters() {
+        Network network = new Network(2);
+        TxPropagationHandler handler = new TxPropagationHandler(network, new Pool(), false);
+
+        // nothing is sent twice to a peer, the probe included
+        AionTransaction tx = tx(0);
+        handler.propagateTx(Collections.singletonList(tx));
+        assertThat(network.sent(1).size()).isEqualTo(2);
+        assertThat(network.sent(2).size()).isEqualTo(2);
+        handler.propagateTx(Collections.singletonList(tx));
+        assertThat(network.sent(1)).isEmpty();
+        assertThat(network.sent(2)).isEmpty();
+
+        // nor sent back to the peer it came from, decoded or not
+        AionTransaction received = tx(1);
+        AionTransaction duplicate = tx(2);
+        handler.onReceiveTx(1, Collections.singletonList(received));
+        handler.onKnownTx(2, Collections.singletonList(ByteArrayWrapper.wrap(duplicate.getHash())));
+
+        List<AionTransaction> txs = new ArrayList<>();
+        txs.add(received);
+        txs.add(duplicate);
+        handler.propagateTx(txs);
+        assertThat(network.sent(1).size()).isEqualTo(1);
+        assertThat(network.sent(2).size()).isEqualTo(1);
+        assertThat(handler.getTxPushed()).isEqualTo(4L);
+    }
+
+    @Test
+    public void testRequestRetry() throws InterruptedException {
+        Network network = new Network(3);
+        TxPropagationHandler handler = new TxPropagationHandler(network, new Pool(), false, 200);
+
+        AionTransaction tx = tx(0);
+        List<byte[]> announced = Collections.singletonList(tx.getHash());
+        handler.onAnnounceTx(1, "", announced);
+        List<Msg> msgs = network.sent(1);
+        assertThat(msgs.size()).isEqualTo(1);
+        assertThat(hashes(((ReqTx) msgs.get(0)).getTxHashes())).containsExactly(ByteArrayWrapper.wrap(tx.getHash()));
+
+        // the request is not repeated to the next announcer before the timeout
+        handler.onAnnounceTx(2, "", announced);
+        assertThat(network.sent(2)).isEmpty();
+
+        Thread.sleep(300);
+        handler.onAnnounceTx(2, "", announced);
+        assertThat(network.sent(2).size()).isEqualTo(1);
+        assertThat(handler.getTxRequested()).isEqualTo(2L);
+    }
+
+    @Test
+    public void testServeFromPool() {
+        Network network = new Network(1);
+        Pool pool = new Pool();
+        TxPropagationHandler handler = new TxPropagationHandler(network, pool, false);
+
+        AionTransaction propagated = tx(0);
+        AionTransaction pending = tx(1);
+        AionTransaction unknown = tx(2);
+        handler.propagateTx(Collections.singletonList(propagated));
+        network.sent(1);
+        pool.addPendingTransaction(pending);
+
+        List<byte[]> requested = new ArrayList<>();
+        requested.add(propagated.getHash());
+        requested.add(pending.getHash());
+        requested.add(unknown.getHash());
+        handler.onReqTx(1, "", requested);
+
+        List<Msg> msgs = network.sent(1);
+        assertThat(msgs.size()).isEqualTo(1);
+        List<ByteArrayWrapper> served = new ArrayList<>();
+        for (byte[] encoded : BroadcastTx.decode(msgs.get(0).encode())) {
+            served.add(ByteArrayWrapper.wrap(new AionTransaction(encoded).getHash()));
+        }
+        assertThat(served).containsExactly(ByteArrayWrapper.wrap(propagated.getHash()),
+                ByteArrayWrapper.wrap(pending.getHash())).inOrder();
+        assertThat(handler.getTxServed()).isEqualTo(2L);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ *
+ * Aion foundation.
+ * <ether.camp> team through the ethereumJ library.
+ * Ether.Camp Inc. (US) team through Ethereum Harmony.
+ * John Tromp through the Equihash solver.
+ * Samuel Neves through the BLAKE2 implementation.
+ * Zcash project team.
+ * Bitcoinj team.
+ *
+ */
+
+package org.aion.zero.impl.sync.msg;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class AnnounceTxTest {
+
+    private static List<byte[]> hashes(int count) {
+        List<byte[]> hashes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] hash = new byte[32];
+            Arrays.fill(hash, (byte) i);
+            hash[0] = (byte) (i >> 8);
+            hashes.add(hash);
+        }
+        return hashes;
+    }
+
+    @Test
+    public void testAnnounceTx() {
+        List<byte[]> hashes = hashes(17);
+        AnnounceTx decoded = AnnounceTx.decode(new AnnounceTx(hashes).encode());
+
+        assertThat(decoded.getTxHashes().size()).isEqualTo(hashes.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            assertThat(decoded.getTxHashes().get(i)).isEqualTo(hashes.get(i));
+        }
+    }
+
+    @Test
+    public void testReqTx() {
+        List<byte[]> hashes = hashes(3);
+        ReqTx decoded = ReqTx.decode(new ReqTx(hashes).encode());
+
+        assertThat(decoded.getTxHashes().size()).isEqualTo(hashes.size());
+        for (int i = 0; i < hashes.size(); i++) {
+            assertThat(decoded.getTxHashes().get(i)).isEqualTo(hashes.get(i));
+        }
+    }
+
+    @Test
+    public void testDecodeInvalidLength() {
+        assertThat(AnnounceTx.decode(new byte[33])).isNull();
+        assertThat(ReqTx.decode(null)).isNull();
+        assertThat(AnnounceTx.decode(new byte[0]).getTxHashes().size()).isEqualTo(0);
+    }
+}
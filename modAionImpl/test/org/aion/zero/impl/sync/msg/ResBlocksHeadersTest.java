@@ -38,6 +38,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertArrayEquals;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -112,6 +113,30 @@ public class ResBlocksHeadersTest {
         List<A0BlockHeader> bhs2 = rbhs2.getHeaders();
         assertThat(bhs2.size()).isEqualTo(m);
     }
+
+    @Test
+    public void testEncodedHeaders() {
+        int m = 96;
+
+        List<A0BlockHeader> bhs = new ArrayList<A0BlockHeader>();
+        List<byte[]> encoded = new ArrayList<byte[]>();
+        for(int i = 0; i < m; i++) {
+            bhs.add(bh1);
+            encoded.add(bh1.getEncoded());
+        }
+        byte[] expected = new ResBlocksHeaders(bhs).encode();
+
+        ResBlocksHeaders rbhs = ResBlocksHeaders.fromEncoded(encoded);
+        assertThat(rbhs.encode()).isEqualTo(expected);
+        assertThat(rbhs.encodedLength()).isEqualTo(expected.length);
+
+        ByteBuffer buf = ByteBuffer.allocate(rbhs.encodedLength());
+        rbhs.encode(buf);
+        assertThat(buf.array()).isEqualTo(expected);
+
+        assertThat(rbhs.getHeaders().size()).isEqualTo(m);
+        assertThat(rbhs.getHeaders().get(0).getEncoded()).isEqualTo(bh1.getEncoded());
+    }
     
 
 }
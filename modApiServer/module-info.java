@@ -5,6 +5,7 @@ module aion.apiserver {
     requires aion.p2p;
     requires aion.zero;
     requires aion.mcf;
+    requires aion.rlp;
     requires aion.crypto;
     requires slf4j.api;
     requires aion.evtmgr;
@@ -14,4 +15,5 @@ module aion.apiserver {
     exports org.aion.api.server.pb;
     exports org.aion.api.server.http;
     exports org.aion.api.server.zmq;
+    exports org.aion.api.server.stratum;
 }
\ No newline at end of file
@@ -54,9 +54,11 @@ import org.aion.mcf.account.Keystore;
 import org.aion.mcf.config.CfgNetP2p;
 import org.aion.mcf.core.AccountState;
 import org.aion.mcf.core.ImportResult;
+import org.aion.mcf.trie.TrieImpl;
 import org.aion.mcf.vm.types.DataWord;
 import org.aion.mcf.vm.types.Log;
 import org.aion.p2p.INode;
+import org.aion.rlp.RLP;
 import org.aion.zero.impl.AionBlockchainImpl;
 import org.aion.zero.impl.Version;
 import org.aion.zero.impl.blockchain.AionImpl;
@@ -65,6 +67,7 @@ import org.aion.zero.impl.config.CfgAion;
 import org.aion.zero.impl.config.CfgConsensusPow;
 import org.aion.zero.impl.config.CfgEnergyStrategy;
 import org.aion.zero.impl.core.IAionBlockchain;
+import org.aion.zero.impl.db.AddressIndex;
 import org.aion.zero.impl.db.AionBlockStore;
 import org.aion.zero.impl.db.AionRepositoryImpl;
 import org.aion.zero.impl.sync.PeerState;
@@ -422,6 +425,112 @@ public class ApiWeb3Aion extends ApiAion {
             return new RpcMsg(null, RpcError.EXECUTION_ERROR, "Storage value not found");
     }
 
+    /**
+     * Proof of an account and of some of its storage entries at a block: the
+     * state trie nodes from the state root of the block down to the account,
+     * and the storage trie nodes from the account storage root down to each
+     * key. Both tries are keyed by hash, so the path of an account follows the
+     * hash of its address and the path of a storage entry the hash of its key.
+     */
+    public RpcMsg eth_getProof(Object _params) {
+        String _address;
+        JSONArray _keys;
+        Object _bnOrId;
+        if (_params instanceof JSONArray) {
+            _address = ((JSONArray)_params).get(0) + "";
+            _keys = ((JSONArray)_params).optJSONArray(1);
+            _bnOrId = ((JSONArray)_params).opt(2);
+        }
+        else if (_params instanceof JSONObject) {
+            _address = ((JSONObject)_params).get("address") + "";
+            _keys = ((JSONObject)_params).optJSONArray("keys");
+            _bnOrId = ((JSONObject)_params).opt("block");
+        }
+        else {
+            return new RpcMsg(null, RpcError.INVALID_PARAMS, "Invalid parameters");
+        }
+
+        Address address;
+        try {
+            address = new Address(_address);
+        } catch (Exception e) {
+            return new RpcMsg(null, RpcError.INVALID_PARAMS, "Invalid address.");
+        }
+
+        List<DataWord> keys = new ArrayList<>();
+        if (_keys != null) {
+            for (int i = 0; i < _keys.length(); i++) {
+                try {
+                    keys.add(new DataWord(ByteUtil.hexStringToBytes(_keys.get(i) + "")));
+                } catch (Exception e) {
+                    return new RpcMsg(null, RpcError.INVALID_PARAMS, "Invalid storage key. Must be <= 16 bytes.");
+                }
+            }
+        }
+
+        String bnOrId = "latest";
+        if (_bnOrId != null && !_bnOrId.equals(null))
+            bnOrId = _bnOrId + "";
+
+        Long bn = parseBnOrId(bnOrId);
+        if (bn == null || bn < 0)
+            return new RpcMsg(null, RpcError.INVALID_PARAMS, "Invalid block number.");
+
+        AionBlock b = this.ac.getBlockchain().getBlockByNumber(bn);
+        if (b == null)
+            return new RpcMsg(null, RpcError.EXECUTION_ERROR, "Block not found.");
+
+        AionRepositoryImpl repo = (AionRepositoryImpl) this.ac.getRepository();
+        byte[] stateRoot = b.getStateRoot();
+
+        List<byte[]> accountProof = repo.getAccountProof(address, stateRoot);
+        if (accountProof == null)
+            return new RpcMsg(null, RpcError.EXECUTION_ERROR, "State not available for block.");
+
+        byte[] encoded = TrieImpl.verifyProof(stateRoot, HashUtil.h256(address.toBytes()), accountProof);
+        if (encoded == null)
+            return new RpcMsg(null, RpcError.EXECUTION_ERROR, "State not available for block.");
+        AccountState account = encoded.length == 0 ? new AccountState() : new AccountState(encoded);
+
+        JSONArray storageProof = new JSONArray();
+        for (DataWord key : keys) {
+            List<byte[]> proof = repo.getStorageProof(address, account.getStateRoot(), key);
+            if (proof == null)
+                return new RpcMsg(null, RpcError.EXECUTION_ERROR, "Storage not available for block.");
+
+            byte[] value = TrieImpl.verifyProof(account.getStateRoot(), HashUtil.h256(key.getData()), proof);
+            if (value == null)
+                return new RpcMsg(null, RpcError.EXECUTION_ERROR, "Storage not available for block.");
+
+            JSONObject entry = new JSONObject();
+            entry.put("key", TypeConverter.toJsonHex(key.getData()));
+            entry.put("value", TypeConverter.toJsonHex(value.length == 0
+                    ? DataWord.ZERO.getData()
+                    : new DataWord(RLP.decode2(value).get(0).getRLPData()).getData()));
+            entry.put("proof", toJsonProof(proof));
+            storageProof.put(entry);
+        }
+
+        JSONObject obj = new JSONObject();
+        obj.put("address", TypeConverter.toJsonHex(address.toBytes()));
+        obj.put("blockNumber", b.getNumber());
+        obj.put("accountProof", toJsonProof(accountProof));
+        obj.put("balance", TypeConverter.toJsonHex(account.getBalance()));
+        obj.put("nonce", TypeConverter.toJsonHex(account.getNonce()));
+        obj.put("codeHash", TypeConverter.toJsonHex(account.getCodeHash()));
+        obj.put("storageHash", TypeConverter.toJsonHex(account.getStateRoot()));
+        obj.put("storageProof", storageProof);
+        return new RpcMsg(obj);
+    }
+
+    private static JSONArray toJsonProof(List<byte[]> proof) {
+        JSONArray arr = new JSONArray();
+        for (byte[] node : proof) {
+            arr.put(TypeConverter.toJsonHex(node));
+        }
+        return arr;
+    }
+
     public RpcMsg eth_getTransactionCount(Object _params) {
         String _address;
         Object _bnOrId;
@@ -860,6 +969,48 @@ public class ApiWeb3Aion extends ApiAion {
         return new RpcMsg(r.toJson());
     }
 
+    /**
+     * Proof of a transaction receipt: the receipt trie nodes from the receipts
+     * root of the including block down to the receipt, which is keyed by the
+     * RLP encoding of the transaction index.
+     */
+    public RpcMsg eth_getReceiptProof(Object _params) {
+        String _hash;
+        if (_params instanceof JSONArray) {
+            _hash = ((JSONArray)_params).get(0) + "";
+        }
+        else if (_params instanceof JSONObject) {
+            _hash = ((JSONObject)_params).get("hash") + "";
+        }
+        else {
+            return new RpcMsg(null, RpcError.INVALID_PARAMS, "Invalid parameters");
+        }
+
+        byte[] txHash = TypeConverter.StringHexToByteArray(_hash);
+        AionTxInfo txInfo = this.ac.getAionHub().getBlockchain().getTransactionInfo(txHash);
+        if (txInfo == null)
+            return new RpcMsg(JSONObject.NULL);
+
+        AionBlock b = this.ac.getBlockchain().getBlockByHash(txInfo.getBlockHash());
+        if (b == null)
+            return new RpcMsg(JSONObject.NULL);
+
+        List<byte[]> proof = ((AionBlockchainImpl) this.ac.getBlockchain())
+                .getReceiptProof(txInfo.getBlockHash(), txInfo.getIndex());
+        if (proof == null)
+            return new RpcMsg(null, RpcError.EXECUTION_ERROR, "Receipts not available for block.");
+
+        JSONObject obj = new JSONObject();
+        obj.put("transactionHash", TypeConverter.toJsonHex(txHash));
+        obj.put("blockHash", TypeConverter.toJsonHex(b.getHash()));
+        obj.put("blockNumber", b.getNumber());
+        obj.put("transactionIndex", txInfo.getIndex());
+        obj.put("receiptsRoot", TypeConverter.toJsonHex(b.getReceiptsRoot()));
+        obj.put("key", TypeConverter.toJsonHex(RLP.encodeInt(txInfo.getIndex())));
+        obj.put("proof", toJsonProof(proof));
+        return new RpcMsg(obj);
+    }
+
     /* -------------------------------------------------------------------------
      * compiler
      */
@@ -2061,6 +2212,80 @@ public class ApiWeb3Aion extends ApiAion {
         return new RpcMsg(result);
     }
 
+    private static final int ADDRESS_TX_PAGE_SIZE = 20;
+    private static final int ADDRESS_TX_MAX_PAGE_SIZE = 100;
+
+    // pages through the transactions touching an address, newest first, using the address index
+    public RpcMsg ops_getTransactionsByAddress(Object _params) {
+        String _address;
+        int _page;
+        int _pageSize;
+        if (_params instanceof JSONArray) {
+            _address = ((JSONArray)_params).get(0) + "";
+            _page = ((JSONArray)_params).optInt(1, 0);
+            _pageSize = ((JSONArray)_params).optInt(2, ADDRESS_TX_PAGE_SIZE);
+        }
+        else if (_params instanceof JSONObject) {
+            _address = ((JSONObject)_params).get("address") + "";
+            _page = ((JSONObject)_params).optInt("page", 0);
+            _pageSize = ((JSONObject)_params).optInt("pageSize", ADDRESS_TX_PAGE_SIZE);
+        }
+        else {
+            return new RpcMsg(null, RpcError.INVALID_PARAMS, "Invalid parameters");
+        }
+
+        Address address;
+
+        try {
+            address = new Address(_address);
+        } catch (Exception e) {
+            return new RpcMsg(null, RpcError.INVALID_PARAMS, "Invalid address provided.");
+        }
+
+        if (_page < 0 || _pageSize <= 0 || _pageSize > ADDRESS_TX_MAX_PAGE_SIZE) {
+            return new RpcMsg(null, RpcError.INVALID_PARAMS, "Invalid page or page size.");
+        }
+
+        AddressIndex index = ((AionBlockchainImpl) this.ac.getBlockchain()).getAddressIndex();
+        if (index == null) {
+            return new RpcMsg(null, RpcError.EXECUTION_ERROR, "Address index is disabled.");
+        }
+
+        Map<ByteArrayWrapper, AionBlock> blocks = new HashMap<>();
+        JSONArray txn = new JSONArray();
+        for (AddressIndex.Entry entry : index.getEntries(address, (long) _page * _pageSize, _pageSize)) {
+            AionBlock block = blocks.computeIfAbsent(ByteArrayWrapper.wrap(entry.getBlockHash()),
+                    h -> this.ac.getBlockchain().getBlockByHash(h.getData()));
+            if (block == null || entry.getTxIndex() >= block.getTransactionsList().size()) {
+                continue;
+            }
+            AionTransaction tx = block.getTransactionsList().get(entry.getTxIndex());
+            Address to = tx.isContractCreation() ? tx.getContractAddress() : tx.getTo();
+
+            // transactionHash, fromAddr, toAddr, value, timestampVal, blockNumber, transactionIndex
+            JSONArray t = new JSONArray();
+            t.put(TypeConverter.toJsonHex(tx.getHash()));
+            t.put(TypeConverter.toJsonHex(tx.getFrom().toBytes()));
+            t.put(TypeConverter.toJsonHex(to.toBytes()));
+            t.put(TypeConverter.toJsonHex(tx.getValue()));
+            t.put(block.getTimestamp());
+            t.put(block.getNumber());
+            t.put(entry.getTxIndex());
+
+            txn.put(t);
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("address", address.toString());
+        result.put("total", index.getCount(address));
+        result.put("page", _page);
+        result.put("pageSize", _pageSize);
+        result.put("backfillBlock", index.getBackfillBlock());
+        result.put("txn", txn);
+
+        return new RpcMsg(result);
+    }
+
     /* -------------------------------------------------------------------------
      * stratum pool
      */
@@ -80,6 +80,7 @@ public class RpcMethods {
             Map.entry("ops_getChainHeadViewBestBlock", (params) -> api.ops_getChainHeadViewBestBlock()),
             Map.entry("ops_getTransaction", (params) -> api.ops_getTransaction(params)),
             Map.entry("ops_getBlock", (params) -> api.ops_getBlock(params)),
+            Map.entry("ops_getTransactionsByAddress", (params) -> api.ops_getTransactionsByAddress(params)),
             Map.entry("ops_getChainHeadView", (params) -> api.ops_getChainHeadView()),
             Map.entry("eth_getBalance", (params) -> api.eth_getBalance(params)),
             Map.entry("eth_sendRawTransaction", (params) -> api.eth_sendRawTransaction(params)),
@@ -154,6 +155,7 @@ public class RpcMethods {
             Map.entry("eth_getTransactionByBlockHashAndIndex", (params) -> api.eth_getTransactionByBlockHashAndIndex(params)),
             Map.entry("eth_getTransactionByBlockNumberAndIndex", (params) -> api.eth_getTransactionByBlockNumberAndIndex(params)),
             Map.entry("eth_getTransactionReceipt", (params) -> api.eth_getTransactionReceipt(params)),
+            Map.entry("eth_getReceiptProof", (params) -> api.eth_getReceiptProof(params)),
             Map.entry("eth_syncing", (params) -> api.eth_syncing()),
             Map.entry("eth_protocolVersion", (params) -> api.eth_protocolVersion()),
             Map.entry("eth_mining", (params) -> api.eth_mining()),
@@ -162,6 +164,7 @@ public class RpcMethods {
             Map.entry("eth_gasPrice", (params) -> api.eth_gasPrice()),
             Map.entry("eth_sign", (params) -> api.eth_sign(params)),
             Map.entry("eth_getStorageAt", (params) -> api.eth_getStorageAt(params)),
+            Map.entry("eth_getProof", (params) -> api.eth_getProof(params)),
 
             Map.entry("eth_newFilter", (params) -> api.eth_newFilter(params)),
             Map.entry("eth_newBlockFilter", (params) -> api.eth_newBlockFilter()),
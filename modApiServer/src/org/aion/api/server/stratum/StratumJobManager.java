@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+package org.aion.api.server.stratum;
+
+import org.aion.base.util.ByteArrayWrapper;
+import org.aion.crypto.HashUtil;
+import org.aion.equihash.OptimizedEquiValidator;
+import org.aion.evtmgr.IEvent;
+import org.aion.evtmgr.IEventMgr;
+import org.aion.evtmgr.IHandler;
+import org.aion.evtmgr.impl.callback.EventCallback;
+import org.aion.evtmgr.impl.es.EventExecuteService;
+import org.aion.evtmgr.impl.evt.EventConsensus;
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.aion.mcf.core.ImportResult;
+import org.aion.zero.impl.blockchain.AionImpl;
+import org.aion.zero.impl.config.CfgAion;
+import org.aion.zero.impl.types.AionBlock;
+import org.slf4j.Logger;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns block templates into numbered mining jobs and checks the shares
+ * submitted against them.
+ *
+ * <p>All jobs built on the same parent stay open, so a miner still working on
+ * a template that was refreshed with new transactions does not lose its
+ * shares. Once a template for a different height arrives every open job is
+ * dropped and late shares are rejected as stale.
+ */
+public class StratumJobManager {
+
+    private static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.API.name());
+
+    /** Maximum number of jobs kept open for the current height. */
+    private static final int MAX_JOBS = 16;
+
+    private static final int NONCE_LEN = 32;
+
+    private static final BigInteger TWO_POW_256 = BigInteger.ONE.shiftLeft(256);
+
+    public enum ShareResult {
+        /** The share met the connection target. */
+        ACCEPTED,
+        /** The share met the block boundary and the block was imported. */
+        BLOCK,
+        /** The job is unknown or belongs to a previous height. */
+        STALE,
+        /** The same solution was already submitted for this job. */
+        DUPLICATE,
+        /** The solution is valid but does not meet the connection target. */
+        LOW_DIFFICULTY,
+        /** The nonce or solution is malformed or fails verification. */
+        INVALID
+    }
+
+    /**
+     * Checks a submitted solution against a header hash.
+     */
+    public interface SolutionVerifier {
+        /**
+         * @return the proof of work hash of a valid solution, or {@code null}
+         *         when the solution does not verify
+         */
+        byte[] verify(byte[] headerHash, byte[] nonce, byte[] solution);
+    }
+
+    /**
+     * Hands a solved template to the kernel.
+     */
+    public interface BlockSubmitter {
+        boolean submit(AionBlock template, byte[] nonce, byte[] solution);
+    }
+
+    /**
+     * Notified every time a new job is opened.
+     */
+    public interface JobListener {
+        /**
+         * @param clean
+         *            {@code true} when the previous jobs were dropped
+         */
+        void onJob(Job job, boolean clean);
+    }
+
+    public static final class Job {
+        private final String id;
+        private final long number;
+        private final byte[] headerHash;
+        private final BigInteger boundary;
+        private final AionBlock template;
+        private final Set<ByteArrayWrapper> shares = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean solved = new AtomicBoolean();
+
+        Job(String id, long number, byte[] headerHash, BigInteger boundary, AionBlock template) {
+            this.id = id;
+            this.number = number;
+            this.headerHash = headerHash;
+            this.boundary = boundary;
+            this.template = template;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getNumber() {
+            return number;
+        }
+
+        public byte[] getHeaderHash() {
+            return headerHash;
+        }
+
+        public BigInteger getBoundary() {
+            return boundary;
+        }
+    }
+
+    private final SolutionVerifier verifier;
+    private final BlockSubmitter submitter;
+    private final List<JobListener> listeners = new CopyOnWriteArrayList<>();
+
+    // jobs for the current height, oldest first
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private final Set<ByteArrayWrapper> headerHashes = new HashSet<>();
+    private Job current;
+    private long nextJobId;
+
+    private EventExecuteService ees;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong blocks = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong duplicate = new AtomicLong();
+    private final AtomicLong lowDifficulty = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+
+    public StratumJobManager(SolutionVerifier verifier, BlockSubmitter submitter) {
+        this.verifier = verifier;
+        this.submitter = submitter;
+    }
+
+    public void addListener(JobListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Subscribes to the block templates produced by the consensus module.
+     */
+    public void subscribe(IEventMgr evtMgr) {
+        Set<Integer> filter = new HashSet<>();
+        filter.add((IHandler.TYPE.CONSENSUS.getValue() << 8) + EventConsensus.CALLBACK.ON_BLOCK_TEMPLATE.getValue());
+
+        ees = new EventExecuteService(1_000, "EpStratum", Thread.NORM_PRIORITY, LOG);
+        ees.setFilter(filter);
+
+        IHandler consensusHandler = evtMgr.getHandler(IHandler.TYPE.CONSENSUS.getValue());
+        consensusHandler.eventCallback(new EventCallback(ees, LOG));
+
+        ees.start(() -> {
+            while (true) {
+                IEvent e = ees.take();
+                if (e.getEventType() == IHandler.TYPE.CONSENSUS.getValue()
+                        && e.getCallbackType() == EventConsensus.CALLBACK.ON_BLOCK_TEMPLATE.getValue()) {
+                    onTemplate((AionBlock) e.getFuncArgs().get(0));
+                } else if (e.getEventType() == IHandler.TYPE.POISONPILL.getValue()) {
+                    break;
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        if (ees != null) {
+            ees.shutdown();
+        }
+    }
+
+    public void onTemplate(AionBlock block) {
+        if (block != null) {
+            newJob(block.getNumber(), block.getHeader().getMineHash(), block.getHeader().getPowBoundaryBI(), block);
+        }
+    }
+
+    /**
+     * Opens a job for a template, unless a job for the same header hash is
+     * already open.
+     *
+     * @return the new job, or {@code null} if the template was already known
+     */
+    Job newJob(long number, byte[] headerHash, BigInteger boundary, AionBlock template) {
+        Job job;
+        boolean clean;
+        synchronized (this) {
+            clean = current == null || current.number != number;
+            if (clean) {
+                jobs.clear();
+                headerHashes.clear();
+            }
+            if (!headerHashes.add(ByteArrayWrapper.wrap(headerHash))) {
+                return null;
+            }
+
+            job = new Job(Long.toHexString(nextJobId++), number, headerHash, boundary, template);
+            jobs.put(job.id, job);
+            if (jobs.size() > MAX_JOBS) {
+                Job oldest = jobs.values().iterator().next();
+                jobs.remove(oldest.id);
+                headerHashes.remove(ByteArrayWrapper.wrap(oldest.headerHash));
+            }
+            current = job;
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("<stratum-job id={} num={} clean={}>", job.id, number, clean);
+        }
+
+        for (JobListener listener : listeners) {
+            listener.onJob(job, clean);
+        }
+        return job;
+    }
+
+    /**
+     * @return the most recent job, or {@code null} before the first template
+     */
+    public synchronized Job getCurrentJob() {
+        return current;
+    }
+
+    private synchronized Job getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Checks a share and submits the block when it also meets the block
+     * boundary.
+     *
+     * @param target
+     *            the share target of the submitting connection
+     */
+    public ShareResult submit(String jobId, byte[] nonce, byte[] solution, BigInteger target) {
+        Job job = getJob(jobId);
+        if (job == null) {
+            stale.incrementAndGet();
+            return ShareResult.STALE;
+        }
+
+        if (nonce.length != NONCE_LEN) {
+            invalid.incrementAndGet();
+            return ShareResult.INVALID;
+        }
+
+        byte[] hash = verifier.verify(job.headerHash, nonce, solution);
+        if (hash == null) {
+            invalid.incrementAndGet();
+            return ShareResult.INVALID;
+        }
+
+        if (!job.shares.add(ByteArrayWrapper.wrap(hash))) {
+            duplicate.incrementAndGet();
+            return ShareResult.DUPLICATE;
+        }
+
+        BigInteger value = new BigInteger(1, hash);
+        if (value.compareTo(job.boundary) < 0 && job.solved.compareAndSet(false, true)) {
+            if (submitter.submit(job.template, nonce, solution)) {
+                blocks.incrementAndGet();
+                return ShareResult.BLOCK;
+            }
+            // allow another solution for the same job
+            job.solved.set(false);
+        }
+
+        if (value.compareTo(target) >= 0) {
+            lowDifficulty.incrementAndGet();
+            return ShareResult.LOW_DIFFICULTY;
+        }
+
+        accepted.incrementAndGet();
+        return ShareResult.ACCEPTED;
+    }
+
+    /**
+     * @return the share target for a difficulty, {@code 2^256 / difficulty}
+     */
+    public static BigInteger toTarget(BigInteger difficulty) {
+        return TWO_POW_256.divide(difficulty.max(BigInteger.ONE));
+    }
+
+    /**
+     * Verifies equihash solutions the same way block import does.
+     */
+    public static SolutionVerifier equihashVerifier() {
+        // the validator keeps scratch buffers; one per verifying thread
+        ThreadLocal<OptimizedEquiValidator> validators = ThreadLocal
+                .withInitial(() -> new OptimizedEquiValidator(CfgAion.getN(), CfgAion.getK()));
+
+        return (headerHash, nonce, solution) -> {
+            if (!validators.get().isValidSolutionNative(solution, headerHash, nonce)) {
+                return null;
+            }
+
+            // H(Hdr) + nonce + solution
+            byte[] input = new byte[headerHash.length + nonce.length + solution.length];
+            System.arraycopy(headerHash, 0, input, 0, headerHash.length);
+            System.arraycopy(nonce, 0, input, headerHash.length, nonce.length);
+            System.arraycopy(solution, 0, input, headerHash.length + nonce.length, solution.length);
+            return HashUtil.h256(input);
+        };
+    }
+
+    /**
+     * Imports solved templates as newly mined blocks.
+     */
+    public static BlockSubmitter kernelSubmitter() {
+        return (template, nonce, solution) -> {
+            // the template is shared with other consumers of the event
+            AionBlock block = new AionBlock(template);
+            block.getHeader().setNonce(nonce);
+            block.getHeader().setSolution(solution);
+
+            ImportResult importResult = AionImpl.inst().addNewMinedBlock(block);
+            if (importResult.isSuccessful()) {
+                LOG.info("block submitted via stratum <num={}, hash={}, diff={}, tx={}>", block.getNumber(),
+                        block.getShortHash(), block.getHeader().getDifficultyBI().toString(),
+                        block.getTransactionsList().size());
+                return true;
+            } else {
+                LOG.info("Unable to submit block via stratum <num={}, hash={}, result={}>", block.getNumber(),
+                        block.getShortHash(), importResult);
+                return false;
+            }
+        };
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    public long getBlockCount() {
+        return blocks.get();
+    }
+
+    public long getStaleCount() {
+        return stale.get();
+    }
+
+    public long getDuplicateCount() {
+        return duplicate.get();
+    }
+
+    public long getLowDifficultyCount() {
+        return lowDifficulty.get();
+    }
+
+    public long getInvalidCount() {
+        return invalid.get();
+    }
+}
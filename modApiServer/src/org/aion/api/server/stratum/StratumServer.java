@@ -0,0 +1,525 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+package org.aion.api.server.stratum;
+
+import org.aion.api.server.stratum.StratumJobManager.Job;
+import org.aion.api.server.stratum.StratumJobManager.ShareResult;
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.aion.base.util.ByteUtil.hexStringToBytes;
+import static org.aion.base.util.ByteUtil.toHexString;
+
+/**
+ * Line delimited JSON-RPC work server for external miners.
+ *
+ * <p>Miners keep a connection open and are pushed a {@code mining.notify}
+ * message as soon as a new job is opened, instead of polling
+ * {@code getwork}. Every connection has its own extranonce, which prefixes the
+ * nonces it submits, and its own share target.
+ *
+ * <p>All sockets are served by a single selector thread. Shares are verified
+ * on a bounded worker pool.
+ */
+public class StratumServer implements StratumJobManager.JobListener {
+
+    private static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.API.name());
+
+    /** Longest request accepted; a submit with a 1408 byte solution is under 3k. */
+    static final int MAX_LINE_LEN = 8 * 1024;
+
+    /** Connections that fall further behind than this are dropped. */
+    private static final int MAX_WRITE_BACKLOG = 256 * 1024;
+
+    private static final BigInteger MAX_TARGET = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+
+    // stratum error codes
+    static final int ERR_OTHER = 20;
+    static final int ERR_STALE = 21;
+    static final int ERR_DUPLICATE = 22;
+    static final int ERR_LOW_DIFFICULTY = 23;
+    static final int ERR_UNAUTHORIZED = 24;
+    static final int ERR_NOT_SUBSCRIBED = 25;
+
+    private final String ip;
+    private int port;
+    private final BigInteger defaultDifficulty;
+    private final StratumJobManager jobs;
+    private final ExecutorService workers;
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread ioThread;
+    private volatile boolean running;
+
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final Queue<Session> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger nextSessionId = new AtomicInteger(1);
+
+    private final ByteBuffer readBuf = ByteBuffer.allocateDirect(64 * 1024);
+
+    private final class Session {
+        private final SocketChannel channel;
+        private final String extraNonce;
+        private SelectionKey key;
+
+        // partial request line, only touched by the selector thread
+        private byte[] line = new byte[256];
+        private int lineLen;
+
+        private final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger outBytes = new AtomicInteger();
+        private final AtomicBoolean writePending = new AtomicBoolean();
+
+        private volatile boolean subscribed;
+        private volatile String worker;
+        private volatile BigInteger target;
+
+        private Session(SocketChannel channel, int id) {
+            this.channel = channel;
+            this.extraNonce = String.format("%08x", id);
+            this.target = StratumJobManager.toTarget(defaultDifficulty);
+        }
+    }
+
+    private static final class StratumThreadFactory implements ThreadFactory {
+        private final AtomicInteger tnum = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "stratum-worker-" + tnum.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * @param difficulty
+     *            share difficulty given to new connections; connections may
+     *            only suggest a higher one
+     * @param threads
+     *            number of share verification threads
+     */
+    public StratumServer(String ip, int port, BigInteger difficulty, StratumJobManager jobs, int threads) {
+        this.ip = ip;
+        this.port = port;
+        this.defaultDifficulty = difficulty.max(BigInteger.ONE);
+        this.jobs = jobs;
+
+        threads = Math.max(1, threads);
+        this.workers = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(1024),
+                new StratumThreadFactory());
+    }
+
+    public void start() throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.bind(new InetSocketAddress(ip, port), 1024);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+
+        jobs.addListener(this);
+
+        running = true;
+        ioThread = new Thread(this::run, "stratum-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+
+        LOG.info("<stratum-server - started on {}:{}>", ip, port);
+    }
+
+    public void shutdown() {
+        running = false;
+        jobs.shutdown();
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (ioThread != null) {
+            try {
+                ioThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * @return the port the server is bound to
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        Session s = (Session) key.attachment();
+                        if (key.isReadable()) {
+                            read(s);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(s);
+                        }
+                    } catch (IOException e) {
+                        close((Session) key.attachment());
+                    }
+                }
+
+                Session s;
+                while ((s = pendingWrites.poll()) != null) {
+                    s.writePending.set(false);
+                    try {
+                        write(s);
+                    } catch (IOException e) {
+                        close(s);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            LOG.error("<stratum-server - selector failed: {}>", e.toString());
+        } finally {
+            for (Session s : sessions) {
+                close(s);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            LOG.info("<stratum-server - stopped>");
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            Session s = new Session(channel, nextSessionId.getAndIncrement());
+            s.key = channel.register(selector, SelectionKey.OP_READ, s);
+            sessions.add(s);
+        }
+    }
+
+    private void close(Session s) {
+        if (s != null && sessions.remove(s)) {
+            s.key.cancel();
+            try {
+                s.channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void read(Session s) throws IOException {
+        readBuf.clear();
+        int n = s.channel.read(readBuf);
+        if (n < 0) {
+            close(s);
+            return;
+        }
+        readBuf.flip();
+
+        while (readBuf.hasRemaining()) {
+            byte b = readBuf.get();
+            if (b == '\n') {
+                String request = new String(s.line, 0, s.lineLen, StandardCharsets.UTF_8).trim();
+                s.lineLen = 0;
+                if (!request.isEmpty()) {
+                    handle(s, request);
+                }
+            } else {
+                if (s.lineLen == s.line.length) {
+                    if (s.lineLen == MAX_LINE_LEN) {
+                        LOG.debug("<stratum-server - request too long from {}>", s.extraNonce);
+                        close(s);
+                        return;
+                    }
+                    byte[] grown = new byte[Math.min(MAX_LINE_LEN, s.line.length * 2)];
+                    System.arraycopy(s.line, 0, grown, 0, s.lineLen);
+                    s.line = grown;
+                }
+                s.line[s.lineLen++] = b;
+            }
+        }
+    }
+
+    private void write(Session s) throws IOException {
+        if (!s.key.isValid()) {
+            return;
+        }
+
+        ByteBuffer buf;
+        while ((buf = s.out.peek()) != null) {
+            s.channel.write(buf);
+            if (buf.hasRemaining()) {
+                s.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            s.out.poll();
+            s.outBytes.addAndGet(-buf.capacity());
+        }
+        s.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Queues a message for a connection; the selector thread writes it out.
+     * Connections that are too far behind are closed instead.
+     */
+    private void enqueue(Session s, byte[] msg) {
+        if (s.outBytes.addAndGet(msg.length) > MAX_WRITE_BACKLOG) {
+            LOG.debug("<stratum-server - dropping slow connection {}>", s.extraNonce);
+            close(s);
+            return;
+        }
+        s.out.add(ByteBuffer.wrap(msg));
+        if (s.writePending.compareAndSet(false, true)) {
+            pendingWrites.add(s);
+        }
+    }
+
+    private void send(Session s, JSONObject msg) {
+        enqueue(s, toLine(msg));
+        selector.wakeup();
+    }
+
+    private static byte[] toLine(JSONObject msg) {
+        return (msg.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void reply(Session s, Object id, Object result) {
+        JSONObject msg = new JSONObject();
+        msg.put("id", id);
+        msg.put("result", result);
+        msg.put("error", JSONObject.NULL);
+        send(s, msg);
+    }
+
+    private void error(Session s, Object id, int code, String message) {
+        JSONObject msg = new JSONObject();
+        msg.put("id", id);
+        msg.put("result", JSONObject.NULL);
+        msg.put("error", new JSONArray().put(code).put(message).put(JSONObject.NULL));
+        send(s, msg);
+    }
+
+    private void handle(Session s, String request) {
+        Object id = JSONObject.NULL;
+        try {
+            JSONObject req = new JSONObject(request);
+            id = req.opt("id");
+            if (id == null) {
+                id = JSONObject.NULL;
+            }
+            JSONArray params = req.optJSONArray("params");
+            if (params == null) {
+                params = new JSONArray();
+            }
+
+            switch (req.optString("method")) {
+                case "mining.subscribe":
+                    s.subscribed = true;
+                    reply(s, id, new JSONArray().put(JSONObject.NULL).put(s.extraNonce));
+                    send(s, setTarget(s.target));
+                    Job job = jobs.getCurrentJob();
+                    if (job != null) {
+                        send(s, notify(job, true));
+                    }
+                    break;
+                case "mining.authorize":
+                    s.worker = params.optString(0, "");
+                    reply(s, id, true);
+                    break;
+                case "mining.suggest_difficulty":
+                    BigInteger difficulty = new BigInteger(params.get(0).toString());
+                    s.target = StratumJobManager.toTarget(difficulty.max(defaultDifficulty));
+                    reply(s, id, true);
+                    send(s, setTarget(s.target));
+                    break;
+                case "mining.submit":
+                    if (!s.subscribed) {
+                        error(s, id, ERR_NOT_SUBSCRIBED, "Not subscribed");
+                    } else if (s.worker == null) {
+                        error(s, id, ERR_UNAUTHORIZED, "Unauthorized worker");
+                    } else {
+                        submit(s, id, params);
+                    }
+                    break;
+                default:
+                    error(s, id, ERR_OTHER, "Unknown method");
+                    break;
+            }
+        } catch (JSONException | NumberFormatException e) {
+            error(s, id, ERR_OTHER, "Invalid request");
+        }
+    }
+
+    private void submit(Session s, Object id, JSONArray params) {
+        String jobId = params.getString(1);
+        String nonceHex = params.getString(2);
+        String solutionHex = params.getString(3);
+        BigInteger target = s.target;
+
+        try {
+            workers.execute(() -> {
+                byte[] nonce;
+                byte[] solution;
+                try {
+                    nonce = hexStringToBytes(nonceHex);
+                    solution = hexStringToBytes(solutionHex);
+                } catch (RuntimeException e) {
+                    error(s, id, ERR_OTHER, "Invalid hex");
+                    return;
+                }
+
+                if (!toHexString(nonce).startsWith(s.extraNonce)) {
+                    error(s, id, ERR_OTHER, "Nonce does not start with extranonce");
+                    return;
+                }
+
+                ShareResult result = jobs.submit(jobId, nonce, solution, target);
+                switch (result) {
+                    case ACCEPTED:
+                    case BLOCK:
+                        reply(s, id, true);
+                        break;
+                    case STALE:
+                        error(s, id, ERR_STALE, "Job not found");
+                        break;
+                    case DUPLICATE:
+                        error(s, id, ERR_DUPLICATE, "Duplicate share");
+                        break;
+                    case LOW_DIFFICULTY:
+                        error(s, id, ERR_LOW_DIFFICULTY, "Low difficulty share");
+                        break;
+                    default:
+                        error(s, id, ERR_OTHER, "Invalid solution");
+                        break;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            error(s, id, ERR_OTHER, "Server busy");
+        }
+    }
+
+    private static JSONObject setTarget(BigInteger target) {
+        JSONObject msg = new JSONObject();
+        msg.put("id", JSONObject.NULL);
+        msg.put("method", "mining.set_target");
+        msg.put("params", new JSONArray().put(toTargetHex(target)));
+        return msg;
+    }
+
+    private static JSONObject notify(Job job, boolean clean) {
+        JSONObject msg = new JSONObject();
+        msg.put("id", JSONObject.NULL);
+        msg.put("method", "mining.notify");
+        msg.put("params", new JSONArray()
+                .put(job.getId())
+                .put(job.getNumber())
+                .put(toHexString(job.getHeaderHash()))
+                .put(toTargetHex(job.getBoundary()))
+                .put(clean));
+        return msg;
+    }
+
+    /**
+     * @return the target as 32 bytes of hex, saturated at {@code 2^256 - 1}
+     */
+    private static String toTargetHex(BigInteger target) {
+        String hex = target.min(MAX_TARGET).toString(16);
+        StringBuilder sb = new StringBuilder(64);
+        for (int i = hex.length(); i < 64; i++) {
+            sb.append('0');
+        }
+        return sb.append(hex).toString();
+    }
+
+    /**
+     * Pushes a new job to every subscribed connection.
+     */
+    @Override
+    public void onJob(Job job, boolean clean) {
+        byte[] msg = toLine(notify(job, clean));
+        for (Session s : sessions) {
+            if (s.subscribed) {
+                enqueue(s, msg);
+            }
+        }
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+package org.aion.api.server.stratum;
+
+import org.aion.api.server.stratum.StratumJobManager.Job;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.base.util.ByteUtil.hexStringToBytes;
+import static org.aion.base.util.ByteUtil.toHexString;
+
+/**
+ * Drives the stratum server with simulated miners. Solutions are checked by a
+ * stand-in verifier whose proof of work hash is the reversed nonce, so the
+ * last nonce byte decides whether a share meets a target.
+ */
+public class StratumServerTest {
+
+    private static final int MINERS = 2000;
+
+    /** Hashes with a zero top byte solve the block. */
+    private static final BigInteger BOUNDARY = BigInteger.ONE.shiftLeft(248);
+
+    private static final byte[] SOLUTION = new byte[1408];
+
+    private final AtomicInteger submitted = new AtomicInteger();
+    private int templates;
+
+    private StratumJobManager jobs;
+    private StratumServer server;
+    private final List<Miner> miners = new ArrayList<>();
+
+    private static final class Miner {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final OutputStream out;
+        private int nextId = 1;
+        private String extraNonce;
+
+        Miner(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setSoTimeout(30_000);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = socket.getOutputStream();
+        }
+
+        int send(String method, JSONArray params) throws IOException {
+            int id = nextId++;
+            JSONObject req = new JSONObject();
+            req.put("id", id);
+            req.put("method", method);
+            req.put("params", params);
+            out.write((req.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return id;
+        }
+
+        JSONObject read() throws IOException {
+            String line = in.readLine();
+            assertThat(line).isNotNull();
+            return new JSONObject(line);
+        }
+
+        /** Reads up to the response of a request, skipping pushed messages. */
+        JSONObject response(int id) throws IOException {
+            JSONObject msg;
+            do {
+                msg = read();
+            } while (msg.isNull("id") || msg.getInt("id") != id);
+            return msg;
+        }
+
+        /** Reads up to the next pushed message of the given method. */
+        JSONObject push(String method) throws IOException {
+            JSONObject msg;
+            do {
+                msg = read();
+            } while (!method.equals(msg.optString("method")));
+            return msg;
+        }
+
+        void login() throws IOException {
+            JSONObject res = response(send("mining.subscribe", new JSONArray()));
+            extraNonce = res.getJSONArray("result").getString(1);
+            assertThat(push("mining.set_target").getJSONArray("params").length()).isEqualTo(1);
+            assertThat(response(send("mining.authorize", new JSONArray().put("worker").put("x")))
+                    .getBoolean("result")).isTrue();
+        }
+
+        /**
+         * @param low
+         *            last nonce byte, the most significant byte of the hash
+         */
+        int submit(String jobId, int counter, int low) throws IOException {
+            byte[] nonce = new byte[32];
+            byte[] prefix = hexStringToBytes(extraNonce);
+            System.arraycopy(prefix, 0, nonce, 0, prefix.length);
+            nonce[4] = (byte) (counter >> 8);
+            nonce[5] = (byte) counter;
+            nonce[31] = (byte) low;
+            return send("mining.submit", new JSONArray().put("worker").put(jobId).put(toHexString(nonce))
+                    .put(toHexString(SOLUTION)));
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static byte[] reverse(byte[] in) {
+        byte[] out = new byte[in.length];
+        for (int i = 0; i < in.length; i++) {
+            out[i] = in[in.length - 1 - i];
+        }
+        return out;
+    }
+
+    @Before
+    public void setup() throws IOException {
+        jobs = new StratumJobManager(
+                (headerHash, nonce, solution) -> solution.length == SOLUTION.length ? reverse(nonce) : null,
+                (template, nonce, solution) -> {
+                    submitted.incrementAndGet();
+                    return true;
+                });
+        server = new StratumServer("127.0.0.1", 0, BigInteger.ONE, jobs, 4);
+        server.start();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        for (Miner m : miners) {
+            m.close();
+        }
+        server.shutdown();
+    }
+
+    private Miner connect() throws IOException {
+        Miner m = new Miner(server.getPort());
+        miners.add(m);
+        m.login();
+        return m;
+    }
+
+    private Job newJob(long number) {
+        byte[] headerHash = new byte[32];
+        headerHash[0] = (byte) ++templates;
+        return jobs.newJob(number, headerHash, BOUNDARY, null);
+    }
+
+    private static int errorCode(JSONObject res) {
+        return res.getJSONArray("error").getInt(0);
+    }
+
+    @Test
+    public void testJobPushedOnSubscribe() throws IOException {
+        Job job = newJob(1);
+        Miner m = new Miner(server.getPort());
+        miners.add(m);
+
+        m.send("mining.subscribe", new JSONArray());
+        JSONObject notify = m.push("mining.notify");
+        JSONArray params = notify.getJSONArray("params");
+        assertThat(params.getString(0)).isEqualTo(job.getId());
+        assertThat(params.getLong(1)).isEqualTo(1L);
+        assertThat(params.getString(2)).isEqualTo(toHexString(job.getHeaderHash()));
+        assertThat(params.getBoolean(4)).isTrue();
+    }
+
+    @Test
+    public void testShareRules() throws IOException {
+        Miner m = connect();
+        Job job = newJob(1);
+        String jobId = m.push("mining.notify").getJSONArray("params").getString(0);
+        assertThat(jobId).isEqualTo(job.getId());
+
+        // share, duplicate and block
+        assertThat(m.response(m.submit(jobId, 1, 0xff)).getBoolean("result")).isTrue();
+        assertThat(errorCode(m.response(m.submit(jobId, 1, 0xff)))).isEqualTo(StratumServer.ERR_DUPLICATE);
+        assertThat(m.response(m.submit(jobId, 2, 0x00)).getBoolean("result")).isTrue();
+        assertThat(submitted.get()).isEqualTo(1);
+        assertThat(jobs.getBlockCount()).isEqualTo(1L);
+
+        // a template refresh at the same height keeps the old job open
+        Job refreshed = newJob(1);
+        JSONObject notify = m.push("mining.notify");
+        assertThat(notify.getJSONArray("params").getString(0)).isEqualTo(refreshed.getId());
+        assertThat(notify.getJSONArray("params").getBoolean(4)).isFalse();
+        assertThat(m.response(m.submit(jobId, 3, 0xff)).getBoolean("result")).isTrue();
+
+        // a new height makes it stale
+        newJob(2);
+        assertThat(m.push("mining.notify").getJSONArray("params").getBoolean(4)).isTrue();
+        assertThat(errorCode(m.response(m.submit(jobId, 4, 0xff)))).isEqualTo(StratumServer.ERR_STALE);
+
+        // per connection difficulty
+        String current = jobs.getCurrentJob().getId();
+        m.response(m.send("mining.suggest_difficulty", new JSONArray().put(256)));
+        assertThat(m.push("mining.set_target").getJSONArray("params").getString(0))
+                .isEqualTo(String.format("01%062d", 0));
+        assertThat(errorCode(m.response(m.submit(current, 5, 0x01)))).isEqualTo(StratumServer.ERR_LOW_DIFFICULTY);
+        assertThat(m.response(m.submit(current, 6, 0x00)).getBoolean("result")).isTrue();
+
+        // the nonce has to start with the connection extranonce
+        m.extraNonce = "ffffffff";
+        assertThat(errorCode(m.response(m.submit(current, 7, 0xff)))).isEqualTo(StratumServer.ERR_OTHER);
+
+        assertThat(jobs.getAcceptedCount()).isEqualTo(2L);
+        assertThat(jobs.getDuplicateCount()).isEqualTo(1L);
+        assertThat(jobs.getStaleCount()).isEqualTo(1L);
+        assertThat(jobs.getLowDifficultyCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testUnauthorized() throws IOException {
+        newJob(1);
+        Miner m = new Miner(server.getPort());
+        miners.add(m);
+        m.extraNonce = "00000000";
+
+        assertThat(errorCode(m.response(m.submit("0", 1, 0xff)))).isEqualTo(StratumServer.ERR_NOT_SUBSCRIBED);
+        m.response(m.send("mining.subscribe", new JSONArray()));
+        assertThat(errorCode(m.response(m.submit("0", 1, 0xff)))).isEqualTo(StratumServer.ERR_UNAUTHORIZED);
+    }
+
+    @Test
+    public void testManyMiners() throws IOException {
+        for (int i = 0; i < MINERS; i++) {
+            connect();
+        }
+        assertThat(server.getSessionCount()).isEqualTo(MINERS);
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            Job job = newJob(round + 1);
+
+            for (Miner m : miners) {
+                JSONArray params = m.push("mining.notify").getJSONArray("params");
+                assertThat(params.getString(0)).isEqualTo(job.getId());
+            }
+            long pushed = System.nanoTime() - start;
+
+            List<Integer> ids = new ArrayList<>();
+            for (int i = 0; i < MINERS; i++) {
+                ids.add(miners.get(i).submit(job.getId(), round, 0xff));
+            }
+            for (int i = 0; i < MINERS; i++) {
+                assertThat(miners.get(i).response(ids.get(i)).getBoolean("result")).isTrue();
+            }
+
+            System.out.println("round " + round + ": notified " + MINERS + " miners in " + pushed / 1_000_000
+                    + " ms, shares done in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+
+        assertThat(jobs.getAcceptedCount()).isEqualTo(3L * MINERS);
+        assertThat(jobs.getStaleCount()).isEqualTo(0L);
+    }
+}
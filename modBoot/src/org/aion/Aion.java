@@ -28,6 +28,8 @@ package org.aion;
 import org.aion.api.server.http.NanoServer;
 import org.aion.api.server.pb.ApiAion0;
 import org.aion.api.server.pb.IHdlr;
+import org.aion.api.server.stratum.StratumJobManager;
+import org.aion.api.server.stratum.StratumServer;
 import org.aion.api.server.zmq.HdlrZmq;
 import org.aion.api.server.zmq.ProtocolProcessor;
 import org.aion.crypto.ECKeyFac;
@@ -36,6 +38,7 @@ import org.aion.evtmgr.EventMgrModule;
 import org.aion.log.AionLoggerFactory;
 import org.aion.log.LogEnum;
 import org.aion.mcf.config.CfgApiRpc;
+import org.aion.mcf.config.CfgApiStratum;
 import org.aion.mcf.mine.IMineRunner;
 import org.aion.zero.impl.blockchain.AionFactory;
 import org.aion.zero.impl.blockchain.IAionChain;
@@ -43,6 +46,8 @@ import org.aion.zero.impl.cli.Cli;
 import org.aion.zero.impl.config.CfgAion;
 import org.slf4j.Logger;
 
+import java.io.IOException;
+import java.math.BigInteger;
 import java.util.ServiceLoader;
 
 import static org.aion.crypto.ECKeyFac.ECKeyType.ED25519;
@@ -84,7 +89,8 @@ public class Aion {
 
 
         // If commit this out, the config setting will be ignore. all log module been set to "INFO" Level
-        AionLoggerFactory.init(cfg.getLog().getModules());
+        AionLoggerFactory.init(cfg.getLog().getModules(), cfg.getLog().getLogFile(), cfg.getLog().getLogPath(),
+                cfg.getLog().getAsync());
         Logger LOG = AionLoggerFactory.getLogger(LogEnum.GEN.toString());
 
         System.out.println(                
@@ -132,6 +138,27 @@ public class Aion {
             rpcServer.start();
         }
 
+        StratumServer stratumServer = null;
+        if (cfg.getApi().getStratum().getActive()) {
+            CfgApiStratum stratumCfg = cfg.getApi().getStratum();
+            StratumJobManager jobs = new StratumJobManager(
+                    StratumJobManager.equihashVerifier(),
+                    StratumJobManager.kernelSubmitter());
+            jobs.subscribe(ac.getAionHub().getEventMgr());
+            stratumServer = new StratumServer(
+                    stratumCfg.getIp(),
+                    stratumCfg.getPort(),
+                    BigInteger.valueOf(stratumCfg.getShareDifficulty()),
+                    jobs,
+                    stratumCfg.getThreads());
+            try {
+                stratumServer.start();
+            } catch (IOException e) {
+                LOG.error("<stratum-server - failed bind on {}:{}>", stratumCfg.getIp(), stratumCfg.getPort());
+                System.exit(1);
+            }
+        }
+
         /*
          * This is a hack, but used to let us pass zmqThread into thread
          * Shutdown hook for Ctrl+C
@@ -141,16 +168,19 @@ public class Aion {
             final IMineRunner miner;
             final ProtocolProcessor pp;
             final NanoServer rpc;
+            final StratumServer stratum;
             
-            private ShutdownThreadHolder(Thread zmqThread, IMineRunner nm, ProtocolProcessor pp, NanoServer rpc) {
+            private ShutdownThreadHolder(Thread zmqThread, IMineRunner nm, ProtocolProcessor pp, NanoServer rpc,
+                    StratumServer stratum) {
                 this.zmqThread = zmqThread;
                 this.miner = nm;
                 this.pp = pp;
                 this.rpc = rpc;
+                this.stratum = stratum;
             }
         }
 
-        ShutdownThreadHolder holder = new ShutdownThreadHolder(zmqThread, nm, processor, rpcServer);
+        ShutdownThreadHolder holder = new ShutdownThreadHolder(zmqThread, nm, processor, rpcServer, stratumServer);
         
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
 
@@ -162,6 +192,12 @@ public class Aion {
                 LOG.info("Shutdown RpcServer ... Done!");
             }
 
+            if (holder.stratum != null) {
+                LOG.info("Shutting down StratumServer");
+                holder.stratum.shutdown();
+                LOG.info("Shutdown StratumServer ... Done!");
+            }
+
             if (holder.pp != null) {
                 LOG.info("Shutting down zmq ProtocolProcessor");
                 try {
@@ -187,6 +223,8 @@ public class Aion {
             LOG.info("| Aion kernel graceful shutdown successful! |");
             LOG.info("---------------------------------------------");
 
+            AionLoggerFactory.shutdown();
+
         }, "shutdown"));
     }
 }
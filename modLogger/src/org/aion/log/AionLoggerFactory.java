@@ -24,6 +24,7 @@
 
 package org.aion.log;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -33,9 +34,11 @@ import java.util.concurrent.ConcurrentMap;
 
 import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.ConsoleAppender;
-import ch.qos.logback.core.FileAppender;
-import ch.qos.logback.core.rolling.*;
+import ch.qos.logback.core.rolling.RollingFileAppender;
+import ch.qos.logback.core.rolling.SizeAndTimeBasedRollingPolicy;
+import ch.qos.logback.core.util.FileSize;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,8 +63,14 @@ public class AionLoggerFactory {
      */
     private static Map<String, String> logModules;
     private static LoggerContext loggerContext;
-    private static ConsoleAppender<ILoggingEvent> appender = new ConsoleAppender<>();
-    private final static PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+    private static Appender<ILoggingEvent> appender;
+
+    private final static String LOG_PATTERN = "%date{yy-MM-dd HH:mm:ss.SSS} %-5level %-4c [%thread]: %message%n";
+    private final static String LOG_FILE = "aion.log";
+    private final static String LOG_ROLLING_PATTERN = "aion.%d{yyyy-MM-dd}.%i.log";
+    private final static String LOG_MAX_FILE_SIZE = "100MB";
+    private final static int LOG_MAX_HISTORY = 30;
+
     static {
         logModules = new HashMap<>();
         String level = LogLevels.INFO.name();
@@ -71,23 +80,95 @@ public class AionLoggerFactory {
     }
 
     public static void init(final Map<String, String> _logModules) {
+        init(_logModules, false, null, false);
+    }
+
+    /**
+     * @param _logModules
+     *            log level per module
+     * @param logToFile
+     *            write to a daily and size rolled file under {@code logPath}
+     *            instead of the console
+     * @param logPath
+     *            directory of the log files
+     * @param async
+     *            hand events to a background writer through a bounded
+     *            buffer, dropping them when it is full
+     */
+    public static synchronized void init(final Map<String, String> _logModules, boolean logToFile, String logPath,
+            boolean async) {
 
         logModules = _logModules;
 
         loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
 
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
         encoder.setContext(loggerContext);
-        encoder.setPattern("%date{yy-MM-dd HH:mm:ss.SSS} %-5level %-4c [%thread]: %message%n");
+        encoder.setPattern(LOG_PATTERN);
         encoder.start();
 
-        appender.setContext(loggerContext);
-        appender.setEncoder(encoder);
-        appender.start();
+        Appender<ILoggingEvent> output = logToFile ? newFileAppender(encoder, logPath) : newConsoleAppender(encoder);
+        if (async) {
+            output = new AsyncLogAppender(output, AsyncLogAppender.DEFAULT_BUFFER_SIZE);
+            output.setContext(loggerContext);
+        }
+        output.start();
+
+        // loggers handed out before a re-init switch over to the new output
+        Appender<ILoggingEvent> previous = appender;
+        appender = output;
+        for (Logger logger : loggerMap.values()) {
+            ch.qos.logback.classic.Logger l = (ch.qos.logback.classic.Logger) logger;
+            if (previous != null) {
+                l.detachAppender(previous);
+            }
+            l.addAppender(output);
+        }
+        if (previous != null) {
+            previous.stop();
+        }
 
         ch.qos.logback.classic.Logger rootlogger = loggerContext.getLogger(Logger.ROOT_LOGGER_NAME);
         rootlogger.detachAndStopAllAppenders();
     }
 
+    private static Appender<ILoggingEvent> newConsoleAppender(PatternLayoutEncoder encoder) {
+        ConsoleAppender<ILoggingEvent> console = new ConsoleAppender<>();
+        console.setContext(loggerContext);
+        console.setEncoder(encoder);
+        return console;
+    }
+
+    private static Appender<ILoggingEvent> newFileAppender(PatternLayoutEncoder encoder, String logPath) {
+        String dir = (logPath == null || logPath.isEmpty()) ? "log" : logPath;
+
+        RollingFileAppender<ILoggingEvent> file = new RollingFileAppender<>();
+        file.setContext(loggerContext);
+        file.setEncoder(encoder);
+        file.setFile(dir + File.separator + LOG_FILE);
+
+        SizeAndTimeBasedRollingPolicy<ILoggingEvent> policy = new SizeAndTimeBasedRollingPolicy<>();
+        policy.setContext(loggerContext);
+        policy.setParent(file);
+        policy.setFileNamePattern(dir + File.separator + LOG_ROLLING_PATTERN);
+        policy.setMaxFileSize(FileSize.valueOf(LOG_MAX_FILE_SIZE));
+        policy.setMaxHistory(LOG_MAX_HISTORY);
+        policy.start();
+
+        file.setRollingPolicy(policy);
+        return file;
+    }
+
+    /**
+     * Flushes and stops the output; an asynchronous writer drains its buffer
+     * first.
+     */
+    public static synchronized void shutdown() {
+        if (appender != null) {
+            appender.stop();
+        }
+    }
+
     private static ConcurrentMap<String, Logger> loggerMap = new ConcurrentHashMap<String, Logger>();
 
     public static Logger getLogger(String label) {
@@ -96,7 +177,16 @@ public class AionLoggerFactory {
         return logger == null ? newLogger(label) : logger;
     }
 
-    private static Logger newLogger(String label) {
+    /**
+     * Creates a logger under the lock of {@link #init}, so it binds to the
+     * complete current output and is switched over by a later re-init.
+     */
+    private static synchronized Logger newLogger(String label) {
+
+        Logger created = loggerMap.get(label);
+        if (created != null) {
+            return created;
+        }
 
         if (loggerContext == null) {
             // System.out.println("If you see this line, meaning you are under
@@ -141,7 +231,7 @@ public class AionLoggerFactory {
             newlogger.setLevel(Level.OFF);
         }
 
-        Logger existLogger = loggerMap.putIfAbsent(label, newlogger);
-        return existLogger == null ? newlogger : existLogger;
+        loggerMap.put(label, newlogger);
+        return newlogger;
     }
 }
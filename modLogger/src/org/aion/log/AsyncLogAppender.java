@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+
+package org.aion.log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+/**
+ * Hands logging events to a single writer thread through a bounded lock-free
+ * ring buffer, so that the logging thread does not block on console or file
+ * I/O. When the buffer is full a debug or info event is dropped and counted;
+ * the writer reports the number of dropped events once the buffer drains.
+ * Warnings and errors are never dropped: the logging thread waits for room
+ * in the buffer, or writes the event itself when the writer cannot drain it.
+ *
+ * The events are prepared for deferred processing on the logging thread, so
+ * their message, thread name and MDC are captured before they are queued.
+ */
+public class AsyncLogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 13;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Appender<ILoggingEvent> delegate;
+
+    private final AtomicReferenceArray<ILoggingEvent> ring;
+
+    private final int mask;
+
+    /** next slot to be claimed by a producer */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** next slot to be read by the writer */
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    /**
+     * @param delegate
+     *            the appender doing the actual output; started and stopped
+     *            together with this appender
+     * @param bufferSize
+     *            ring capacity, rounded up to a power of two
+     */
+    public AsyncLogAppender(Appender<ILoggingEvent> delegate, int bufferSize) {
+        this.delegate = delegate;
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize) - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (!delegate.isStarted()) {
+            delegate.start();
+        }
+        running = true;
+        writer = new Thread(this::drain, "aion-log");
+        writer.setDaemon(true);
+        writer.start();
+        super.start();
+    }
+
+    /**
+     * Stops accepting events, waits for the writer to flush what is already
+     * buffered and stops the delegate.
+     */
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.stop();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        event.prepareForDeferredProcessing();
+
+        for (;;) {
+            long t = tail.get();
+            if (t - head.get() > mask) {
+                if (!event.getLevel().isGreaterOrEqual(Level.WARN)) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                if (!running || Thread.currentThread() == writer) {
+                    // nothing drains the buffer for this thread
+                    delegate.doAppend(event);
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                ring.lazySet((int) t & mask, event);
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        long reported = 0;
+        for (;;) {
+            long h = head.get();
+            int slot = (int) h & mask;
+            ILoggingEvent event = ring.get(slot);
+
+            if (event == null) {
+                // read before the tail, so the events appended before the
+                // stop are all seen before leaving
+                boolean stopping = !running;
+                // empty, or the producer has claimed the slot but not yet
+                // published into it
+                if (h == tail.get()) {
+                    long d = dropped.get();
+                    if (d != reported) {
+                        reportDropped(d - reported);
+                        reported = d;
+                    }
+                    if (stopping) {
+                        return;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                } else {
+                    Thread.onSpinWait();
+                }
+                continue;
+            }
+
+            ring.lazySet(slot, null);
+            head.lazySet(h + 1);
+            try {
+                delegate.doAppend(event);
+            } catch (RuntimeException e) {
+                addError("delegate appender failed", e);
+            }
+        }
+    }
+
+    private void reportDropped(long count) {
+        Logger logger = (Logger) org.slf4j.LoggerFactory.getLogger(LogEnum.GEN.name());
+        delegate.doAppend(new LoggingEvent(AsyncLogAppender.class.getName(), logger, Level.WARN,
+                "<log-buffer-full dropped={}>", null, new Object[] { count }));
+    }
+
+    /**
+     * @return total number of events dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of events waiting for the writer
+     */
+    public int getPendingCount() {
+        return (int) (tail.get() - head.get());
+    }
+}
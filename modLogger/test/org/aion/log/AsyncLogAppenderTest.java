@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Contributors:
+ *     Aion foundation.
+ ******************************************************************************/
+package org.aion.log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncLogAppenderTest {
+
+    private static final Logger LOGGER = new LoggerContext().getLogger("test");
+
+    private static final String DROPPED_REPORT = "<log-buffer-full dropped=3>";
+
+    /**
+     * Collects the messages it is given, holding the writer until released.
+     */
+    private static class CollectingAppender extends AppenderBase<ILoggingEvent> {
+        private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        private CollectingAppender(boolean hold) {
+            release = new CountDownLatch(hold ? 1 : 0);
+        }
+
+        @Override
+        protected void append(ILoggingEvent event) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(event.getFormattedMessage());
+        }
+    }
+
+    private static ILoggingEvent event(Level level, String message, Object... args) {
+        return new LoggingEvent(AsyncLogAppenderTest.class.getName(), LOGGER, level, message, null, args);
+    }
+
+    @Test
+    public void testOrderAndShutdownFlush() {
+        CollectingAppender delegate = new CollectingAppender(false);
+        AsyncLogAppender appender = new AsyncLogAppender(delegate, 1024);
+        appender.start();
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            appender.doAppend(event(Level.INFO, "event {}", i));
+            expected.add("event " + i);
+        }
+        // stopping writes out everything still buffered
+        appender.stop();
+
+        assertEquals(expected, delegate.messages);
+        assertEquals(0, appender.getDroppedCount());
+        assertEquals(0, appender.getPendingCount());
+        assertFalse(delegate.isStarted());
+    }
+
+    @Test
+    public void testOverflow() throws InterruptedException {
+        CollectingAppender delegate = new CollectingAppender(true);
+        AsyncLogAppender appender = new AsyncLogAppender(delegate, 4);
+        appender.start();
+
+        // the writer takes the first event and is held in the delegate
+        appender.doAppend(event(Level.INFO, "first"));
+        assertTrue(delegate.entered.await(5, TimeUnit.SECONDS));
+
+        // the message is formatted before a mutable argument changes
+        StringBuilder argument = new StringBuilder("before");
+        appender.doAppend(event(Level.INFO, "queued {}", argument));
+        argument.replace(0, argument.length(), "after");
+        for (int i = 1; i < 4; i++) {
+            appender.doAppend(event(Level.DEBUG, "queued {}", i));
+        }
+        assertEquals(4, appender.getPendingCount());
+
+        for (int i = 0; i < 3; i++) {
+            appender.doAppend(event(Level.INFO, "dropped {}", i));
+        }
+        assertEquals(3, appender.getDroppedCount());
+
+        // a warning waits for room instead of being dropped
+        Thread warning = new Thread(() -> appender.doAppend(event(Level.WARN, "warning")));
+        warning.start();
+        warning.join(200);
+        assertTrue(warning.isAlive());
+
+        delegate.release.countDown();
+        warning.join(5000);
+        assertFalse(warning.isAlive());
+        appender.stop();
+
+        assertEquals(3, appender.getDroppedCount());
+        assertTrue(delegate.messages.contains(DROPPED_REPORT));
+        List<String> messages = new ArrayList<>(delegate.messages);
+        messages.remove(DROPPED_REPORT);
+        assertEquals(Arrays.asList("first", "queued before", "queued 1", "queued 2", "queued 3", "warning"), messages);
+    }
+}
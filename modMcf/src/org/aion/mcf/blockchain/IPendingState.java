@@ -41,6 +41,8 @@ public interface IPendingState<TX extends ITransaction> {
 
     List<TX> getPendingTransactions();
 
+    TX getPendingTransaction(byte[] txHash);
+
     BigInteger bestPendingStateNonce(Address addr);
 
     String getVersion();
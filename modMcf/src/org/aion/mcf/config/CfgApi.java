@@ -39,11 +39,13 @@ public final class CfgApi {
     private CfgApiZmq zmq;
     private CfgApiRpc rpc;
     private CfgApiNrg nrg;
+    private CfgApiStratum stratum;
 
     public CfgApi() {
         this.rpc = new CfgApiRpc();
         this.zmq = new CfgApiZmq();
         this.nrg = new CfgApiNrg();
+        this.stratum = new CfgApiStratum();
     }
 
     public CfgApiRpc getRpc() {
@@ -55,6 +57,9 @@ public final class CfgApi {
     public CfgApiNrg getNrg() {
         return this.nrg;
     }
+    public CfgApiStratum getStratum() {
+        return this.stratum;
+    }
 
     public void fromXML(final XMLStreamReader sr) throws XMLStreamException {
         loop:
@@ -72,6 +77,9 @@ public final class CfgApi {
                 case "nrg-recommendation":
                     this.nrg.fromXML(sr);
                     break;
+                case "stratum":
+                    this.stratum.fromXML(sr);
+                    break;
                 default:
                     Cfg.skipElement(sr);
                     break;
@@ -97,6 +105,7 @@ public final class CfgApi {
             xmlWriter.writeCharacters(this.rpc.toXML());
             xmlWriter.writeCharacters(this.zmq.toXML());
             xmlWriter.writeCharacters(this.nrg.toXML());
+            xmlWriter.writeCharacters(this.stratum.toXML());
 
             xmlWriter.writeCharacters("\r\n\t");
             xmlWriter.writeEndElement();
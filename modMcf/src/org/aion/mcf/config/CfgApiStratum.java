@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors:
+ *     Aion foundation.
+ *
+ ******************************************************************************/
+package org.aion.mcf.config;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * Configuration of the stratum work server used by external miners.
+ */
+public final class CfgApiStratum {
+
+    CfgApiStratum() {
+        this.active = false;
+        this.ip = "127.0.0.1";
+        this.port = 8008;
+        this.shareDifficulty = 1;
+        this.threads = 2;
+    }
+
+    private boolean active;
+    private String ip;
+    private int port;
+    private long shareDifficulty;
+    private int threads;
+
+    public void fromXML(final XMLStreamReader sr) throws XMLStreamException {
+        // get the attributes
+        this.active = Boolean.parseBoolean(sr.getAttributeValue(null, "active"));
+        this.ip = sr.getAttributeValue(null, "ip");
+        this.port = Integer.parseInt(sr.getAttributeValue(null, "port"));
+
+        // get the nested elements
+        loop:
+        while (sr.hasNext()) {
+            int eventType = sr.next();
+            switch (eventType) {
+                case XMLStreamReader.START_ELEMENT:
+                    String elementName = sr.getLocalName().toLowerCase();
+                    switch (elementName) {
+                        case "share-difficulty":
+                            try {
+                                long d = Long.parseLong(Cfg.readValue(sr));
+                                if (d > 0)
+                                    this.shareDifficulty = d;
+                            } catch (Exception e) {
+                                System.out.println("failed to read config node: aion.api.stratum.share-difficulty; using preset: " + this.shareDifficulty);
+                                e.printStackTrace();
+                            }
+                            break;
+                        case "threads":
+                            try {
+                                int t = Integer.parseInt(Cfg.readValue(sr));
+                                // filter out negative thread counts
+                                if (t > 0)
+                                    this.threads = t;
+                            } catch (Exception e) {
+                                System.out.println("failed to read config node: aion.api.stratum.threads; using preset: " + this.threads);
+                                e.printStackTrace();
+                            }
+                            break;
+                        default:
+                            Cfg.skipElement(sr);
+                            break;
+                    }
+                    break;
+                case XMLStreamReader.END_ELEMENT:
+                    break loop;
+            }
+        }
+
+        sr.next();
+    }
+
+    String toXML() {
+        final XMLOutputFactory output = XMLOutputFactory.newInstance();
+        output.setProperty("escapeCharacters", false);
+        XMLStreamWriter xmlWriter;
+        String xml;
+        try {
+            // <stratum active="false" ip="127.0.0.1" port="8008"/>
+
+            Writer strWriter = new StringWriter();
+            xmlWriter = output.createXMLStreamWriter(strWriter);
+            xmlWriter.writeCharacters("\r\n\t\t");
+            xmlWriter.writeStartElement("stratum");
+
+            xmlWriter.writeAttribute("active", this.active ? "true" : "false");
+            xmlWriter.writeAttribute("ip", this.ip);
+            xmlWriter.writeAttribute("port", this.port + "");
+
+            xmlWriter.writeCharacters("\r\n\t\t\t");
+            xmlWriter.writeComment("default share difficulty; miners may suggest a higher one per connection");
+            xmlWriter.writeCharacters("\r\n\t\t\t");
+            xmlWriter.writeStartElement("share-difficulty");
+            xmlWriter.writeCharacters(this.shareDifficulty + "");
+            xmlWriter.writeEndElement();
+
+            xmlWriter.writeCharacters("\r\n\t\t\t");
+            xmlWriter.writeComment("size of thread pool allocated for share verification");
+            xmlWriter.writeCharacters("\r\n\t\t\t");
+            xmlWriter.writeStartElement("threads");
+            xmlWriter.writeCharacters(this.threads + "");
+            xmlWriter.writeEndElement();
+
+            xmlWriter.writeCharacters("\r\n\t\t");
+            xmlWriter.writeEndElement();
+            xml = strWriter.toString();
+            strWriter.flush();
+            strWriter.close();
+            xmlWriter.flush();
+            xmlWriter.close();
+            return xml;
+        } catch (IOException | XMLStreamException e) {
+            e.printStackTrace();
+            return "";
+        }
+    }
+
+    public boolean getActive() {
+        return this.active;
+    }
+    public String getIp() {
+        return this.ip;
+    }
+    public int getPort() {
+        return this.port;
+    }
+    public long getShareDifficulty() {
+        return this.shareDifficulty;
+    }
+    public int getThreads() {
+        return this.threads;
+    }
+}
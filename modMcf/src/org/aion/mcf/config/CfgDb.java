@@ -48,9 +48,12 @@ public class CfgDb {
 
         public static final String DETAILS = "details";
         public static final String STORAGE = "storage";
+        public static final String CODE = "code";
 
         public static final String STATE = "state";
         public static final String TRANSACTION = "transaction";
+        public static final String SNAPSHOT = "snapshot";
+        public static final String ADDRESS_INDEX = "addressindex";
 
         public static final String TX_CACHE = "pendingtxCache";
         public static final String TX_POOL = "pendingtxPool";
@@ -60,6 +63,10 @@ public class CfgDb {
 
     private boolean expert = false;
 
+    private boolean addressIndex = false;
+
+    private long ancientDepth = 0;
+
     // individual db configurations
     private Map<String, CfgDbDetails> specificConfig;
 
@@ -85,6 +92,12 @@ public class CfgDb {
                         case "expert":
                             this.expert = Boolean.parseBoolean(Cfg.readValue(sr));
                             break;
+                        case "address_index":
+                            this.addressIndex = Boolean.parseBoolean(Cfg.readValue(sr));
+                            break;
+                        case "ancient_depth":
+                            this.ancientDepth = Long.parseLong(Cfg.readValue(sr));
+                            break;
                         case "vendor":
                             dbDefault.vendor = Cfg.readValue(sr);
                             break;
@@ -155,6 +168,12 @@ public class CfgDb {
                             this.specificConfig.put(Names.STORAGE, dbConfig);
                             break;
                         }
+                        case Names.CODE: {
+                            CfgDbDetails dbConfig = new CfgDbDetails();
+                            dbConfig.fromXML(sr);
+                            this.specificConfig.put(Names.CODE, dbConfig);
+                            break;
+                        }
                         case Names.STATE: {
                             CfgDbDetails dbConfig = new CfgDbDetails();
                             dbConfig.fromXML(sr);
@@ -167,6 +186,18 @@ public class CfgDb {
                             this.specificConfig.put(Names.TRANSACTION, dbConfig);
                             break;
                         }
+                        case Names.SNAPSHOT: {
+                            CfgDbDetails dbConfig = new CfgDbDetails();
+                            dbConfig.fromXML(sr);
+                            this.specificConfig.put(Names.SNAPSHOT, dbConfig);
+                            break;
+                        }
+                        case Names.ADDRESS_INDEX: {
+                            CfgDbDetails dbConfig = new CfgDbDetails();
+                            dbConfig.fromXML(sr);
+                            this.specificConfig.put(Names.ADDRESS_INDEX, dbConfig);
+                            break;
+                        }
                         case Names.TX_POOL: {
                             CfgDbDetails dbConfig = new CfgDbDetails();
                             dbConfig.fromXML(sr);
@@ -224,6 +255,16 @@ public class CfgDb {
                 xmlWriter.writeEndElement();
             }
 
+            xmlWriter.writeCharacters("\r\n\t\t");
+            xmlWriter.writeStartElement("address_index");
+            xmlWriter.writeCharacters(String.valueOf(addressIndex));
+            xmlWriter.writeEndElement();
+
+            xmlWriter.writeCharacters("\r\n\t\t");
+            xmlWriter.writeStartElement("ancient_depth");
+            xmlWriter.writeCharacters(String.valueOf(ancientDepth));
+            xmlWriter.writeEndElement();
+
             for (Map.Entry<String, CfgDbDetails> entry : specificConfig.entrySet()) {
                 entry.getValue().toXML(entry.getKey(), xmlWriter, expert);
             }
@@ -246,6 +287,22 @@ public class CfgDb {
         return this.path;
     }
 
+    /**
+     * @return whether the index from addresses to the transactions touching
+     *         them is kept
+     */
+    public boolean isAddressIndexEnabled() {
+        return this.addressIndex;
+    }
+
+    /**
+     * @return the depth below the best block at which blocks are moved to the
+     *         ancient store, or 0 if they are kept in the databases
+     */
+    public long getAncientDepth() {
+        return this.ancientDepth;
+    }
+
     public Map<String, Properties> asProperties() {
         Map<String, Properties> props = new HashMap<>();
 
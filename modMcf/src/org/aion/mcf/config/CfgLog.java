@@ -43,7 +43,17 @@ public class CfgLog {
 
     private Map<String, String> modules;
 
+    private boolean logFile;
+
+    private String logPath;
+
+    private boolean async;
+
     public CfgLog() {
+        logFile = false;
+        logPath = "log";
+        async = true;
+
         modules = new HashMap<>();
         modules.put(LogEnum.CONS.name(), LogLevels.INFO.name());
         modules.put(LogEnum.GEN.name(), LogLevels.INFO.name());
@@ -65,6 +75,12 @@ public class CfgLog {
                 String elementName = sr.getLocalName().toUpperCase();
                 if (LogEnum.contains(elementName))
                     this.modules.put(elementName, Cfg.readValue(sr).toUpperCase());
+                else if (elementName.equals("LOG-FILE"))
+                    this.logFile = Boolean.parseBoolean(Cfg.readValue(sr));
+                else if (elementName.equals("LOG-PATH"))
+                    this.logPath = Cfg.readValue(sr);
+                else if (elementName.equals("ASYNC"))
+                    this.async = Boolean.parseBoolean(Cfg.readValue(sr));
                 break;
             case XMLStreamReader.END_ELEMENT:
                 break loop;
@@ -85,6 +101,25 @@ public class CfgLog {
             xmlWriter.writeCharacters("\r\n\t");
             xmlWriter.writeStartElement("log");
             xmlWriter.writeCharacters("\r\n");
+
+            xmlWriter.writeCharacters("\t\t");
+            xmlWriter.writeStartElement("log-file");
+            xmlWriter.writeCharacters(String.valueOf(this.logFile));
+            xmlWriter.writeEndElement();
+            xmlWriter.writeCharacters("\r\n");
+
+            xmlWriter.writeCharacters("\t\t");
+            xmlWriter.writeStartElement("log-path");
+            xmlWriter.writeCharacters(this.logPath);
+            xmlWriter.writeEndElement();
+            xmlWriter.writeCharacters("\r\n");
+
+            xmlWriter.writeCharacters("\t\t");
+            xmlWriter.writeStartElement("async");
+            xmlWriter.writeCharacters(String.valueOf(this.async));
+            xmlWriter.writeEndElement();
+            xmlWriter.writeCharacters("\r\n");
+
             for (Map.Entry<String, String> module : this.modules.entrySet()) {
                 xmlWriter.writeCharacters("\t\t");
                 xmlWriter.writeStartElement(module.getKey().toUpperCase());
@@ -109,4 +144,23 @@ public class CfgLog {
         return this.modules;
     }
 
+    /**
+     * @return true when logs go to rolled files under {@link #getLogPath()}
+     *         instead of the console
+     */
+    public boolean getLogFile() {
+        return this.logFile;
+    }
+
+    public String getLogPath() {
+        return this.logPath;
+    }
+
+    /**
+     * @return true when logging is handed to a background writer
+     */
+    public boolean getAsync() {
+        return this.async;
+    }
+
 }
\ No newline at end of file
@@ -42,12 +42,15 @@ public final class CfgSync {
 
     private boolean showStatus;
 
+    private boolean stateSync;
+
     private static int BLOCKS_QUEUE_MAX = 32;
 
     public CfgSync() {
         this.blocksQueueMax = BLOCKS_QUEUE_MAX;
 
         this.showStatus = false;
+        this.stateSync = false;
     }
 
     public void fromXML(final XMLStreamReader sr) throws XMLStreamException {
@@ -64,6 +67,9 @@ public final class CfgSync {
                 case "show-status":
                     this.showStatus = Boolean.parseBoolean(Cfg.readValue(sr));
                     break;
+                case "state-sync":
+                    this.stateSync = Boolean.parseBoolean(Cfg.readValue(sr));
+                    break;
                 default:
                     Cfg.skipElement(sr);
                     break;
@@ -99,6 +105,12 @@ public final class CfgSync {
             xmlWriter.writeCharacters(this.showStatus + "");
             xmlWriter.writeEndElement();
 
+            // sub-element state-sync
+            xmlWriter.writeCharacters("\r\n\t\t");
+            xmlWriter.writeStartElement("state-sync");
+            xmlWriter.writeCharacters(this.stateSync + "");
+            xmlWriter.writeEndElement();
+
             // close element sync
             xmlWriter.writeCharacters("\r\n\t");
             xmlWriter.writeEndElement();
@@ -122,4 +134,8 @@ public final class CfgSync {
         return this.showStatus;
     }
 
+    public boolean getStateSync() {
+        return this.stateSync;
+    }
+
 }
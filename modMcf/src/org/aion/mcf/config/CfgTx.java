@@ -40,6 +40,7 @@ public class CfgTx {
         this.buffer = true;
         this.poolDump = false;
         this.poolBackup = false;
+        this.execThreads = 1;
     }
 
     private int cacheMax;
@@ -50,6 +51,12 @@ public class CfgTx {
 
     private boolean poolBackup;
 
+    /**
+     * threads executing the transactions of a block speculatively, 1 runs
+     * them one after the other
+     */
+    private int execThreads;
+
     public void fromXML(final XMLStreamReader sr) throws XMLStreamException {
         loop:
         while (sr.hasNext()) {
@@ -75,6 +82,10 @@ public class CfgTx {
                     case "poolbackup":
                         this.poolBackup = Boolean.parseBoolean(Cfg.readValue(sr));
                         break;
+                case "execthreads":
+                    this.execThreads = Math.max(1, Math.min(Integer.parseInt(Cfg.readValue(sr)),
+                            Runtime.getRuntime().availableProcessors()));
+                    break;
                 default:
                     Cfg.skipElement(sr);
                     break;
@@ -130,6 +141,10 @@ public class CfgTx {
     public boolean getPoolBackup() {
         return poolBackup;
     }
+
+    public int getExecThreads() {
+        return execThreads;
+    }
 }
 
 
@@ -24,12 +24,16 @@
  ******************************************************************************/
 package org.aion.mcf.db;
 
+import org.aion.base.db.IByteArrayKeyValueStore;
 import org.aion.base.db.IContractDetails;
 import org.aion.base.util.ByteArrayWrapper;
 import org.aion.base.util.Hex;
+import org.aion.mcf.trie.TrieNode;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 
 import static org.aion.base.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.aion.crypto.HashUtil.EMPTY_DATA_HASH;
@@ -48,6 +52,10 @@ public abstract class AbstractContractDetails<DW> implements IContractDetails<DW
 
     private Map<ByteArrayWrapper, byte[]> codes = new HashMap<>();
 
+    private IByteArrayKeyValueStore codeSource;
+
+    private Map<ByteArrayWrapper, TrieNode> sharedStorageNodes;
+
     protected AbstractContractDetails() {
         this(0, 64 * 1024);
     }
@@ -59,7 +67,12 @@ public abstract class AbstractContractDetails<DW> implements IContractDetails<DW
 
     @Override
     public byte[] getCode() {
-        return codes.size() == 0 ? EMPTY_BYTE_ARRAY : codes.values().iterator().next();
+        if (codes.size() == 0) {
+            return EMPTY_BYTE_ARRAY;
+        }
+        Map.Entry<ByteArrayWrapper, byte[]> first = codes.entrySet().iterator().next();
+        byte[] code = first.getValue() == null ? loadCode(first.getKey()) : first.getValue();
+        return code == null ? EMPTY_BYTE_ARRAY : code;
     }
 
     @Override
@@ -67,10 +80,29 @@ public abstract class AbstractContractDetails<DW> implements IContractDetails<DW
         if (java.util.Arrays.equals(codeHash, EMPTY_DATA_HASH)) {
             return EMPTY_BYTE_ARRAY;
         }
-        byte[] code = codes.get(new ByteArrayWrapper(codeHash));
+        ByteArrayWrapper key = new ByteArrayWrapper(codeHash);
+        byte[] code = codes.get(key);
+        if (code == null && codes.containsKey(key)) {
+            code = loadCode(key);
+        }
         return code == null ? EMPTY_BYTE_ARRAY : code;
     }
 
+    /**
+     * Reads code that is only known by its hash from the code store.
+     */
+    private byte[] loadCode(ByteArrayWrapper codeHash) {
+        if (codeSource == null) {
+            return null;
+        }
+        Optional<byte[]> code = codeSource.get(codeHash.getData());
+        if (code.isPresent()) {
+            codes.put(codeHash, code.get());
+            return code.get();
+        }
+        return null;
+    }
+
     @Override
     public void setCode(byte[] code) {
         if (code == null) {
@@ -85,7 +117,23 @@ public abstract class AbstractContractDetails<DW> implements IContractDetails<DW
         setDirty(true);
     }
 
+    /**
+     * @return all codes, loading the ones that are still in the code store
+     */
     public Map<ByteArrayWrapper, byte[]> getCodes() {
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : codes.entrySet()) {
+            if (entry.getValue() == null) {
+                entry.setValue(loadCode(entry.getKey()));
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * @return the codes known to this contract, with {@code null} values for
+     *         codes that were not loaded from the code store yet
+     */
+    protected Map<ByteArrayWrapper, byte[]> getLazyCodes() {
         return codes;
     }
 
@@ -93,10 +141,71 @@ public abstract class AbstractContractDetails<DW> implements IContractDetails<DW
         this.codes = new HashMap<>(codes);
     }
 
+    /**
+     * Registers codes by hash only; they are read from the code store on
+     * first access.
+     */
+    protected void setCodeHashes(Collection<byte[]> codeHashes) {
+        for (byte[] codeHash : codeHashes) {
+            codes.putIfAbsent(ByteArrayWrapper.wrap(codeHash), null);
+        }
+    }
+
     public void appendCodes(Map<ByteArrayWrapper, byte[]> codes) {
-        this.codes.putAll(codes);
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : codes.entrySet()) {
+            if (entry.getValue() != null || !this.codes.containsKey(entry.getKey())) {
+                this.codes.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public IByteArrayKeyValueStore getCodeSource() {
+        return codeSource;
+    }
+
+    /**
+     * Sets the content-addressed store, keyed by code hash, from which codes
+     * are loaded lazily and to which new codes are written by
+     * {@link #syncCodes()}.
+     */
+    public void setCodeSource(IByteArrayKeyValueStore codeSource) {
+        this.codeSource = codeSource;
+    }
+
+    protected Map<ByteArrayWrapper, TrieNode> getSharedStorageNodes() {
+        return sharedStorageNodes;
     }
 
+    /**
+     * Sets the storage trie nodes shared by all the details read from the
+     * same storage database, which are looked up before reading it. Nodes
+     * loaded by one instance, e.g. by prefetching, are then found by the
+     * others.
+     */
+    public void setSharedStorageNodes(Map<ByteArrayWrapper, TrieNode> sharedStorageNodes) {
+        this.sharedStorageNodes = sharedStorageNodes;
+    }
+
+    /**
+     * Writes the loaded codes that are missing from the code store.
+     */
+    public void syncCodes() {
+        if (codeSource == null) {
+            return;
+        }
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : codes.entrySet()) {
+            if (entry.getValue() != null && !codeSource.get(entry.getKey().getData()).isPresent()) {
+                codeSource.put(entry.getKey().getData(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return details that can be changed without affecting these ones, which
+     *         share the decoded state instead of decoding the record again
+     */
+    public abstract AbstractContractDetails<DW> copy();
+
     @Override
     public void setDirty(boolean dirty) {
         this.dirty = dirty;
@@ -70,7 +70,10 @@ public abstract class AbstractRepository<BLK extends AbstractBlock<BH, ? extends
     protected static final String BLOCK_DB = CfgDb.Names.BLOCK;
     protected static final String DETAILS_DB = CfgDb.Names.DETAILS;
     protected static final String STORAGE_DB = CfgDb.Names.STORAGE;
+    protected static final String CODE_DB = CfgDb.Names.CODE;
     protected static final String STATE_DB = CfgDb.Names.STATE;
+    protected static final String SNAPSHOT_DB = CfgDb.Names.SNAPSHOT;
+    protected static final String ADDRESS_INDEX_DB = CfgDb.Names.ADDRESS_INDEX;
     protected static final String PENDING_TX_POOL_DB = CfgDb.Names.TX_POOL;
     protected static final String PENDING_TX_CACHE_DB = CfgDb.Names.TX_CACHE;
 
@@ -86,9 +89,12 @@ public abstract class AbstractRepository<BLK extends AbstractBlock<BH, ? extends
     protected IByteArrayKeyValueDatabase transactionDatabase;
     protected IByteArrayKeyValueDatabase detailsDatabase;
     protected IByteArrayKeyValueDatabase storageDatabase;
+    protected IByteArrayKeyValueDatabase codeDatabase;
     protected IByteArrayKeyValueDatabase indexDatabase;
     protected IByteArrayKeyValueDatabase blockDatabase;
     protected IByteArrayKeyValueDatabase stateDatabase;
+    protected IByteArrayKeyValueDatabase snapshotDatabase;
+    protected IByteArrayKeyValueDatabase addressIndexDatabase;
     protected IByteArrayKeyValueDatabase txPoolDatabase;
     protected IByteArrayKeyValueDatabase pendingTxCacheDatabase;
 
@@ -178,6 +184,22 @@ public abstract class AbstractRepository<BLK extends AbstractBlock<BH, ? extends
             this.stateDatabase = connectAndOpen(sharedProps);
             databaseGroup.add(stateDatabase);
 
+            // getting state snapshot specific properties
+            sharedProps = cfg.getDatabaseConfig(SNAPSHOT_DB);
+            sharedProps.setProperty(Props.ENABLE_LOCKING, "false");
+            sharedProps.setProperty(Props.DB_PATH, cfg.getDbPath());
+            sharedProps.setProperty(Props.DB_NAME, SNAPSHOT_DB);
+            this.snapshotDatabase = connectAndOpen(sharedProps);
+            databaseGroup.add(snapshotDatabase);
+
+            // getting address index specific properties
+            sharedProps = cfg.getDatabaseConfig(ADDRESS_INDEX_DB);
+            sharedProps.setProperty(Props.ENABLE_LOCKING, "false");
+            sharedProps.setProperty(Props.DB_PATH, cfg.getDbPath());
+            sharedProps.setProperty(Props.DB_NAME, ADDRESS_INDEX_DB);
+            this.addressIndexDatabase = connectAndOpen(sharedProps);
+            databaseGroup.add(addressIndexDatabase);
+
             // getting transaction specific properties
             sharedProps = cfg.getDatabaseConfig(TRANSACTION_DB);
             sharedProps.setProperty(Props.ENABLE_LOCKING, "false");
@@ -202,6 +224,14 @@ public abstract class AbstractRepository<BLK extends AbstractBlock<BH, ? extends
             this.storageDatabase = connectAndOpen(sharedProps);
             databaseGroup.add(storageDatabase);
 
+            // getting code specific properties
+            sharedProps = cfg.getDatabaseConfig(CODE_DB);
+            sharedProps.setProperty(Props.ENABLE_LOCKING, "false");
+            sharedProps.setProperty(Props.DB_PATH, cfg.getDbPath());
+            sharedProps.setProperty(Props.DB_NAME, CODE_DB);
+            this.codeDatabase = connectAndOpen(sharedProps);
+            databaseGroup.add(codeDatabase);
+
             // getting index specific properties
             sharedProps = cfg.getDatabaseConfig(INDEX_DB);
             sharedProps.setProperty(Props.ENABLE_LOCKING, "false");
@@ -235,7 +265,7 @@ public abstract class AbstractRepository<BLK extends AbstractBlock<BH, ? extends
             databaseGroup.add(pendingTxCacheDatabase);
 
             // Setup the cache for transaction data source.
-            this.detailsDS = new DetailsDataStore<>(detailsDatabase, storageDatabase, this.cfg);
+            this.detailsDS = new DetailsDataStore<>(detailsDatabase, storageDatabase, codeDatabase, this.cfg);
             // disabling use of JournalPruneDataSource until functionality properly tested
             // TODO-AR: enable pruning with the JournalPruneDataSource
             // stateDSPrune = new JournalPruneDataSource<>(stateDatabase);
@@ -33,6 +33,8 @@ import org.slf4j.Logger;
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -349,6 +351,56 @@ public abstract class AbstractRepositoryCache<BSB extends IBlockStoreBase<?, ?>>
         }
     }
 
+    /**
+     * Returns the accounts loaded into this cache, each with the storage keys
+     * that were read or written for it. Used as an access list to prefetch
+     * state before the same transactions are executed again.
+     */
+    public Map<Address, Set<DataWord>> getAccessedStorage() {
+        fullyReadLock();
+        try {
+            Map<Address, Set<DataWord>> accessed = new HashMap<>();
+            for (Address address : cachedAccounts.keySet()) {
+                accessed.put(address, new HashSet<>());
+            }
+            for (Map.Entry<Address, IContractDetails<DataWord>> entry : cachedDetails.entrySet()) {
+                Set<DataWord> keys = accessed.computeIfAbsent(entry.getKey(), k -> new HashSet<>());
+                if (entry.getValue() instanceof ContractDetailsCacheImpl) {
+                    keys.addAll(((ContractDetailsCacheImpl) entry.getValue()).getStorageKeys());
+                }
+            }
+            return accessed;
+        } finally {
+            fullyReadUnlock();
+        }
+    }
+
+    /**
+     * Returns the accounts whose state or contract details were changed or
+     * deleted through this cache.
+     */
+    public Set<Address> getModifiedAccounts() {
+        fullyReadLock();
+        try {
+            Set<Address> modified = new HashSet<>();
+            for (Map.Entry<Address, AccountState> entry : cachedAccounts.entrySet()) {
+                AccountState account = entry.getValue();
+                if (account != null && (account.isDirty() || account.isDeleted())) {
+                    modified.add(entry.getKey());
+                }
+            }
+            for (Map.Entry<Address, IContractDetails<DataWord>> entry : cachedDetails.entrySet()) {
+                IContractDetails<DataWord> details = entry.getValue();
+                if (details != null && (details.isDirty() || details.isDeleted())) {
+                    modified.add(entry.getKey());
+                }
+            }
+            return modified;
+        } finally {
+            fullyReadUnlock();
+        }
+    }
+
     @Override
     public IRepository getSnapshotTo(byte[] root) {
         return repository.getSnapshotTo(root);
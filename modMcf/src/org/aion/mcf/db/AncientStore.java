@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors :
+ *     Aion foundation.
+ ******************************************************************************/
+package org.aion.mcf.db;
+
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only store of the items of finalized blocks, numbered densely from
+ * the genesis block, kept in flat files instead of the key-value databases.
+ * <p>
+ * Each table holds one item per block. Its items are appended to segment
+ * files of a bounded size, {@code <table>.<segment>.dat}, and its index file,
+ * {@code <table>.idx}, holds for each block number the segment and the end
+ * offset of the item as two 4-byte integers, so an item is located with a
+ * single index read. Full segments never change and are read through memory
+ * mappings.
+ * <p>
+ * The items of a block are appended to all tables together. The index
+ * entries are written after the data and every segment written to is forced
+ * before the index, so on opening the tables are cut back to the blocks whose
+ * index entries and items are complete in all of them.
+ */
+public class AncientStore implements Closeable {
+
+    private static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.DB.name());
+
+    private static final int INDEX_ENTRY_SIZE = 8;
+
+    private final File dir;
+    private final long segmentSize;
+    private final Table[] tables;
+
+    private long size;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final class Table {
+        private final String name;
+        private final FileChannel index;
+        private final List<FileChannel> segments = new ArrayList<>();
+        private final List<MappedByteBuffer> mapped = new ArrayList<>();
+        private int end;
+        // the first segment written since the last sync
+        private int unsynced;
+
+        private Table(String name) throws IOException {
+            this.name = name;
+            this.index = FileChannel.open(new File(dir, name + ".idx").toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        private long count() throws IOException {
+            return index.size() / INDEX_ENTRY_SIZE;
+        }
+
+        /**
+         * @return the number of the leading items whose data is complete in
+         *         their segments, found with a search of the index entries
+         *         of each segment
+         */
+        private long validCount() throws IOException {
+            long count = count();
+            long first = 0;
+            while (first < count) {
+                int segment = readEntry(first).getInt();
+                File file = segmentFile(segment);
+                long length = file.exists() ? file.length() : 0;
+
+                // the last entry in the segment, which has the largest end
+                long low = first, high = count - 1;
+                while (low < high) {
+                    long mid = (low + high + 1) >>> 1;
+                    if (readEntry(mid).getInt() == segment) {
+                        low = mid;
+                    } else {
+                        high = mid - 1;
+                    }
+                }
+                long last = low;
+
+                if (readEntry(last).getInt(4) > length) {
+                    // the first entry past the end of the segment
+                    low = first;
+                    high = last;
+                    while (low < high) {
+                        long mid = (low + high) >>> 1;
+                        if (readEntry(mid).getInt(4) > length) {
+                            high = mid;
+                        } else {
+                            low = mid + 1;
+                        }
+                    }
+                    LOG.warn("The ancient " + name + " table is incomplete from block " + low + ".");
+                    return low;
+                }
+                first = last + 1;
+            }
+            return count;
+        }
+
+        private File segmentFile(int segment) {
+            return new File(dir, String.format("%s.%04d.dat", name, segment));
+        }
+
+        private FileChannel openSegment(int segment) throws IOException {
+            return FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Cuts the table back to the given number of items and opens its
+         * segments, dropping the data written after the last complete item.
+         */
+        private void open(long count) throws IOException {
+            index.truncate(count * INDEX_ENTRY_SIZE);
+
+            int segment = 0;
+            end = 0;
+            if (count > 0) {
+                ByteBuffer entry = readEntry(count - 1);
+                segment = entry.getInt();
+                end = entry.getInt();
+            }
+
+            for (int i = 0; i <= segment; i++) {
+                segments.add(openSegment(i));
+                mapped.add(null);
+            }
+            segments.get(segment).truncate(end);
+            unsynced = segment;
+
+            for (int i = segment + 1; segmentFile(i).exists(); i++) {
+                if (!segmentFile(i).delete()) {
+                    throw new IOException("Unable to delete " + segmentFile(i));
+                }
+            }
+        }
+
+        private ByteBuffer readEntry(long number) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+            readFully(index, entry, number * INDEX_ENTRY_SIZE);
+            entry.flip();
+            return entry;
+        }
+
+        private void append(long number, byte[] item) throws IOException {
+            if (end > 0 && end + (long) item.length > segmentSize) {
+                segments.add(openSegment(segments.size()));
+                mapped.add(null);
+                end = 0;
+            }
+            int segment = segments.size() - 1;
+
+            writeFully(segments.get(segment), ByteBuffer.wrap(item), end);
+            end += item.length;
+
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).putInt(segment).putInt(end);
+            entry.flip();
+            writeFully(index, entry, number * INDEX_ENTRY_SIZE);
+        }
+
+        private byte[] get(long number) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(2 * INDEX_ENTRY_SIZE);
+            if (number == 0) {
+                entry.putLong(0);
+            }
+            readFully(index, entry, Math.max(0, number - 1) * INDEX_ENTRY_SIZE);
+            entry.flip();
+
+            int previousSegment = entry.getInt();
+            int previousEnd = entry.getInt();
+            int segment = entry.getInt();
+            int itemEnd = entry.getInt();
+            int start = number > 0 && previousSegment == segment ? previousEnd : 0;
+
+            byte[] item = new byte[itemEnd - start];
+            if (segment < segments.size() - 1) {
+                ByteBuffer buffer = mapped(segment).duplicate();
+                buffer.position(start);
+                buffer.get(item);
+            } else {
+                readFully(segments.get(segment), ByteBuffer.wrap(item), start);
+            }
+            return item;
+        }
+
+        /**
+         * @return the mapping of a full segment, which no longer changes
+         */
+        private synchronized MappedByteBuffer mapped(int segment) throws IOException {
+            MappedByteBuffer buffer = mapped.get(segment);
+            if (buffer == null) {
+                FileChannel channel = segments.get(segment);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                mapped.set(segment, buffer);
+            }
+            return buffer;
+        }
+
+        private void sync() throws IOException {
+            // an append may have rolled over to new segments since the last sync
+            for (int i = unsynced; i < segments.size(); i++) {
+                segments.get(i).force(false);
+            }
+            index.force(false);
+            unsynced = segments.size() - 1;
+        }
+
+        private void close() throws IOException {
+            for (FileChannel segment : segments) {
+                segment.close();
+            }
+            index.close();
+        }
+    }
+
+    /**
+     * Opens the store in the given folder, creating it if needed.
+     *
+     * @param tableNames the names of the tables, in the order of the items
+     *         given to {@link #append(long, byte[]...)}
+     * @param segmentSize the size at which the segment files of a table are
+     *         rolled over, at most {@link Integer#MAX_VALUE}
+     */
+    public AncientStore(File dir, String[] tableNames, long segmentSize) throws IOException {
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+
+        this.tables = new Table[tableNames.length];
+        long count = Long.MAX_VALUE;
+        for (int i = 0; i < tableNames.length; i++) {
+            tables[i] = new Table(tableNames[i]);
+            count = Math.min(count, tables[i].validCount());
+        }
+        for (Table table : tables) {
+            table.open(count);
+        }
+        this.size = tableNames.length == 0 ? 0 : count;
+    }
+
+    /**
+     * @return the number of blocks stored, which is the number of the next
+     *         block to append
+     */
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends the items of the next block, one for each table. The items are
+     * only durable after {@link #sync()}.
+     */
+    public void append(long number, byte[]... items) throws IOException {
+        if (items.length != tables.length) {
+            throw new IllegalArgumentException("Expected " + tables.length + " items, got " + items.length);
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (number != size) {
+                throw new IllegalArgumentException("Expected block " + size + ", got " + number);
+            }
+            for (int i = 0; i < tables.length; i++) {
+                tables[i].append(number, items[i]);
+            }
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the item of the block in the given table, or {@code null} if
+     *         the block is not stored
+     */
+    public byte[] get(int table, long number) {
+        lock.readLock().lock();
+        try {
+            if (number < 0 || number >= size) {
+                return null;
+            }
+            return tables[table].get(number);
+        } catch (IOException e) {
+            LOG.error("Unable to read block " + number + " from the ancient " + tables[table].name + " table.", e);
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the appended items to the disk.
+     */
+    public void sync() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Table table : tables) {
+                table.sync();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (Table table : tables) {
+                try {
+                    table.close();
+                } catch (IOException e) {
+                    LOG.error("Unable to close the ancient " + table.name + " table.", e);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import org.aion.base.util.ByteArrayWrapper;
 import org.aion.mcf.vm.types.DataWord;
 
 import java.util.*;
+import java.util.function.Function;
 
 /**
  * Contract details cache implementation.
@@ -37,11 +38,29 @@ public class ContractDetailsCacheImpl extends AbstractContractDetails<DataWord>
 
     public IContractDetails<DataWord> origContract;
 
+    // reads the values of the original contract, e.g. from a flat state
+    private final Function<DataWord, DataWord> storageReader;
+
     public ContractDetailsCacheImpl(IContractDetails<DataWord> origContract) {
+        this(origContract, null);
+    }
+
+    /**
+     * @param storageReader
+     *         reads the storage values of the original contract without
+     *         walking its storage trie, returning {@code null} for values that
+     *         must be read from the original contract
+     */
+    public ContractDetailsCacheImpl(IContractDetails<DataWord> origContract,
+            Function<DataWord, DataWord> storageReader) {
         this.origContract = origContract;
+        this.storageReader = storageReader;
         if (origContract != null) {
             if (origContract instanceof AbstractContractDetails) {
-                setCodes(((AbstractContractDetails) this.origContract).getCodes());
+                // keep codes that are not loaded yet lazy
+                AbstractContractDetails<?> orig = (AbstractContractDetails<?>) this.origContract;
+                setCodes(orig.getLazyCodes());
+                setCodeSource(orig.getCodeSource());
             } else {
                 setCode(origContract.getCode());
             }
@@ -64,7 +83,10 @@ public class ContractDetailsCacheImpl extends AbstractContractDetails<DataWord>
             if (origContract == null) {
                 return null;
             }
-            value = origContract.get(key);
+            value = storageReader == null ? null : storageReader.apply(key);
+            if (value == null) {
+                value = origContract.get(key);
+            }
             storage.put(key.clone(), value == null ? DataWord.ZERO.clone() : value.clone());
         }
 
@@ -110,6 +132,13 @@ public class ContractDetailsCacheImpl extends AbstractContractDetails<DataWord>
         return storage;
     }
 
+    /**
+     * @return the keys read or written through this cache
+     */
+    public Set<DataWord> getStorageKeys() {
+        return new HashSet<>(storage.keySet());
+    }
+
     @Override
     public void setStorage(List<DataWord> storageKeys, List<DataWord> storageValues) {
 
@@ -160,7 +189,7 @@ public class ContractDetailsCacheImpl extends AbstractContractDetails<DataWord>
         }
 
         if (origContract instanceof AbstractContractDetails) {
-            ((AbstractContractDetails) origContract).appendCodes(getCodes());
+            ((AbstractContractDetails) origContract).appendCodes(getLazyCodes());
         } else {
             origContract.setCode(getCode());
         }
@@ -172,6 +201,11 @@ public class ContractDetailsCacheImpl extends AbstractContractDetails<DataWord>
         throw new UnsupportedOperationException("No snapshot option during cache state");
     }
 
+    @Override
+    public AbstractContractDetails<DataWord> copy() {
+        throw new UnsupportedOperationException("No copy option during cache state");
+    }
+
     @Override
     public void setDataSource(IByteArrayKeyValueStore dataSource) {
         throw new UnsupportedOperationException("Can't set datasource in cache implementation.");
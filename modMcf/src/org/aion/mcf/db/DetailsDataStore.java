@@ -27,8 +27,10 @@ import org.aion.base.type.Address;
 import org.aion.base.type.IBlockHeader;
 import org.aion.base.type.ITransaction;
 import org.aion.base.util.ByteArrayWrapper;
+import org.aion.mcf.trie.TrieNode;
 import org.aion.mcf.types.AbstractBlock;
 import org.aion.mcf.vm.types.DataWord;
+import org.apache.commons.collections4.map.LRUMap;
 
 import java.util.*;
 
@@ -44,28 +46,76 @@ public class DetailsDataStore<BLK extends AbstractBlock<BH, ? extends ITransacti
     // private JournalPruneDataSource<BLK, BH> storageDSPrune;
     private IRepositoryConfig repoConfig;
 
+    /**
+     * Default bound for the cache of details, in bytes of their records.
+     */
+    public static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * Number of storage trie nodes shared by the details read from the store.
+     */
+    public static final int SHARED_STORAGE_NODES = 65_536;
+
     private IByteArrayKeyValueDatabase detailsSrc;
     private IByteArrayKeyValueDatabase storageSrc;
+    private IByteArrayKeyValueDatabase codeSrc;
     private Set<ByteArrayWrapper> removes = new HashSet<>();
 
+    // decoded details in access order, which are never changed; each caller
+    // gets a copy sharing their decoded storage nodes and codes
+    private final LinkedHashMap<ByteArrayWrapper, AbstractContractDetails<DataWord>> records =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long maxCachedBytes = DEFAULT_CACHE_BYTES;
+    private long cachedBytes = 0;
+
+    // storage nodes are content addressed, so the nodes read for any contract
+    // and any details instance are shared, also with the prefetching threads
+    private final Map<ByteArrayWrapper, TrieNode> storageNodes =
+            Collections.synchronizedMap(new LRUMap<>(SHARED_STORAGE_NODES));
+
     public DetailsDataStore() {
     }
 
     public DetailsDataStore(IByteArrayKeyValueDatabase detailsCache, IByteArrayKeyValueDatabase storageCache,
             IRepositoryConfig repoConfig) {
+        this(detailsCache, storageCache, null, repoConfig);
+    }
+
+    /**
+     * @param codeCache
+     *         content-addressed code store keyed by code hash; when it is
+     *         {@code null} codes stay inlined in the details records
+     */
+    public DetailsDataStore(IByteArrayKeyValueDatabase detailsCache, IByteArrayKeyValueDatabase storageCache,
+            IByteArrayKeyValueDatabase codeCache, IRepositoryConfig repoConfig) {
 
         this.repoConfig = repoConfig;
-        withDb(detailsCache, storageCache);
+        withDb(detailsCache, storageCache, codeCache);
     }
 
     public DetailsDataStore<BLK, BH> withDb(IByteArrayKeyValueDatabase detailsSrc,
             IByteArrayKeyValueDatabase storageSrc) {
+        return withDb(detailsSrc, storageSrc, null);
+    }
+
+    public DetailsDataStore<BLK, BH> withDb(IByteArrayKeyValueDatabase detailsSrc,
+            IByteArrayKeyValueDatabase storageSrc, IByteArrayKeyValueDatabase codeSrc) {
         this.detailsSrc = detailsSrc;
         this.storageSrc = storageSrc;
+        this.codeSrc = codeSrc;
         // this.storageDSPrune = new JournalPruneDataSource<>(storageSrc);
         return this;
     }
 
+    /**
+     * Sets the bound of the cache of details in bytes of their records. A
+     * value of zero disables the cache.
+     */
+    public synchronized void setMaxCachedBytes(long maxCachedBytes) {
+        this.maxCachedBytes = maxCachedBytes;
+        evict();
+    }
+
     /**
      * Fetches the ContractDetails from the cache, and if it doesn't exist, add
      * to the remove set.
@@ -76,6 +126,12 @@ public class DetailsDataStore<BLK extends AbstractBlock<BH, ? extends ITransacti
     public synchronized IContractDetails<DataWord> get(byte[] key) {
 
         ByteArrayWrapper wrappedKey = wrap(key);
+
+        AbstractContractDetails<DataWord> cached = records.get(wrappedKey);
+        if (cached != null) {
+            return cached.copy();
+        }
+
         Optional<byte[]> rawDetails = detailsSrc.get(key);
 
         // If it doesn't exist in cache or database.
@@ -90,19 +146,68 @@ public class DetailsDataStore<BLK extends AbstractBlock<BH, ? extends ITransacti
         }
 
         // Found something from cache or database, return it by decoding it.
-        IContractDetails<DataWord> detailsImpl = repoConfig.contractDetailsImpl();
-        detailsImpl.setDataSource(storageSrc);
-        detailsImpl.decode(rawDetails.get()); // We can safely get as we checked
+        IContractDetails<DataWord> detailsImpl = decode(rawDetails.get()); // We can safely get as we checked
         // if it is present.
 
+        if (detailsImpl instanceof AbstractContractDetails) {
+            AbstractContractDetails<DataWord> decoded = (AbstractContractDetails<DataWord>) detailsImpl;
+            cache(wrappedKey, decoded);
+            return decoded.copy();
+        }
+        return detailsImpl;
+    }
+
+    private IContractDetails<DataWord> decode(byte[] rawDetails) {
+        IContractDetails<DataWord> detailsImpl = repoConfig.contractDetailsImpl();
+        detailsImpl.setDataSource(storageSrc);
+        if (detailsImpl instanceof AbstractContractDetails) {
+            ((AbstractContractDetails) detailsImpl).setCodeSource(codeSrc);
+            ((AbstractContractDetails) detailsImpl).setSharedStorageNodes(storageNodes);
+        }
+        detailsImpl.decode(rawDetails);
         return detailsImpl;
     }
 
+    private void cache(ByteArrayWrapper key, AbstractContractDetails<DataWord> details) {
+        uncache(key);
+        long size = details.getEncoded().length;
+        if (size > maxCachedBytes) {
+            return;
+        }
+        records.put(key, details);
+        cachedBytes += size;
+        evict();
+    }
+
+    private void uncache(ByteArrayWrapper key) {
+        AbstractContractDetails<DataWord> previous = records.remove(key);
+        if (previous != null) {
+            cachedBytes -= previous.getEncoded().length;
+        }
+    }
+
+    private void evict() {
+        Iterator<AbstractContractDetails<DataWord>> it = records.values().iterator();
+        while (cachedBytes > maxCachedBytes && it.hasNext()) {
+            cachedBytes -= it.next().getEncoded().length;
+            it.remove();
+        }
+    }
+
     public synchronized void update(Address key, IContractDetails<DataWord> contractDetails) {
 
         contractDetails.setAddress(key);
         ByteArrayWrapper wrappedKey = wrap(key.toBytes());
 
+        // Write new codes to the code store, the record only keeps their hashes.
+        if (codeSrc != null && contractDetails instanceof AbstractContractDetails) {
+            AbstractContractDetails details = (AbstractContractDetails) contractDetails;
+            details.setDataSource(storageSrc);
+            details.setCodeSource(codeSrc);
+            details.setSharedStorageNodes(storageNodes);
+            details.syncCodes();
+        }
+
         // Put into cache.
         byte[] rawDetails = contractDetails == null ? null : contractDetails.getEncoded();
         detailsSrc.put(key.toBytes(), rawDetails);
@@ -112,6 +217,24 @@ public class DetailsDataStore<BLK extends AbstractBlock<BH, ? extends ITransacti
         // Remove from the remove set.
         removes.remove(wrappedKey);
 
+        // the caller keeps changing its instance, so a copy is cached
+        if (contractDetails instanceof AbstractContractDetails) {
+            cache(wrappedKey, ((AbstractContractDetails<DataWord>) contractDetails).copy());
+        } else {
+            uncache(wrappedKey);
+        }
+    }
+
+    /**
+     * Writes an encoded details record without decoding it, it is decoded
+     * when it is first read.
+     */
+    public synchronized void putEncoded(Address key, byte[] rawDetails) {
+        ByteArrayWrapper wrappedKey = wrap(key.toBytes());
+        detailsSrc.put(key.toBytes(), rawDetails);
+
+        removes.remove(wrappedKey);
+        uncache(wrappedKey);
     }
 
     public synchronized void remove(byte[] key) {
@@ -119,6 +242,47 @@ public class DetailsDataStore<BLK extends AbstractBlock<BH, ? extends ITransacti
         detailsSrc.put(key, null);
 
         removes.add(wrappedKey);
+        uncache(wrappedKey);
+    }
+
+    /**
+     * Rewrites the legacy details records, which inline every code and small
+     * storage tries, as compact records with the codes moved to the code
+     * store and the storage moved to the storage database. Records are also
+     * migrated lazily when they are next updated, so this only needs to run
+     * once to shrink an existing database.
+     *
+     * @return the number of migrated records
+     */
+    public synchronized int migrateLegacyDetails() {
+        if (codeSrc == null) {
+            return 0;
+        }
+
+        int migrated = 0;
+        for (byte[] key : detailsSrc.keys()) {
+            Optional<byte[]> rawDetails = detailsSrc.get(key);
+            if (!rawDetails.isPresent()) {
+                continue;
+            }
+
+            IContractDetails<DataWord> details = decode(rawDetails.get());
+
+            // drops the encoding kept from decode, compact records encode to the same bytes
+            details.setAddress(details.getAddress());
+            if (details instanceof AbstractContractDetails) {
+                ((AbstractContractDetails) details).syncCodes();
+            }
+            if (Arrays.equals(details.getEncoded(), rawDetails.get())) {
+                continue;
+            }
+
+            update(details.getAddress(), details);
+            migrated++;
+        }
+
+        flushInternal();
+        return migrated;
     }
 
     public synchronized void flush() {
@@ -140,9 +304,12 @@ public class DetailsDataStore<BLK extends AbstractBlock<BH, ? extends ITransacti
             totalSize += valFromKey.map(rawDetails -> rawDetails.length).orElse(0);
         }
 
-        // Flushes both details and storage.
+        // Flushes details, storage and code.
         detailsSrc.commit();
         storageSrc.commit();
+        if (codeSrc != null) {
+            codeSrc.commit();
+        }
 
         return totalSize;
     }
@@ -188,6 +355,9 @@ public class DetailsDataStore<BLK extends AbstractBlock<BH, ? extends ITransacti
         try {
             detailsSrc.close();
             storageSrc.close();
+            if (codeSrc != null) {
+                codeSrc.close();
+            }
         } catch (Exception e) {
             throw new RuntimeException("error closing db");
         }
@@ -27,71 +27,221 @@ import org.aion.base.db.IByteArrayKeyValueDatabase;
 import org.aion.base.util.ByteArrayWrapper;
 import org.aion.base.util.FastByteComparisons;
 import org.aion.mcf.core.AbstractTxInfo;
-import org.aion.mcf.ds.ObjectDataSource;
 import org.aion.mcf.ds.Serializer;
 import org.aion.mcf.types.AbstractTransaction;
 import org.aion.mcf.types.AbstractTxReceipt;
+import org.aion.rlp.RLP;
+import org.aion.rlp.RLPElement;
+import org.aion.rlp.RLPList;
 import org.apache.commons.collections4.map.LRUMap;
 
 import java.io.Closeable;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import static org.aion.base.util.Utils.dummy;
 
+/**
+ * Keeps the receipts of each block in one record keyed by the block hash and,
+ * for each transaction hash, a small locator record listing the blocks that
+ * include the transaction with its index in them. A block is written with a
+ * single batch and a transaction info is read from its locator and the
+ * receipts record of its block.
+ *
+ * <p>Stores written before this layout kept all the infos of a transaction in
+ * one record keyed by the bare transaction hash; these records are still read
+ * for the transactions that have no locator.
+ *
+ * <p>The receipts records of blocks moved to the {@link AncientStore} are
+ * removed from the database and read through the ancient receipts lookup,
+ * while the locators stay in the database.
+ */
 public class TransactionStore<TX extends AbstractTransaction, TXR extends AbstractTxReceipt<TX>, INFO extends AbstractTxInfo<TXR, TX>>
         implements Flushable, Closeable {
+
+    private static final byte RECEIPTS_PREFIX = 0x01;
+    private static final byte LOCATOR_PREFIX = 0x02;
+
+    /**
+     * Builds the info of a transaction from its receipt and location.
+     */
+    public interface InfoFactory<TXR, INFO> {
+        INFO create(TXR receipt, byte[] blockHash, int index);
+    }
+
+    private static final class Location {
+        private final byte[] blockHash;
+        private final int index;
+
+        private Location(byte[] blockHash, int index) {
+            this.blockHash = blockHash;
+            this.index = index;
+        }
+    }
+
+    // transactions stored recently, their locators are extended rather than replaced
     private final LRUMap<ByteArrayWrapper, Object> lastSavedTxHash = new LRUMap<>(5000);
-    private final ObjectDataSource<List<INFO>> source;
+
+    private final IByteArrayKeyValueDatabase source;
+    private final Serializer<List<TXR>, byte[]> receiptsSerializer;
+    private final Serializer<List<INFO>, byte[]> legacySerializer;
+    private final InfoFactory<TXR, INFO> infoFactory;
+
+    private volatile Function<byte[], byte[]> ancientReceipts;
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
-    public TransactionStore(IByteArrayKeyValueDatabase src, Serializer<List<INFO>, byte[]> serializer) {
-        source = new ObjectDataSource(src, serializer);
+    public TransactionStore(IByteArrayKeyValueDatabase src, Serializer<List<TXR>, byte[]> receiptsSerializer,
+            Serializer<List<INFO>, byte[]> legacySerializer, InfoFactory<TXR, INFO> infoFactory) {
+        this.source = src;
+        this.receiptsSerializer = receiptsSerializer;
+        this.legacySerializer = legacySerializer;
+        this.infoFactory = infoFactory;
     }
 
-    public boolean putToBatch(INFO tx) {
+    /**
+     * Sets the lookup of the receipts records of the blocks moved to the
+     * ancient store, which returns {@code null} for the other blocks.
+     */
+    public void setAncientReceipts(Function<byte[], byte[]> ancientReceipts) {
+        this.ancientReceipts = ancientReceipts;
+    }
+
+    private static byte[] key(byte prefix, byte[] hash) {
+        byte[] key = new byte[hash.length + 1];
+        key[0] = prefix;
+        System.arraycopy(hash, 0, key, 1, hash.length);
+        return key;
+    }
+
+    /**
+     * Stores the receipts of a block, whose transactions must be set, and the
+     * locators of its transactions in one batch.
+     *
+     * <p>The locator of a transaction lists every block storing it. It is read
+     * and extended for the transactions of blocks off the main chain and for
+     * the recently stored transactions, which covers transactions included
+     * again in a fork; for the other transactions it is written without
+     * reading the store.
+     *
+     * @param onMainChain whether the block is stored on the main chain
+     */
+    public void putBlock(byte[] blockHash, List<TXR> receipts, boolean onMainChain) {
         lock.writeLock().lock();
 
         try {
-            byte[] txHash = tx.getReceipt().getTransaction().getHash();
+            Map<byte[], byte[]> batch = new HashMap<>();
+            batch.put(key(RECEIPTS_PREFIX, blockHash), receiptsSerializer.serialize(receipts));
 
-            List<INFO> existingInfos = null;
-            if (lastSavedTxHash.put(new ByteArrayWrapper(txHash), dummy) != null || !lastSavedTxHash.isFull()) {
-                existingInfos = source.get(txHash);
-            }
+            for (int i = 0; i < receipts.size(); i++) {
+                byte[] txHash = receipts.get(i).getTransaction().getHash();
 
-            if (existingInfos == null) {
-                existingInfos = new ArrayList<>();
-            } else {
-                for (AbstractTxInfo<TXR, TX> info : existingInfos) {
-                    if (FastByteComparisons.equal(info.getBlockHash(), tx.getBlockHash())) {
-                        return false;
-                    }
+                List<Location> locations = null;
+                if (lastSavedTxHash.put(new ByteArrayWrapper(txHash), dummy) != null || !onMainChain) {
+                    locations = getLocations(txHash);
+                }
+                if (locations == null) {
+                    locations = new ArrayList<>();
+                } else {
+                    locations.removeIf(l -> FastByteComparisons.equal(l.blockHash, blockHash));
                 }
+                locations.add(new Location(blockHash, i));
+
+                batch.put(key(LOCATOR_PREFIX, txHash), encodeLocations(locations));
             }
-            existingInfos.add(tx);
-            source.putToBatch(txHash, existingInfos);
 
-            return true;
+            source.putBatch(batch);
         } finally {
             lock.writeLock().unlock();
         }
     }
 
-    public void flushBatch(){
-        source.flushBatch();
+    /**
+     * @return the receipts of the block, without their transactions, or
+     *         {@code null} if they are not stored
+     */
+    public List<TXR> getReceipts(byte[] blockHash) {
+        lock.readLock().lock();
+        try {
+            byte[] record = getReceiptsRecord(blockHash);
+            return record == null ? null : receiptsSerializer.deserialize(record);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the receipts record of the block as it is stored in the
+     *         database, or {@code null} if it is not there
+     */
+    public byte[] getEncodedReceipts(byte[] blockHash) {
+        lock.readLock().lock();
+        try {
+            return source.get(key(RECEIPTS_PREFIX, blockHash)).orElse(null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the receipts records of the blocks from the database, keeping
+     * the locators of their transactions.
+     */
+    public void removeReceipts(List<byte[]> blockHashes) {
+        lock.writeLock().lock();
+        try {
+            List<byte[]> keys = new ArrayList<>(blockHashes.size());
+            for (byte[] blockHash : blockHashes) {
+                keys.add(key(RECEIPTS_PREFIX, blockHash));
+            }
+            source.deleteBatch(keys);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     public INFO get(byte[] txHash, byte[] blockHash) {
+        return get(txHash, hash -> FastByteComparisons.equal(hash, blockHash), false);
+    }
+
+    /**
+     * Gets the info of a transaction in the only block storing it or, when
+     * several blocks store it, in the first block accepted by the test, which
+     * usually checks that the block is on the main chain.
+     *
+     * @return the info without its transaction, or {@code null} if there is
+     *         no such block
+     */
+    public INFO get(byte[] txHash, Predicate<byte[]> blockTest) {
+        return get(txHash, blockTest, true);
+    }
+
+    private INFO get(byte[] txHash, Predicate<byte[]> blockTest, boolean acceptSingle) {
         lock.readLock().lock();
 
         try {
-            List<INFO> existingInfos = source.get(txHash);
-            for (INFO info : existingInfos) {
-                if (FastByteComparisons.equal(info.getBlockHash(), blockHash)) {
+            List<Location> locations = getLocations(txHash);
+            // the transaction may also be stored in blocks written before the locators
+            List<INFO> legacy = getLegacy(txHash, locations);
+
+            int count = (locations == null ? 0 : locations.size()) + legacy.size();
+            if (locations != null) {
+                for (Location location : locations) {
+                    if ((acceptSingle && count == 1) || blockTest.test(location.blockHash)) {
+                        return getInfo(location);
+                    }
+                }
+            }
+            for (INFO info : legacy) {
+                if ((acceptSingle && count == 1) || blockTest.test(info.getBlockHash())) {
                     return info;
                 }
             }
@@ -101,20 +251,103 @@ public class TransactionStore<TX extends AbstractTransaction, TXR extends Abstra
         }
     }
 
-    public List<INFO> get(byte[] key) {
+    /**
+     * @return the infos of the transaction in all the blocks storing it, or
+     *         {@code null} if it is not stored
+     */
+    public List<INFO> get(byte[] txHash) {
         lock.readLock().lock();
+
         try {
-            return source.get(key);
+            List<Location> locations = getLocations(txHash);
+            List<INFO> infos = new ArrayList<>();
+            if (locations != null) {
+                for (Location location : locations) {
+                    INFO info = getInfo(location);
+                    if (info != null) {
+                        infos.add(info);
+                    }
+                }
+            }
+            infos.addAll(getLegacy(txHash, locations));
+            return infos.isEmpty() ? null : infos;
         } finally {
             lock.readLock().unlock();
         }
     }
 
+    private INFO getInfo(Location location) {
+        byte[] record = getReceiptsRecord(location.blockHash);
+        if (record == null) {
+            return null;
+        }
+        List<TXR> receipts = receiptsSerializer.deserialize(record);
+        if (location.index >= receipts.size()) {
+            return null;
+        }
+        return infoFactory.create(receipts.get(location.index), location.blockHash, location.index);
+    }
+
+    private byte[] getReceiptsRecord(byte[] blockHash) {
+        Optional<byte[]> record = source.get(key(RECEIPTS_PREFIX, blockHash));
+        if (record.isPresent()) {
+            return record.get();
+        }
+        Function<byte[], byte[]> ancient = ancientReceipts;
+        return ancient == null ? null : ancient.apply(blockHash);
+    }
+
+    /**
+     * @return the infos of the transaction in the blocks written before the
+     *         locators, without the blocks the locators already point to
+     */
+    private List<INFO> getLegacy(byte[] txHash, List<Location> locations) {
+        Optional<byte[]> record = source.get(txHash);
+        if (!record.isPresent()) {
+            return new ArrayList<>();
+        }
+        List<INFO> infos = new ArrayList<>(legacySerializer.deserialize(record.get()));
+        if (locations != null) {
+            infos.removeIf(info -> locations.stream()
+                    .anyMatch(location -> FastByteComparisons.equal(location.blockHash, info.getBlockHash())));
+        }
+        return infos;
+    }
+
+    /* [[blockHash, index]...] */
+    private List<Location> getLocations(byte[] txHash) {
+        Optional<byte[]> record = source.get(key(LOCATOR_PREFIX, txHash));
+        if (!record.isPresent()) {
+            return null;
+        }
+
+        List<Location> locations = new ArrayList<>();
+        for (RLPElement element : (RLPList) RLP.decode2(record.get()).get(0)) {
+            RLPList location = (RLPList) element;
+            byte[] index = location.get(1).getRLPData();
+            locations.add(new Location(location.get(0).getRLPData(),
+                    index == null ? 0 : new BigInteger(1, index).intValue()));
+        }
+        return locations;
+    }
+
+    private static byte[] encodeLocations(List<Location> locations) {
+        byte[][] encoded = new byte[locations.size()][];
+        for (int i = 0; i < encoded.length; i++) {
+            Location location = locations.get(i);
+            encoded[i] = RLP.encodeList(RLP.encodeElement(location.blockHash), RLP.encodeInt(location.index));
+        }
+        return RLP.encodeList(encoded);
+    }
+
     @Override
     public void flush() {
         lock.writeLock().lock();
         try {
-            source.flush();
+            // for write-back type cache only
+            if (!source.isAutoCommitEnabled()) {
+                source.commit();
+            }
         } finally {
             lock.writeLock().unlock();
         }
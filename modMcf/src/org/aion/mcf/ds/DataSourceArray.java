@@ -27,6 +27,7 @@ import org.aion.base.db.Flushable;
 import org.aion.base.util.ByteUtil;
 import org.aion.base.util.Hex;
 
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -61,6 +62,21 @@ public class DataSourceArray<V> implements Flushable {
         return value;
     }
 
+    /**
+     * Adds the writes of {@link #set(long, Object)} to the given batch instead
+     * of applying them, so that the caller can store them in one
+     * {@code putBatch} with its own updates. The batch must be written before
+     * the array is read again.
+     */
+    public V set(long index, V value, Map<byte[], byte[]> batch) {
+        batch.put(key(index), src.serializer.serialize(value));
+        if (index >= size()) {
+            size = index + 1;
+            batch.put(sizeKey, sizeBytes(size));
+        }
+        return value;
+    }
+
     public void remove(long index) {
         // without this check it will remove the sizeKey
         if (index < 0 || index >= size()) {
@@ -117,10 +133,14 @@ public class DataSourceArray<V> implements Flushable {
 
     private synchronized void setSize(long newSize) {
         size = newSize;
-        if (size <= Integer.MAX_VALUE) {
-            src.getSrc().put(sizeKey, ByteUtil.intToBytes((int) newSize));
-        } else {
-            src.getSrc().put(sizeKey, ByteUtil.longToBytes(newSize));
-        }
+        src.getSrc().put(sizeKey, sizeBytes(newSize));
+    }
+
+    private static byte[] key(long index) {
+        return index <= Integer.MAX_VALUE ? ByteUtil.intToBytes((int) index) : ByteUtil.longToBytes(index);
+    }
+
+    private static byte[] sizeBytes(long size) {
+        return size <= Integer.MAX_VALUE ? ByteUtil.intToBytes((int) size) : ByteUtil.longToBytes(size);
     }
 }
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2017, 2018 Aion foundation.
+ *
+ * 	This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>
+ *
+ * Contributors:
+ *     Aion foundation.
+ *******************************************************************************/
+package org.aion.mcf.trie;
+
+import java.nio.ByteBuffer;
+
+import org.aion.base.util.ByteUtil;
+import org.aion.base.util.Hex;
+import org.aion.rlp.RLPWriter;
+
+/**
+ * Seventeen-item node [ v0 ... v15, vt ]: one child for each nibble and the
+ * value of the key ending at this node.
+ */
+public final class BranchNode extends TrieNode {
+
+    static final int RADIX = 16;
+    static final int SIZE = RADIX + 1;
+
+    private final TrieNode[] children;
+    private final byte[] value;
+
+    /**
+     * @param children
+     *         sixteen children, {@code null} for the empty ones; the array
+     *         is owned by the node
+     * @param value
+     *         the value, empty if none
+     */
+    BranchNode(TrieNode[] children, byte[] value) {
+        this.children = children;
+        this.value = value;
+    }
+
+    public TrieNode getChild(int nibble) {
+        return children[nibble];
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * @return a copy of this branch with one child replaced
+     */
+    BranchNode withChild(int nibble, TrieNode child) {
+        TrieNode[] copy = children.clone();
+        copy[nibble] = child;
+        return new BranchNode(copy, value);
+    }
+
+    BranchNode withValue(byte[] value) {
+        return new BranchNode(children, value);
+    }
+
+    static BranchNode empty() {
+        return new BranchNode(new TrieNode[RADIX], ByteUtil.EMPTY_BYTE_ARRAY);
+    }
+
+    @Override
+    protected byte[] encode() {
+        int payload = sizeOfValue(value);
+        for (TrieNode child : children) {
+            payload += sizeOfRef(child);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(RLPWriter.sizeOfList(payload));
+        RLPWriter.writeListHeader(buf, payload);
+        for (TrieNode child : children) {
+            writeRef(buf, child);
+        }
+        writeValue(buf, value);
+        return buf.array();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (TrieNode child : children) {
+            sb.append(child == null ? "" : child.toString()).append(", ");
+        }
+        return sb.append(Hex.toHexString(value)).append("]").toString();
+    }
+}
@@ -35,7 +35,6 @@
 package org.aion.mcf.trie;
 
 import static org.aion.base.util.ByteArrayWrapper.wrap;
-import static org.aion.rlp.Value.fromRlpEncoded;
 
 import java.util.HashMap;
 import java.util.HashSet;
@@ -47,10 +46,9 @@ import java.util.Set;
 
 import org.aion.base.db.IByteArrayKeyValueStore;
 import org.aion.base.util.ByteArrayWrapper;
-import org.aion.crypto.HashUtil;
 import org.aion.log.AionLoggerFactory;
 import org.aion.log.LogEnum;
-import org.aion.rlp.Value;
+import org.apache.commons.collections4.map.LRUMap;
 import org.slf4j.Logger;
 
 /**
@@ -65,10 +63,54 @@ public class Cache {
     private Set<ByteArrayWrapper> removedNodes = new HashSet<>();
     private boolean isDirty;
 
+    // encodings of the nodes written by the last commits, unless disabled
+    private Map<ByteArrayWrapper, byte[]> recent;
+
+    // clean nodes shared with the caches of other tries, if any
+    private Map<ByteArrayWrapper, TrieNode> shared;
+
     public Cache(IByteArrayKeyValueStore dataSource) {
         this.dataSource = dataSource;
     }
 
+    /**
+     * Keeps the encodings of up to the given number of nodes written by the
+     * last commits, so that proofs against recent roots are built from memory
+     * after the nodes are flushed from the cache.
+     */
+    public synchronized void keepRecent(int capacity) {
+        this.recent = capacity > 0 ? new LRUMap<>(capacity) : null;
+    }
+
+    /**
+     * Shares the nodes read from the data source with the caches of other
+     * tries over the same content-addressed data. Nodes are looked up there
+     * before the data source is read, so the given map must be safe for
+     * concurrent use and should be bounded.
+     */
+    public synchronized void shareNodes(Map<ByteArrayWrapper, TrieNode> shared) {
+        this.shared = shared;
+    }
+
+    public synchronized Map<ByteArrayWrapper, TrieNode> getSharedNodes() {
+        return shared;
+    }
+
+    /**
+     * @return the node held by the cache, without reading the data source
+     */
+    public synchronized TrieNode getCached(byte[] key) {
+        Node node = nodes.get(wrap(key));
+        return node == null ? null : node.getNode();
+    }
+
+    /**
+     * @return the encoding of a node written by the last commits, if kept
+     */
+    public synchronized byte[] getRecent(byte[] key) {
+        return recent == null ? null : recent.get(wrap(key));
+    }
+
     public synchronized void markRemoved(byte[] key) {
         ByteArrayWrapper keyW = new ByteArrayWrapper(key);
         removedNodes.add(keyW);
@@ -78,41 +120,48 @@ public class Cache {
     /**
      * Put the node in the cache if RLP encoded value is longer than 32 bytes
      *
-     * @param o
-     *         the Node which could be a pair-, multi-item Node or single
-     *         Value
-     * @return keccak hash of RLP encoded node if length &gt; 32 otherwise
-     * return node itself
+     * @param node
+     *         a leaf, extension or branch node
+     * @return reference to the hash of the RLP encoded node if length &gt;= 32
+     * otherwise return node itself
      */
-    public synchronized Object put(Object o) {
-        Value value = new Value(o);
-        byte[] enc = value.encode();
-        if (enc.length >= 32) {
-            byte[] sha = HashUtil.h256(value.encode());
-            ByteArrayWrapper key = wrap(sha);
-            this.nodes.put(key, new Node(value, true));
-            this.removedNodes.remove(key);
-            this.isDirty = true;
-
-            return sha;
+    public synchronized TrieNode put(TrieNode node) {
+        if (node.isEmbedded()) {
+            return node;
         }
-        return value;
+        byte[] sha = node.getHash();
+        ByteArrayWrapper key = wrap(sha);
+        this.nodes.put(key, new Node(node, true));
+        this.removedNodes.remove(key);
+        this.isDirty = true;
+
+        return new HashNode(sha);
     }
 
-    public synchronized Value get(byte[] key) {
+    public synchronized TrieNode get(byte[] key) {
 
         ByteArrayWrapper wrappedKey = wrap(key);
         Node node = nodes.get(wrappedKey);
         if (node != null) {
             // cachehits++;
-            return node.getValue();
+            return node.getNode();
+        }
+        if (shared != null) {
+            TrieNode val = shared.get(wrappedKey);
+            if (val != null) {
+                nodes.put(wrappedKey, new Node(val, false));
+                return val;
+            }
         }
         if (this.dataSource != null) {
             Optional<byte[]> data = (this.dataSource == null) ? Optional.empty() : this.dataSource.get(key);
             if (data.isPresent()) {
                 // dbhits++;
-                Value val = fromRlpEncoded(data.get());
+                TrieNode val = TrieNode.decode(data.get());
                 nodes.put(wrappedKey, new Node(val, false));
+                if (shared != null) {
+                    shared.put(wrappedKey, val);
+                }
                 return val;
             }
         }
@@ -120,6 +169,58 @@ public class Cache {
         return null;
     }
 
+    /**
+     * Loads the node for the given key from the data source unless it is
+     * already cached. The data source is read without holding the cache lock.
+     *
+     * @return {@code true} if the node is cached when the method returns
+     */
+    public boolean prefetch(byte[] key) {
+        ByteArrayWrapper wrappedKey = wrap(key);
+        IByteArrayKeyValueStore src;
+        Map<ByteArrayWrapper, TrieNode> sharedNodes;
+
+        synchronized (this) {
+            if (nodes.containsKey(wrappedKey)) {
+                return true;
+            }
+            src = this.dataSource;
+            sharedNodes = this.shared;
+        }
+
+        TrieNode val = sharedNodes == null ? null : sharedNodes.get(wrappedKey);
+        if (val == null) {
+            if (src == null) {
+                return false;
+            }
+
+            Optional<byte[]> data = src.get(key);
+            if (!data.isPresent()) {
+                return false;
+            }
+
+            val = TrieNode.decode(data.get());
+            if (sharedNodes != null) {
+                sharedNodes.put(wrappedKey, val);
+            }
+        }
+
+        synchronized (this) {
+            // nodes are content addressed, so an entry that appeared in the meantime is kept
+            if (!nodes.containsKey(wrappedKey)) {
+                nodes.put(wrappedKey, new Node(val, false));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the node for the given key is held in memory
+     */
+    public synchronized boolean contains(byte[] key) {
+        return nodes.containsKey(wrap(key));
+    }
+
     public synchronized void delete(byte[] key) {
         ByteArrayWrapper wrappedKey = wrap(key);
         this.nodes.remove(wrappedKey);
@@ -153,7 +254,7 @@ public class Cache {
                 byte[] value;
                 if (node != null) {
                     node.setDirty(false);
-                    value = node.getValue().encode();
+                    value = node.getNode().getEncoded();
                 } else {
                     value = null;
                 }
@@ -169,6 +270,15 @@ public class Cache {
         } */
 
         this.dataSource.putBatch(batch);
+        if (recent != null) {
+            for (Map.Entry<byte[], byte[]> row : batch.entrySet()) {
+                if (row.getValue() == null) {
+                    recent.remove(wrap(row.getKey()));
+                } else {
+                    recent.put(wrap(row.getKey()), row.getValue());
+                }
+            }
+        }
         this.isDirty = false;
         if (flushCache) {
             this.nodes.clear();
@@ -207,8 +317,8 @@ public class Cache {
         StringBuffer cacheDump = new StringBuffer();
         for (ByteArrayWrapper key : nodes.keySet()) {
             Node node = nodes.get(key);
-            if (node.getValue() != null) {
-                cacheDump.append(key.toString()).append(" : ").append(node.getValue().toString()).append("\n");
+            if (node.getNode() != null) {
+                cacheDump.append(key.toString()).append(" : ").append(node.getNode().toString()).append("\n");
             }
         }
 
@@ -227,7 +337,7 @@ public class Cache {
                 if (node == null) {
                     rows.put(key.getData(), null);
                 } else if (!node.isDirty()) {
-                    rows.put(key.getData(), node.getValue().encode());
+                    rows.put(key.getData(), node.getNode().getEncoded());
                 }
             }
         } else {
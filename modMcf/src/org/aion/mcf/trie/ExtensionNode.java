@@ -0,0 +1,71 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2017, 2018 Aion foundation.
+ *
+ * 	This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>
+ *
+ * Contributors:
+ *     Aion foundation.
+ *******************************************************************************/
+package org.aion.mcf.trie;
+
+import java.nio.ByteBuffer;
+
+import org.aion.rlp.RLPWriter;
+
+/**
+ * Two-item node [ key, child ] shortcutting a path of nodes each with only
+ * one element.
+ */
+public final class ExtensionNode extends TrieNode {
+
+    private final byte[] path;
+    private final TrieNode child;
+
+    /**
+     * @param path
+     *         shared nibbles, never empty
+     * @param child
+     *         the branch at the end of the path, embedded or by hash
+     */
+    ExtensionNode(byte[] path, TrieNode child) {
+        this.path = path;
+        this.child = child;
+    }
+
+    public byte[] getPath() {
+        return path;
+    }
+
+    public TrieNode getChild() {
+        return child;
+    }
+
+    @Override
+    protected byte[] encode() {
+        byte[] key = packPath(path, false);
+        int payload = sizeOfValue(key) + sizeOfRef(child);
+
+        ByteBuffer buf = ByteBuffer.allocate(RLPWriter.sizeOfList(payload));
+        RLPWriter.writeListHeader(buf, payload);
+        writeValue(buf, key);
+        writeRef(buf, child);
+        return buf.array();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + pathToString(path, false) + ", " + child + "]";
+    }
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2017, 2018 Aion foundation.
+ *
+ * 	This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>
+ *
+ * Contributors:
+ *     Aion foundation.
+ *******************************************************************************/
+package org.aion.mcf.trie;
+
+import org.aion.base.util.Hex;
+
+/**
+ * Reference to a node that is stored under its hash and has to be resolved
+ * through the {@link Cache}.
+ */
+public final class HashNode extends TrieNode {
+
+    private final byte[] hash;
+
+    HashNode(byte[] hash) {
+        this.hash = hash;
+    }
+
+    @Override
+    public byte[] getHash() {
+        return hash;
+    }
+
+    @Override
+    boolean isCommitted() {
+        return true;
+    }
+
+    @Override
+    public boolean isEmbedded() {
+        return false;
+    }
+
+    /**
+     * A reference has no encoding of its own.
+     */
+    @Override
+    protected byte[] encode() {
+        throw new UnsupportedOperationException("Unresolved node " + Hex.toHexString(hash));
+    }
+
+    @Override
+    public String toString() {
+        return Hex.toHexString(hash);
+    }
+}
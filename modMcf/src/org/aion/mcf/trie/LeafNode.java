@@ -0,0 +1,69 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2017, 2018 Aion foundation.
+ *
+ * 	This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>
+ *
+ * Contributors:
+ *     Aion foundation.
+ *******************************************************************************/
+package org.aion.mcf.trie;
+
+import java.nio.ByteBuffer;
+
+import org.aion.base.util.Hex;
+import org.aion.rlp.RLPWriter;
+
+/**
+ * Two-item node [ key, value ] at the end of a path.
+ */
+public final class LeafNode extends TrieNode {
+
+    private final byte[] path;
+    private final byte[] value;
+
+    /**
+     * @param path
+     *         remaining nibbles of the key, without the terminator
+     */
+    LeafNode(byte[] path, byte[] value) {
+        this.path = path;
+        this.value = value;
+    }
+
+    public byte[] getPath() {
+        return path;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    @Override
+    protected byte[] encode() {
+        byte[] key = packPath(path, true);
+        int payload = sizeOfValue(key) + sizeOfValue(value);
+
+        ByteBuffer buf = ByteBuffer.allocate(RLPWriter.sizeOfList(payload));
+        RLPWriter.writeListHeader(buf, payload);
+        writeValue(buf, key);
+        writeValue(buf, value);
+        return buf.array();
+    }
+
+    @Override
+    public String toString() {
+        return "[" + pathToString(path, true) + ", " + Hex.toHexString(value) + "]";
+    }
+}
@@ -34,6 +34,7 @@
  ******************************************************************************/
 package org.aion.mcf.trie;
 
+import java.util.List;
 import org.aion.base.db.IByteArrayKeyValueStore;
 
 import static org.aion.base.util.ByteUtil.EMPTY_BYTE_ARRAY;
@@ -42,10 +43,10 @@ import static org.aion.crypto.HashUtil.h256;
 public class SecureTrie extends TrieImpl implements Trie {
 
     public SecureTrie(IByteArrayKeyValueStore db) {
-        this(db, "");
+        this(db, EMPTY_BYTE_ARRAY);
     }
 
-    public SecureTrie(IByteArrayKeyValueStore db, Object root) {
+    public SecureTrie(IByteArrayKeyValueStore db, byte[] root) {
         super(db, root);
     }
 
@@ -54,11 +55,26 @@ public class SecureTrie extends TrieImpl implements Trie {
         return super.get(h256(key));
     }
 
+    @Override
+    public void prefetch(byte[] key) {
+        super.prefetch(h256(key));
+    }
+
+    @Override
+    public List<byte[]> getProof(byte[] rootHash, byte[] key) {
+        return super.getProof(rootHash, h256(key));
+    }
+
     @Override
     public void update(byte[] key, byte[] value) {
         super.update(h256(key), value);
     }
 
+    @Override
+    public SecureTrie copy() {
+        return copyTo(new SecureTrie(getCache().getDb()));
+    }
+
     @Override
     public void delete(byte[] key) {
         this.update(key, EMPTY_BYTE_ARRAY);
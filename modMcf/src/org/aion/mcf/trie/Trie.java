@@ -20,6 +20,8 @@
  *******************************************************************************/
 package org.aion.mcf.trie;
 
+import java.util.List;
+
 /**
  * Trie interface for the main data structure in Ethereum
  * which is used to store both the account state and storage of each account.
@@ -53,6 +55,31 @@ public interface Trie {
      */
     void delete(byte[] key);
 
+    /**
+     * Loads the nodes on the path to the given key into the node cache
+     * without returning the value. The reads from the backing store are done
+     * outside the cache lock, so several threads can warm the cache while
+     * another thread is reading or updating the trie.
+     *
+     * @param key
+     *         - any length byte array
+     */
+    void prefetch(byte[] key);
+
+    /**
+     * Builds the proof that a key maps to its value, or is absent, under a
+     * root: the encodings of the nodes on the path to the key, from the root.
+     * The nodes are looked up in the cache and read from the backing store
+     * outside the cache lock.
+     *
+     * @param rootHash
+     *         - the root of the trie, current or older
+     * @param key
+     *         - any length byte array
+     * @return the encoded nodes, or {@code null} if a node is missing
+     */
+    List<byte[]> getProof(byte[] rootHash, byte[] key);
+
     /**
      * Returns a SHA-3 hash from the top node of the trie
      *
@@ -22,9 +22,7 @@ package org.aion.mcf.trie;
 
 import org.aion.base.db.IByteArrayKeyValueStore;
 import org.aion.base.util.ByteArrayWrapper;
-import org.aion.base.util.FastByteComparisons;
 import org.aion.base.util.Hex;
-import org.aion.crypto.HashUtil;
 import org.aion.mcf.trie.scan.CollectFullSetOfNodes;
 import org.aion.mcf.trie.scan.CountNodes;
 import org.aion.mcf.trie.scan.ScanAction;
@@ -36,15 +34,18 @@ import org.aion.rlp.Value;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
 
 import static java.util.Arrays.copyOfRange;
 import static org.aion.base.util.ByteArrayWrapper.wrap;
 import static org.aion.base.util.ByteUtil.EMPTY_BYTE_ARRAY;
-import static org.aion.base.util.ByteUtil.matchingNibbleLength;
+import static org.aion.base.util.ByteUtil.merge;
 import static org.aion.crypto.HashUtil.EMPTY_TRIE_HASH;
-import static org.aion.rlp.CompactEncoder.*;
+import static org.aion.crypto.HashUtil.h256;
 import static org.aion.rlp.RLP.calcElementPrefixSize;
-import static org.spongycastle.util.Arrays.concatenate;
 
 /**
  * The modified Merkle Patricia tree (trie) provides a persistent data structure
@@ -72,30 +73,44 @@ import static org.spongycastle.util.Arrays.concatenate;
  * to be implemented. As soon as the real life tree keys are hashes it is very
  * unlikely the case so the pruning algorithm is simplified in this
  * implementation.
+ * <p>
+ * Nodes are kept decoded as {@link LeafNode}, {@link ExtensionNode} and
+ * {@link BranchNode} objects that cache their encoding and hash, and children
+ * stored under their hash are referenced by {@link HashNode}s until resolved.
+ * Updates copy the nodes on the path to the key and leave the others shared.
+ * The new nodes are only encoded, hashed and put in the cache when the root
+ * hash is needed, so nodes replaced again before that are never hashed, and
+ * the independent subtrees of a large update are hashed in parallel.
  *
  * @author Nick Savers
  * @since 20.05.2014
  */
 public class TrieImpl implements Trie {
-    private static byte PAIR_SIZE = 2;
-    private static byte LIST_SIZE = 17;
     private static int MAX_SIZE = 20;
 
+    /** Updates since the last commit above which the new nodes are hashed in parallel. */
+    private static final int PARALLEL_UPDATES = 64;
+    /** Depth of the branches whose subtrees are hashed as separate tasks. */
+    private static final int PARALLEL_DEPTH = 2;
+
     @Deprecated
-    private Object prevRoot;
-    private Object root;
+    private TrieNode prevRoot;
+    private TrieNode root;
     private Cache cache;
 
     private boolean pruningEnabled;
 
+    /** Number of updates whose nodes have not been committed to the cache. */
+    private int pendingUpdates;
+
     public TrieImpl(IByteArrayKeyValueStore db) {
-        this(db, "");
+        this(db, EMPTY_BYTE_ARRAY);
     }
 
-    public TrieImpl(IByteArrayKeyValueStore db, Object root) {
+    public TrieImpl(IByteArrayKeyValueStore db, byte[] root) {
         this.cache = new Cache(db);
-        this.root = root;
-        this.prevRoot = root;
+        this.root = toRootNode(root);
+        this.prevRoot = this.root;
     }
 
     public TrieIterator getIterator() {
@@ -106,39 +121,69 @@ public class TrieImpl implements Trie {
         this.cache = cache;
     }
 
+    /**
+     * @return the cache, holding the nodes of all the updates so far
+     */
     public Cache getCache() {
-        return this.cache;
+        synchronized (cache) {
+            commitPending();
+            return this.cache;
+        }
     }
 
     @Deprecated
-    public Object getPrevRoot() {
+    public TrieNode getPrevRoot() {
         return prevRoot;
     }
 
-    public Object getRoot() {
+    public TrieNode getRoot() {
         return root;
     }
 
     /**
      * for testing TrieTest.testRollbackToRootScenarios
      */
-    public void setRoot(Object root) {
+    public void setRoot(TrieNode root) {
         this.root = root;
     }
 
     @Override
     public void setRoot(byte[] root) {
-        this.root = root;
+        this.root = toRootNode(root);
+    }
+
+    /**
+     * Both the empty byte array and the hash of the empty trie stand for the
+     * empty root.
+     */
+    private static TrieNode toRootNode(byte[] root) {
+        if (root == null || root.length == 0 || Arrays.equals(root, EMPTY_TRIE_HASH)) {
+            return null;
+        }
+        return new HashNode(root);
     }
 
+    /**
+     * Restores the root written by {@link #serialize()}: empty, a hash or an
+     * embedded node. Roots written as serialized Java objects by earlier
+     * versions are still accepted.
+     */
     public void deserializeRoot(byte[] data) {
         synchronized (cache) {
-            try {
-                ByteArrayInputStream b = new ByteArrayInputStream(data);
-                ObjectInputStream o = new ObjectInputStream(b);
-                root = o.readObject();
-            } catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
+            if (data.length == 0 || data.length == TrieNode.HASH_SIZE) {
+                root = toRootNode(data);
+            } else if ((data[0] & 0xFF) >= 0xC0) {
+                root = TrieNode.decode(data);
+            } else {
+                try {
+                    ByteArrayInputStream b = new ByteArrayInputStream(data);
+                    ObjectInputStream o = new ObjectInputStream(b);
+                    Value legacy = new Value(o.readObject());
+                    root = legacy.isList() ? TrieNode.decode(legacy.encode())
+                            : toRootNode(legacy.isBytes() ? legacy.asBytes() : EMPTY_BYTE_ARRAY);
+                } catch (IOException | ClassNotFoundException e) {
+                    e.printStackTrace();
+                }
             }
         }
     }
@@ -152,6 +197,15 @@ public class TrieImpl implements Trie {
         return this;
     }
 
+    /**
+     * Keeps up to the given number of the nodes written by the last syncs in
+     * memory for building proofs.
+     */
+    public TrieImpl withRecentNodes(int capacity) {
+        this.cache.keepRecent(capacity);
+        return this;
+    }
+
     /**
      * Retrieve a value from a key as String.
      */
@@ -162,10 +216,208 @@ public class TrieImpl implements Trie {
     @Override
     public byte[] get(byte[] key) {
         synchronized (cache) {
-            byte[] k = binToNibbles(key);
-            Value c = new Value(this.get(this.root, k));
+            byte[] k = toNibbles(key);
+            int keypos = 0;
+
+            TrieNode node = resolve(this.root);
+            while (node != null) {
+                if (node instanceof LeafNode) {
+                    LeafNode leaf = (LeafNode) node;
+                    return matches(k, keypos, leaf.getPath()) ? leaf.getValue() : EMPTY_BYTE_ARRAY;
+                } else if (node instanceof ExtensionNode) {
+                    ExtensionNode extension = (ExtensionNode) node;
+                    if (!startsWith(k, keypos, extension.getPath())) {
+                        return EMPTY_BYTE_ARRAY;
+                    }
+                    keypos += extension.getPath().length;
+                    node = resolve(extension.getChild());
+                } else {
+                    BranchNode branch = (BranchNode) node;
+                    if (keypos == k.length) {
+                        return branch.getValue();
+                    }
+                    node = resolve(branch.getChild(k[keypos++]));
+                }
+            }
+            return EMPTY_BYTE_ARRAY;
+        }
+    }
+
+    @Override
+    public void prefetch(byte[] key) {
+        byte[] k = toNibbles(key);
+        int keypos = 0;
+        TrieNode node;
+
+        synchronized (cache) {
+            node = this.root;
+        }
+
+        while (true) {
+            byte[] missing = null;
+
+            // walk the nodes already in memory
+            synchronized (cache) {
+                while (node != null) {
+                    if (node instanceof HashNode) {
+                        if (!cache.contains(node.getHash())) {
+                            missing = node.getHash();
+                            break;
+                        }
+                        node = cache.get(node.getHash());
+                    } else if (node instanceof ExtensionNode) {
+                        ExtensionNode extension = (ExtensionNode) node;
+                        if (!startsWith(k, keypos, extension.getPath())) {
+                            return;
+                        }
+                        keypos += extension.getPath().length;
+                        node = extension.getChild();
+                    } else if (node instanceof BranchNode) {
+                        if (keypos == k.length) {
+                            return;
+                        }
+                        node = ((BranchNode) node).getChild(k[keypos++]);
+                    } else {
+                        return;
+                    }
+                }
+            }
+
+            // load the next node outside the lock
+            if (missing == null || !cache.prefetch(missing)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Proof for the current root, see {@link #getProof(byte[], byte[])}.
+     */
+    public List<byte[]> getProof(byte[] key) {
+        return getProof(getRootHash(), key);
+    }
+
+    @Override
+    public List<byte[]> getProof(byte[] rootHash, byte[] key) {
+        List<byte[]> proof = new ArrayList<>();
+        if (Arrays.equals(rootHash, EMPTY_TRIE_HASH)) {
+            return proof;
+        }
+
+        byte[] k = toNibbles(key);
+        int keypos = 0;
+
+        TrieNode node;
+        synchronized (cache) {
+            node = root != null && root.isCommitted() && Arrays.equals(root.getHash(), rootHash) ? root
+                    : new HashNode(rootHash);
+        }
+
+        // the root is always referenced by its hash
+        boolean byHash = true;
+        while (node != null) {
+            if (node instanceof HashNode) {
+                node = loadNode(node.getHash());
+                if (node == null) {
+                    return null;
+                }
+            }
+            if (byHash) {
+                proof.add(node.getEncoded());
+            }
+
+            TrieNode child;
+            if (node instanceof ExtensionNode) {
+                ExtensionNode extension = (ExtensionNode) node;
+                if (!startsWith(k, keypos, extension.getPath())) {
+                    break;
+                }
+                keypos += extension.getPath().length;
+                child = extension.getChild();
+            } else if (node instanceof BranchNode) {
+                if (keypos == k.length) {
+                    break;
+                }
+                child = ((BranchNode) node).getChild(k[keypos++]);
+            } else {
+                break;
+            }
+            byHash = child instanceof HashNode || (child != null && !child.isEmbedded());
+            node = child;
+        }
+        return proof;
+    }
 
-            return c.asBytes();
+    /**
+     * Gets a node for a proof from the cache, the recently written nodes or
+     * the data source, holding the cache lock only for the lookups. Nodes
+     * read from the data source are not added to the cache, so proofs against
+     * old roots do not evict the nodes of the current state.
+     */
+    private TrieNode loadNode(byte[] hash) {
+        TrieNode node = cache.getCached(hash);
+        if (node != null) {
+            return node;
+        }
+        byte[] encoded = cache.getRecent(hash);
+        if (encoded == null) {
+            IByteArrayKeyValueStore db = cache.getDb();
+            encoded = db == null ? null : db.get(hash).orElse(null);
+        }
+        return encoded == null ? null : TrieNode.decode(encoded);
+    }
+
+    /**
+     * Checks a proof built by {@link #getProof(byte[], byte[])}. The keys of a
+     * {@link SecureTrie} are given hashed.
+     *
+     * @return the value of the key under the root, empty if the proof shows
+     *         that the key is absent, or {@code null} if the proof is invalid
+     */
+    public static byte[] verifyProof(byte[] rootHash, byte[] key, List<byte[]> proof) {
+        if (Arrays.equals(rootHash, EMPTY_TRIE_HASH)) {
+            return proof.isEmpty() ? EMPTY_BYTE_ARRAY : null;
+        }
+
+        Map<ByteArrayWrapper, byte[]> nodes = new HashMap<>();
+        for (byte[] encoded : proof) {
+            nodes.put(wrap(h256(encoded)), encoded);
+        }
+
+        byte[] k = toNibbles(key);
+        int keypos = 0;
+        try {
+            TrieNode node = new HashNode(rootHash);
+            while (node != null) {
+                if (node instanceof HashNode) {
+                    byte[] encoded = nodes.get(wrap(node.getHash()));
+                    if (encoded == null) {
+                        return null;
+                    }
+                    node = TrieNode.decode(encoded);
+                }
+                if (node instanceof LeafNode) {
+                    LeafNode leaf = (LeafNode) node;
+                    return matches(k, keypos, leaf.getPath()) ? leaf.getValue() : EMPTY_BYTE_ARRAY;
+                } else if (node instanceof ExtensionNode) {
+                    ExtensionNode extension = (ExtensionNode) node;
+                    if (!startsWith(k, keypos, extension.getPath())) {
+                        return EMPTY_BYTE_ARRAY;
+                    }
+                    keypos += extension.getPath().length;
+                    node = extension.getChild();
+                } else {
+                    BranchNode branch = (BranchNode) node;
+                    if (keypos == k.length) {
+                        return branch.getValue();
+                    }
+                    node = branch.getChild(k[keypos++]);
+                }
+            }
+            return EMPTY_BYTE_ARRAY;
+        } catch (RuntimeException e) {
+            // a node that does not decode
+            return null;
         }
     }
 
@@ -183,19 +435,20 @@ public class TrieImpl implements Trie {
             throw new NullPointerException("key should not be null");
         }
         synchronized (cache) {
-            byte[] k = binToNibbles(key);
+            byte[] k = toNibbles(key);
 
-            if (isEmptyNode(root)) {
-                cache.markRemoved(getRootHash());
+            if (root == null) {
+                cache.markRemoved(EMPTY_TRIE_HASH);
             }
 
-            this.root = this.insertOrDelete(this.root, k, value);
+            this.root = value.length != 0 ? this.insert(this.root, k, 0, value) : this.delete(this.root, k, 0);
+            this.pendingUpdates++;
         }
     }
 
     @Override
     public synchronized boolean isValidRoot(byte[] root) {
-        return !(this.getNode(root) == null);
+        return root == null || root.length != TrieNode.HASH_SIZE || this.cache.get(root) != null;
     }
 
     /**
@@ -215,268 +468,334 @@ public class TrieImpl implements Trie {
     @Override
     public byte[] getRootHash() {
         synchronized (cache) {
-            if (root == null || (root instanceof byte[] && ((byte[]) root).length == 0) || (root instanceof String && ""
-                    .equals(root))) {
-                return EMPTY_TRIE_HASH;
-            } else if (root instanceof byte[]) {
-                return (byte[]) this.getRoot();
-            } else {
-                Value rootValue = new Value(this.getRoot());
-                return HashUtil.h256(rootValue.encode());
-            }
+            commitPending();
+            return root == null ? EMPTY_TRIE_HASH : root.getHash();
         }
     }
 
-    private Object get(Object node, byte[] key) {
-        synchronized (cache) {
-            int keypos = 0;
-            while (key.length - keypos != 0 && !isEmptyNode(node)) {
-                Value currentNode = this.getNode(node);
-                if (currentNode == null) {
-                    return null;
-                }
-
-                if (currentNode.length() == PAIR_SIZE) {
-                    // Decode the key
-                    byte[] k = unpackToNibbles(currentNode.get(0).asBytes());
-                    Object v = currentNode.get(1).asObj();
-
-                    if (key.length - keypos >= k.length && Arrays
-                            .equals(k, copyOfRange(key, keypos, k.length + keypos))) {
-                        node = v;
-                        keypos += k.length;
-                    } else {
-                        return "";
-                    }
-                } else {
-                    node = currentNode.get(key[keypos]).asObj();
-                    keypos++;
-                }
-            }
-            return node;
+    /**
+     * Hashes the nodes created by the updates since the last commit and puts
+     * them in the cache.
+     */
+    private void commitPending() {
+        if (root == null || root.isCommitted()) {
+            return;
         }
+        if (pendingUpdates >= PARALLEL_UPDATES && !ForkJoinTask.inForkJoinPool()) {
+            ForkJoinPool.commonPool().invoke(new HashTask(root, 0));
+        }
+        store(root);
+        pendingUpdates = 0;
     }
 
-    private Object insertOrDelete(Object node, byte[] key, byte[] value) {
-        if (value.length != 0) {
-            return this.insert(node, key, value);
-        } else {
-            return this.delete(node, key);
+    /**
+     * Puts the uncommitted nodes of the subtree in the cache, children first
+     * and in key order so that the cache content does not depend on the
+     * hashing threads.
+     */
+    private void store(TrieNode node) {
+        if (node == null || node.isCommitted()) {
+            return;
         }
+        if (node instanceof ExtensionNode) {
+            store(((ExtensionNode) node).getChild());
+        } else if (node instanceof BranchNode) {
+            for (int i = 0; i < BranchNode.RADIX; i++) {
+                store(((BranchNode) node).getChild(i));
+            }
+        }
+        node.setCommitted();
+        this.cache.put(node);
     }
 
     /**
-     * Update or add the item inside a node.
-     *
-     * @return the updated node with rlp encoded
+     * Computes the encodings and hashes of the uncommitted nodes of a subtree,
+     * forking one task for each uncommitted child of the top branches. The
+     * tasks only touch the nodes of their subtree.
      */
-    private Object insert(Object node, byte[] key, Object value) {
+    private static class HashTask extends RecursiveAction {
+
+        private final TrieNode node;
+        private final int depth;
 
-        if (key.length == 0) {
-            return value;
+        HashTask(TrieNode node, int depth) {
+            this.node = node;
+            this.depth = depth;
         }
 
-        if (isEmptyNode(node)) {
-            Object[] newNode = new Object[] { packNibbles(key), value };
-            return this.putToCache(newNode);
+        @Override
+        protected void compute() {
+            if (node instanceof ExtensionNode) {
+                TrieNode child = ((ExtensionNode) node).getChild();
+                if (child != null && !child.isCommitted()) {
+                    new HashTask(child, depth).compute();
+                }
+            } else if (node instanceof BranchNode && depth < PARALLEL_DEPTH) {
+                List<HashTask> tasks = new ArrayList<>();
+                for (int i = 0; i < BranchNode.RADIX; i++) {
+                    TrieNode child = ((BranchNode) node).getChild(i);
+                    if (child != null && !child.isCommitted()) {
+                        tasks.add(new HashTask(child, depth + 1));
+                    }
+                }
+                invokeAll(tasks);
+            }
+            // the remaining levels are encoded recursively by the node itself
+            if (!node.isEmbedded()) {
+                node.getHash();
+            }
         }
+    }
 
-        Value currentNode = this.getNode(node);
+    /**
+     * Update or add the item below a node.
+     *
+     * @param key
+     *         nibbles of the whole key, of which the ones before {@code keypos}
+     *         lead to the node
+     * @return the updated node
+     */
+    private TrieNode insert(TrieNode node, byte[] key, int keypos, byte[] value) {
 
-        if (currentNode == null) {
-            throw new RuntimeException("Invalid Trie state, missing node " + new Value(node));
+        if (node == null) {
+            return new LeafNode(copyOfRange(key, keypos, key.length), value);
         }
 
-        // Check for "special" 2 slice type node
-        if (currentNode.length() == PAIR_SIZE) {
-            // Decode the key
-            byte[] k = unpackToNibbles(currentNode.get(0).asBytes());
-            Object v = currentNode.get(1).asObj();
-
-            // Matching key pair (ie. there's already an object with this key)
-            if (Arrays.equals(k, key)) {
-                Object[] newNode = new Object[] { packNibbles(key), value };
-                return this.putToCache(newNode);
-            }
+        TrieNode currentNode = this.getNode(node);
 
-            Object newHash;
-            int matchingLength = matchingNibbleLength(key, k);
-            if (matchingLength == k.length) {
-                // Insert the hash, creating a new node
-                byte[] remainingKeypart = copyOfRange(key, matchingLength, key.length);
-                newHash = this.insert(v, remainingKeypart, value);
+        if (currentNode instanceof BranchNode) {
+            BranchNode branch = (BranchNode) currentNode;
 
+            // Replace the first nibble in the key
+            BranchNode newNode;
+            TrieNode child = null;
+            if (keypos == key.length) {
+                newNode = branch.withValue(value);
             } else {
+                child = branch.getChild(key[keypos]);
+                newNode = branch.withChild(key[keypos], this.insert(child, key, keypos + 1, value));
+            }
 
-                // Expand the 2 length slice to a 17 length slice
-                // Create two nodes to putToCache into the new 17 length node
-                Object oldNode = this.insert("", copyOfRange(k, matchingLength + 1, k.length), v);
-                Object newNode = this.insert("", copyOfRange(key, matchingLength + 1, key.length), value);
+            markRemoved(branch);
+            if (child instanceof HashNode) {
+                markRemoved(child);
+            }
 
-                // Create an expanded slice
-                Object[] scaledSlice = emptyStringSlice(17);
+            return newNode;
+        }
 
-                // Set the copied and new node
-                scaledSlice[k[matchingLength]] = oldNode;
-                scaledSlice[key[matchingLength]] = newNode;
-                newHash = this.putToCache(scaledSlice);
-            }
+        // Check for "special" 2 slice type node
+        byte[] k = pathOf(currentNode);
 
-            markRemoved(HashUtil.h256(currentNode.encode()));
+        // Matching key pair (ie. there's already an object with this key)
+        if (currentNode instanceof LeafNode && matches(key, keypos, k)) {
+            return new LeafNode(k, value);
+        }
 
-            if (matchingLength == 0) {
-                // End of the chain, return
-                return newHash;
+        TrieNode newHash;
+        int matchingLength = matchingLength(key, keypos, k);
+        if (currentNode instanceof ExtensionNode && matchingLength == k.length) {
+            // Insert the hash, creating a new node
+            newHash = this.insert(((ExtensionNode) currentNode).getChild(), key, keypos + matchingLength, value);
+        } else {
+            // Expand the 2 length slice to a 17 length slice
+            TrieNode[] children = new TrieNode[BranchNode.RADIX];
+            byte[] branchValue = EMPTY_BYTE_ARRAY;
+
+            // Set the copied node
+            if (currentNode instanceof LeafNode) {
+                LeafNode leaf = (LeafNode) currentNode;
+                if (matchingLength == k.length) {
+                    branchValue = leaf.getValue();
+                } else {
+                    children[k[matchingLength]] = new LeafNode(copyOfRange(k, matchingLength + 1, k.length),
+                            leaf.getValue());
+                }
             } else {
-                Object[] newNode = new Object[] { packNibbles(copyOfRange(key, 0, matchingLength)), newHash };
-                return this.putToCache(newNode);
+                TrieNode child = ((ExtensionNode) currentNode).getChild();
+                children[k[matchingLength]] = matchingLength + 1 == k.length ? child
+                        : new ExtensionNode(copyOfRange(k, matchingLength + 1, k.length), child);
             }
-        } else {
 
-            // Copy the current node over to the new node
-            Object[] newNode = copyNode(currentNode);
+            // Set the new node
+            int newpos = keypos + matchingLength;
+            if (newpos == key.length) {
+                branchValue = value;
+            } else {
+                children[key[newpos]] = new LeafNode(copyOfRange(key, newpos + 1, key.length), value);
+            }
 
-            // Replace the first nibble in the key
-            newNode[key[0]] = this.insert(currentNode.get(key[0]).asObj(), copyOfRange(key, 1, key.length), value);
+            newHash = new BranchNode(children, branchValue);
+        }
 
-            if (!FastByteComparisons
-                    .equal(HashUtil.h256(getNode(newNode).encode()), HashUtil.h256(currentNode.encode()))) {
-                markRemoved(HashUtil.h256(currentNode.encode()));
-                if (!isEmptyNode(currentNode.get(key[0]))) {
-                    markRemoved(currentNode.get(key[0]).asBytes());
-                }
-            }
+        markRemoved(currentNode);
 
-            return this.putToCache(newNode);
+        if (matchingLength == 0) {
+            // End of the chain, return
+            return newHash;
+        } else {
+            return new ExtensionNode(copyOfRange(key, keypos, keypos + matchingLength), newHash);
         }
     }
 
-    private Object delete(Object node, byte[] key) {
+    /**
+     * Remove the item below a node.
+     *
+     * @return the updated node, {@code null} if it became empty
+     */
+    private TrieNode delete(TrieNode node, byte[] key, int keypos) {
 
-        if (key.length == 0 || isEmptyNode(node)) {
-            return "";
+        if (node == null) {
+            return null;
         }
 
-        // New node
-        Value currentNode = this.getNode(node);
-        if (currentNode == null) {
-            throw new RuntimeException("Invalid Trie state, missing node " + new Value(node));
+        TrieNode currentNode = this.getNode(node);
+
+        if (currentNode instanceof LeafNode) {
+            // Matching key pair (ie. there's already an object with this key)
+            return matches(key, keypos, ((LeafNode) currentNode).getPath()) ? null : node;
         }
 
-        // Check for "special" 2 slice type node
-        if (currentNode.length() == PAIR_SIZE) {
-            // Decode the key
-            byte[] k = unpackToNibbles(currentNode.get(0).asBytes());
-            Object v = currentNode.get(1).asObj();
+        if (currentNode instanceof ExtensionNode) {
+            ExtensionNode extension = (ExtensionNode) currentNode;
+            byte[] k = extension.getPath();
+            if (!startsWith(key, keypos, k)) {
+                return node;
+            }
 
-            // Matching key pair (ie. there's already an object with this key)
-            if (Arrays.equals(k, key)) {
-                return "";
-            } else if (Arrays.equals(copyOfRange(key, 0, k.length), k)) {
-                Object hash = this.delete(v, copyOfRange(key, k.length, key.length));
-                Value child = this.getNode(hash);
-
-                Object newNode;
-                if (child.length() == PAIR_SIZE) {
-                    byte[] newKey = concatenate(k, unpackToNibbles(child.get(0).asBytes()));
-                    newNode = new Object[] { packNibbles(newKey), child.get(1).asObj() };
-                } else {
-                    newNode = new Object[] { currentNode.get(0), hash };
-                }
-                markRemoved(HashUtil.h256(currentNode.encode()));
-                return this.putToCache(newNode);
+            TrieNode hash = this.delete(extension.getChild(), key, keypos + k.length);
+            TrieNode child = hash == null ? null : this.getNode(hash);
+
+            TrieNode newNode;
+            if (child instanceof LeafNode) {
+                newNode = new LeafNode(merge(k, pathOf(child)), ((LeafNode) child).getValue());
+            } else if (child instanceof ExtensionNode) {
+                newNode = new ExtensionNode(merge(k, pathOf(child)), ((ExtensionNode) child).getChild());
             } else {
-                return node;
+                newNode = new ExtensionNode(k, hash);
             }
-        } else {
-            // Copy the current node over to a new node
-            Object[] itemList = copyNode(currentNode);
+            markRemoved(currentNode);
+            return newNode;
+        }
 
-            // Replace the first nibble in the key
-            itemList[key[0]] = this.delete(itemList[key[0]], copyOfRange(key, 1, key.length));
+        // Replace the first nibble in the key
+        BranchNode branch = (BranchNode) currentNode;
+        BranchNode itemList;
+        if (keypos == key.length) {
+            itemList = branch.withValue(EMPTY_BYTE_ARRAY);
+        } else {
+            itemList = branch.withChild(key[keypos],
+                    this.delete(branch.getChild(key[keypos]), key, keypos + 1));
+        }
 
-            byte amount = -1;
-            for (byte i = 0; i < LIST_SIZE; i++) {
-                if (itemList[i] != "") {
-                    if (amount == -1) {
-                        amount = i;
-                    } else {
-                        amount = -2;
-                    }
-                }
+        int amount = -1;
+        for (int i = 0; i < BranchNode.RADIX; i++) {
+            if (itemList.getChild(i) != null) {
+                amount = amount == -1 ? i : -2;
             }
+        }
+        if (itemList.getValue().length != 0) {
+            amount = amount == -1 ? BranchNode.RADIX : -2;
+        }
 
-            Object[] newNode = null;
-            if (amount == 16) {
-                newNode = new Object[] { packNibbles(new byte[] { 16 }), itemList[amount] };
-            } else if (amount >= 0) {
-                Value child = this.getNode(itemList[amount]);
-                if (child.length() == PAIR_SIZE) {
-                    key = concatenate(new byte[] { amount }, unpackToNibbles(child.get(0).asBytes()));
-                    newNode = new Object[] { packNibbles(key), child.get(1).asObj() };
-                } else if (child.length() == LIST_SIZE) {
-                    newNode = new Object[] { packNibbles(new byte[] { amount }), itemList[amount] };
-                }
+        TrieNode newNode;
+        if (amount == BranchNode.RADIX) {
+            newNode = new LeafNode(EMPTY_BYTE_ARRAY, itemList.getValue());
+        } else if (amount >= 0) {
+            TrieNode hash = itemList.getChild(amount);
+            TrieNode child = this.getNode(hash);
+            byte[] k = new byte[] { (byte) amount };
+            if (child instanceof LeafNode) {
+                newNode = new LeafNode(merge(k, pathOf(child)), ((LeafNode) child).getValue());
+            } else if (child instanceof ExtensionNode) {
+                newNode = new ExtensionNode(merge(k, pathOf(child)), ((ExtensionNode) child).getChild());
             } else {
-                newNode = itemList;
+                newNode = new ExtensionNode(k, hash);
             }
+        } else if (amount == -2) {
+            newNode = itemList;
+        } else {
+            return null;
+        }
 
-            if (!FastByteComparisons
-                    .equal(HashUtil.h256(getNode(newNode).encode()), HashUtil.h256(currentNode.encode()))) {
-                markRemoved(HashUtil.h256(currentNode.encode()));
-            }
+        markRemoved(branch);
 
-            return this.putToCache(newNode);
-        }
+        return newNode;
     }
 
-    private void markRemoved(byte[] hash) {
-        if (pruningEnabled) {
-            cache.markRemoved(hash);
+    /**
+     * Marks a replaced node for removal. Nodes of pending updates were never
+     * stored, and a node that is created again is unmarked when it is stored.
+     */
+    private void markRemoved(TrieNode node) {
+        if (pruningEnabled && node.isCommitted() && !node.isEmbedded()) {
+            cache.markRemoved(node.getHash());
         }
     }
 
     /**
-     * Helper method to retrieve the actual node. If the node is not a list and
-     * length is > 32 bytes get the actual node from the db.
+     * Helper method to retrieve the actual node. If the node is referenced by
+     * its hash get the actual node from the cache or the db.
+     *
+     * @return the node, or {@code null} if it is missing
      */
-    private Value getNode(Object node) {
+    private TrieNode resolve(TrieNode node) {
+        if (node instanceof HashNode) {
+            return this.cache.get(node.getHash());
+        }
+        return node;
+    }
+
+    private TrieNode getNode(TrieNode node) {
+        TrieNode currentNode = resolve(node);
+        if (currentNode == null) {
+            throw new RuntimeException("Invalid Trie state, missing node " + node);
+        }
+        return currentNode;
+    }
 
-        Value val = new Value(node);
+    private static byte[] pathOf(TrieNode node) {
+        return node instanceof LeafNode ? ((LeafNode) node).getPath() : ((ExtensionNode) node).getPath();
+    }
 
-        // in that case we got a node
-        // so no need to encode it
-        if (!val.isBytes()) {
-            return val;
+    private static byte[] toNibbles(byte[] key) {
+        byte[] nibbles = new byte[key.length * 2];
+        for (int i = 0; i < key.length; i++) {
+            nibbles[2 * i] = (byte) ((key[i] >> 4) & 0x0F);
+            nibbles[2 * i + 1] = (byte) (key[i] & 0x0F);
         }
+        return nibbles;
+    }
 
-        byte[] keyBytes = val.asBytes();
-        if (keyBytes.length == 0) {
-            return val;
-        } else if (keyBytes.length < 32) {
-            return new Value(keyBytes);
+    /**
+     * Packs a path of an even number of nibbles back into the key bytes.
+     */
+    private static byte[] fromNibbles(byte[] nibbles) {
+        byte[] key = new byte[nibbles.length / 2];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) ((nibbles[2 * i] << 4) | nibbles[2 * i + 1]);
         }
-        return this.cache.get(keyBytes);
+        return key;
     }
 
-    private Object putToCache(Object node) {
-        return this.cache.put(node);
+    /**
+     * @return length of the common prefix of the path and the key from
+     *         {@code keypos}
+     */
+    private static int matchingLength(byte[] key, int keypos, byte[] path) {
+        int i = 0;
+        while (i < path.length && keypos + i < key.length && key[keypos + i] == path[i]) {
+            i++;
+        }
+        return i;
     }
 
-    private boolean isEmptyNode(Object node) {
-        Value n = new Value(node);
-        return (node == null || (n.isString() && (n.asString().isEmpty() || n.get(0).isNull())) || n.length() == 0);
+    private static boolean startsWith(byte[] key, int keypos, byte[] path) {
+        return key.length - keypos >= path.length && matchingLength(key, keypos, path) == path.length;
     }
 
-    private Object[] copyNode(Value currentNode) {
-        Object[] itemList = emptyStringSlice(LIST_SIZE);
-        for (int i = 0; i < LIST_SIZE; i++) {
-            Object cpy = currentNode.get(i).asObj();
-            if (cpy != null) {
-                itemList[i] = cpy;
-            }
-        }
-        return itemList;
+    private static boolean matches(byte[] key, int keypos, byte[] path) {
+        return key.length - keypos == path.length && matchingLength(key, keypos, path) == path.length;
     }
 
     // Simple compare function which compares two tries based on their stateRoot
@@ -499,7 +818,12 @@ public class TrieImpl implements Trie {
     @Override
     public void sync(boolean flushCache) {
         synchronized (cache) {
+            commitPending();
             this.cache.commit(flushCache);
+            if (flushCache && root != null && !root.isEmbedded()) {
+                // release the nodes kept in memory through the root
+                this.root = new HashNode(root.getHash());
+            }
             this.prevRoot = this.root;
         }
     }
@@ -509,32 +833,34 @@ public class TrieImpl implements Trie {
         synchronized (cache) {
             this.cache.undo();
             this.root = this.prevRoot;
+            this.pendingUpdates = 0;
         }
     }
 
     // Returns a copy of this trie
     public TrieImpl copy() {
+        return copyTo(new TrieImpl(this.cache.getDb()));
+    }
+
+    /**
+     * Makes the given empty trie a copy of this one. The decoded nodes are
+     * shared, they are never changed in place, and only the cache entries
+     * are copied.
+     */
+    protected <T extends TrieImpl> T copyTo(T copy) {
+        TrieImpl trie = copy;
         synchronized (cache) {
-            TrieImpl trie = new TrieImpl(this.cache.getDb(), this.root);
+            commitPending();
+            trie.pruningEnabled = this.pruningEnabled;
+            trie.cache.shareNodes(this.cache.getSharedNodes());
+            trie.root = this.root;
+            trie.prevRoot = this.root;
             for (ByteArrayWrapper key : this.cache.getNodes().keySet()) {
                 Node node = this.cache.getNodes().get(key);
                 trie.cache.getNodes().put(key, node.copy());
             }
-            return trie;
-        }
-    }
-
-    /**
-     * ****************************** Utility functions *
-     * *****************************
-     */
-    // Created an array of empty elements of required length
-    private static Object[] emptyStringSlice(int l) {
-        Object[] slice = new Object[l];
-        for (int i = 0; i < l; i++) {
-            slice[i] = "";
+            return copy;
         }
-        return slice;
     }
 
     /**
@@ -574,65 +900,102 @@ public class TrieImpl implements Trie {
         this.getCache().getNodes();
     }
 
+    /**
+     * @return the hashes of the nodes directly referenced by the given
+     *         committed node; embedded children are too small to reference
+     *         any hash
+     */
+    private static List<byte[]> references(TrieNode node) {
+        List<byte[]> hashes = new ArrayList<>();
+        if (node instanceof ExtensionNode) {
+            TrieNode child = ((ExtensionNode) node).getChild();
+            if (child != null && !child.isEmbedded()) {
+                hashes.add(child.getHash());
+            }
+        } else if (node instanceof BranchNode) {
+            for (int j = 0; j < BranchNode.RADIX; ++j) {
+                TrieNode child = ((BranchNode) node).getChild(j);
+                if (child != null && !child.isEmbedded()) {
+                    hashes.add(child.getHash());
+                }
+            }
+        }
+        return hashes;
+    }
+
     public void scanTree(byte[] hash, ScanAction scanAction) {
         synchronized (cache) {
 
-            Value node = this.getCache().get(hash);
+            TrieNode node = this.getCache().get(hash);
             if (node == null) {
                 throw new RuntimeException("Not found: " + Hex.toHexString(hash));
             }
 
-            if (node.isList()) {
-                List<Object> siblings = node.asList();
-                if (siblings.size() == PAIR_SIZE) {
-                    Value val = new Value(siblings.get(1));
-                    if (val.isHashCode() && !hasTerminator((byte[]) siblings.get(0))) {
-                        scanTree(val.asBytes(), scanAction);
-                    }
-                } else {
-                    for (int j = 0; j < LIST_SIZE; ++j) {
-                        Value val = new Value(siblings.get(j));
-                        if (val.isHashCode()) {
-                            scanTree(val.asBytes(), scanAction);
-                        }
-                    }
-                }
-                scanAction.doOnNode(hash, node);
+            for (byte[] child : references(node)) {
+                scanTree(child, scanAction);
             }
+            scanAction.doOnNode(hash, node);
         }
     }
 
     public void scanTreeLoop(byte[] hash, ScanAction scanAction) {
 
-        ArrayList<byte[]> hashes = new ArrayList<>();
+        Deque<byte[]> hashes = new ArrayDeque<>();
         hashes.add(hash);
 
         while (!hashes.isEmpty()) {
             synchronized (cache) {
-                byte[] myHash = hashes.remove(0);
-                Value node = this.getCache().get(myHash);
+                byte[] myHash = hashes.poll();
+                TrieNode node = this.getCache().get(myHash);
                 if (node == null) {
                     throw new RuntimeException("Not found: " + Hex.toHexString(myHash));
                 }
 
-                if (node.isList()) {
-                    List<Object> siblings = node.asList();
-                    if (siblings.size() == PAIR_SIZE) {
-                        Value val = new Value(siblings.get(1));
-                        if (val.isHashCode() && !hasTerminator((byte[]) siblings.get(0))) {
-                            // scanTree(val.asBytes(), scanAction);
-                            hashes.add(val.asBytes());
-                        }
-                    } else {
-                        for (int j = 0; j < LIST_SIZE; ++j) {
-                            Value val = new Value(siblings.get(j));
-                            if (val.isHashCode()) {
-                                // scanTree(val.asBytes(), scanAction);
-                                hashes.add(val.asBytes());
-                            }
-                        }
-                    }
-                    scanAction.doOnNode(myHash, node);
+                hashes.addAll(references(node));
+                scanAction.doOnNode(myHash, node);
+            }
+        }
+    }
+
+    /**
+     * Passes the keys and values under the given root to the action in key
+     * order. The keys of a {@link SecureTrie} are given hashed. Nodes are
+     * read like those of proofs, without adding them to the cache, so the
+     * trie can be updated while it is scanned.
+     *
+     * @throws RuntimeException if a node under the root is missing
+     */
+    public void scanLeaves(byte[] rootHash, BiConsumer<byte[], byte[]> action) {
+        TrieNode node = toRootNode(rootHash);
+        if (node != null) {
+            scanLeaves(node, EMPTY_BYTE_ARRAY, action);
+        }
+    }
+
+    private void scanLeaves(TrieNode node, byte[] path, BiConsumer<byte[], byte[]> action) {
+        if (node instanceof HashNode) {
+            TrieNode loaded = loadNode(node.getHash());
+            if (loaded == null) {
+                throw new RuntimeException("Not found: " + Hex.toHexString(node.getHash()));
+            }
+            node = loaded;
+        }
+
+        if (node instanceof LeafNode) {
+            LeafNode leaf = (LeafNode) node;
+            action.accept(fromNibbles(merge(path, leaf.getPath())), leaf.getValue());
+        } else if (node instanceof ExtensionNode) {
+            ExtensionNode extension = (ExtensionNode) node;
+            scanLeaves(extension.getChild(), merge(path, extension.getPath()), action);
+        } else {
+            BranchNode branch = (BranchNode) node;
+            if (branch.getValue().length != 0) {
+                action.accept(fromNibbles(path), branch.getValue());
+            }
+            for (int i = 0; i < BranchNode.RADIX; i++) {
+                TrieNode child = branch.getChild(i);
+                if (child != null) {
+                    scanLeaves(child, merge(path, new byte[] { (byte) i }), action);
                 }
             }
         }
@@ -651,7 +1014,7 @@ public class TrieImpl implements Trie {
                 byte[] val = valsList.get(i).getRLPData();
                 byte[] key = new byte[32];
 
-                Value value = Value.fromRlpEncoded(val);
+                TrieNode value = TrieNode.decode(val);
                 System.arraycopy(keysElement.getRLPData(), i * 32, key, 0, 32);
                 cache.getNodes().put(wrap(key), new Node(value));
             }
@@ -663,6 +1026,7 @@ public class TrieImpl implements Trie {
     public byte[] serialize() {
 
         synchronized (cache) {
+            commitPending();
             Map<ByteArrayWrapper, Node> map = getCache().getNodes();
 
             int keysTotalSize = 0;
@@ -678,20 +1042,13 @@ public class TrieImpl implements Trie {
                 byte[] keyBytes = key.getData();
                 keysTotalSize += keyBytes.length;
 
-                byte[] valBytes = node.getValue().getData();
+                byte[] valBytes = node.getNode().getEncoded();
                 valsTotalSize += valBytes.length + calcElementPrefixSize(valBytes);
             }
 
-            byte[] root = null;
-            try {
-                ByteArrayOutputStream b = new ByteArrayOutputStream();
-                ObjectOutputStream o = new ObjectOutputStream(b);
-                o.writeObject(this.getRoot());
-                root = b.toByteArray();
-                root = RLP.encodeElement(root);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            // the root is kept by hash, embedded or empty
+            byte[] root = RLP.encodeElement(this.root == null ? EMPTY_BYTE_ARRAY
+                    : this.root.isEmbedded() ? this.root.getEncoded() : this.root.getHash());
 
             byte[] keysHeader = RLP.encodeLongElementHeader(keysTotalSize);
             byte[] valsHeader = RLP.encodeListHeader(valsTotalSize);
@@ -725,7 +1082,7 @@ public class TrieImpl implements Trie {
 
                 k_1 += key.getData().length;
 
-                byte[] valBytes = RLP.encodeElement(node.getValue().getData());
+                byte[] valBytes = RLP.encodeElement(node.getNode().getEncoded());
 
                 System.arraycopy(valBytes, 0, rlpData,
                         listHeader.length + keysHeader.length + keysTotalSize + valsHeader.length + k_2,
@@ -741,15 +1098,15 @@ public class TrieImpl implements Trie {
 
         synchronized (cache) {
             TraceAllNodes traceAction = new TraceAllNodes();
-            Value value = new Value(root);
-            if (value.isHashCode()) {
-                this.scanTree(this.getRootHash(), traceAction);
-            } else {
-                traceAction.doOnNode(this.getRootHash(), value);
+            byte[] rootHash = this.getRootHash();
+            if (root != null && !root.isEmbedded()) {
+                this.scanTree(rootHash, traceAction);
+            } else if (root != null) {
+                traceAction.doOnNode(rootHash, root);
             }
 
             final String root;
-            if (this.getRoot() instanceof Value) {
+            if (this.getRoot() != null && this.getRoot().isEmbedded()) {
                 root = "root: " + Hex.toHexString(getRootHash()) + " => " + this.getRoot() + "\n";
             } else {
                 root = "root: " + Hex.toHexString(getRootHash()) + "\n";
@@ -772,12 +1129,9 @@ public class TrieImpl implements Trie {
 
     private void traceTrie(byte[] stateRoot, ScanAction action) {
         synchronized (cache) {
-            Value value = new Value(stateRoot);
-
-            if (value.isHashCode()) {
+            // roots that are not hashes have no stored nodes
+            if (stateRoot.length == TrieNode.HASH_SIZE) {
                 scanTreeLoop(stateRoot, action);
-            } else {
-                action.doOnNode(stateRoot, value);
             }
         }
     }
@@ -788,7 +1142,7 @@ public class TrieImpl implements Trie {
             try {
                 scanTree(getRootHash(), new ScanAction() {
                     @Override
-                    public void doOnNode(byte[] hash, Value node) {
+                    public void doOnNode(byte[] hash, TrieNode node) {
                         cnt[0]++;
                     }
                 });
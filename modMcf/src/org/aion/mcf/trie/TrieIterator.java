@@ -34,12 +34,9 @@
  ******************************************************************************/
 package org.aion.mcf.trie;
 
-import static org.aion.rlp.CompactEncoder.unpackToNibbles;
-
+import java.util.ArrayList;
 import java.util.List;
 
-import org.aion.rlp.Value;
-
 /*
  * @author Nick Savers
  * @since 20.05.2014
@@ -48,58 +45,45 @@ public class TrieIterator {
 
     private TrieImpl trie;
 
-    private List<byte[]> shas;
-    private List<String> values;
+    private List<byte[]> shas = new ArrayList<>();
+    private List<byte[]> values = new ArrayList<>();
 
     public TrieIterator(TrieImpl t) {
         this.trie = t;
     }
 
-    // Some time in the near future this will need refactoring :-)
-    // XXX Note to self, IsSlice == inline node. Str == keccak to node
-    private void workNode(Value currentNode) {
-        if (currentNode.length() == 2) {
-            byte[] k = unpackToNibbles(currentNode.get(0).asBytes());
-
-            if (currentNode.get(1).asString().isEmpty()) {
-                this.workNode(currentNode.get(1));
-            } else {
-                if (k[k.length - 1] == 16) {
-                    this.values.add(currentNode.get(1).asString());
-                } else {
-                    this.shas.add(currentNode.get(1).asBytes());
-                    this.getNode(currentNode.get(1).asBytes());
+    private void workNode(TrieNode currentNode) {
+        if (currentNode instanceof HashNode) {
+            this.shas.add(currentNode.getHash());
+            this.getNode(currentNode.getHash());
+        } else if (currentNode instanceof LeafNode) {
+            this.values.add(((LeafNode) currentNode).getValue());
+        } else if (currentNode instanceof ExtensionNode) {
+            this.workNode(((ExtensionNode) currentNode).getChild());
+        } else if (currentNode instanceof BranchNode) {
+            BranchNode branch = (BranchNode) currentNode;
+            for (int i = 0; i < BranchNode.RADIX; i++) {
+                if (branch.getChild(i) != null) {
+                    this.workNode(branch.getChild(i));
                 }
             }
-        } else {
-            for (int i = 0; i < currentNode.length(); i++) {
-                if (i == 16 && currentNode.get(i).length() != 0) {
-                    this.values.add(currentNode.get(i).asString());
-                } else {
-                    if (currentNode.get(i).asString().isEmpty()) {
-                        this.workNode(currentNode.get(i));
-                    } else {
-                        String val = currentNode.get(i).asString();
-                        if (!val.isEmpty()) {
-                            this.shas.add(currentNode.get(1).asBytes());
-                            this.getNode(val.getBytes());
-                        }
-                    }
-                }
+            if (branch.getValue().length != 0) {
+                this.values.add(branch.getValue());
             }
         }
     }
 
     private void getNode(byte[] node) {
-        Value currentNode = this.trie.getCache().get(node);
-        this.workNode(currentNode);
+        TrieNode currentNode = this.trie.getCache().get(node);
+        if (currentNode != null) {
+            this.workNode(currentNode);
+        }
     }
 
     private List<byte[]> collect() {
-        if (this.trie.getRoot() == "") {
-            return null;
+        if (this.trie.getRoot() != null) {
+            this.workNode(this.trie.getRoot());
         }
-        this.getNode(new Value(this.trie.getRoot()).asBytes());
         return this.shas;
     }
 
@@ -0,0 +1,263 @@
+/*******************************************************************************
+ *
+ * Copyright (c) 2017, 2018 Aion foundation.
+ *
+ * 	This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>
+ *
+ * Contributors:
+ *     Aion foundation.
+ *******************************************************************************/
+package org.aion.mcf.trie;
+
+import java.nio.ByteBuffer;
+
+import org.aion.base.util.Hex;
+import org.aion.crypto.HashUtil;
+import org.aion.rlp.RLP;
+import org.aion.rlp.RLPElement;
+import org.aion.rlp.RLPList;
+import org.aion.rlp.RLPWriter;
+
+/**
+ * A node in a Merkle Patricia Tree is one of the following:
+ * <p>
+ * - NULL (represented as {@code null})
+ * - a {@link LeafNode}: a two-item array [ key, value ] whose key ends the path
+ * - an {@link ExtensionNode}: a two-item array [ key, child ] that shortcuts a
+ * long path of nodes each with only one element
+ * - a {@link BranchNode}: a 17-item array [ v0 ... v15, vt ]
+ * <p>
+ * The key of a two-item node gives the hexadecimal path to descend in the
+ * compact encoding, with a terminator flag to tell leaves from extensions.
+ * <p>
+ * Where a node is referenced inside a node, what is included is:
+ * <p>
+ * H(rlp.encode(x)) where H(x) = keccak(x) if len(x) &gt;= 32 else x
+ * <p>
+ * A reference by hash is kept as a {@link HashNode} until it is resolved
+ * through the {@link Cache}.
+ * <p>
+ * Nodes are immutable. The RLP encoding and its hash are computed at most once
+ * and kept with the node, so that the encoding of a parent copies the
+ * encodings of its embedded children instead of re-encoding the subtree.
+ * Nodes created by updates are committed, i.e. handed to the cache, only when
+ * the root hash is needed.
+ */
+public abstract class TrieNode {
+
+    static final int HASH_SIZE = 32;
+
+    private byte[] encoded;
+    private byte[] hash;
+    private boolean committed;
+
+    /**
+     * @return the RLP encoding of the node, computed on first use
+     */
+    protected abstract byte[] encode();
+
+    public byte[] getEncoded() {
+        if (encoded == null) {
+            encoded = encode();
+        }
+        return encoded;
+    }
+
+    public byte[] getHash() {
+        if (hash == null) {
+            hash = HashUtil.h256(getEncoded());
+        }
+        return hash;
+    }
+
+    /**
+     * @return {@code true} if the node was loaded or already handed to the
+     *         cache, {@code false} if it was created by a pending update
+     */
+    boolean isCommitted() {
+        return committed;
+    }
+
+    void setCommitted() {
+        committed = true;
+    }
+
+    /**
+     * @return {@code true} if parents hold this node itself instead of a
+     *         reference to its hash
+     */
+    public boolean isEmbedded() {
+        return getEncoded().length < HASH_SIZE;
+    }
+
+    /**
+     * @return size of the reference to this node inside its parent
+     */
+    int refSize() {
+        return isEmbedded() ? getEncoded().length : RLPWriter.sizeOfElement(getHash());
+    }
+
+    /**
+     * Writes the reference to this node inside its parent.
+     */
+    void writeRef(ByteBuffer buf) {
+        if (isEmbedded()) {
+            buf.put(getEncoded());
+        } else {
+            RLPWriter.writeElement(buf, getHash());
+        }
+    }
+
+    /*
+     * ****************************************************** ENCODING *
+     ******************************************************/
+
+    /**
+     * @return size of a byte array item, following {@code RLP.encode(Object)}
+     *         which writes any single byte up to 0x80 as its own encoding
+     */
+    static int sizeOfValue(byte[] value) {
+        if (value.length == 1 && (value[0] & 0xFF) <= 0x80) {
+            return 1;
+        }
+        return RLPWriter.sizeOfElement(value);
+    }
+
+    static void writeValue(ByteBuffer buf, byte[] value) {
+        if (value.length == 1 && (value[0] & 0xFF) <= 0x80) {
+            buf.put(value[0]);
+        } else {
+            RLPWriter.writeElement(buf, value);
+        }
+    }
+
+    static int sizeOfRef(TrieNode node) {
+        return node == null ? 1 : node.refSize();
+    }
+
+    static void writeRef(ByteBuffer buf, TrieNode node) {
+        if (node == null) {
+            RLPWriter.writeElement(buf, null);
+        } else {
+            node.writeRef(buf);
+        }
+    }
+
+    /**
+     * Compact (hex prefix) encoding of a path, as produced by
+     * {@code CompactEncoder.packNibbles} for the path with the terminator
+     * appended for leaves.
+     */
+    static byte[] packPath(byte[] nibbles, boolean leaf) {
+        int odd = nibbles.length & 1;
+        int flag = (leaf ? 2 : 0) + odd;
+        byte[] packed = new byte[nibbles.length / 2 + 1];
+
+        int i = 0;
+        if (odd != 0) {
+            packed[0] = (byte) (flag << 4 | nibbles[0]);
+            i = 1;
+        } else {
+            packed[0] = (byte) (flag << 4);
+        }
+        for (int j = 1; i < nibbles.length; i += 2, j++) {
+            packed[j] = (byte) (nibbles[i] << 4 | nibbles[i + 1]);
+        }
+        return packed;
+    }
+
+    /**
+     * @return the nibbles of a compact encoded path, without the terminator
+     */
+    static byte[] unpackPath(byte[] packed) {
+        int odd = (packed[0] >> 4) & 1;
+        byte[] nibbles = new byte[packed.length * 2 - 2 + odd];
+
+        int i = 0;
+        if (odd != 0) {
+            nibbles[i++] = (byte) (packed[0] & 0x0F);
+        }
+        for (int j = 1; j < packed.length; j++) {
+            nibbles[i++] = (byte) ((packed[j] >> 4) & 0x0F);
+            nibbles[i++] = (byte) (packed[j] & 0x0F);
+        }
+        return nibbles;
+    }
+
+    static boolean isLeafPath(byte[] packed) {
+        return ((packed[0] >> 4) & 2) != 0;
+    }
+
+    /*
+     * ****************************************************** DECODING *
+     ******************************************************/
+
+    /**
+     * Decodes a node stored in the database.
+     */
+    public static TrieNode decode(byte[] encoded) {
+        RLPElement element = RLP.decode2(encoded).get(0);
+        if (!(element instanceof RLPList)) {
+            throw new RuntimeException("Invalid Trie node " + Hex.toHexString(encoded));
+        }
+        TrieNode node = decode((RLPList) element);
+        node.encoded = encoded;
+        return node;
+    }
+
+    private static TrieNode decode(RLPList items) {
+        TrieNode node;
+        if (items.size() == 2) {
+            byte[] packed = items.get(0).getRLPData();
+            if (isLeafPath(packed)) {
+                node = new LeafNode(unpackPath(packed), items.get(1).getRLPData());
+            } else {
+                node = new ExtensionNode(unpackPath(packed), decodeRef(items.get(1)));
+            }
+        } else if (items.size() == BranchNode.SIZE) {
+            TrieNode[] children = new TrieNode[BranchNode.RADIX];
+            for (int i = 0; i < BranchNode.RADIX; i++) {
+                children[i] = decodeRef(items.get(i));
+            }
+            node = new BranchNode(children, items.get(BranchNode.RADIX).getRLPData());
+        } else {
+            throw new RuntimeException("Invalid Trie node with " + items.size() + " items");
+        }
+        node.encoded = items.getRLPData();
+        node.committed = true;
+        return node;
+    }
+
+    private static TrieNode decodeRef(RLPElement element) {
+        if (element instanceof RLPList) {
+            return decode((RLPList) element);
+        }
+        byte[] data = element.getRLPData();
+        return data.length == 0 ? null : new HashNode(data);
+    }
+
+    /**
+     * @return the nibbles of the path with the terminator, for display
+     */
+    static String pathToString(byte[] nibbles, boolean leaf) {
+        StringBuilder sb = new StringBuilder();
+        for (byte nibble : nibbles) {
+            sb.append(Character.forDigit(nibble, 16));
+        }
+        if (leaf) {
+            sb.append('T');
+        }
+        return sb.toString();
+    }
+}
@@ -35,7 +35,7 @@
 package org.aion.mcf.trie.scan;
 
 import org.aion.base.util.ByteArrayWrapper;
-import org.aion.rlp.Value;
+import org.aion.mcf.trie.TrieNode;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -44,7 +44,7 @@ public class CollectFullSetOfNodes implements ScanAction {
     Set<ByteArrayWrapper> nodes = new HashSet<>();
 
     @Override
-    public void doOnNode(byte[] hash, Value node) {
+    public void doOnNode(byte[] hash, TrieNode node) {
         nodes.add(new ByteArrayWrapper(hash));
     }
 
@@ -34,7 +34,7 @@
  ******************************************************************************/
 package org.aion.mcf.trie.scan;
 
-import org.aion.rlp.Value;
+import org.aion.mcf.trie.TrieNode;
 
 /**
  * @author Alexandra Roatis
@@ -43,7 +43,7 @@ public class CountNodes implements ScanAction {
     private int count = 0;
 
     @Override
-    public void doOnNode(byte[] hash, Value node) {
+    public void doOnNode(byte[] hash, TrieNode node) {
         count++;
     }
 
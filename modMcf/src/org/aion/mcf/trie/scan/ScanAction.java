@@ -34,10 +34,10 @@
  ******************************************************************************/
 package org.aion.mcf.trie.scan;
 
-import org.aion.rlp.Value;
+import org.aion.mcf.trie.TrieNode;
 
 public interface ScanAction {
 
-    void doOnNode(byte[] hash, Value node);
+    void doOnNode(byte[] hash, TrieNode node);
 }
 
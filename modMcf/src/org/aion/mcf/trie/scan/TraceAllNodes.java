@@ -35,14 +35,14 @@
 package org.aion.mcf.trie.scan;
 
 import org.aion.base.util.Hex;
-import org.aion.rlp.Value;
+import org.aion.mcf.trie.TrieNode;
 
 public class TraceAllNodes implements ScanAction {
 
     StringBuilder output = new StringBuilder();
 
     @Override
-    public void doOnNode(byte[] hash, Value node) {
+    public void doOnNode(byte[] hash, TrieNode node) {
 
         output.append(Hex.toHexString(hash)).append(" ==> ").append(node.toString()).append("\n");
     }
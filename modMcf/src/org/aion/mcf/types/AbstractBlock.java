@@ -24,6 +24,7 @@
  ******************************************************************************/
 package org.aion.mcf.types;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -31,7 +32,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.aion.base.type.IBlock;
 import org.aion.base.type.IBlockHeader;
-import org.aion.rlp.RLP;
+import org.aion.rlp.RLPWriter;
 
 /**
  * Abstract Block class.
@@ -63,9 +64,25 @@ public abstract class AbstractBlock<BH extends IBlockHeader, TX extends Abstract
     }
 
     public byte[] getEncodedBody() {
-        List<byte[]> body = getBodyElements();
-        byte[][] elements = body.toArray(new byte[body.size()][]);
-        return RLP.encodeList(elements);
+        ByteBuffer buf = ByteBuffer.allocate(getEncodedBodyLength());
+        encodeBody(buf);
+        return buf.array();
+    }
+
+    /**
+     * @return length of {@link #getEncodedBody()}, computed without encoding
+     */
+    public int getEncodedBodyLength() {
+        return RLPWriter.sizeOfList(getTransactionsEncodedLength());
+    }
+
+    /**
+     * Writes {@link #getEncodedBody()} into the given buffer without
+     * building the intermediate transaction list array.
+     */
+    public void encodeBody(ByteBuffer buf) {
+        RLPWriter.writeListHeader(buf, getTransactionsEncodedLength());
+        encodeTransactions(buf);
     }
 
     public List<byte[]> getBodyElements() {
@@ -77,13 +94,32 @@ public abstract class AbstractBlock<BH extends IBlockHeader, TX extends Abstract
     }
 
     public byte[] getTransactionsEncoded() {
+        ByteBuffer buf = ByteBuffer.allocate(getTransactionsEncodedLength());
+        encodeTransactions(buf);
+        return buf.array();
+    }
 
-        byte[][] transactionsEncoded = new byte[transactionsList.size()][];
-        int i = 0;
+    /**
+     * @return length of {@link #getTransactionsEncoded()}
+     */
+    protected int getTransactionsEncodedLength() {
+        parseRLP();
+        int payload = 0;
+        for (TX tx : transactionsList) {
+            payload += tx.getEncoded().length;
+        }
+        return RLPWriter.sizeOfList(payload);
+    }
+
+    protected void encodeTransactions(ByteBuffer buf) {
+        parseRLP();
+        int payload = 0;
+        for (TX tx : transactionsList) {
+            payload += tx.getEncoded().length;
+        }
+        RLPWriter.writeListHeader(buf, payload);
         for (TX tx : transactionsList) {
-            transactionsEncoded[i] = tx.getEncoded();
-            ++i;
+            buf.put(tx.getEncoded());
         }
-        return RLP.encodeList(transactionsEncoded);
     }
 }
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ * Contributors:
+ *     Aion foundation.
+ ******************************************************************************/
+package org.aion.mcf.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AncientStoreTest {
+
+    private static final String[] TABLES = { "hashes", "blocks" };
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("ancient").toFile();
+    }
+
+    @After
+    public void teardown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static byte[] hash(long number) {
+        byte[] hash = new byte[32];
+        Arrays.fill(hash, (byte) number);
+        return hash;
+    }
+
+    private static byte[] block(long number) {
+        byte[] block = new byte[(int) (number % 50)];
+        Arrays.fill(block, (byte) (number * 7));
+        return block;
+    }
+
+    private static void append(AncientStore store, long from, long to) throws IOException {
+        for (long number = from; number < to; number++) {
+            store.append(number, hash(number), block(number));
+        }
+    }
+
+    private static void check(AncientStore store, long to) {
+        assertThat(store.size()).isEqualTo(to);
+        for (long number = 0; number < to; number++) {
+            assertThat(store.get(0, number)).isEqualTo(hash(number));
+            assertThat(store.get(1, number)).isEqualTo(block(number));
+        }
+        assertThat(store.get(0, to)).isNull();
+        assertThat(store.get(1, -1)).isNull();
+    }
+
+    @Test
+    public void testAppendAcrossSegments() throws IOException {
+        AncientStore store = new AncientStore(dir, TABLES, 256);
+        append(store, 0, 200);
+        check(store, 200);
+
+        // read the full segments through their mappings and the last one from the file
+        assertThat(new File(dir, "hashes.0024.dat").exists()).isTrue();
+        assertThat(new File(dir, "hashes.0025.dat").exists()).isFalse();
+        store.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendOutOfOrder() throws IOException {
+        AncientStore store = new AncientStore(dir, TABLES, 256);
+        try {
+            append(store, 0, 3);
+            store.append(4, hash(4), block(4));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        AncientStore store = new AncientStore(dir, TABLES, 256);
+        append(store, 0, 100);
+        store.sync();
+        store.close();
+
+        store = new AncientStore(dir, TABLES, 256);
+        check(store, 100);
+        append(store, 100, 150);
+        check(store, 150);
+        store.close();
+    }
+
+    @Test
+    public void testRecoverInterruptedAppend() throws IOException {
+        AncientStore store = new AncientStore(dir, TABLES, 256);
+        append(store, 0, 120);
+        store.close();
+
+        // the last block reached one table only, with a partial index entry
+        try (RandomAccessFile index = new RandomAccessFile(new File(dir, "blocks.idx"), "rw")) {
+            index.setLength(index.length() - 8 - 3);
+        }
+
+        store = new AncientStore(dir, TABLES, 256);
+        check(store, 118);
+        append(store, 118, 130);
+        check(store, 130);
+        store.close();
+    }
+
+    @Test
+    public void testRecoverLostSegment() throws IOException {
+        AncientStore store = new AncientStore(dir, TABLES, 256);
+        append(store, 0, 60);
+        store.close();
+
+        // a segment before the last lost data its index entries point to;
+        // blocks.0002.dat starts with block 32, which is 32 bytes long
+        try (RandomAccessFile segment = new RandomAccessFile(new File(dir, "blocks.0002.dat"), "rw")) {
+            segment.setLength(10);
+        }
+
+        store = new AncientStore(dir, TABLES, 256);
+        check(store, 32);
+        assertThat(new File(dir, "blocks.0003.dat").exists()).isFalse();
+        append(store, 32, 80);
+        store.sync();
+        store.close();
+
+        store = new AncientStore(dir, TABLES, 256);
+        check(store, 80);
+        store.close();
+    }
+}
@@ -0,0 +1,110 @@
+package org.aion.trie;
+
+import org.aion.crypto.HashUtil;
+import org.aion.db.impl.mockdb.MockDB;
+import org.aion.mcf.trie.SecureTrie;
+import org.aion.mcf.trie.TrieImpl;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.aion.base.util.ByteUtil.intToBytes;
+
+/**
+ * Throughput of trie updates and root hash computation, and the memory
+ * allocated per update. Ignored by default, run it on its own to compare
+ * trie implementations.
+ */
+@Ignore
+public class TrieBenchmarkTest {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    /** Number of accounts in the state before the measured blocks. */
+    private static final int STATE_SIZE = 100_000;
+    private static final int BLOCKS = 200;
+    private static final int UPDATES_PER_BLOCK = 200;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static byte[] value(Random random) {
+        byte[] value = new byte[70];
+        random.nextBytes(value);
+        return value;
+    }
+
+    private static TrieImpl populatedTrie(Random random) {
+        MockDB db = new MockDB("TrieBenchmark");
+        db.open();
+
+        TrieImpl trie = new SecureTrie(db);
+        for (int i = 0; i < STATE_SIZE; i++) {
+            trie.update(intToBytes(i), value(random));
+        }
+        trie.sync();
+        return trie;
+    }
+
+    private static void report(String name, long operations, long nanos, long bytes) {
+        System.out.printf("%s: %.0f ops/s, %.0f bytes/op%n", name, operations * 1e9 / nanos,
+                (double) bytes / operations);
+    }
+
+    /**
+     * Block-like updates of existing accounts, without computing the root.
+     */
+    @Test
+    public void benchmarkUpdate() {
+        Random random = new Random(1L);
+        TrieImpl trie = populatedTrie(random);
+
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+
+            for (int i = 0; i < BLOCKS * UPDATES_PER_BLOCK; i++) {
+                trie.update(intToBytes(random.nextInt(STATE_SIZE)), value(random));
+            }
+
+            long nanos = System.nanoTime() - start;
+            bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+            if (round >= WARMUP_ROUNDS) {
+                report("update", BLOCKS * UPDATES_PER_BLOCK, nanos, bytes);
+            }
+            trie.sync();
+        }
+    }
+
+    /**
+     * Block-like updates followed by the state root of each block.
+     */
+    @Test
+    public void benchmarkRootHash() {
+        Random random = new Random(2L);
+        TrieImpl trie = populatedTrie(random);
+
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+
+            for (int block = 0; block < BLOCKS; block++) {
+                for (int i = 0; i < UPDATES_PER_BLOCK; i++) {
+                    trie.update(intToBytes(random.nextInt(STATE_SIZE)), value(random));
+                }
+                assertThat(trie.getRootHash().length).isEqualTo(HashUtil.EMPTY_TRIE_HASH.length);
+                trie.sync();
+            }
+
+            long nanos = System.nanoTime() - start;
+            bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+            if (round >= WARMUP_ROUNDS) {
+                report("block root", BLOCKS, nanos, bytes);
+            }
+        }
+    }
+}
@@ -4,7 +4,9 @@ import junitparams.JUnitParamsRunner;
 import junitparams.Parameters;
 import org.aion.crypto.HashUtil;
 import org.aion.db.impl.mockdb.MockDB;
+import org.aion.mcf.trie.SecureTrie;
 import org.aion.mcf.trie.TrieImpl;
+import org.aion.mcf.trie.TrieNode;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -158,7 +160,7 @@ public class TrieTest {
         // -------------------------------------------------------------------------------------------------------------
         // insert (key,value1) pair into the trie
         trie.update(key, value1);
-        Object oldRoot = trie.getRoot();
+        TrieNode oldRoot = trie.getRoot();
 
         // check retrieval after new addition
         assertThat(new String(trie.get(key))).isEqualTo(value1);
@@ -166,7 +168,7 @@ public class TrieTest {
         // -------------------------------------------------------------------------------------------------------------
         // update to (key,value2)
         trie.update(key, value2);
-        Object newRoot = trie.getRoot();
+        TrieNode newRoot = trie.getRoot();
 
         // check retrieval after new addition
         assertThat(new String(trie.get(key))).isEqualTo(value2);
@@ -193,7 +195,7 @@ public class TrieTest {
         // -------------------------------------------------------------------------------------------------------------
         // update to (key+value1,value2)
         trie.update(key + value1, value2);
-        Object updateRoot = trie.getRoot();
+        TrieNode updateRoot = trie.getRoot();
 
         // check retrieval after new addition
         assertThat(new String(trie.get(key))).isEqualTo(value2);
@@ -481,4 +483,102 @@ public class TrieTest {
         assertTrue(trie.equals(trie2));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testPrefetch() {
+        MockDB db = new MockDB("TestPrefetch");
+        db.open();
+
+        TrieImpl trie = new TrieImpl(db);
+        for (int i = 0; i < 1000; i++) {
+            trie.update(HashUtil.h256(intToBytes(i)), HashUtil.h256(intToBytes(i + 1000000)));
+        }
+        byte[] root = trie.getRootHash();
+        trie.sync();
+
+        // a fresh trie starts with an empty cache
+        TrieImpl loaded = new TrieImpl(db, root);
+        assertThat(loaded.getCache().getNodes()).isEmpty();
+
+        for (int i = 0; i < 1000; i++) {
+            loaded.prefetch(HashUtil.h256(intToBytes(i)));
+        }
+        int cached = loaded.getCache().getNodes().size();
+        assertThat(cached).isGreaterThan(0);
+
+        // prefetching a missing key only loads the nodes on its path
+        loaded.prefetch(HashUtil.h256(intToBytes(-1)));
+
+        for (int i = 0; i < 1000; i++) {
+            assertArrayEquals(HashUtil.h256(intToBytes(i + 1000000)), loaded.get(HashUtil.h256(intToBytes(i))));
+        }
+
+        // all nodes needed by the reads were already loaded
+        assertThat(loaded.getCache().getNodes().size()).isEqualTo(cached);
+        assertArrayEquals(root, loaded.getRootHash());
+    }
+
+    @Test
+    public void testDeferredRootHash() {
+        MockDB db = new MockDB("TestDeferredRootHash");
+        db.open();
+
+        // hashed after every update
+        TrieImpl stepwise = new TrieImpl(null);
+        // hashed once, with enough pending updates for the parallel hashing
+        TrieImpl batched = new TrieImpl(db);
+
+        Random random = new Random(7L);
+        for (int i = 0; i < 2000; i++) {
+            byte[] key = HashUtil.h256(intToBytes(random.nextInt(1500)));
+            byte[] value = i % 10 == 0 ? new byte[0] : HashUtil.h256(intToBytes(i));
+
+            stepwise.update(key, value);
+            stepwise.getRootHash();
+            batched.update(key, value);
+        }
+
+        byte[] root = batched.getRootHash();
+        assertArrayEquals(stepwise.getRootHash(), root);
+
+        // all the nodes of the root were stored
+        batched.sync();
+        TrieImpl loaded = new TrieImpl(db, root);
+        assertTrue(loaded.validate());
+        assertEquals(stepwise.getTrieSize(root), loaded.getTrieSize(root));
+    }
+
+    @Test
+    public void testScanLeaves() {
+        MockDB db = new MockDB("TestScanLeaves");
+        db.open();
+        SecureTrie trie = new SecureTrie(db);
+
+        // hex keys sort like the nibbles of the trie paths
+        TreeMap<String, byte[]> expected = new TreeMap<>();
+        for (int i = 0; i < 500; i++) {
+            byte[] key = intToBytes(i);
+            byte[] value = HashUtil.h256(key);
+            trie.update(key, value);
+            expected.put(Hex.toHexString(HashUtil.h256(key)), value);
+        }
+        byte[] root = trie.getRootHash();
+        trie.sync();
+
+        // later updates do not change the scan of the earlier root
+        trie.update(intToBytes(0), new byte[] { 1 });
+        trie.delete(intToBytes(1));
+        trie.getRootHash();
+
+        List<String> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        trie.scanLeaves(root, (key, value) -> {
+            keys.add(Hex.toHexString(key));
+            values.add(value);
+        });
+        assertEquals(new ArrayList<>(expected.keySet()), keys);
+        assertArrayEquals(expected.values().toArray(), values.toArray());
+
+        trie.scanLeaves(EMPTY_TRIE_HASH, (key, value) -> fail());
+    }
+
+}
@@ -84,4 +84,10 @@ public interface INode {
     void updateStatus(long _bestBlockNumber, final byte[] _bestBlockHash, BigInteger _totalDifficulty);
 
     String getBinaryVersion();
+
+    /**
+     * @return preference for this peer from its recorded latency, throughput
+     *         and failed connections; higher is better
+     */
+    double getScore();
 }
@@ -25,6 +25,8 @@
 
 package org.aion.p2p;
 
+import java.nio.ByteBuffer;
+
 /**
  * @author chris
  */
@@ -56,4 +58,23 @@ public abstract class Msg {
      */
     public abstract byte[] encode();
 
+    /**
+     * @return int length of the encoded body if it is known without
+     * encoding, -1 otherwise
+     */
+    public int encodedLength() {
+        return -1;
+    }
+
+    /**
+     * Writes the encoded body straight into the outbound buffer. Only
+     * called when {@link #encodedLength()} is not negative and must write
+     * exactly that many bytes.
+     *
+     * @param _buf ByteBuffer
+     */
+    public void encode(final ByteBuffer _buf) {
+        _buf.put(encode());
+    }
+
 }
\ No newline at end of file
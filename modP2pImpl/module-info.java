@@ -1,6 +1,8 @@
 module aion.p2p.impl {
 	requires aion.p2p;
 	requires aion.base;
+	requires aion.log;
+	requires slf4j.api;
 	requires miniupnpc.linux;
 	requires java.xml.bind;
 	exports org.aion.p2p.impl1;
@@ -381,6 +381,11 @@ public final class Node implements INode {
 		}
 	}
 
+	@Override
+	public double getScore() {
+		return peerMetric.score();
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (o instanceof Node) {
@@ -415,6 +420,26 @@ public final class Node implements INode {
 			sw.writeStartElement("failedConn");
 			sw.writeCharacters(String.valueOf(peerMetric.metricFailedConn));
 			sw.writeEndElement();
+
+			sw.writeStartElement("failedConnTs");
+			sw.writeCharacters(String.valueOf(peerMetric.metricFailedConnTs));
+			sw.writeEndElement();
+
+			sw.writeStartElement("latency");
+			sw.writeCharacters(String.valueOf(peerMetric.latency));
+			sw.writeEndElement();
+
+			sw.writeStartElement("throughput");
+			sw.writeCharacters(String.valueOf(Math.round(peerMetric.throughput)));
+			sw.writeEndElement();
+
+			sw.writeStartElement("bestBlock");
+			sw.writeCharacters(String.valueOf(Math.max(getBestBlockNumber(), peerMetric.bestBlock)));
+			sw.writeEndElement();
+
+			sw.writeStartElement("lastSeen");
+			sw.writeCharacters(String.valueOf(peerMetric.lastSeen));
+			sw.writeEndElement();
 			sw.writeEndElement();
 
 			xml = strWriter.toString();
@@ -433,6 +458,11 @@ public final class Node implements INode {
 		String ip = null;
 		int port = 0;
 		int failedConn = 0;
+		long failedConnTs = 0;
+		long latency = -1;
+		long throughput = 0;
+		long bestBlock = 0;
+		long lastSeen = 0;
 
 		while (sr.hasNext()) {
 			int eventType = sr.next();
@@ -452,17 +482,37 @@ public final class Node implements INode {
 				case "failedconn":
 					failedConn = Integer.parseInt(readValue(sr));
 					break;
+				case "failedconnts":
+					failedConnTs = Long.parseLong(readValue(sr));
+					break;
+				case "latency":
+					latency = Long.parseLong(readValue(sr));
+					break;
+				case "throughput":
+					throughput = Long.parseLong(readValue(sr));
+					break;
+				case "bestblock":
+					bestBlock = Long.parseLong(readValue(sr));
+					break;
+				case "lastseen":
+					lastSeen = Long.parseLong(readValue(sr));
+					break;
 				default:
 					break;
 				}
 				break;
 			case XMLStreamReader.END_ELEMENT:
-				Node node = new Node(false, ip);
-				if (id == null)
+				if (id == null || ip == null)
 					return null;
+				Node node = new Node(false, ip);
 				node.setId(id.getBytes());
 				node.setPort(port);
 				node.peerMetric.metricFailedConn = failedConn;
+				node.peerMetric.metricFailedConnTs = failedConnTs;
+				node.peerMetric.latency = latency;
+				node.peerMetric.throughput = throughput;
+				node.peerMetric.bestBlock = bestBlock;
+				node.peerMetric.lastSeen = lastSeen;
 				return node;
 			}
 		}
@@ -25,17 +25,37 @@
 
 package org.aion.p2p.impl.comm;
 
+import org.aion.log.AionLoggerFactory;
+import org.aion.log.LogEnum;
 import org.aion.p2p.INode;
 import org.aion.p2p.INodeMgr;
 import org.aion.p2p.IP2pMgr;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Collectors;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
 
 public class NodeMgr implements INodeMgr {
 
+    private static final Logger LOG = AionLoggerFactory.getLogger(LogEnum.NET.name());
+
     private final static int TIMEOUT_INBOUND_NODES = 10000;
 
     private final Set<String> seedIps = new HashSet<>();
@@ -44,6 +64,14 @@ public class NodeMgr implements INodeMgr {
     private final Map<Integer, Node> inboundNodes = new ConcurrentHashMap<>();
     private final Map<Integer, Node> activeNodes = new ConcurrentHashMap<>();
 
+    private final static int MAX_PERSISTED_NODES = 256;
+
+    /**
+     * every peer that reached the active list, or was loaded from the peer
+     * file, keyed by node id hash. Metrics survive disconnects through it.
+     */
+    private final Map<Integer, Node> knownNodes = new ConcurrentHashMap<>();
+
     public Map<Integer, Node> getOutboundNodes() {
         return outboundNodes;
     }
@@ -215,6 +243,7 @@ public class NodeMgr implements INodeMgr {
         Node node = outboundNodes.remove(_nodeIdHash);
         if (node != null) {
             node.setConnection("outbound");
+            rememberNode(node);
             INode previous = activeNodes.put(_nodeIdHash, node);
             if (previous != null)
                 _p2pMgr.closeSocket(node.getChannel(), "duplicated-outbound-vs-active");
@@ -238,6 +267,7 @@ public class NodeMgr implements INodeMgr {
         if (node != null) {
             node.setConnection("inbound");
             node.setFromBootList(seedIps.contains(node.getIpStr()));
+            rememberNode(node);
             INode previous = activeNodes.put(node.getIdHash(), node);
             if (previous != null)
                 _p2pMgr.closeSocket(node.getChannel(), "duplicated-inbound-vs-active");
@@ -248,6 +278,115 @@ public class NodeMgr implements INodeMgr {
         }
     }
 
+    /**
+     * Adds a node to the peer table, merging the metrics recorded for an
+     * earlier connection to the same peer into its own.
+     */
+    private void rememberNode(final Node _n) {
+        if (!_n.hasFullInfo())
+            return;
+        Node known = knownNodes.put(_n.getIdHash(), _n);
+        if (known != null && known != _n)
+            _n.peerMetric.mergeHistory(known.peerMetric);
+    }
+
+    /**
+     * Samples the throughput of the active nodes and records their best
+     * block.
+     */
+    public void updatePeerMetrics() {
+        long now = System.currentTimeMillis();
+        for (Node node : activeNodes.values()) {
+            node.peerMetric.updateThroughput(now);
+            node.peerMetric.bestBlock = Math.max(node.peerMetric.bestBlock, node.getBestBlockNumber());
+        }
+
+        if (knownNodes.size() > 2 * MAX_PERSISTED_NODES) {
+            Set<Node> keep = Collections.newSetFromMap(new IdentityHashMap<>());
+            keep.addAll(getKnownNodes(MAX_PERSISTED_NODES));
+            knownNodes.values().removeIf(n -> !keep.contains(n) && !activeNodes.containsKey(n.getIdHash()));
+        }
+    }
+
+    /**
+     * @param _limit
+     *            int
+     * @return known nodes, best score first
+     */
+    public List<Node> getKnownNodes(int _limit) {
+        // snapshot the scores, the metrics keep changing while sorting
+        Map<Node, Double> scores = new IdentityHashMap<>();
+        Map<Node, Long> bestBlocks = new IdentityHashMap<>();
+        for (Node node : knownNodes.values()) {
+            scores.put(node, node.getScore());
+            bestBlocks.put(node, node.peerMetric.bestBlock);
+        }
+        return scores.keySet().stream()
+                .sorted(Comparator.comparingDouble((Node n) -> scores.get(n)).reversed()
+                        .thenComparing(Comparator.comparingLong((Node n) -> bestBlocks.get(n)).reversed()))
+                .limit(_limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Loads the peer table written by {@link #persistNodes(String)}.
+     *
+     * @param _path
+     *            String
+     * @return number of nodes loaded
+     */
+    public int loadPersistedNodes(final String _path) {
+        File file = new File(_path);
+        if (!file.isFile())
+            return 0;
+
+        int loaded = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            XMLStreamReader sr = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            while (sr.hasNext()) {
+                if (sr.next() == XMLStreamReader.START_ELEMENT && sr.getLocalName().equals("node")) {
+                    Node node = Node.fromXML(sr);
+                    if (node != null && node.hasFullInfo()) {
+                        node.setFromBootList(seedIps.contains(node.getIpStr()));
+                        knownNodes.putIfAbsent(node.getIdHash(), node);
+                        loaded++;
+                    }
+                }
+            }
+            sr.close();
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            LOG.warn("<p2p load-persisted-nodes-failed path={} err={}>", _path, e.toString());
+        }
+        return loaded;
+    }
+
+    /**
+     * Writes the best scoring known nodes to {@code _path}, replacing the
+     * previous file only once the new one is complete.
+     *
+     * @param _path
+     *            String
+     */
+    public void persistNodes(final String _path) {
+        File file = new File(_path);
+        File tmp = new File(_path + ".tmp");
+        try {
+            try (Writer writer = new OutputStreamWriter(Files.newOutputStream(tmp.toPath()),
+                    StandardCharsets.UTF_8)) {
+                writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n");
+                writer.write("<aion-peers>");
+                for (Node node : getKnownNodes(MAX_PERSISTED_NODES)) {
+                    writer.write(node.toXML());
+                }
+                writer.write("\r\n</aion-peers>\r\n");
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("<p2p persist-nodes-failed path={} err={}>", _path, e.toString());
+        }
+    }
+
     public void rmTimeOutInbound(final IP2pMgr _p2pMgr) {
         Iterator inboundIt = inboundNodes.keySet().iterator();
         while (inboundIt.hasNext()) {
@@ -29,10 +29,42 @@ import org.aion.p2p.P2pConstant;
 
 public final class PeerMetric {
 
+    // latency assumed for a peer that was never measured
+    private static final long UNKNOWN_LATENCY = 500;
+
+    // weight of the newest sample in the moving averages
+    private static final double SAMPLE_WEIGHT = 0.3;
+
+    // the score is divided by one plus the number of these intervals since the peer was active
+    private static final long STALE_INTERVAL = 3600_000L;
+
     int metricFailedConn;
-    private long metricFailedConnTs;
+    long metricFailedConnTs;
     private long metricBanConnTs;
 
+    /**
+     * moving average of the outbound connect time in ms, -1 if never measured
+     */
+    long latency = -1;
+
+    /**
+     * moving average of the bytes per second received from the peer
+     */
+    double throughput;
+
+    /**
+     * best block number last reported by the peer
+     */
+    long bestBlock;
+
+    /**
+     * last time the peer was active
+     */
+    long lastSeen;
+
+    private long bytesReceived;
+    private long bytesSince;
+
     public boolean shouldNotConn() {
         return (metricFailedConn > P2pConstant.STOP_CONN_AFTER_FAILED_CONN
                 && ((System.currentTimeMillis() - metricFailedConnTs) > P2pConstant.FAILED_CONN_RETRY_INTERVAL))
@@ -56,4 +88,85 @@ public final class PeerMetric {
     public boolean notBan() {
         return ((System.currentTimeMillis() - metricBanConnTs) > P2pConstant.BAN_CONN_RETRY_INTERVAL);
     }
+
+    /**
+     * @param _ms
+     *            time taken to open a connection to the peer
+     */
+    public synchronized void updateLatency(long _ms) {
+        latency = latency < 0 ? _ms : Math.round(latency + SAMPLE_WEIGHT * (_ms - latency));
+    }
+
+    /**
+     * @param _bytes
+     *            size of a message received from the peer
+     */
+    public synchronized void addReceived(int _bytes) {
+        bytesReceived += _bytes;
+    }
+
+    /**
+     * Folds the bytes received since the last call into the throughput
+     * average.
+     */
+    public synchronized void updateThroughput(long _now) {
+        if (bytesSince > 0 && _now > bytesSince) {
+            double sample = bytesReceived * 1000d / (_now - bytesSince);
+            throughput = throughput + SAMPLE_WEIGHT * (sample - throughput);
+        }
+        bytesReceived = 0;
+        bytesSince = _now;
+        lastSeen = _now;
+    }
+
+    /**
+     * Takes over the history recorded for an earlier connection to the same
+     * peer, treating the samples of this metric as the newest ones.
+     */
+    void mergeHistory(PeerMetric _older) {
+        long olderLatency, olderFailedTs, olderBanTs, olderBest, olderSeen;
+        int olderFailed;
+        double olderThroughput;
+        synchronized (_older) {
+            olderLatency = _older.latency;
+            olderThroughput = _older.throughput;
+            olderFailed = _older.metricFailedConn;
+            olderFailedTs = _older.metricFailedConnTs;
+            olderBanTs = _older.metricBanConnTs;
+            olderBest = _older.bestBlock;
+            olderSeen = _older.lastSeen;
+        }
+
+        synchronized (this) {
+            if (olderLatency >= 0) {
+                latency = latency < 0
+                        ? olderLatency
+                        : Math.round(olderLatency + SAMPLE_WEIGHT * (latency - olderLatency));
+            }
+            // the throughput is only sampled once the connection was active
+            throughput = bytesSince == 0
+                    ? olderThroughput
+                    : olderThroughput + SAMPLE_WEIGHT * (throughput - olderThroughput);
+            metricFailedConn = Math.max(metricFailedConn, olderFailed);
+            metricFailedConnTs = Math.max(metricFailedConnTs, olderFailedTs);
+            metricBanConnTs = Math.max(metricBanConnTs, olderBanTs);
+            bestBlock = Math.max(bestBlock, olderBest);
+            lastSeen = Math.max(lastSeen, olderSeen);
+        }
+    }
+
+    /**
+     * @return preference for this peer, higher is better. Grows with the
+     *         throughput and falls with the latency, the failed connections
+     *         and the whole hours since the peer was last active.
+     */
+    public double score() {
+        return score(System.currentTimeMillis());
+    }
+
+    synchronized double score(long _now) {
+        long lat = latency < 0 ? UNKNOWN_LATENCY : latency;
+        long stale = lastSeen > 0 ? Math.max(0, _now - lastSeen) / STALE_INTERVAL : 0;
+        return (1 + throughput / 1024) / (1 + lat / 100d) / (1 + metricFailedConn) / (1 + stale);
+    }
 }
@@ -45,6 +45,7 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Chris p2p://{uuid}@{ip}:{port} TODO: 1) simplify id bytest to int, ip
@@ -63,6 +64,11 @@ public final class P2pMgr implements IP2pMgr {
 
     private final static int PERIOD_UPNP_PORT_MAPPING = 3600000;
 
+    private final static int PERIOD_PERSIST_NODES = 300000;
+
+    // outbound connections opened at once when reconnecting to known peers
+    private final static int PARALLEL_RECONNECT = 16;
+
     private final static int TIMEOUT_MSG_READ = 10000;
 
     private final int maxTempNodes;
@@ -81,6 +87,7 @@ public final class P2pMgr implements IP2pMgr {
     private final byte[] selfIp;
     private final int selfPort;
     private final boolean upnpEnable;
+    private final String peerStorePath;
 
     private final Map<Integer, List<Handler>> handlers = new ConcurrentHashMap<>();
     private final Set<Short> versions = new HashSet<>();
@@ -91,7 +98,7 @@ public final class P2pMgr implements IP2pMgr {
 
     private ScheduledThreadPoolExecutor scheduledWorkers;
 
-    private Map<Integer, Node> allNid = new HashMap<>();
+    private Map<Integer, Node> allNid = new ConcurrentHashMap<>();
 
     private final Map<Integer, Integer> errCnt = Collections.synchronizedMap(new LRUMap<>(128));
 
@@ -415,6 +422,9 @@ public final class P2pMgr implements IP2pMgr {
         @Override
         public void run() {
             Thread.currentThread().setName("p2p-tcp");
+
+            reconnectKnownPeers();
+
             while (start.get()) {
                 try {
                     Thread.sleep(PERIOD_CONNECT_OUTBOUND);
@@ -450,57 +460,106 @@ public final class P2pMgr implements IP2pMgr {
                         System.out.println("<p2p-tcp-interrupted>");
                     continue;
                 }
-                int nodeIdHash = node.getIdHash();
-                if (!nodeMgr.getOutboundNodes().containsKey(nodeIdHash) && !nodeMgr.hasActiveNode(nodeIdHash)) {
-                    int _port = node.getPort();
-                    try {
-                        SocketChannel channel = SocketChannel.open();
-                        if (showLog)
-                            System.out.println("<p2p try-connect-" + node.getIpStr() + ">");
-                        channel.socket().connect(new InetSocketAddress(node.getIpStr(), _port),
-                                TIMEOUT_OUTBOUND_CONNECT);
-                        configChannel(channel);
-
-                        if (channel.finishConnect() && channel.isConnected()) {
-                            // selectorLock.lock();
-                            SelectionKey sk = channel.register(selector, SelectionKey.OP_READ);
-                            ChannelBuffer rb = new ChannelBuffer();
-                            rb.nodeIdHash = nodeIdHash;
-                            sk.attach(rb);
-
-                            // udpate node timestamp to prevent just connect
-                            // then killed by timeout.
-                            node.refreshTimestamp();
-
-                            node.setChannel(channel);
-                            node.setPortConnected(channel.socket().getLocalPort());
-
-                            nodeMgr.addOutboundNode(node);
-                            allNid.put(nodeIdHash, node);
-
-                            try {
-                                Thread.sleep(1000);
-                            } catch (Exception e) {
-                            }
-                            sendMsgQue.offer(new MsgOut(node.getIdHash(), cachedReqHandshake1, Dest.OUTBOUND));
+                connectOutbound(node);
+            }
+        }
 
-                            if (showLog)
-                                System.out.println("<p2p action=connect-outbound addr=" + node.getIpStr() + ":" + _port
-                                        + " result=success>");
+        /**
+         * Opens connections to the best scoring peers of the persisted peer
+         * table in parallel; the ones left over are queued as ordinary
+         * candidates.
+         */
+        private void reconnectKnownPeers() {
+            List<Node> known = nodeMgr.getKnownNodes(maxActiveNodes);
+            known.removeIf(n -> !validateNode(n) || n.peerMetric.shouldNotConn());
+            if (known.isEmpty())
+                return;
 
-                            node.peerMetric.decFailedCount();
+            if (showLog)
+                System.out.println("<p2p reconnect-known-peers count=" + known.size() + ">");
+
+            AtomicInteger count = new AtomicInteger();
+            ExecutorService reconnect = Executors.newFixedThreadPool(Math.min(PARALLEL_RECONNECT, known.size()),
+                    r -> new Thread(r, "p2p-reconnect-" + count.incrementAndGet()));
+            try {
+                List<Callable<Object>> tasks = new ArrayList<>();
+                for (Node node : known) {
+                    tasks.add(Executors.callable(() -> connectOutbound(node)));
+                }
+                reconnect.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                if (showLog)
+                    System.out.println("<p2p-tcp-interrupted>");
+            } finally {
+                reconnect.shutdownNow();
+            }
 
-                        } else {
-                            channel.close();
-                            node.peerMetric.incFailedCount();
-                        }
-                    } catch (IOException e) {
-                        if (showLog)
-                            System.out.println("<p2p action=connect-outbound addr=" + node.getIpStr() + ":" + _port
-                                    + " result=failed>");
-                        node.peerMetric.incFailedCount();
+            for (Node node : known) {
+                if (nodeMgr.tempNodesSize() >= maxTempNodes)
+                    break;
+                if (validateNode(node))
+                    nodeMgr.tempNodesAdd(node);
+            }
+        }
+    }
+
+    /**
+     * @param node
+     *            Node
+     */
+    private void connectOutbound(final Node node) {
+        int nodeIdHash = node.getIdHash();
+        if (!nodeMgr.getOutboundNodes().containsKey(nodeIdHash) && !nodeMgr.hasActiveNode(nodeIdHash)) {
+            int _port = node.getPort();
+            try {
+                SocketChannel channel = SocketChannel.open();
+                if (showLog)
+                    System.out.println("<p2p try-connect-" + node.getIpStr() + ">");
+                long t0 = System.currentTimeMillis();
+                channel.socket().connect(new InetSocketAddress(node.getIpStr(), _port),
+                        TIMEOUT_OUTBOUND_CONNECT);
+                configChannel(channel);
+
+                if (channel.finishConnect() && channel.isConnected()) {
+                    node.peerMetric.updateLatency(System.currentTimeMillis() - t0);
+
+                    // selectorLock.lock();
+                    SelectionKey sk = channel.register(selector, SelectionKey.OP_READ);
+                    ChannelBuffer rb = new ChannelBuffer();
+                    rb.nodeIdHash = nodeIdHash;
+                    sk.attach(rb);
+
+                    // udpate node timestamp to prevent just connect
+                    // then killed by timeout.
+                    node.refreshTimestamp();
+
+                    node.setChannel(channel);
+                    node.setPortConnected(channel.socket().getLocalPort());
+
+                    nodeMgr.addOutboundNode(node);
+                    allNid.put(nodeIdHash, node);
+
+                    try {
+                        Thread.sleep(1000);
+                    } catch (Exception e) {
                     }
+                    sendMsgQue.offer(new MsgOut(node.getIdHash(), cachedReqHandshake1, Dest.OUTBOUND));
+
+                    if (showLog)
+                        System.out.println("<p2p action=connect-outbound addr=" + node.getIpStr() + ":" + _port
+                                + " result=success>");
+
+                    node.peerMetric.decFailedCount();
+
+                } else {
+                    channel.close();
+                    node.peerMetric.incFailedCount();
                 }
+            } catch (IOException e) {
+                if (showLog)
+                    System.out.println("<p2p action=connect-outbound addr=" + node.getIpStr() + ":" + _port
+                            + " result=failed>");
+                node.peerMetric.incFailedCount();
             }
         }
     }
@@ -509,10 +568,17 @@ public final class P2pMgr implements IP2pMgr {
         @Override
         public void run() {
             Thread.currentThread().setName("p2p-clr");
+            long persisted = System.currentTimeMillis();
             while (start.get()) {
                 try {
                     Thread.sleep(PERIOD_CLEAR);
 
+                    nodeMgr.updatePeerMetrics();
+                    if (peerStorePath != null && System.currentTimeMillis() - persisted > PERIOD_PERSIST_NODES) {
+                        nodeMgr.persistNodes(peerStorePath);
+                        persisted = System.currentTimeMillis();
+                    }
+
                     nodeMgr.rmTimeOutInbound(P2pMgr.this);
 
                     Iterator outboundIt = nodeMgr.getOutboundNodes().keySet().iterator();
@@ -559,6 +625,17 @@ public final class P2pMgr implements IP2pMgr {
     public P2pMgr(int _netId, String _revision, String _nodeId, String _ip, int _port, final String[] _bootNodes,
                   boolean _upnpEnable, int _maxTempNodes, int _maxActiveNodes, boolean _showStatus, boolean _showLog,
                   boolean _bootlistSyncOnly, boolean _printReport, String _reportFolder, int _errorTolerance) {
+        this(_netId, _revision, _nodeId, _ip, _port, _bootNodes, _upnpEnable, _maxTempNodes, _maxActiveNodes,
+                _showStatus, _showLog, _bootlistSyncOnly, _printReport, _reportFolder, _errorTolerance, null);
+    }
+
+    /**
+     * @param _peerStorePath file the peer table is kept in across restarts, null to keep it in memory only
+     */
+    public P2pMgr(int _netId, String _revision, String _nodeId, String _ip, int _port, final String[] _bootNodes,
+                  boolean _upnpEnable, int _maxTempNodes, int _maxActiveNodes, boolean _showStatus, boolean _showLog,
+                  boolean _bootlistSyncOnly, boolean _printReport, String _reportFolder, int _errorTolerance,
+                  String _peerStorePath) {
         this.selfNetId = _netId;
         this.selfRevision = _revision;
         this.selfNodeId = _nodeId.getBytes();
@@ -575,6 +652,7 @@ public final class P2pMgr implements IP2pMgr {
         this.printReport = _printReport;
         this.reportFolder = _reportFolder;
         this.errTolerance = _errorTolerance;
+        this.peerStorePath = _peerStorePath;
 
         for (String _bootNode : _bootNodes) {
             Node node = Node.parseP2p(_bootNode);
@@ -584,8 +662,11 @@ public final class P2pMgr implements IP2pMgr {
             }
         }
 
-        // rem out for bug:
-        // nodeMgr.loadPersistedNodes();
+        if (_peerStorePath != null && !_bootlistSyncOnly) {
+            int loaded = nodeMgr.loadPersistedNodes(_peerStorePath);
+            if (showLog)
+                System.out.println("<p2p load-persisted-nodes count=" + loaded + ">");
+        }
         cachedResHandshake1 = new ResHandshake1(true, this.selfRevision);
     }
 
@@ -943,6 +1024,7 @@ public final class P2pMgr implements IP2pMgr {
             String nsid = node.getIdShort();
 
             node.refreshTimestamp();
+            node.peerMetric.addReceived(_msgBytes.length);
             receiveMsgQue.offer(new MsgIn(nid, nsid, _route, _msgBytes));
         } else {
         }
@@ -1060,6 +1142,10 @@ public final class P2pMgr implements IP2pMgr {
     public void shutdown() {
         start.set(false);
         scheduledWorkers.shutdownNow();
+        if (peerStorePath != null) {
+            nodeMgr.updatePeerMetrics();
+            nodeMgr.persistNodes(peerStorePath);
+        }
         nodeMgr.shutdown(this);
 
         for (List<Handler> hdrs : handlers.values()) {
@@ -38,6 +38,13 @@ import java.nio.channels.SocketChannel;
  */
 public class TaskWrite implements Runnable {
 
+    /**
+     * outbound buffers up to this size are kept and reused by the send thread
+     */
+    private static final int MAX_POOLED_BUFFER = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> pooledBuffer = new ThreadLocal<>();
+
     private boolean showLog;
     private String nodeShortId;
     private SocketChannel sc;
@@ -63,6 +70,24 @@ public class TaskWrite implements Runnable {
         p2pMgr.removeActive(channelBuffer.nodeIdHash);
     }
 
+    /**
+     * Reuses the direct buffer of the current send thread when the message
+     * fits, so that encoders write straight into socket memory.
+     */
+    private static ByteBuffer allocate(int _size) {
+        if (_size > MAX_POOLED_BUFFER) {
+            return ByteBuffer.allocate(_size);
+        }
+        ByteBuffer buf = pooledBuffer.get();
+        if (buf == null || buf.capacity() < _size) {
+            buf = ByteBuffer.allocateDirect(MAX_POOLED_BUFFER);
+            pooledBuffer.set(buf);
+        }
+        buf.clear();
+        buf.limit(_size);
+        return buf;
+    }
+
     @Override
     public void run() {
         // reset allocated buffer and clear messages if the channel is closed
@@ -77,19 +102,29 @@ public class TaskWrite implements Runnable {
             /*
              * @warning header set len (body len) before header encode
              */
-            byte[] bodyBytes = msg.encode();
-            int bodyLen = bodyBytes == null ? 0 : bodyBytes.length;
-            Header h = msg.getHeader();
-            h.setLen(bodyLen);
-            byte[] headerBytes = h.encode();
-
-            // print route
-            // System.out.println("write " + h.getVer() + "-" + h.getCtrl() +
-            // "-" + h.getAction());
-            ByteBuffer buf = ByteBuffer.allocate(headerBytes.length + bodyLen);
-            buf.put(headerBytes);
-            if (bodyBytes != null)
-                buf.put(bodyBytes);
+            ByteBuffer buf;
+            int bodyLen = msg.encodedLength();
+            if (bodyLen >= 0) {
+                Header h = msg.getHeader();
+                h.setLen(bodyLen);
+                buf = allocate(Header.LEN + bodyLen);
+                buf.put(h.encode());
+                msg.encode(buf);
+            } else {
+                byte[] bodyBytes = msg.encode();
+                bodyLen = bodyBytes == null ? 0 : bodyBytes.length;
+                Header h = msg.getHeader();
+                h.setLen(bodyLen);
+                byte[] headerBytes = h.encode();
+
+                // print route
+                // System.out.println("write " + h.getVer() + "-" + h.getCtrl() +
+                // "-" + h.getAction());
+                buf = allocate(headerBytes.length + bodyLen);
+                buf.put(headerBytes);
+                if (bodyBytes != null)
+                    buf.put(bodyBytes);
+            }
             buf.flip();
 
             try {
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ * This file is part of the aion network project.
+ *
+ * The aion network project is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation, either version 3 of
+ * the License, or any later version.
+ *
+ * The aion network project is distributed in the hope that it will
+ * be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with the aion network project source files.
+ * If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ *
+ * Aion foundation.
+ *
+ */
+
+package org.aion.p2p.impl;
+
+import org.aion.p2p.impl.comm.Node;
+import org.aion.p2p.impl.comm.NodeMgr;
+import org.aion.p2p.impl.comm.PeerMetric;
+import org.aion.p2p.impl1.P2pMgr;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Peer table kept by {@link NodeMgr} across connections and restarts.
+ */
+public class NodeMgrTest {
+
+    private P2pMgr p2p;
+
+    private File store;
+
+    @Before
+    public void setup() throws IOException {
+        p2p = new P2pMgr(0, "", UUID.randomUUID().toString(), "127.0.0.1", 30303, new String[0], false, 128, 128,
+                false, false, false, false, "", 50);
+        store = File.createTempFile("peers", ".xml");
+    }
+
+    @After
+    public void teardown() {
+        store.delete();
+    }
+
+    private static Node newNode(String ip, int port) {
+        return new Node(false, UUID.randomUUID().toString().getBytes(), Node.ipStrToBytes(ip), port);
+    }
+
+    private static void activate(NodeMgr mgr, Node node, P2pMgr p2p) {
+        mgr.addOutboundNode(node);
+        mgr.moveOutboundToActive(node.getIdHash(), node.getIdShort(), p2p);
+    }
+
+    @Test
+    public void testScoreOrder() {
+        NodeMgr mgr = new NodeMgr();
+
+        Node fast = newNode("10.0.0.1", 30303);
+        fast.peerMetric.updateLatency(20);
+
+        Node slow = newNode("10.0.0.2", 30303);
+        slow.peerMetric.updateLatency(400);
+
+        Node failing = newNode("10.0.0.3", 30303);
+        failing.peerMetric.updateLatency(20);
+        failing.peerMetric.incFailedCount();
+        failing.peerMetric.incFailedCount();
+
+        Node busy = newNode("10.0.0.4", 30303);
+        busy.peerMetric.updateLatency(400);
+        long now = System.currentTimeMillis();
+        busy.peerMetric.updateThroughput(now - 1000);
+        busy.peerMetric.addReceived(1 << 20);
+        busy.peerMetric.updateThroughput(now);
+
+        activate(mgr, slow, p2p);
+        activate(mgr, failing, p2p);
+        activate(mgr, busy, p2p);
+        activate(mgr, fast, p2p);
+
+        List<Node> ranked = mgr.getKnownNodes(10);
+        assertEquals(4, ranked.size());
+        assertSame(busy, ranked.get(0));
+        assertSame(fast, ranked.get(1));
+        assertSame(failing, ranked.get(2));
+        assertSame(slow, ranked.get(3));
+
+        assertEquals(2, mgr.getKnownNodes(2).size());
+    }
+
+    @Test
+    public void testStalePeerRanksLower() {
+        NodeMgr mgr = new NodeMgr();
+        long now = System.currentTimeMillis();
+
+        Node recent = newNode("10.0.0.1", 30303);
+        recent.peerMetric.updateLatency(100);
+        recent.peerMetric.updateThroughput(now);
+
+        // lower latency, but last active a day ago
+        Node stale = newNode("10.0.0.2", 30303);
+        stale.peerMetric.updateLatency(20);
+        stale.peerMetric.updateThroughput(now - 24 * 3600_000L);
+
+        activate(mgr, stale, p2p);
+        activate(mgr, recent, p2p);
+
+        List<Node> ranked = mgr.getKnownNodes(10);
+        assertSame(recent, ranked.get(0));
+        assertSame(stale, ranked.get(1));
+    }
+
+    @Test
+    public void testPersistAndLoad() {
+        NodeMgr mgr = new NodeMgr();
+
+        Node a = newNode("10.0.0.1", 30303);
+        a.peerMetric.updateLatency(30);
+
+        Node b = newNode("10.0.0.2", 30304);
+        b.peerMetric.updateLatency(300);
+        b.peerMetric.incFailedCount();
+
+        activate(mgr, a, p2p);
+        activate(mgr, b, p2p);
+        mgr.updatePeerMetrics();
+        mgr.persistNodes(store.getAbsolutePath());
+
+        NodeMgr restarted = new NodeMgr();
+        assertEquals(2, restarted.loadPersistedNodes(store.getAbsolutePath()));
+
+        List<Node> loaded = restarted.getKnownNodes(10);
+        assertEquals(2, loaded.size());
+
+        assertArrayEquals(a.getId(), loaded.get(0).getId());
+        assertEquals(a.getIpStr(), loaded.get(0).getIpStr());
+        assertEquals(a.getPort(), loaded.get(0).getPort());
+        assertEquals(a.getScore(), loaded.get(0).getScore(), 1e-9);
+
+        assertArrayEquals(b.getId(), loaded.get(1).getId());
+        assertEquals(30304, loaded.get(1).getPort());
+        assertEquals(b.getScore(), loaded.get(1).getScore(), 1e-9);
+    }
+
+    @Test
+    public void testMetricsKeptAcrossConnections() throws IOException {
+        NodeMgr mgr = new NodeMgr();
+
+        Node first = newNode("10.0.0.1", 30303);
+        first.setChannel(SocketChannel.open());
+        first.peerMetric.updateLatency(250);
+        first.peerMetric.incFailedCount();
+        activate(mgr, first, p2p);
+
+        mgr.dropActive(first.getIdHash(), p2p);
+
+        // the same peer learned again, e.g. from another node's active list,
+        // with the latency of the new connection measured before it is added
+        Node second = new Node(false, first.getId(), first.getIp(), first.getPort());
+        second.peerMetric.updateLatency(50);
+        activate(mgr, second, p2p);
+
+        PeerMetric expected = new PeerMetric();
+        expected.updateLatency(250);
+        expected.updateLatency(50);
+        expected.incFailedCount();
+        assertEquals(expected.score(), second.getScore(), 1e-9);
+        assertSame(second, mgr.getKnownNodes(10).get(0));
+        assertEquals(1, mgr.getKnownNodes(10).size());
+    }
+
+    @Test
+    public void testMissingOrBrokenFile() {
+        NodeMgr mgr = new NodeMgr();
+        assertEquals(0, mgr.loadPersistedNodes(store.getAbsolutePath() + ".missing"));
+        assertEquals(0, mgr.loadPersistedNodes(store.getAbsolutePath()));
+        assertTrue(mgr.getKnownNodes(10).isEmpty());
+    }
+}
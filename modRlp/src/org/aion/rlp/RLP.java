@@ -712,25 +712,52 @@ public class RLP {
      * @return byte[] RLP encoded
      */
     public static byte[] encode(Object input) {
+        ByteBuffer buf = ByteBuffer.allocate(sizeOfEncoded(input));
+        writeEncoded(buf, input);
+        return buf.array();
+    }
+
+    /**
+     * First pass of {@link #encode(Object)}: the exact size of the encoding,
+     * so that the nested items can be written once into a single array
+     * instead of being concatenated level by level.
+     */
+    private static int sizeOfEncoded(Object input) {
+        Value val = new Value(input);
+        if (val.isList()) {
+            int payload = 0;
+            for (Object object : val.asList()) {
+                payload += sizeOfEncoded(object);
+            }
+            return RLPWriter.sizeOfList(payload);
+        } else {
+            byte[] inputAsBytes = toBytes(input);
+            if (inputAsBytes.length == 1 && (inputAsBytes[0] & 0xff) <= 0x80) {
+                return 1;
+            } else {
+                return RLPWriter.sizeOfElement(inputAsBytes);
+            }
+        }
+    }
+
+    private static void writeEncoded(ByteBuffer buf, Object input) {
         Value val = new Value(input);
         if (val.isList()) {
             List<Object> inputArray = val.asList();
-            if (inputArray.isEmpty()) {
-                return encodeLength(inputArray.size(), OFFSET_SHORT_LIST);
+            int payload = 0;
+            for (Object object : inputArray) {
+                payload += sizeOfEncoded(object);
             }
-            byte[] output = ByteUtil.EMPTY_BYTE_ARRAY;
+            RLPWriter.writeListHeader(buf, payload);
             for (Object object : inputArray) {
-                output = concatenate(output, encode(object));
+                writeEncoded(buf, object);
             }
-            byte[] prefix = encodeLength(output.length, OFFSET_SHORT_LIST);
-            return concatenate(prefix, output);
         } else {
             byte[] inputAsBytes = toBytes(input);
             if (inputAsBytes.length == 1 && (inputAsBytes[0] & 0xff) <= 0x80) {
-                return inputAsBytes;
+                buf.put(inputAsBytes[0]);
             } else {
-                byte[] firstByte = encodeLength(inputAsBytes.length, OFFSET_SHORT_ITEM);
-                return concatenate(firstByte, inputAsBytes);
+                RLPWriter.writeElement(buf, inputAsBytes);
             }
         }
     }
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ *     The aion network project leverages useful source code from other
+ *     open source projects. We greatly appreciate the effort that was
+ *     invested in these projects and we thank the individual contributors
+ *     for their work. For provenance information and contributors
+ *     please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ *     Aion foundation.
+ *     <ether.camp> team through the ethereumJ library.
+ *     Ether.Camp Inc. (US) team through Ethereum Harmony.
+ *     John Tromp through the Equihash solver.
+ *     Samuel Neves through the BLAKE2 implementation.
+ *     Zcash project team.
+ *     Bitcoinj team.
+ ******************************************************************************/
+package org.aion.rlp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Two pass RLP encoder. The caller first sums the encoded sizes of its items
+ * with the {@code size*} methods, then writes the header and the items once
+ * into a single destination buffer with the {@code write*} methods. The
+ * destination can be an exactly sized array or a reused outbound buffer. This
+ * avoids the intermediate arrays and the repeated list concatenation done by
+ * {@link RLP#encodeElement(byte[])} and {@link RLP#encodeList(byte[]...)}.
+ *
+ * The output is byte for byte identical to the {@link RLP} encoders.
+ */
+public final class RLPWriter {
+
+    private static final int SIZE_THRESHOLD = 56;
+
+    private static final int OFFSET_SHORT_ITEM = 0x80;
+
+    private static final int OFFSET_LONG_ITEM = 0xb7;
+
+    private static final int OFFSET_SHORT_LIST = 0xc0;
+
+    private static final int OFFSET_LONG_LIST = 0xf7;
+
+    private RLPWriter() {
+    }
+
+    /*
+     * ****************************************************** SIZING *
+     ******************************************************/
+
+    /**
+     * @return number of bytes needed to store the length in big endian form
+     *         without leading zeroes
+     */
+    private static int lengthOfLength(int length) {
+        int byteNum = 0;
+        while (length != 0) {
+            ++byteNum;
+            length = length >>> 8;
+        }
+        return byteNum;
+    }
+
+    /**
+     * @return size of {@code RLP.encodeElement(srcData)}
+     */
+    public static int sizeOfElement(byte[] srcData) {
+        if (srcData == null || srcData.length == 0) {
+            return 1;
+        } else if (srcData.length == 1 && (srcData[0] & 0xFF) < 0x80) {
+            return 1;
+        } else if (srcData.length < SIZE_THRESHOLD) {
+            return 1 + srcData.length;
+        } else {
+            return 1 + lengthOfLength(srcData.length) + srcData.length;
+        }
+    }
+
+    /**
+     * @return size of the list header for a payload of the given size
+     */
+    public static int sizeOfListHeader(int payloadSize) {
+        if (payloadSize < SIZE_THRESHOLD) {
+            return 1;
+        } else {
+            return 1 + lengthOfLength(payloadSize);
+        }
+    }
+
+    /**
+     * @return size of a whole list (header and payload) for a payload of the
+     *         given size
+     */
+    public static int sizeOfList(int payloadSize) {
+        return sizeOfListHeader(payloadSize) + payloadSize;
+    }
+
+    /**
+     * @return size of {@code RLP.encodeList(encodedElements)}
+     */
+    public static int sizeOfList(byte[]... encodedElements) {
+        return sizeOfList(sizeOfPayload(encodedElements));
+    }
+
+    /**
+     * @return combined length of already encoded elements
+     */
+    public static int sizeOfPayload(byte[]... encodedElements) {
+        int payload = 0;
+        if (encodedElements != null) {
+            for (byte[] element : encodedElements) {
+                payload += element.length;
+            }
+        }
+        return payload;
+    }
+
+    /*
+     * ****************************************************** WRITING *
+     ******************************************************/
+
+    private static void writeLength(ByteBuffer buf, int length, int shortOffset, int longOffset) {
+        if (length < SIZE_THRESHOLD) {
+            buf.put((byte) (shortOffset + length));
+        } else {
+            int byteNum = lengthOfLength(length);
+            buf.put((byte) (longOffset + byteNum));
+            for (int i = byteNum - 1; i >= 0; --i) {
+                buf.put((byte) ((length >>> (8 * i)) & 0xFF));
+            }
+        }
+    }
+
+    /**
+     * Writes the same bytes as {@code RLP.encodeElement(srcData)}.
+     */
+    public static void writeElement(ByteBuffer buf, byte[] srcData) {
+        if (srcData == null || srcData.length == 0) {
+            buf.put((byte) OFFSET_SHORT_ITEM);
+        } else if (srcData.length == 1 && (srcData[0] & 0xFF) < 0x80) {
+            buf.put(srcData[0]);
+        } else {
+            writeLength(buf, srcData.length, OFFSET_SHORT_ITEM, OFFSET_LONG_ITEM);
+            buf.put(srcData);
+        }
+    }
+
+    /**
+     * Writes the header of a list whose items take {@code payloadSize} bytes.
+     * The caller must follow with exactly that many bytes of encoded items.
+     */
+    public static void writeListHeader(ByteBuffer buf, int payloadSize) {
+        writeLength(buf, payloadSize, OFFSET_SHORT_LIST, OFFSET_LONG_LIST);
+    }
+
+    /**
+     * Writes the same bytes as {@code RLP.encodeList(encodedElements)}.
+     */
+    public static void writeList(ByteBuffer buf, byte[]... encodedElements) {
+        writeListHeader(buf, sizeOfPayload(encodedElements));
+        if (encodedElements != null) {
+            for (byte[] element : encodedElements) {
+                buf.put(element);
+            }
+        }
+    }
+}
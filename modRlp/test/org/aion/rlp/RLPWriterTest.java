@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2018 Aion foundation.
+ *
+ *     This file is part of the aion network project.
+ *
+ *     The aion network project is free software: you can redistribute it
+ *     and/or modify it under the terms of the GNU General Public License
+ *     as published by the Free Software Foundation, either version 3 of
+ *     the License, or any later version.
+ *
+ *     The aion network project is distributed in the hope that it will
+ *     be useful, but WITHOUT ANY WARRANTY; without even the implied
+ *     warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *     See the GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with the aion network project source files.
+ *     If not, see <https://www.gnu.org/licenses/>.
+ *
+ *     The aion network project leverages useful source code from other
+ *     open source projects. We greatly appreciate the effort that was
+ *     invested in these projects and we thank the individual contributors
+ *     for their work. For provenance information and contributors
+ *     please see <https://github.com/aionnetwork/aion/wiki/Contributors>.
+ *
+ * Contributors to the aion source files in decreasing order of code volume:
+ *     Aion foundation.
+ *     <ether.camp> team through the ethereumJ library.
+ *     Ether.Camp Inc. (US) team through Ethereum Harmony.
+ *     John Tromp through the Equihash solver.
+ *     Samuel Neves through the BLAKE2 implementation.
+ *     Zcash project team.
+ *     Bitcoinj team.
+ ******************************************************************************/
+package org.aion.rlp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RLPWriterTest {
+
+    private static final int[] LENGTHS = { 0, 1, 2, 55, 56, 57, 255, 256, 1024, 70000 };
+
+    private static byte[] randomBytes(Random rnd, int len) {
+        byte[] data = new byte[len];
+        rnd.nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testWriteElementMatchesEncodeElement() {
+        Random rnd = new Random(26);
+        byte[][] inputs = { null, new byte[0], { 0x00 }, { 0x7f }, { (byte) 0x80 }, { (byte) 0xff } };
+        for (byte[] input : inputs) {
+            byte[] expected = RLP.encodeElement(input);
+            ByteBuffer buf = ByteBuffer.allocate(RLPWriter.sizeOfElement(input));
+            RLPWriter.writeElement(buf, input);
+            assertEquals(0, buf.remaining());
+            assertArrayEquals(expected, buf.array());
+        }
+        for (int len : LENGTHS) {
+            byte[] input = randomBytes(rnd, len);
+            byte[] expected = RLP.encodeElement(input);
+            ByteBuffer buf = ByteBuffer.allocate(RLPWriter.sizeOfElement(input));
+            RLPWriter.writeElement(buf, input);
+            assertEquals(0, buf.remaining());
+            assertArrayEquals(expected, buf.array());
+        }
+    }
+
+    @Test
+    public void testWriteListMatchesEncodeList() {
+        Random rnd = new Random(27);
+        for (int len : LENGTHS) {
+            byte[][] elements = new byte[3][];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = RLP.encodeElement(randomBytes(rnd, len));
+            }
+            byte[] expected = RLP.encodeList(elements);
+            ByteBuffer buf = ByteBuffer.allocate(RLPWriter.sizeOfList(elements));
+            RLPWriter.writeList(buf, elements);
+            assertEquals(0, buf.remaining());
+            assertArrayEquals(expected, buf.array());
+        }
+    }
+
+    @Test
+    public void testEmptyList() {
+        ByteBuffer buf = ByteBuffer.allocate(RLPWriter.sizeOfList(new byte[0][]));
+        RLPWriter.writeList(buf);
+        assertArrayEquals(RLP.encodeList(), buf.array());
+    }
+
+    @Test
+    public void testNestedListIntoLargerBuffer() {
+        Random rnd = new Random(28);
+        byte[][] txs = new byte[300][];
+        for (int i = 0; i < txs.length; i++) {
+            txs[i] = RLP.encodeList(RLP.encodeElement(randomBytes(rnd, 32)),
+                    RLP.encodeBigInteger(BigInteger.valueOf(i)));
+        }
+        byte[] header = RLP.encodeElement(randomBytes(rnd, 100));
+        byte[] expected = RLP.encodeList(header, RLP.encodeList(txs));
+
+        int txsLength = RLPWriter.sizeOfList(txs);
+        int total = RLPWriter.sizeOfList(header.length + txsLength);
+        assertEquals(expected.length, total);
+
+        // write at an offset into a reused buffer, like an outbound message
+        ByteBuffer buf = ByteBuffer.allocate(total + 16);
+        buf.position(8);
+        RLPWriter.writeListHeader(buf, header.length + txsLength);
+        buf.put(header);
+        RLPWriter.writeList(buf, txs);
+        assertEquals(8 + total, buf.position());
+
+        byte[] actual = new byte[total];
+        System.arraycopy(buf.array(), 8, actual, 0, total);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testEncodeObjectTree() {
+        Object[] leaf = new Object[] { new byte[] { 0x01, 0x02 }, new byte[40] };
+        Object[] node = new Object[17];
+        for (int i = 0; i < 16; i++) {
+            node[i] = i % 3 == 0 ? leaf : new byte[0];
+        }
+        node[16] = "value";
+
+        byte[] encoded = RLP.encode(node);
+
+        // reference encoding, concatenating level by level
+        byte[] leafEncoded = RLP.encodeList(RLP.encodeElement(new byte[] { 0x01, 0x02 }),
+                RLP.encodeElement(new byte[40]));
+        byte[][] items = new byte[17][];
+        for (int i = 0; i < 16; i++) {
+            items[i] = i % 3 == 0 ? leafEncoded : RLP.encodeElement(new byte[0]);
+        }
+        items[16] = RLP.encodeString("value");
+        assertArrayEquals(RLP.encodeList(items), encoded);
+        assertArrayEquals(encoded, new Value(node).encode());
+    }
+}
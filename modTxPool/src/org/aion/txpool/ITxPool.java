@@ -26,6 +26,7 @@ package org.aion.txpool;
 
 import org.aion.base.type.Address;
 import org.aion.base.type.ITransaction;
+import org.aion.base.util.ByteArrayWrapper;
 
 import java.math.BigInteger;
 import java.util.List;
@@ -70,4 +71,6 @@ public interface ITxPool<TX extends ITransaction> {
 
     TX getPoolTx(Address from, BigInteger txNonce);
 
+    TX getPoolTx(ByteArrayWrapper txHash);
+
 }
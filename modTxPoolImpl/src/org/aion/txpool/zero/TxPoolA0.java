@@ -378,6 +378,11 @@ import java.util.stream.Collectors;
         }
     }
 
+    @Override public TX getPoolTx(ByteArrayWrapper txHash) {
+        TXState state = this.getMainMap().get(txHash);
+        return state == null ? null : state.getTx();
+    }
+
     @Override public List<TX> snapshotAll() {
 
         sortTxn();